@@ -14,6 +14,7 @@
 
 package asyncnode;
 
+import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -23,6 +24,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
+import asyncnode.core.IAction;
 import asyncnode.implement.CassandraAsyncNodeDao;
 import asyncnode.implement.CassandraAsyncQueueDao;
 import asyncnode.implement.CassandraWorkFlowDao;
@@ -30,6 +32,9 @@ import asyncnode.implement.ElementProvider;
 import asyncnode.implement.MemoryAsyncNodeDao;
 import asyncnode.implement.MemoryAsyncQueueDao;
 import asyncnode.implement.StoreableElementDao;
+import asyncnode.implement.cassandra.IMapCodec;
+import asyncnode.implement.cassandra.WriteBehindPipeline;
+import asyncnode.implement.local.LocalLogStore;
 import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
 
 import org.apache.log4j.Logger;
@@ -47,12 +52,61 @@ public class App {
 	
 	public static class DefaultAppModule extends AbstractModule
 	{
-		@Override
-		protected void configure() {
+		protected AppContext createAppContext()
+		{
 			AppContext appContext = new AppContext();
 			appContext.setMaxThreadCount(100);
 			appContext.setSleepInterval(1000);
 			appContext.setDefaultSchduleCycle(10);
+			appContext.setSchduleShardCount(1);
+			appContext.setRestorePageSize(1000);
+			appContext.setSubmitPageSize(2000);
+			appContext.setRestoreThreadCount(1);
+			appContext.setExpressExecution(false);
+			appContext.setDirectDispatch(false);
+			appContext.setCompletionCascade(false);
+			return appContext;
+		}
+		
+		//TimingWheelAsyncQueueDao for large backlog, ConcurrentAsyncQueueDao for many workers
+		protected MemoryAsyncQueueDao createMemoryAsyncQueueDao()
+		{
+			return new MemoryAsyncQueueDao();
+		}
+		
+		//BinaryMapCodec stores every node map in one column, null keeps one value and one class column per entry
+		protected IMapCodec createMapCodec()
+		{
+			return null;
+		}
+		
+		//WriteBehindPipeline sends the committed batches by one thread and coalesces them, null sends them when committed
+		protected WriteBehindPipeline createWriteBehindPipeline()
+		{
+			return null;
+		}
+		
+		//not null, the node, queue and workflow column families are kept by the local store instead of cassandra
+		protected LocalLogStore createLocalLogStore()
+		{
+			return null;
+		}
+		
+		@Override
+		protected void configure() {
+			AppContext appContext = createAppContext();
+			WriteBehindPipeline writeBehindPipeline = createWriteBehindPipeline();
+			if(writeBehindPipeline != null && writeBehindPipeline.getExceptionAction() == null)
+			{
+				writeBehindPipeline.setExceptionAction(new IAction<Exception>(){
+					public void invoke(Exception ex) throws Exception {
+						App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);
+					}
+				});
+			}
+			appContext.setWriteBehindPipeline(writeBehindPipeline);
+			LocalLogStore localLogStore = createLocalLogStore();
+			appContext.setLocalLogStore(localLogStore);
 			this.bind(AppContext.class).toInstance(appContext);
 			
 			CassandraDescrib cassandraDescrib = null;
@@ -65,6 +119,11 @@ public class App {
 			cassandraDescrib.setPort(9160);	
 			CassandraAsyncNodeDao CassandraAsyncNodeDao = new CassandraAsyncNodeDao();
 			CassandraAsyncNodeDao.setCassandraDescrib(cassandraDescrib);
+			CassandraAsyncNodeDao.setMapCodec(createMapCodec());
+			if(localLogStore != null)
+			{
+				localLogStore.attach(cassandraDescrib);
+			}
 			this.bind(CassandraAsyncNodeDao.class).toInstance(CassandraAsyncNodeDao);
 			
 			
@@ -76,6 +135,10 @@ public class App {
 			cassandraDescrib.setPort(9160);
 			CassandraAsyncQueueDao cassandraAsyncQueueDao = new CassandraAsyncQueueDao();
 			cassandraAsyncQueueDao.setCassandraDescrib(cassandraDescrib);
+			if(localLogStore != null)
+			{
+				localLogStore.attach(cassandraDescrib);
+			}
 			this.bind(CassandraAsyncQueueDao.class).toInstance(cassandraAsyncQueueDao);
 			
 			
@@ -87,10 +150,14 @@ public class App {
 			cassandraDescrib.setPort(9160);	
 			CassandraWorkFlowDao cassandraWorkFlowDao = new CassandraWorkFlowDao();
 			cassandraWorkFlowDao.setCassandraDescrib(cassandraDescrib);
+			if(localLogStore != null)
+			{
+				localLogStore.attach(cassandraDescrib);
+			}
 			this.bind(CassandraWorkFlowDao.class).toInstance(cassandraWorkFlowDao);		
 			
 			this.bind(MemoryAsyncNodeDao.class).toInstance(new MemoryAsyncNodeDao());
-			this.bind(MemoryAsyncQueueDao.class).toInstance(new MemoryAsyncQueueDao());
+			this.bind(MemoryAsyncQueueDao.class).toInstance(createMemoryAsyncQueueDao());
 			this.bind(ElementProvider.class).toInstance(new ElementProvider());
 			
 			this.bind(Logger.class).toInstance(Logger.getLogger(App.class));
@@ -99,6 +166,23 @@ public class App {
 		}	
 	}
 	
+	//single host deployment, the state is recovered from the log in the directory instead of cassandra
+	public static class LocalStoreAppModule extends DefaultAppModule
+	{
+		protected String directory;
+		
+		public LocalStoreAppModule(String directory)
+		{
+			this.directory = directory;
+		}
+		
+		@Override
+		protected LocalLogStore createLocalLogStore()
+		{
+			return new LocalLogStore(new File(directory));
+		}
+	}
+	
 	public static void initConfig(AbstractModule module, InitConfigSetting initConfigSetting) throws Exception
 	{
 		config = Guice.createInjector(module);
@@ -149,6 +233,25 @@ public class App {
 		private int maxThreadCount;
 		private int sleepInterval;	 
 		private int defaultSchduleCycle;	
+		private boolean eventDrivenSchdule;
+		//schdule threads, the nodes are partitioned by workflow id
+		private int schduleShardCount;
+		//columns of one page when the nodes are restored from store
+		private int restorePageSize;
+		//connections reading token ranges at the same time when restore, 1 reads the store in order
+		private int restoreThreadCount;
+		//nodes written by one batch when many workflows are built by ElementBuilder.buildAll
+		private int submitPageSize;
+		//null sends the batch of a transition when it is committed
+		private WriteBehindPipeline writeBehindPipeline;
+		//replayed by StoreableElementDao.initAllStorage, null when the state is kept by cassandra
+		private LocalLogStore localLogStore;
+		//the workflows of non persistent nodes are run by ExpressElementDao instead of the queue
+		private boolean expressExecution;
+		//the out node whose last input is finished is executed by the finishing transition instead of waiting for the schdule ticks
+		private boolean directDispatch;
+		//the finished node is notified, released and destroyed in one batch instead of one schdule tick for every step
+		private boolean completionCascade;
 		
 		public int getMaxThreadCount() {
 			return maxThreadCount;
@@ -169,5 +272,65 @@ public class App {
 		public void setDefaultSchduleCycle(int defaultSchduleCycle) {
 			this.defaultSchduleCycle = defaultSchduleCycle;
 		}
+		public boolean getEventDrivenSchdule() {
+			return eventDrivenSchdule;
+		}
+		public void setEventDrivenSchdule(boolean eventDrivenSchdule) {
+			this.eventDrivenSchdule = eventDrivenSchdule;
+		}
+		public int getSchduleShardCount() {
+			return schduleShardCount;
+		}
+		public void setSchduleShardCount(int schduleShardCount) {
+			this.schduleShardCount = schduleShardCount;
+		}
+		public int getRestorePageSize() {
+			return restorePageSize;
+		}
+		public void setRestorePageSize(int restorePageSize) {
+			this.restorePageSize = restorePageSize;
+		}
+		public int getSubmitPageSize() {
+			return submitPageSize;
+		}
+		public void setSubmitPageSize(int submitPageSize) {
+			this.submitPageSize = submitPageSize;
+		}
+		public int getRestoreThreadCount() {
+			return restoreThreadCount;
+		}
+		public void setRestoreThreadCount(int restoreThreadCount) {
+			this.restoreThreadCount = restoreThreadCount;
+		}
+		public WriteBehindPipeline getWriteBehindPipeline() {
+			return writeBehindPipeline;
+		}
+		public void setWriteBehindPipeline(WriteBehindPipeline writeBehindPipeline) {
+			this.writeBehindPipeline = writeBehindPipeline;
+		}
+		public LocalLogStore getLocalLogStore() {
+			return localLogStore;
+		}
+		public void setLocalLogStore(LocalLogStore localLogStore) {
+			this.localLogStore = localLogStore;
+		}
+		public boolean getExpressExecution() {
+			return expressExecution;
+		}
+		public void setExpressExecution(boolean expressExecution) {
+			this.expressExecution = expressExecution;
+		}
+		public boolean getDirectDispatch() {
+			return directDispatch;
+		}
+		public void setDirectDispatch(boolean directDispatch) {
+			this.directDispatch = directDispatch;
+		}
+		public boolean getCompletionCascade() {
+			return completionCascade;
+		}
+		public void setCompletionCascade(boolean completionCascade) {
+			this.completionCascade = completionCascade;
+		}
 	}		
 }
\ No newline at end of file
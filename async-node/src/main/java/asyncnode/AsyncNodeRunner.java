@@ -43,11 +43,13 @@ public class AsyncNodeRunner {
 		threadProxy.setiAction(new IAction(){
 			public void invoke(Object tParam) throws Exception {
 				int sleepInterval = App.getConfig().getInstance(App.AppContext.class).getSleepInterval();				
+				boolean eventDrivenSchdule = App.getConfig().getInstance(App.AppContext.class).getEventDrivenSchdule();
+				MemoryAsyncQueueDao memoryAsyncQueueDao = App.getConfig().getInstance(MemoryAsyncQueueDao.class);
 				while(true)
 				{
 					if(AsyncNodeRunner.runByPriority())
 					{
-						if(sleepInterval > 0)
+						if(sleepInterval > 0 && !eventDrivenSchdule)
 						{
 							Thread.sleep(sleepInterval);
 						}
@@ -63,6 +65,10 @@ public class AsyncNodeRunner {
 					{
 						oneLoopAction.invoke(null);
 					}					
+					if(eventDrivenSchdule)
+					{
+						memoryAsyncQueueDao.awaitRunable();
+					}
 				}
 			}});
 		executorService.execute(threadProxy);	
@@ -0,0 +1,485 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//remembers the keys changed or removed since the store last drained them, so only those entries are written.
+//put, putAll, putIfAbsent, replace, remove and clear are tracked, the views of the map are not.
+//most nodes have a few links, so up to SmallSize entries are kept in one array searched in order and a bigger map
+//moves to a ConcurrentHashMap. the array and the key sets are allocated when they are first used.
+//the changes are synchronized, the big map is read without the lock
+public class DirtyTrackingMap<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V>
+{
+	public static final int SmallSize = 8;
+	//the dirty key set of a map which does not track the changes, like the maps of a node which is not stored
+	private static final Set<String> NotTracked = new HashSet<String>(0);
+
+	//keys at even positions, the values after them
+	private Object[] smallTable = null;
+	private int smallSize = 0;
+	private volatile ConcurrentHashMap<String, V> bigMap = null;
+	private Set<String> dirtyKeySet = null;
+	private Set<String> removedKeySet = null;
+
+	public DirtyTrackingMap()
+	{
+	}
+
+	//every entry of the source map is dirty
+	public DirtyTrackingMap(Map<String, V> sourceMap)
+	{
+		if(sourceMap != null)
+		{
+			putAll(sourceMap);
+		}
+	}
+
+	public static <V> DirtyTrackingMap<V> wrap(Map<String, V> sourceMap)
+	{
+		if(sourceMap instanceof DirtyTrackingMap)
+		{
+			return (DirtyTrackingMap<V>)sourceMap;
+		}
+		return new DirtyTrackingMap<V>(sourceMap);
+	}
+
+	protected synchronized void markDirty(String key)
+	{
+		if(dirtyKeySet == NotTracked)
+		{
+			return;
+		}
+		if(removedKeySet != null)
+		{
+			removedKeySet.remove(key);
+		}
+		if(dirtyKeySet == null)
+		{
+			dirtyKeySet = new HashSet<String>();
+		}
+		dirtyKeySet.add(key);
+	}
+
+	public synchronized void markRemoved(String key)
+	{
+		if(dirtyKeySet == NotTracked)
+		{
+			return;
+		}
+		if(dirtyKeySet != null)
+		{
+			dirtyKeySet.remove(key);
+		}
+		if(removedKeySet == null)
+		{
+			removedKeySet = new HashSet<String>();
+		}
+		removedKeySet.add(key);
+	}
+
+	private int indexOf(Object key)
+	{
+		for(int i = 0; i < smallSize; i++)
+		{
+			if(smallTable[i * 2].equals(key))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private V getSmallValue(int index)
+	{
+		return (V)smallTable[index * 2 + 1];
+	}
+
+	//the value is not null
+	private V putValue(String key, V value, boolean onlyIfAbsent, boolean onlyIfPresent)
+	{
+		if(key == null || value == null)
+		{
+			throw new NullPointerException();
+		}
+		ConcurrentHashMap<String, V> map = bigMap;
+		if(map != null)
+		{
+			if(onlyIfAbsent)
+			{
+				return map.putIfAbsent(key, value);
+			}
+			return onlyIfPresent ? map.replace(key, value) : map.put(key, value);
+		}
+		int index = indexOf(key);
+		if(index >= 0)
+		{
+			V oldValue = getSmallValue(index);
+			if(!onlyIfAbsent)
+			{
+				smallTable[index * 2 + 1] = value;
+			}
+			return oldValue;
+		}
+		if(onlyIfPresent)
+		{
+			return null;
+		}
+		if(smallSize == SmallSize)
+		{
+			map = new ConcurrentHashMap<String, V>();
+			for(int i = 0; i < smallSize; i++)
+			{
+				map.put((String)smallTable[i * 2], getSmallValue(i));
+			}
+			map.put(key, value);
+			smallTable = null;
+			smallSize = 0;
+			bigMap = map;
+			return null;
+		}
+		if(smallTable == null)
+		{
+			smallTable = new Object[4];
+		}
+		else if(smallTable.length == smallSize * 2)
+		{
+			Object[] table = new Object[Math.min(smallTable.length * 2, SmallSize * 2)];
+			System.arraycopy(smallTable, 0, table, 0, smallSize * 2);
+			smallTable = table;
+		}
+		smallTable[smallSize * 2] = key;
+		smallTable[smallSize * 2 + 1] = value;
+		smallSize++;
+		return null;
+	}
+
+	private V removeValue(Object key)
+	{
+		ConcurrentHashMap<String, V> map = bigMap;
+		if(map != null)
+		{
+			return map.remove(key);
+		}
+		int index = indexOf(key);
+		if(index < 0)
+		{
+			return null;
+		}
+		V oldValue = getSmallValue(index);
+		smallSize--;
+		smallTable[index * 2] = smallTable[smallSize * 2];
+		smallTable[index * 2 + 1] = smallTable[smallSize * 2 + 1];
+		smallTable[smallSize * 2] = null;
+		smallTable[smallSize * 2 + 1] = null;
+		return oldValue;
+	}
+
+	//the big map is never moved back to the array, so it is read without the lock once it is set
+	@Override
+	public int size()
+	{
+		ConcurrentHashMap<String, V> map = bigMap;
+		if(map != null)
+		{
+			return map.size();
+		}
+		synchronized(this)
+		{
+			map = bigMap;
+			return map != null ? map.size() : smallSize;
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key)
+	{
+		return get(key) != null;
+	}
+
+	@Override
+	public V get(Object key)
+	{
+		ConcurrentHashMap<String, V> map = bigMap;
+		if(map != null)
+		{
+			return map.get(key);
+		}
+		synchronized(this)
+		{
+			map = bigMap;
+			if(map != null)
+			{
+				return map.get(key);
+			}
+			int index = indexOf(key);
+			return index < 0 ? null : getSmallValue(index);
+		}
+	}
+
+	@Override
+	public synchronized V put(String key, V value)
+	{
+		V oldValue = putValue(key, value, false, false);
+		markDirty(key);
+		return oldValue;
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends V> sourceMap)
+	{
+		for(Map.Entry<? extends String, ? extends V> entry : sourceMap.entrySet())
+		{
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	public synchronized V putIfAbsent(String key, V value)
+	{
+		V oldValue = putValue(key, value, true, false);
+		if(oldValue == null)
+		{
+			markDirty(key);
+		}
+		return oldValue;
+	}
+
+	public synchronized V replace(String key, V value)
+	{
+		V oldValue = putValue(key, value, false, true);
+		if(oldValue != null)
+		{
+			markDirty(key);
+		}
+		return oldValue;
+	}
+
+	public synchronized boolean replace(String key, V oldValue, V newValue)
+	{
+		V value = get(key);
+		if(value == null || !value.equals(oldValue))
+		{
+			return false;
+		}
+		putValue(key, newValue, false, true);
+		markDirty(key);
+		return true;
+	}
+
+	@Override
+	public synchronized V remove(Object key)
+	{
+		V oldValue = removeValue(key);
+		if(oldValue != null)
+		{
+			markRemoved((String)key);
+		}
+		return oldValue;
+	}
+
+	public synchronized boolean remove(Object key, Object value)
+	{
+		V oldValue = get(key);
+		if(oldValue == null || !oldValue.equals(value))
+		{
+			return false;
+		}
+		removeValue(key);
+		markRemoved((String)key);
+		return true;
+	}
+
+	@Override
+	public void clear()
+	{
+		for(String key : new ArrayList<String>(keySet()))
+		{
+			remove(key);
+		}
+	}
+
+	//the big map is iterated as it is, the small one by a copy, so a node changed while it is stored does not fail
+	@Override
+	public Set<Map.Entry<String, V>> entrySet()
+	{
+		return new AbstractSet<Map.Entry<String, V>>(){
+			@Override
+			public int size() {
+				return DirtyTrackingMap.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, V>> iterator() {
+				ConcurrentHashMap<String, V> map;
+				final Object[] table;
+				final int tableSize;
+				synchronized(DirtyTrackingMap.this)
+				{
+					map = bigMap;
+					tableSize = map == null ? smallSize : 0;
+					table = tableSize > 0 ? Arrays.copyOf(smallTable, tableSize * 2) : null;
+				}
+				final Iterator<Map.Entry<String, V>> bigIterator = map == null ? null : map.entrySet().iterator();
+				return new Iterator<Map.Entry<String, V>>(){
+					private int index = 0;
+					private String lastKey = null;
+
+					public boolean hasNext() {
+						return bigIterator != null ? bigIterator.hasNext() : index < tableSize;
+					}
+
+					public Map.Entry<String, V> next() {
+						Map.Entry<String, V> entry;
+						if(bigIterator != null)
+						{
+							entry = bigIterator.next();
+						}
+						else if(index < tableSize)
+						{
+							entry = new SimpleEntry<String, V>((String)table[index * 2], (V)table[index * 2 + 1]);
+							index++;
+						}
+						else
+						{
+							throw new NoSuchElementException();
+						}
+						lastKey = entry.getKey();
+						return entry;
+					}
+
+					public void remove() {
+						if(lastKey == null)
+						{
+							throw new IllegalStateException();
+						}
+						DirtyTrackingMap.this.remove(lastKey);
+						lastKey = null;
+					}
+				};
+			}
+		};
+	}
+
+	//keeps the entries which are not changed, a value which is the same object may be changed inside, so it is dirty
+	public void assign(Map<String, V> sourceMap)
+	{
+		List<String> removedKeyList = new ArrayList<String>();
+		for(String key : keySet())
+		{
+			if(sourceMap == null || !sourceMap.containsKey(key))
+			{
+				removedKeyList.add(key);
+			}
+		}
+		for(String key : removedKeyList)
+		{
+			remove(key);
+		}
+		if(sourceMap == null)
+		{
+			return;
+		}
+		for(Map.Entry<String, V> entry : sourceMap.entrySet())
+		{
+			V oldValue = get(entry.getKey());
+			if(oldValue == null || oldValue == entry.getValue() || !oldValue.equals(entry.getValue()))
+			{
+				put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	//every entry is written again by the next store
+	public synchronized void markAllDirty()
+	{
+		for(String key : keySet())
+		{
+			markDirty(key);
+		}
+	}
+
+	public synchronized boolean isDirty()
+	{
+		return (dirtyKeySet != null && !dirtyKeySet.isEmpty()) || (removedKeySet != null && !removedKeySet.isEmpty());
+	}
+
+	//the keys marked again after draining stay for the next time
+	public synchronized Set<String> drainDirtyKeys()
+	{
+		Set<String> result = dirtyKeySet;
+		if(result == NotTracked)
+		{
+			return Collections.<String>emptySet();
+		}
+		dirtyKeySet = null;
+		return result == null ? Collections.<String>emptySet() : result;
+	}
+
+	public synchronized Set<String> drainRemovedKeys()
+	{
+		Set<String> result = removedKeySet;
+		removedKeySet = null;
+		return result == null ? Collections.<String>emptySet() : result;
+	}
+
+	//the drained keys whose write failed, a key marked again after draining keeps its newer mark
+	public synchronized void restoreDirtyKeys(Set<String> drainedDirtyKeySet, Set<String> drainedRemovedKeySet)
+	{
+		for(String key : drainedDirtyKeySet)
+		{
+			if(!isMarked(key))
+			{
+				markDirty(key);
+			}
+		}
+		for(String key : drainedRemovedKeySet)
+		{
+			if(!isMarked(key))
+			{
+				markRemoved(key);
+			}
+		}
+	}
+
+	private boolean isMarked(String key)
+	{
+		return (dirtyKeySet != null && dirtyKeySet.contains(key)) || (removedKeySet != null && removedKeySet.contains(key));
+	}
+
+	public void clearDirty()
+	{
+		drainDirtyKeys();
+		drainRemovedKeys();
+	}
+
+	//the changes are not remembered any more, the map is not stored
+	public synchronized void stopTracking()
+	{
+		dirtyKeySet = NotTracked;
+		removedKeySet = null;
+	}
+}
@@ -32,6 +32,8 @@ import org.codehaus.jackson.map.ObjectMapper;
 
 import asyncnode.implement.ElementProvider;
 import asyncnode.implement.StoreableElementDao;
+import asyncnode.implement.cassandra.BinaryFieldSerailzer;
+import asyncnode.implement.cassandra.EpochMillisFieldSerailzer;
 import asyncnode.implement.cassandra.FieldSerailzerBase;
 import asyncnode.implement.cassandra.ICassandraField;
 import asyncnode.implement.cassandra.ICassandraKeyField;
@@ -51,6 +53,7 @@ public abstract class ElementBase {
 	public static final String StatusField = SysPrefix + "_Status";
 	public static final String LastEditDateField = SysPrefix + "_LastEditDate";	
 	public static final String WorkFlowIDField = SysPrefix + "_WorkFlowID";
+	public static final String SchduleGroupIDField = SysPrefix + "_SchduleGroupID";
 	public static final String IDField = SysPrefix + "_ID";
 	public static final String ValueField = SysPrefix + "_ValueField" + ElementBase.nameSeperator;
 	public static final String ValueClass = SysPrefix + "_ValueClass" + ElementBase.nameSeperator;
@@ -63,28 +66,41 @@ public abstract class ElementBase {
 	public static final String OutNodesClassPrefix = SysPrefix + "_OutNodesClass" + ElementBase.nameSeperator;
 	public static final String AttributeValuePrefix = SysPrefix + "_AttributeValue" + ElementBase.nameSeperator;
 	public static final String AttributeClassPrefix = SysPrefix + "_AttributeClass" + ElementBase.nameSeperator;
+	//one binary column for the whole map, when a map codec is configured
+	public static final String AppVariableMapField = SysPrefix + "_AppVarMap";
+	public static final String InNodesMapField = SysPrefix + "_InNodesMap";
+	public static final String OutNodesMapField = SysPrefix + "_OutNodesMap";
+	public static final String AttributeMapField = SysPrefix + "_AttributeMap";
 	
 	public static CharSequence nameSeperator = "|";
 
 	protected StoreableElementDao iElementDao = App.getConfig().getInstance(StoreableElementDao.class);
 	
-	@ICassandraField(ColumnName = ElementBase.WorkFlowIDField, Serialer = FieldSerailzerBase.class)
+	@ICassandraField(ColumnName = ElementBase.WorkFlowIDField, Serialer = BinaryFieldSerailzer.class)
 	protected UUID workFlowID;
 	
-	@ICassandraField(ColumnName = ElementBase.IDField, Serialer = FieldSerailzerBase.class)
+	@ICassandraField(ColumnName = ElementBase.IDField, Serialer = BinaryFieldSerailzer.class)
 	protected UUID id;
 	
-	@ICassandraField(ColumnName = ElementBase.LastEditDateField, Serialer = FieldSerailzerBase.class)
-	protected Date lastEditDate = null;
+	//the nodes of a dynamic build take the group of the node which builds them, so linked nodes are schduled by one shard.
+	//null when it is the workflow id
+	@ICassandraField(ColumnName = ElementBase.SchduleGroupIDField, Serialer = BinaryFieldSerailzer.class)
+	protected UUID schduleGroupID;
+	
+	//epoch millis, 0 before the node is first stored
+	@ICassandraField(ColumnName = ElementBase.LastEditDateField, Serialer = EpochMillisFieldSerailzer.class)
+	protected long lastEditDate = 0;
 	
 	@ICassandraField(ColumnName = ElementBase.StatusField, Serialer = FieldSerailzerBase.class)
 	protected ElementStatusEnum status = ElementStatusEnum.New;
 	
-	protected ConcurrentMap<String, Boolean> inNodesMap = new ConcurrentHashMap<String, Boolean>();	
-	protected ConcurrentMap<String, Boolean> outNodesMap = new ConcurrentHashMap<String, Boolean>();			
-	protected ConcurrentMap<String, String> attributeMap = new ConcurrentHashMap<String, String>();		
+	//the maps remember the changed keys, only those entries are written to the store.
+	//the node maps count the unfinished nodes too
+	protected ConcurrentMap<String, Boolean> inNodesMap = new FinishFlagMap();	
+	protected ConcurrentMap<String, Boolean> outNodesMap = new FinishFlagMap();			
+	protected ConcurrentMap<String, String> attributeMap = new DirtyTrackingMap<String>();		
 	public Object value = null;	
-	public ConcurrentMap<String, Object> appVariables = new ConcurrentHashMap<String, Object>();	
+	public ConcurrentMap<String, Object> appVariables = new DirtyTrackingMap<Object>();	
 	
 	public void doStartupResotre() throws Exception
 	{
@@ -150,6 +166,14 @@ public abstract class ElementBase {
 	
 	public Object getAttribute(String attributeName) throws Exception
 	{
+		if(attributeMap instanceof WorkflowGraph.AttributeMapView)
+		{
+			ElementBase element = ((WorkflowGraph.AttributeMapView)attributeMap).getElement(attributeName);
+			if(element != null)
+			{
+				return element.getValue();
+			}
+		}
 		if(!attributeMap.containsKey((attributeName)))
 		{
 			return null;
@@ -267,11 +291,13 @@ public abstract class ElementBase {
 	public void notifyFinish(Object value, ConcurrentMap<String, Object> appVariables, ElementBuilder elementBuilder) throws Exception
 	{
 		this.value = value;
-		this.appVariables.clear();
-		if(appVariables != null)
+		DirtyTrackingMap<Object> variableMap = DirtyTrackingMap.wrap(this.appVariables);
+		if(!isPersistent())
 		{
-			this.appVariables.putAll(appVariables);
+			variableMap.stopTracking();
 		}
+		variableMap.assign(appVariables);
+		this.appVariables = variableMap;
 		if(elementBuilder != null)
 		{
 			ElementBuilder.buildDynamic(this, elementBuilder);			
@@ -339,11 +365,19 @@ public abstract class ElementBase {
 	}
 
 	public Date getLastEditDate() {
-		return lastEditDate;
+		return lastEditDate == 0 ? null : new Date(lastEditDate);
 	}
 
 	public void setLastEditDate(Date lastEditDate) {
-		this.lastEditDate = lastEditDate;
+		this.lastEditDate = lastEditDate == null ? 0 : lastEditDate.getTime();
+	}
+
+	public long getLastEditTime() {
+		return lastEditDate;
+	}
+
+	public void setLastEditTime(long lastEditTime) {
+		this.lastEditDate = lastEditTime;
 	}
 
 	public Object getValue() {
@@ -371,7 +405,7 @@ public abstract class ElementBase {
 	}
 
 	public void setInNodesMap(ConcurrentMap<String, Boolean> inNodesMap) {
-		this.inNodesMap = inNodesMap;
+		this.inNodesMap = FinishFlagMap.wrapFlags(inNodesMap);
 	}
 
 	public ConcurrentMap<String, Boolean> getOutNodesMap() {
@@ -379,17 +413,64 @@ public abstract class ElementBase {
 	}
 
 	public void setOutNodesMap(ConcurrentMap<String, Boolean> outNodesMap) {
-		this.outNodesMap = outNodesMap;
+		this.outNodesMap = FinishFlagMap.wrapFlags(outNodesMap);
 	}
 
 
+	//input nodes which are not finished
+	public int getRemainingInputCount() {
+		return ((IFinishFlagMap)inNodesMap).getUnfinishedCount();
+	}
+	
+	//output nodes which have not notified this node
+	public int getRemainingOutputCount() {
+		return ((IFinishFlagMap)outNodesMap).getUnfinishedCount();
+	}
+
 	public ConcurrentMap<String, String> getAttributeMap() {
 		return attributeMap;
 	}
 
 	public void setAttributeMap(ConcurrentMap<String, String> attributeMap) {
+		this.attributeMap = DirtyTrackingMap.wrap(attributeMap);
+	}
+	
+	//the maps of a node run by the express engine are views of its workflow graph, the node is never stored
+	protected void attachGraph(IFinishFlagMap inNodesMap, IFinishFlagMap outNodesMap, ConcurrentMap<String, String> attributeMap) {
+		this.inNodesMap = inNodesMap;
+		this.outNodesMap = outNodesMap;
 		this.attributeMap = attributeMap;
 	}
+	
+	//the maps loaded from the store are not changed
+	public void clearDirtyMaps() {
+		clearDirty(appVariables);
+		clearDirty(inNodesMap);
+		clearDirty(outNodesMap);
+		clearDirty(attributeMap);
+	}
+	
+	private static void clearDirty(Map map) {
+		if(map instanceof DirtyTrackingMap)
+		{
+			((DirtyTrackingMap)map).clearDirty();
+		}
+	}
+	
+	//the node is not stored, so the changed keys of its maps are not remembered
+	public void stopDirtyTracking() {
+		stopTracking(appVariables);
+		stopTracking(inNodesMap);
+		stopTracking(outNodesMap);
+		stopTracking(attributeMap);
+	}
+	
+	private static void stopTracking(Map map) {
+		if(map instanceof DirtyTrackingMap)
+		{
+			((DirtyTrackingMap)map).stopTracking();
+		}
+	}
 
 	public UUID getWorkFlowID() {
 		return workFlowID;
@@ -398,4 +479,12 @@ public abstract class ElementBase {
 	public void setWorkFlowID(UUID workFlowID) {
 		this.workFlowID = workFlowID;
 	}	
+	
+	public UUID getSchduleGroupID() {
+		return schduleGroupID != null ? schduleGroupID : workFlowID;
+	}
+	
+	public void setSchduleGroupID(UUID schduleGroupID) {
+		this.schduleGroupID = schduleGroupID;
+	}
 }
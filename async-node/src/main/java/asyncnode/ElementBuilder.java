@@ -15,14 +15,20 @@
 package asyncnode;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
 
+import asyncnode.core.IFunc;
+import asyncnode.implement.ExpressElementDao;
 import asyncnode.implement.StoreableElementDao;
 import asyncnode.rpc.AsyncServiceLocator;
 import asyncnode.rpc.RPCClientDeleteElement;
@@ -34,6 +40,8 @@ public class ElementBuilder {
 	protected UUID workFlowID;
 	protected ConcurrentMap<String, ElementBase> elementMapping = new ConcurrentHashMap<String, ElementBase>();
 	protected ConcurrentMap<String, List<String[]>> relationMapping = new ConcurrentHashMap<String, List<String[]>>();
+	//the template is immutable, compiling it twice is harmless
+	private static volatile WorkflowTemplate clientTemplate = null;
 	
 	public ElementBuilder(UUID workFlowID)
 	{	
@@ -67,37 +75,6 @@ public class ElementBuilder {
 		return parentSet;
 	}
 	
-	protected Set<String> getAllChildrenNodes()
-	{
-		Set<String> childrenSet = new HashSet<String>();
-		for(Entry<String, List<String[]>> relationEntry : relationMapping.entrySet())
-		{
-			for(String[] childNameArray : relationEntry.getValue())
-			{
-				String childName = childNameArray[0];
-				if(!childrenSet.contains(childName))
-				{
-					childrenSet.add(childName);
-				}
-			}
-		}
-		return childrenSet;
-	}
-	
-	protected List<String> getNoParentNodes()
-	{		
-		Set<String> childrenSet = getAllChildrenNodes();
-		List<String> noParentNodes = new ArrayList<String>();
-		for(Entry<String, ElementBase> elementEntry : elementMapping.entrySet())
-		{
-			if(!childrenSet.contains(elementEntry.getKey()))
-			{
-				noParentNodes.add(elementEntry.getKey());
-			}
-		}
-		return noParentNodes;
-	}
-	
 	public ElementBuilder add(String elementName, ElementBase elementBase)
 	{
 		elementBase.setWorkFlowID(workFlowID);
@@ -111,17 +88,35 @@ public class ElementBuilder {
 		buildClient(url, rpcRequest, callBackElement);
 	}
 	
+	//params of a run: url, request element, callback element
+	protected static WorkflowTemplate getClientTemplate() throws Exception
+	{
+		if(clientTemplate == null)
+		{
+			clientTemplate = new WorkflowTemplate.Definition()
+				.addParam("request", 1)
+				.add("result", new IFunc<Object[], ElementBase>(){
+					public ElementBase getValue(Object[] params) throws Exception {
+						return new RPCClientResultElement((String)params[0]);
+					}
+				})
+				.add("delete", new IFunc<Object[], ElementBase>(){
+					public ElementBase getValue(Object[] params) throws Exception {
+						return new RPCClientDeleteElement((String)params[0]);
+					}
+				})
+				.addParam("callback", 2)
+				.addMap("result", "ResultElementID", "request")
+				.addMap("callback", "Result", "result")
+				.addMap("delete", "ClientNodeResult", "result")
+				.compile();
+		}
+		return clientTemplate;
+	}
+	
 	public static void buildClient(String url, ElementBase requestElement, ElementBase callBackElement) throws Exception
 	{
-		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
-		elementBuilder.add("request", requestElement);
-		elementBuilder.add("result", new RPCClientResultElement(url));
-		elementBuilder.add("delete", new RPCClientDeleteElement(url));
-		elementBuilder.add("callback", callBackElement);
-		elementBuilder.addMap("result", "ResultElementID", "request");
-		elementBuilder.addMap("callback", "Result", "result");
-		elementBuilder.addMap("delete", "ClientNodeResult", "result");			
-		elementBuilder.build();			
+		getClientTemplate().build(UUID.randomUUID(), url, requestElement, callBackElement);
 	}	
 	
 	public static void registerService(ConcurrentHashMap<String, Class> serviceMap)
@@ -149,6 +144,14 @@ public class ElementBuilder {
 	public static void buildDynamic(ElementBase element, ElementBuilder elementBuilder) throws Exception
 	{
 		elementBuilder.buildRelation();
+		UUID schduleGroupID = element.getSchduleGroupID();
+		if(schduleGroupID != null && !schduleGroupID.equals(elementBuilder.workFlowID))
+		{
+			for(ElementBase dynamicElement : elementBuilder.elementMapping.values())
+			{
+				dynamicElement.setSchduleGroupID(schduleGroupID);
+			}
+		}
 		List<String> noChildNodesList = elementBuilder.getNoChildNodes();
 		for(int nodeI = 0; nodeI < noChildNodesList.size(); nodeI++)
 		{
@@ -175,21 +178,114 @@ public class ElementBuilder {
 		}
 	}
 	
-	protected void saveNode() throws Exception
+	//the nodes no other node takes as input come first, then the nodes whose takers are all added, layer by layer.
+	//every node and relation is visited once, the nodes left at the end are in a cycle
+	protected List<ElementBase> getBuildOrder() throws Exception
 	{
-		List<String> noParentNodes = null;
-		List<ElementBase> toAddList = new ArrayList();
-		while((noParentNodes = getNoParentNodes()).size() > 0)
+		Map<String, Integer> takerCountMap = new HashMap<String, Integer>();
+		for(String elementName : elementMapping.keySet())
+		{
+			takerCountMap.put(elementName, 0);
+		}
+		for(Entry<String, List<String[]>> relationEntry : relationMapping.entrySet())
+		{
+			for(String[] childNameArray : relationEntry.getValue())
+			{
+				Integer takerCount = takerCountMap.get(childNameArray[0]);
+				if(takerCount != null)
+				{
+					takerCountMap.put(childNameArray[0], takerCount + 1);
+				}
+			}
+		}
+		List<String> nodeList = getNoParentNodes(takerCountMap);
+		for(int nodeI = 0; nodeI < nodeList.size(); nodeI++)
 		{
-			for(String parentNode : noParentNodes)
+			List<String[]> childList = relationMapping.get(nodeList.get(nodeI));
+			if(childList == null)
 			{
-				ElementBase element = elementMapping.get(parentNode);
-				element.build();
-				relationMapping.remove(parentNode);
-				elementMapping.remove(parentNode);
-				toAddList.add(element);
+				continue;
+			}
+			for(String[] childNameArray : childList)
+			{
+				String childName = childNameArray[0];
+				Integer takerCount = takerCountMap.get(childName);
+				if(takerCount == null)
+				{
+					continue;
+				}
+				takerCountMap.put(childName, takerCount - 1);
+				if(takerCount == 1)
+				{
+					nodeList.add(childName);
+				}
 			}
 		}
+		if(nodeList.size() < elementMapping.size())
+		{
+			List<String> cycleNodes = new ArrayList<String>();
+			for(Entry<String, Integer> takerEntry : takerCountMap.entrySet())
+			{
+				if(takerEntry.getValue() > 0)
+				{
+					cycleNodes.add(takerEntry.getKey());
+				}
+			}
+			throw new Exception("the workflow has a cycle, the nodes can't be ordered:" + cycleNodes);
+		}
+		List<ElementBase> elementList = new ArrayList<ElementBase>(nodeList.size());
+		for(String elementName : nodeList)
+		{
+			elementList.add(elementMapping.get(elementName));
+		}
+		return elementList;
+	}
+	
+	protected List<String> getNoParentNodes(Map<String, Integer> takerCountMap)
+	{
+		List<String> noParentNodes = new ArrayList<String>();
+		for(Entry<String, Integer> takerEntry : takerCountMap.entrySet())
+		{
+			if(takerEntry.getValue() == 0)
+			{
+				noParentNodes.add(takerEntry.getKey());
+			}
+		}
+		return noParentNodes;
+	}
+	
+	//the builder is empty after the nodes are taken
+	protected List<ElementBase> takeNodes() throws Exception
+	{
+		List<ElementBase> elementList = getBuildOrder();
+		clearNodes();
+		return elementList;
+	}
+	
+	protected void clearNodes()
+	{
+		relationMapping.clear();
+		elementMapping.clear();
+	}
+	
+	protected void saveNode() throws Exception
+	{
+		saveNodeList(takeNodes());
+	}
+	
+	//toAddList is in build order, the nodes are linked
+	protected static void saveNodeList(List<ElementBase> toAddList) throws Exception
+	{
+		ExpressElementDao expressElementDao = App.getConfig().getInstance(ExpressElementDao.class);
+		if(expressElementDao.canRun(toAddList))
+		{
+			expressElementDao.run(toAddList);
+			return;
+		}
+		for(ElementBase element : toAddList)
+		{
+			element.build();
+		}
 		App.getConfig().getInstance(StoreableElementDao.class).addBufferElementList(toAddList);
 	}
 	
@@ -198,4 +294,71 @@ public class ElementBuilder {
 		buildRelation();		
 		saveNode();
 	}	
+	
+	public static void buildAll(Collection<ElementBuilder> builderList) throws Exception
+	{
+		buildAll(builderList.iterator());
+	}
+	
+	//the workflows are linked and ordered in memory, then the nodes of a page are written by one batch and queued together.
+	//a workflow which can't be ordered fails its page before anything of the page is stored or taken, the pages before are submitted
+	public static void buildAll(Iterator<ElementBuilder> builderIterator) throws Exception
+	{
+		int submitPageSize = App.getConfig().getInstance(App.AppContext.class).getSubmitPageSize();
+		ExpressElementDao expressElementDao = App.getConfig().getInstance(ExpressElementDao.class);
+		StoreableElementDao storeableElementDao = App.getConfig().getInstance(StoreableElementDao.class);
+		List<ElementBuilder> pageBuilderList = new ArrayList<ElementBuilder>();
+		int nodeCount = 0;
+		while(builderIterator.hasNext())
+		{
+			ElementBuilder elementBuilder = builderIterator.next();
+			elementBuilder.buildRelation();
+			pageBuilderList.add(elementBuilder);
+			nodeCount += elementBuilder.elementMapping.size();
+			if(nodeCount >= submitPageSize)
+			{
+				submitBuilderPage(pageBuilderList, expressElementDao, storeableElementDao);
+				pageBuilderList.clear();
+				nodeCount = 0;
+			}
+		}
+		submitBuilderPage(pageBuilderList, expressElementDao, storeableElementDao);
+	}
+	
+	//every builder of the page is ordered before any of them is cleared, so the builders of a failed page keep their nodes
+	protected static void submitBuilderPage(List<ElementBuilder> pageBuilderList, ExpressElementDao expressElementDao,
+			StoreableElementDao storeableElementDao) throws Exception
+	{
+		List<List<ElementBase>> workFlowList = new ArrayList<List<ElementBase>>();
+		for(ElementBuilder elementBuilder : pageBuilderList)
+		{
+			workFlowList.add(elementBuilder.getBuildOrder());
+		}
+		for(ElementBuilder elementBuilder : pageBuilderList)
+		{
+			elementBuilder.clearNodes();
+		}
+		submitPage(workFlowList, expressElementDao, storeableElementDao);
+	}
+	
+	protected static void submitPage(List<List<ElementBase>> workFlowList, ExpressElementDao expressElementDao,
+			StoreableElementDao storeableElementDao) throws Exception
+	{
+		List<ElementBase> pageList = new ArrayList<ElementBase>();
+		for(List<ElementBase> elementList : workFlowList)
+		{
+			if(expressElementDao.canRun(elementList))
+			{
+				expressElementDao.run(elementList);
+			}
+			else
+			{
+				pageList.addAll(elementList);
+			}
+		}
+		if(pageList.size() > 0)
+		{
+			storeableElementDao.addElementList(pageList);
+		}
+	}
 }
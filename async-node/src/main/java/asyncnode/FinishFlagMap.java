@@ -0,0 +1,127 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import java.util.Map;
+
+//the finished flags of the linked nodes, the false values are counted when the entries are changed, so the
+//readiness of a node with many inputs is checked without reading the map. the count is not stored, the map
+//loaded from the store is put entry by entry and counts again. the count is changed under the lock of the map
+public class FinishFlagMap extends DirtyTrackingMap<Boolean> implements IFinishFlagMap
+{
+	private volatile int unfinishedCount = 0;
+
+	public FinishFlagMap()
+	{
+	}
+
+	//the entries are put after the counter is set
+	public FinishFlagMap(Map<String, Boolean> sourceMap)
+	{
+		if(sourceMap != null)
+		{
+			putAll(sourceMap);
+		}
+	}
+
+	public static FinishFlagMap wrapFlags(Map<String, Boolean> sourceMap)
+	{
+		if(sourceMap instanceof FinishFlagMap)
+		{
+			return (FinishFlagMap)sourceMap;
+		}
+		return new FinishFlagMap(sourceMap);
+	}
+
+	protected static boolean isUnfinished(Boolean value)
+	{
+		return Boolean.FALSE.equals(value);
+	}
+
+	protected void count(Boolean oldValue, Boolean newValue)
+	{
+		int delta = (isUnfinished(newValue) ? 1 : 0) - (isUnfinished(oldValue) ? 1 : 0);
+		if(delta != 0)
+		{
+			unfinishedCount += delta;
+		}
+	}
+
+	public int getUnfinishedCount()
+	{
+		return unfinishedCount;
+	}
+
+	@Override
+	public synchronized Boolean put(String key, Boolean value)
+	{
+		Boolean oldValue = super.put(key, value);
+		count(oldValue, value);
+		return oldValue;
+	}
+
+	@Override
+	public synchronized Boolean putIfAbsent(String key, Boolean value)
+	{
+		Boolean oldValue = super.putIfAbsent(key, value);
+		if(oldValue == null)
+		{
+			count(null, value);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public synchronized Boolean replace(String key, Boolean value)
+	{
+		Boolean oldValue = super.replace(key, value);
+		if(oldValue != null)
+		{
+			count(oldValue, value);
+		}
+		return oldValue;
+	}
+
+	@Override
+	public synchronized boolean replace(String key, Boolean oldValue, Boolean newValue)
+	{
+		boolean replaced = super.replace(key, oldValue, newValue);
+		if(replaced)
+		{
+			count(oldValue, newValue);
+		}
+		return replaced;
+	}
+
+	@Override
+	public synchronized Boolean remove(Object key)
+	{
+		Boolean oldValue = super.remove(key);
+		count(oldValue, null);
+		return oldValue;
+	}
+
+	@Override
+	public synchronized boolean remove(Object key, Object value)
+	{
+		boolean removed = super.remove(key, value);
+		if(removed)
+		{
+			count((Boolean)value, null);
+		}
+		return removed;
+	}
+}
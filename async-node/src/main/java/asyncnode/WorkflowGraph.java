@@ -0,0 +1,574 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//a built workflow laid out by index. the in nodes of node i are inNodes[inStart[i]..inStart[i+1]), the out nodes and
+//attributes the same way, the finished flag of a slot is the bit of the same position. inPeers and outPeers give the
+//slot of the same link seen from the other node. the nodes outside of the workflow, like the node building it
+//dynamically, get the indexes after the elements and have no element.
+//the maps of an attached node are views of the arrays, the links added later are kept by the views
+public class WorkflowGraph
+{
+	private final ElementBase[] elements;
+	private final String[] nodeIds;
+	private final int[] inStart;
+	private final int[] inNodes;
+	private final int[] inPeers;
+	private final int[] outStart;
+	private final int[] outNodes;
+	private final int[] outPeers;
+	private final int[] attributeStart;
+	private final String[] attributeNames;
+	private final int[] attributeNodes;
+	private final AtomicLongArray inFinished;
+	private final AtomicLongArray outFinished;
+	private final AtomicIntegerArray remainingInput;
+	//out nodes which are not finished, and one for the node itself, the express engine adds the dynamic nodes
+	private final AtomicIntegerArray remainingOutput;
+
+	public static WorkflowGraph compile(List<ElementBase> elementList)
+	{
+		return new WorkflowGraph(elementList);
+	}
+
+	protected WorkflowGraph(List<ElementBase> elementList)
+	{
+		int nodeCount = elementList.size();
+		elements = elementList.toArray(new ElementBase[nodeCount]);
+		Map<String, Integer> indexMap = new HashMap<String, Integer>();
+		List<String> idList = new ArrayList<String>();
+		int inCount = 0;
+		int outCount = 0;
+		int attributeCount = 0;
+		for(ElementBase element : elements)
+		{
+			getIndex(indexMap, idList, element.getId().toString());
+			inCount += element.getInNodesMap().size();
+			outCount += element.getOutNodesMap().size();
+			attributeCount += element.getAttributeMap().size();
+		}
+		inStart = new int[nodeCount + 1];
+		inNodes = new int[inCount];
+		inPeers = new int[inCount];
+		outStart = new int[nodeCount + 1];
+		outNodes = new int[outCount];
+		outPeers = new int[outCount];
+		attributeStart = new int[nodeCount + 1];
+		attributeNames = new String[attributeCount];
+		attributeNodes = new int[attributeCount];
+		inFinished = new AtomicLongArray((inCount + 63) / 64);
+		outFinished = new AtomicLongArray((outCount + 63) / 64);
+		remainingInput = new AtomicIntegerArray(nodeCount);
+		remainingOutput = new AtomicIntegerArray(nodeCount);
+		//the in slot of every link, by (out node, in node)
+		Map<Long, Integer> inSlotMap = new HashMap<Long, Integer>();
+		int inSlot = 0;
+		int outSlot = 0;
+		int attributeSlot = 0;
+		for(int i = 0; i < nodeCount; i++)
+		{
+			inStart[i] = inSlot;
+			int unfinished = 0;
+			for(Map.Entry<String, Boolean> inEntry : elements[i].getInNodesMap().entrySet())
+			{
+				inNodes[inSlot] = getIndex(indexMap, idList, inEntry.getKey());
+				inPeers[inSlot] = -1;
+				inSlotMap.put(getLinkKey(inNodes[inSlot], i), inSlot);
+				if(Boolean.TRUE.equals(inEntry.getValue()))
+				{
+					setBit(inFinished, inSlot, true);
+				}
+				else
+				{
+					unfinished++;
+				}
+				inSlot++;
+			}
+			remainingInput.set(i, unfinished);
+			outStart[i] = outSlot;
+			for(Map.Entry<String, Boolean> outEntry : elements[i].getOutNodesMap().entrySet())
+			{
+				outNodes[outSlot] = getIndex(indexMap, idList, outEntry.getKey());
+				outPeers[outSlot] = -1;
+				if(Boolean.TRUE.equals(outEntry.getValue()))
+				{
+					setBit(outFinished, outSlot, true);
+				}
+				outSlot++;
+			}
+			remainingOutput.set(i, outSlot - outStart[i] + 1);
+			attributeStart[i] = attributeSlot;
+			for(Map.Entry<String, String> attributeEntry : elements[i].getAttributeMap().entrySet())
+			{
+				attributeNames[attributeSlot] = attributeEntry.getKey();
+				attributeNodes[attributeSlot] = getIndex(indexMap, idList, attributeEntry.getValue());
+				attributeSlot++;
+			}
+		}
+		inStart[nodeCount] = inSlot;
+		outStart[nodeCount] = outSlot;
+		attributeStart[nodeCount] = attributeSlot;
+		for(int i = 0; i < nodeCount; i++)
+		{
+			for(int slot = outStart[i]; slot < outStart[i + 1]; slot++)
+			{
+				Integer peerSlot = inSlotMap.get(getLinkKey(i, outNodes[slot]));
+				if(peerSlot != null)
+				{
+					outPeers[slot] = peerSlot;
+					inPeers[peerSlot] = slot;
+				}
+			}
+		}
+		nodeIds = idList.toArray(new String[idList.size()]);
+	}
+
+	private static int getIndex(Map<String, Integer> indexMap, List<String> idList, String nodeId)
+	{
+		Integer index = indexMap.get(nodeId);
+		if(index == null)
+		{
+			index = idList.size();
+			indexMap.put(nodeId, index);
+			idList.add(nodeId);
+		}
+		return index;
+	}
+
+	private static long getLinkKey(int outNode, int inNode)
+	{
+		return ((long)outNode << 32) | inNode;
+	}
+
+	private static boolean getBit(AtomicLongArray bitSet, int slot)
+	{
+		return (bitSet.get(slot >> 6) & (1L << slot)) != 0;
+	}
+
+	//returns the old value
+	private static boolean setBit(AtomicLongArray bitSet, int slot, boolean value)
+	{
+		long mask = 1L << slot;
+		while(true)
+		{
+			long oldBits = bitSet.get(slot >> 6);
+			long newBits = value ? oldBits | mask : oldBits & ~mask;
+			if(oldBits == newBits || bitSet.compareAndSet(slot >> 6, oldBits, newBits))
+			{
+				return (oldBits & mask) != 0;
+			}
+		}
+	}
+
+	public int getNodeCount() {
+		return elements.length;
+	}
+
+	public ElementBase getElement(int index) {
+		return elements[index];
+	}
+
+	public String getNodeId(int index) {
+		return nodeIds[index];
+	}
+
+	public boolean isExternal(int index) {
+		return index >= elements.length;
+	}
+
+	public int getInStart(int index) {
+		return inStart[index];
+	}
+
+	public int getInEnd(int index) {
+		return inStart[index + 1];
+	}
+
+	public int getInNode(int slot) {
+		return inNodes[slot];
+	}
+
+	public int getInPeer(int slot) {
+		return inPeers[slot];
+	}
+
+	public int getOutStart(int index) {
+		return outStart[index];
+	}
+
+	public int getOutEnd(int index) {
+		return outStart[index + 1];
+	}
+
+	public int getOutNode(int slot) {
+		return outNodes[slot];
+	}
+
+	public int getOutPeer(int slot) {
+		return outPeers[slot];
+	}
+
+	public int getRemainingInput(int index) {
+		return remainingInput.get(index);
+	}
+
+	//the remaining inputs of the node when this call finishes the slot, -1 when the slot was finished already
+	public int finishInput(int index, int slot)
+	{
+		if(setBit(inFinished, slot, true))
+		{
+			return -1;
+		}
+		return remainingInput.decrementAndGet(index);
+	}
+
+	public void finishOutput(int slot)
+	{
+		setBit(outFinished, slot, true);
+	}
+
+	public int addRemainingOutput(int index, int delta)
+	{
+		return remainingOutput.addAndGet(index, delta);
+	}
+
+	public void attach()
+	{
+		for(int i = 0; i < elements.length; i++)
+		{
+			elements[i].attachGraph(new FlagMapView(this, i, true), new FlagMapView(this, i, false), new AttributeMapView(this, i));
+		}
+	}
+
+	public ElementBase getAttributeElement(int index, String attributeName)
+	{
+		for(int slot = attributeStart[index]; slot < attributeStart[index + 1]; slot++)
+		{
+			if(attributeNames[slot].equals(attributeName))
+			{
+				return isExternal(attributeNodes[slot]) ? null : elements[attributeNodes[slot]];
+			}
+		}
+		return null;
+	}
+
+	//the entries of the slots, then the ones added later
+	protected static abstract class GraphMapView<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V>
+	{
+		protected final WorkflowGraph graph;
+		protected final int index;
+		protected volatile ConcurrentMap<String, V> addedMap = null;
+
+		public GraphMapView(WorkflowGraph graph, int index)
+		{
+			this.graph = graph;
+			this.index = index;
+		}
+
+		protected abstract int getStart();
+		protected abstract int getEnd();
+		protected abstract String getKey(int slot);
+		protected abstract V getValue(int slot);
+		protected abstract V setValue(int slot, V value);
+		protected abstract ConcurrentMap<String, V> createAddedMap();
+
+		protected int findSlot(Object key)
+		{
+			for(int slot = getStart(); slot < getEnd(); slot++)
+			{
+				if(getKey(slot).equals(key))
+				{
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		protected synchronized ConcurrentMap<String, V> getAddedMap()
+		{
+			if(addedMap == null)
+			{
+				addedMap = createAddedMap();
+			}
+			return addedMap;
+		}
+
+		@Override
+		public int size()
+		{
+			ConcurrentMap<String, V> map = addedMap;
+			return getEnd() - getStart() + (map == null ? 0 : map.size());
+		}
+
+		@Override
+		public boolean containsKey(Object key)
+		{
+			ConcurrentMap<String, V> map = addedMap;
+			return findSlot(key) >= 0 || (map != null && map.containsKey(key));
+		}
+
+		@Override
+		public V get(Object key)
+		{
+			int slot = findSlot(key);
+			if(slot >= 0)
+			{
+				return getValue(slot);
+			}
+			ConcurrentMap<String, V> map = addedMap;
+			return map == null ? null : map.get(key);
+		}
+
+		@Override
+		public V put(String key, V value)
+		{
+			int slot = findSlot(key);
+			if(slot >= 0)
+			{
+				return setValue(slot, value);
+			}
+			return getAddedMap().put(key, value);
+		}
+
+		public V putIfAbsent(String key, V value)
+		{
+			int slot = findSlot(key);
+			if(slot >= 0)
+			{
+				return getValue(slot);
+			}
+			return getAddedMap().putIfAbsent(key, value);
+		}
+
+		public V replace(String key, V value)
+		{
+			int slot = findSlot(key);
+			if(slot >= 0)
+			{
+				return setValue(slot, value);
+			}
+			ConcurrentMap<String, V> map = addedMap;
+			return map == null ? null : map.replace(key, value);
+		}
+
+		public synchronized boolean replace(String key, V oldValue, V newValue)
+		{
+			int slot = findSlot(key);
+			if(slot >= 0)
+			{
+				if(!getValue(slot).equals(oldValue))
+				{
+					return false;
+				}
+				setValue(slot, newValue);
+				return true;
+			}
+			ConcurrentMap<String, V> map = addedMap;
+			return map != null && map.replace(key, oldValue, newValue);
+		}
+
+		//the slots are fixed when the workflow is built
+		@Override
+		public V remove(Object key)
+		{
+			if(findSlot(key) >= 0)
+			{
+				throw new UnsupportedOperationException("the link of a built workflow can't be removed:" + key);
+			}
+			ConcurrentMap<String, V> map = addedMap;
+			return map == null ? null : map.remove(key);
+		}
+
+		public boolean remove(Object key, Object value)
+		{
+			if(findSlot(key) >= 0)
+			{
+				throw new UnsupportedOperationException("the link of a built workflow can't be removed:" + key);
+			}
+			ConcurrentMap<String, V> map = addedMap;
+			return map != null && map.remove(key, value);
+		}
+
+		@Override
+		public Set<Entry<String, V>> entrySet()
+		{
+			return new AbstractSet<Entry<String, V>>(){
+				@Override
+				public int size() {
+					return GraphMapView.this.size();
+				}
+
+				@Override
+				public Iterator<Entry<String, V>> iterator() {
+					final ConcurrentMap<String, V> map = addedMap;
+					final Iterator<Entry<String, V>> addedIterator = map == null ? null : map.entrySet().iterator();
+					return new Iterator<Entry<String, V>>(){
+						private int slot = getStart();
+
+						public boolean hasNext() {
+							return slot < getEnd() || (addedIterator != null && addedIterator.hasNext());
+						}
+
+						public Entry<String, V> next() {
+							if(slot < getEnd())
+							{
+								final int currentSlot = slot++;
+								return new SimpleEntry<String, V>(getKey(currentSlot), getValue(currentSlot)){
+									private static final long serialVersionUID = 1L;
+
+									@Override
+									public V setValue(V value) {
+										super.setValue(value);
+										return GraphMapView.this.setValue(currentSlot, value);
+									}
+								};
+							}
+							if(addedIterator == null)
+							{
+								throw new NoSuchElementException();
+							}
+							return addedIterator.next();
+						}
+
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	public static class FlagMapView extends GraphMapView<Boolean> implements IFinishFlagMap
+	{
+		protected final boolean in;
+
+		public FlagMapView(WorkflowGraph graph, int index, boolean in)
+		{
+			super(graph, index);
+			this.in = in;
+		}
+
+		@Override
+		protected int getStart() {
+			return in ? graph.getInStart(index) : graph.getOutStart(index);
+		}
+
+		@Override
+		protected int getEnd() {
+			return in ? graph.getInEnd(index) : graph.getOutEnd(index);
+		}
+
+		@Override
+		protected String getKey(int slot) {
+			return graph.getNodeId(in ? graph.getInNode(slot) : graph.getOutNode(slot));
+		}
+
+		@Override
+		protected Boolean getValue(int slot) {
+			return getBit(in ? graph.inFinished : graph.outFinished, slot);
+		}
+
+		//an input finished by the view is counted as the express engine counts it
+		@Override
+		protected Boolean setValue(int slot, Boolean value) {
+			if(in && Boolean.TRUE.equals(value))
+			{
+				return graph.finishInput(index, slot) < 0;
+			}
+			boolean oldValue = setBit(in ? graph.inFinished : graph.outFinished, slot, Boolean.TRUE.equals(value));
+			if(in && oldValue)
+			{
+				graph.remainingInput.incrementAndGet(index);
+			}
+			return oldValue;
+		}
+
+		@Override
+		protected ConcurrentMap<String, Boolean> createAddedMap() {
+			return new FinishFlagMap();
+		}
+
+		public int getUnfinishedCount()
+		{
+			int count = 0;
+			for(int slot = getStart(); slot < getEnd(); slot++)
+			{
+				if(!getValue(slot))
+				{
+					count++;
+				}
+			}
+			ConcurrentMap<String, Boolean> map = addedMap;
+			return count + (map == null ? 0 : ((FinishFlagMap)map).getUnfinishedCount());
+		}
+	}
+
+	public static class AttributeMapView extends GraphMapView<String>
+	{
+		public AttributeMapView(WorkflowGraph graph, int index)
+		{
+			super(graph, index);
+		}
+
+		@Override
+		protected int getStart() {
+			return graph.attributeStart[index];
+		}
+
+		@Override
+		protected int getEnd() {
+			return graph.attributeStart[index + 1];
+		}
+
+		@Override
+		protected String getKey(int slot) {
+			return graph.attributeNames[slot];
+		}
+
+		@Override
+		protected String getValue(int slot) {
+			return graph.getNodeId(graph.attributeNodes[slot]);
+		}
+
+		@Override
+		protected String setValue(int slot, String value) {
+			throw new UnsupportedOperationException("the attribute of a built workflow can't be changed:" + getKey(slot));
+		}
+
+		@Override
+		protected ConcurrentMap<String, String> createAddedMap() {
+			return new ConcurrentHashMap<String, String>();
+		}
+
+		public ElementBase getElement(String attributeName) {
+			return graph.getAttributeElement(index, attributeName);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import asyncnode.core.IFunc;
+
+//a workflow shape checked and ordered once, every run only creates the nodes and links them by index.
+//the parameters of a run are handed to the node factories, a param node is taken from the parameters as it is.
+//usage: template = new WorkflowTemplate.Definition().add(...).addMap(...).compile(); template.build(workFlowID, params);
+public class WorkflowTemplate
+{
+	private final String[] nodeNames;
+	private final IFunc<Object[], ElementBase>[] nodeFactories;
+	private final int[] edgeParents;
+	private final int[] edgeChildren;
+	private final String[] edgeAttributes;
+	//the order of ElementBuilder.getBuildOrder
+	private final int[] buildOrder;
+
+	public static class Definition
+	{
+		protected List<String> nodeNameList = new ArrayList<String>();
+		protected List<IFunc<Object[], ElementBase>> nodeFactoryList = new ArrayList<IFunc<Object[], ElementBase>>();
+		protected List<String[]> relationList = new ArrayList<String[]>();
+
+		public Definition add(String elementName, IFunc<Object[], ElementBase> nodeFactory)
+		{
+			nodeNameList.add(elementName);
+			nodeFactoryList.add(nodeFactory);
+			return this;
+		}
+
+		//the class needs a public constructor without parameter
+		public Definition add(String elementName, Class<? extends ElementBase> elementClass) throws Exception
+		{
+			final Constructor<? extends ElementBase> constructor = elementClass.getConstructor();
+			return add(elementName, new IFunc<Object[], ElementBase>(){
+				public ElementBase getValue(Object[] params) throws Exception {
+					return constructor.newInstance();
+				}
+			});
+		}
+
+		//the node is the parameter at paramIndex of every run
+		public Definition addParam(String elementName, final int paramIndex)
+		{
+			return add(elementName, new IFunc<Object[], ElementBase>(){
+				public ElementBase getValue(Object[] params) throws Exception {
+					return (ElementBase)params[paramIndex];
+				}
+			});
+		}
+
+		public Definition addMap(String parentName, String attributeName, String childName)
+		{
+			relationList.add(new String[]{ parentName, attributeName, childName });
+			return this;
+		}
+
+		public WorkflowTemplate compile() throws Exception
+		{
+			return new WorkflowTemplate(this);
+		}
+	}
+
+	protected WorkflowTemplate(Definition definition) throws Exception
+	{
+		int nodeCount = definition.nodeNameList.size();
+		nodeNames = definition.nodeNameList.toArray(new String[nodeCount]);
+		nodeFactories = definition.nodeFactoryList.toArray(new IFunc[nodeCount]);
+		Map<String, Integer> nodeIndexMap = new HashMap<String, Integer>();
+		for(int i = 0; i < nodeCount; i++)
+		{
+			if(nodeIndexMap.put(nodeNames[i], i) != null)
+			{
+				throw new Exception("the node is added twice:" + nodeNames[i]);
+			}
+		}
+		int edgeCount = definition.relationList.size();
+		edgeParents = new int[edgeCount];
+		edgeChildren = new int[edgeCount];
+		edgeAttributes = new String[edgeCount];
+		int[] takerCounts = new int[nodeCount];
+		for(int i = 0; i < edgeCount; i++)
+		{
+			String[] relation = definition.relationList.get(i);
+			edgeParents[i] = getIndex(nodeIndexMap, relation[0]);
+			edgeChildren[i] = getIndex(nodeIndexMap, relation[2]);
+			ElementBase.checkNameValidate(relation[1]);
+			edgeAttributes[i] = relation[1];
+			takerCounts[edgeChildren[i]]++;
+		}
+		buildOrder = getBuildOrder(takerCounts);
+	}
+
+	private static int getIndex(Map<String, Integer> nodeIndexMap, String elementName) throws Exception
+	{
+		Integer index = nodeIndexMap.get(elementName);
+		if(index == null)
+		{
+			throw new Exception("the node is not added:" + elementName);
+		}
+		return index;
+	}
+
+	private int[] getBuildOrder(int[] takerCounts) throws Exception
+	{
+		int[] order = new int[nodeNames.length];
+		int orderCount = 0;
+		for(int i = 0; i < nodeNames.length; i++)
+		{
+			if(takerCounts[i] == 0)
+			{
+				order[orderCount++] = i;
+			}
+		}
+		for(int orderI = 0; orderI < orderCount; orderI++)
+		{
+			for(int edge = 0; edge < edgeParents.length; edge++)
+			{
+				if(edgeParents[edge] == order[orderI] && --takerCounts[edgeChildren[edge]] == 0)
+				{
+					order[orderCount++] = edgeChildren[edge];
+				}
+			}
+		}
+		if(orderCount < nodeNames.length)
+		{
+			List<String> cycleNodes = new ArrayList<String>();
+			for(int i = 0; i < nodeNames.length; i++)
+			{
+				if(takerCounts[i] > 0)
+				{
+					cycleNodes.add(nodeNames[i]);
+				}
+			}
+			throw new Exception("the workflow has a cycle, the nodes can't be ordered:" + cycleNodes);
+		}
+		return order;
+	}
+
+	public List<String> getNodeNames()
+	{
+		return Arrays.asList(nodeNames);
+	}
+
+	//the nodes of one run, linked and in the order they are built
+	public List<ElementBase> instantiate(UUID workFlowID, Object... params) throws Exception
+	{
+		ElementBase[] elements = new ElementBase[nodeNames.length];
+		for(int i = 0; i < elements.length; i++)
+		{
+			elements[i] = nodeFactories[i].getValue(params);
+			if(elements[i] == null)
+			{
+				throw new Exception("the factory returns no node:" + nodeNames[i]);
+			}
+			elements[i].setWorkFlowID(workFlowID);
+		}
+		for(int edge = 0; edge < edgeParents.length; edge++)
+		{
+			elements[edgeParents[edge]].addElement(elements[edgeChildren[edge]], edgeAttributes[edge]);
+		}
+		List<ElementBase> elementList = new ArrayList<ElementBase>(elements.length);
+		for(int index : buildOrder)
+		{
+			elementList.add(elements[index]);
+		}
+		return elementList;
+	}
+
+	public void build(UUID workFlowID, Object... params) throws Exception
+	{
+		ElementBuilder.saveNodeList(instantiate(workFlowID, params));
+	}
+}
@@ -0,0 +1,40 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.core;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.inject.ImplementedBy;
+
+import asyncnode.ElementBase;
+import asyncnode.implement.CassandraAsyncNodeDao;
+
+//the durable store of the nodes, a module binds another provider to replace the cassandra one.
+//columnList is the java field names changed by the update, null writes the whole node
+@ImplementedBy(CassandraAsyncNodeDao.class)
+public interface IAsyncNodeDao {
+	public void add(ElementBase elementBase) throws Exception;
+	public void update(ElementBase elementBase, List<String> columnList, Map<String, Object> columnValueHash) throws Exception;
+	public void delete(String key) throws Exception;
+	//null when the node is not stored
+	public ElementBase get(String key) throws Exception;
+	public List<ElementBase> get(List<String> keyList) throws Exception;
+	//every stored node is visited once, pageSize bounds the rows read at one time
+	public void visitAll(int pageSize, IAction<ElementBase> visitAction) throws Exception;
+	//the visitAction is called by several threads, a provider which can't read in parallel visits one by one
+	public void visitAllParallel(int pageSize, int threadCount, IAction<ElementBase> visitAction) throws Exception;
+}
@@ -0,0 +1,36 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.core;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.ImplementedBy;
+
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+import asyncnode.implement.CassandraAsyncQueueDao;
+
+//the durable queues, a node is kept under the schdule cycle of its status until it is removed
+@ImplementedBy(CassandraAsyncQueueDao.class)
+public interface IAsyncQueueDao {
+	public void add(ElementStatusEnum status, ElementBase element) throws Exception;
+	public void remove(ElementStatusEnum status, ElementBase element) throws Exception;
+	//removes the node from the priority whatever its status is
+	public void forceRemove(Integer priority, String nodeID) throws Exception;
+	//priority -> { node id, status prefix of CassandraWorkFlowDao }
+	public ConcurrentMap<Integer, Set<String[]>> load(int pageSize) throws Exception;
+}
@@ -0,0 +1,34 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.core;
+
+import java.util.List;
+
+import com.google.inject.ImplementedBy;
+
+import asyncnode.ElementStatusEnum;
+import asyncnode.implement.CassandraWorkFlowDao;
+
+//the status index of the nodes of one workflow
+@ImplementedBy(CassandraWorkFlowDao.class)
+public interface IWorkFlowDao {
+	//a null status is not removed or added
+	public void swapStatus(String workFlowID, String nodeID, ElementStatusEnum oldStatus, ElementStatusEnum newStatus) throws Exception;
+	public void delete(String workFlowID) throws Exception;
+	public void delete(String workFlowID, String nodeID) throws Exception;
+	//at most listCount node ids of the status
+	public List<String> getStatusList(String workFlowID, ElementStatusEnum status, int listCount) throws Exception;
+}
@@ -34,27 +34,43 @@ import org.apache.cassandra.thrift.Cassandra.Client;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
 
 import com.google.inject.Singleton;
 
+import asyncnode.DirtyTrackingMap;
 import asyncnode.ElementBase;
 import asyncnode.ElementStatusEnum;
+import asyncnode.implement.cassandra.BinaryMapCodec;
+import asyncnode.implement.cassandra.CassandraBatch;
 import asyncnode.implement.cassandra.CassandraHelper;
+import asyncnode.implement.cassandra.CassandraRangeReader;
+import asyncnode.implement.cassandra.IMapCodec;
+import asyncnode.implement.cassandra.SerializationService;
 import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.core.IAction;
 import asyncnode.core.IAction2;
+import asyncnode.core.IAsyncNodeDao;
 
 import asyncnode.core.IFunc;
 
 @Singleton
-public class CassandraAsyncNodeDao
+public class CassandraAsyncNodeDao implements IAsyncNodeDao
 {
 	protected CassandraDescrib cassandraDescrib = null;
+	//null keeps the value and class columns for every map entry
+	protected IMapCodec mapCodec = null;
 	public void setCassandraDescrib(CassandraDescrib cassandraDescrib)
 	{
 		this.cassandraDescrib = cassandraDescrib;
 	}
 	
+	public IMapCodec getMapCodec() {
+		return mapCodec;
+	}
+	public void setMapCodec(IMapCodec mapCodec) {
+		this.mapCodec = mapCodec;
+	}
+	
 	protected boolean isValueValueColumn(String columnName)
 	{
 		return columnName.equals(ElementBase.ValueField);
@@ -65,6 +81,79 @@ public class CassandraAsyncNodeDao
 		return columnName.equals(ElementBase.ValueClass);
 	}	
 	
+	private static final IMapCodec defaultMapCodec = new BinaryMapCodec();
+	
+	protected List<Mutation> serializeMap(String mapField, Map<String, ?> serializeSource) throws Exception
+	{
+		List<Mutation> mutationList = new ArrayList<Mutation>();
+		mutationList.add(CassandraHelper.getMutation(mapField.getBytes(), mapCodec.encode(serializeSource), System.currentTimeMillis()));
+		return mutationList;
+	}
+	
+	//only the changed entries of a tracked map are written and the removed ones deleted, null when the map is not tracked.
+	//the whole map is written when fullWrite, or in one column by the map codec when any entry is changed.
+	//the drained keys are marked again when the batch of the write is not sent, so the next update writes them
+	protected <T> List<Mutation> serializeChangedEntries(ConcurrentMap<String, T> serializeSource, boolean fullWrite,
+			String mapField, String valuePrefix, String classPrefix) throws Exception
+	{
+		if(!(serializeSource instanceof DirtyTrackingMap))
+		{
+			return null;
+		}
+		final DirtyTrackingMap<T> trackingMap = (DirtyTrackingMap<T>)serializeSource;
+		final Set<String> dirtyKeySet = trackingMap.drainDirtyKeys();
+		final Set<String> removedKeySet = trackingMap.drainRemovedKeys();
+		CassandraBatch batch = CassandraBatch.getCurrent();
+		if(batch != null && (!dirtyKeySet.isEmpty() || !removedKeySet.isEmpty()))
+		{
+			batch.addFailureAction(new IAction<Exception>(){
+				public void invoke(Exception failure) throws Exception {
+					trackingMap.restoreDirtyKeys(dirtyKeySet, removedKeySet);
+				}
+			});
+		}
+		if(mapCodec != null)
+		{
+			if(fullWrite || !dirtyKeySet.isEmpty() || !removedKeySet.isEmpty())
+			{
+				return serializeMap(mapField, trackingMap);
+			}
+			return new ArrayList<Mutation>();
+		}
+		ConcurrentMap<String, T> changedMap = trackingMap;
+		if(!fullWrite)
+		{
+			changedMap = new ConcurrentHashMap<String, T>();
+			for(String key : dirtyKeySet)
+			{
+				T value = trackingMap.get(key);
+				if(value != null)
+				{
+					changedMap.put(key, value);
+				}
+			}
+		}
+		List<Mutation> mutationList = new ArrayList<Mutation>();
+		List<Mutation> changedList = CassandraHelper.getDynamicMutationList(commonSerializeMap(changedMap, valuePrefix, classPrefix));
+		if(changedList != null)
+		{
+			mutationList.addAll(changedList);
+		}
+		if(removedKeySet.contains(mapField))
+		{
+			mutationList.add(CassandraHelper.getDeleteMutation(mapField.getBytes()));
+		}
+		for(String key : removedKeySet)
+		{
+			if(!key.equals(mapField) && !trackingMap.containsKey(key))
+			{
+				mutationList.add(CassandraHelper.getDeleteMutation((valuePrefix + key).getBytes()));
+				mutationList.add(CassandraHelper.getDeleteMutation((classPrefix + key).getBytes()));
+			}
+		}
+		return mutationList;
+	}
+	
 	protected ConcurrentMap<String, String> serializeAppVariables(ElementBase elementBase, Map<String, Object> columnValueHash) throws Exception
 	{
 		ConcurrentMap<String, Object> serializeSource = null;
@@ -148,7 +237,7 @@ public class CassandraAsyncNodeDao
 			stringMap = new ConcurrentHashMap<String, String>();
 			for(Map.Entry<String, T> entry : serializeSource.entrySet())
 			{				
-				stringMap.put(valuePrefix + entry.getKey(), new ObjectMapper().writeValueAsString(entry.getValue()));
+				stringMap.put(valuePrefix + entry.getKey(), SerializationService.writeValueAsString(entry.getValue()));
 				String typeName = null;
 				if(entry.getValue() != null)
 				{
@@ -166,12 +255,11 @@ public class CassandraAsyncNodeDao
 		if(elementBase.value != null)
 		{					
 			valueMap = new ConcurrentHashMap<String, String>();
-			ObjectMapper objectMapper = new ObjectMapper();
 			String sValue = null;
 			String sClass = null;
 			try
 			{
-				sValue = objectMapper.writeValueAsString(elementBase.value);
+				sValue = SerializationService.writeValueAsString(elementBase.value);
 				sClass = elementBase.value.getClass().getName();
 				valueMap.put(ElementBase.ValueField, sValue);
 				valueMap.put(ElementBase.ValueClass, sClass);
@@ -205,7 +293,7 @@ public class CassandraAsyncNodeDao
 				Class VariableClass = null;
 				if(className != null && !className.equals(""))
 				{
-					VariableClass = Class.forName(className);
+					VariableClass = SerializationService.getClass(className);
 				}
 				VariableClassMap.put(variableName, VariableClass);
 			}
@@ -221,7 +309,7 @@ public class CassandraAsyncNodeDao
 				T VariableValue = null;
 				if(variableClass != null)
 				{
-					VariableValue = (T)new ObjectMapper().readValue(sVariableValue, variableClass);
+					VariableValue = (T)SerializationService.readValue(sVariableValue, variableClass);
 				}
 				deserializeDest.put(variableName, VariableValue);
 			}
@@ -253,8 +341,8 @@ public class CassandraAsyncNodeDao
 			if(isValueValueColumn(columnName))
 			{
 				String sVariableValue = entry.getValue();
-				Class variableClass = (Class)Class.forName(className);
-				Object VariableValue = new ObjectMapper().readValue(sVariableValue, variableClass);
+				Class variableClass = SerializationService.getClass(className);
+				Object VariableValue = SerializationService.readValue(sVariableValue, variableClass);
 				elementBase.value = VariableValue;
 				break;
 			}
@@ -275,6 +363,37 @@ public class CassandraAsyncNodeDao
 		deserialzeValue(elementBase, valueMap);
 	}	
 	
+	//the map column is read first, the rows written before the codec was configured still have the entry columns.
+	//true when the map column is left by a codec which is not configured any more, the entry columns written after it
+	//only have the changed entries, so the map must be written again as entry columns before the map column is deleted
+	protected <T> boolean convertElementBaseMap(ElementBase elementBase, List<ColumnOrSuperColumn> columnList,
+			String mapField, String classPrefix, String valuePrefix,
+			ConcurrentMap<String, T> deserializeDest) throws Exception
+	{
+		for(ColumnOrSuperColumn column : columnList)
+		{
+			if(new String(column.getColumn().getName()).equals(mapField))
+			{
+				IMapCodec codec = mapCodec == null ? defaultMapCodec : mapCodec;
+				codec.decode(column.getColumn().getValue(), deserializeDest);
+				return mapCodec == null;
+			}
+		}
+		commonConvertElementBaseMap(elementBase, columnList, classPrefix, valuePrefix, deserializeDest);
+		return false;
+	}
+	
+	//the next write has every entry and deletes the map column, the map field is kept as a removed key until then
+	protected void markMapColumnRewrite(ConcurrentMap<String, ?> map, String mapField)
+	{
+		if(map instanceof DirtyTrackingMap)
+		{
+			DirtyTrackingMap<?> trackingMap = (DirtyTrackingMap<?>)map;
+			trackingMap.markAllDirty();
+			trackingMap.markRemoved(mapField);
+		}
+	}
+	
 	protected <T> void commonConvertElementBaseMap(ElementBase elementBase, List<ColumnOrSuperColumn> columnList,
 			String classPrefix, String valuePrefix,
 			ConcurrentMap<String, T> deserializeDest) throws Exception
@@ -300,6 +419,26 @@ public class CassandraAsyncNodeDao
 		return deserializeSource;
 	}
 	
+	protected IFunc<List<ColumnOrSuperColumn>, ElementBase> getElementInstanceFunc()
+	{
+		return new IFunc<List<ColumnOrSuperColumn>, ElementBase>(){
+			
+			public ElementBase getValue(List<ColumnOrSuperColumn> param)
+					throws Exception {				
+				String className = null;
+				for(ColumnOrSuperColumn column : param)
+				{
+					if(new String(column.getColumn().getName()).equals(ElementBase.ClassNameField))
+					{
+						className = new String(column.getColumn().getValue());
+						break;
+					}
+				}
+				return ElementBase.getElementInstance(className);
+			}
+		};
+	}
+	
 	protected List<ElementBase> get(List<String> keyList, IAction2<ElementBase, List<ColumnOrSuperColumn>> columnsConverter) throws Exception
 	{
 		List<ByteBuffer> keyBufferList = null;
@@ -313,22 +452,7 @@ public class CassandraAsyncNodeDao
 			}
 		}
 		
-		List<ElementBase> resultList = CassandraHelper.batchGet(new IFunc<List<ColumnOrSuperColumn>, ElementBase>(){
-				
-				public ElementBase getValue(List<ColumnOrSuperColumn> param)
-						throws Exception {				
-					String className = null;
-					for(ColumnOrSuperColumn column : param)
-					{
-						if(new String(column.getColumn().getName()).equals(ElementBase.ClassNameField))
-						{
-							className = new String(column.getColumn().getValue());
-							break;
-						}
-					}
-					return ElementBase.getElementInstance(className);
-				}
-			},
+		List<ElementBase> resultList = CassandraHelper.batchGet(getElementInstanceFunc(),
 			cassandraDescrib,
 			keyBufferList,
 			columnsConverter);
@@ -363,15 +487,32 @@ public class CassandraAsyncNodeDao
 			public void invoke(ElementBase tParam,
 					List<ColumnOrSuperColumn> param2) throws Exception {
 				ConvertElementBaseValue(tParam, param2);
-				commonConvertElementBaseMap(tParam, param2, ElementBase.AppVariableClassPrefix,
+				boolean appVarRewrite = convertElementBaseMap(tParam, param2, ElementBase.AppVariableMapField, ElementBase.AppVariableClassPrefix,
 						ElementBase.AppVariableValuePrefix, tParam.appVariables);
 				
-				commonConvertElementBaseMap(tParam, param2, ElementBase.InNodesClassPrefix,
+				boolean inNodesRewrite = convertElementBaseMap(tParam, param2, ElementBase.InNodesMapField, ElementBase.InNodesClassPrefix,
 						ElementBase.InNodesValuePrefix, tParam.getInNodesMap());
-				commonConvertElementBaseMap(tParam, param2, ElementBase.OutNodesClassPrefix,
+				boolean outNodesRewrite = convertElementBaseMap(tParam, param2, ElementBase.OutNodesMapField, ElementBase.OutNodesClassPrefix,
 						ElementBase.OutNodesValuePrefix, tParam.getOutNodesMap());
-				commonConvertElementBaseMap(tParam, param2, ElementBase.AttributeClassPrefix,
+				boolean attributeRewrite = convertElementBaseMap(tParam, param2, ElementBase.AttributeMapField, ElementBase.AttributeClassPrefix,
 						ElementBase.AttributeValuePrefix, tParam.getAttributeMap());
+				tParam.clearDirtyMaps();
+				if(appVarRewrite)
+				{
+					markMapColumnRewrite(tParam.appVariables, ElementBase.AppVariableMapField);
+				}
+				if(inNodesRewrite)
+				{
+					markMapColumnRewrite(tParam.getInNodesMap(), ElementBase.InNodesMapField);
+				}
+				if(outNodesRewrite)
+				{
+					markMapColumnRewrite(tParam.getOutNodesMap(), ElementBase.OutNodesMapField);
+				}
+				if(attributeRewrite)
+				{
+					markMapColumnRewrite(tParam.getAttributeMap(), ElementBase.AttributeMapField);
+				}
 			}			
 		};
 	}
@@ -392,6 +533,24 @@ public class CassandraAsyncNodeDao
 		List<String> keyList = null;
 		return get(keyList);
 	}
+	
+	//visit the stored nodes page by page, the nodes are not kept in one list
+	public void visitAll(int pageSize, IAction<ElementBase> visitAction) throws Exception
+	{
+		CassandraHelper.visitAll(getElementInstanceFunc(), cassandraDescrib, pageSize, getColumnValuesAction(), visitAction);
+	}
+
+	//token ranges are read on threadCount connections, visitAction is called on several threads
+	public void visitAllParallel(int pageSize, int threadCount, IAction<ElementBase> visitAction) throws Exception
+	{
+		CassandraRangeReader rangeReader = new CassandraRangeReader(cassandraDescrib);
+		rangeReader.setPageSize(pageSize);
+		rangeReader.setFetchThreadCount(threadCount);
+		if(!rangeReader.visitAll(getElementInstanceFunc(), getColumnValuesAction(), visitAction))
+		{
+			visitAll(pageSize, visitAction);
+		}
+	}
 
 		
 	public Object getValue(String key) throws Exception
@@ -425,28 +584,54 @@ public class CassandraAsyncNodeDao
 				valueMutation = CassandraHelper.getDynamicMutationList(serialzeValue(elementBase));
 			}
 						
+			boolean fullWrite = this.columnList == null;
 			List<Mutation> appVarMutationList = null;
-			if(this.columnList == null || this.columnList.contains("appVariables"))
+			if(fullWrite || this.columnList.contains("appVariables"))
 			{
-				appVarMutationList = CassandraHelper.getDynamicMutationList(serializeAppVariables(elementBase, this.columnValueHash));
+				appVarMutationList = serializeChangedEntries(elementBase.appVariables, fullWrite, ElementBase.AppVariableMapField,
+						ElementBase.AppVariableValuePrefix, ElementBase.AppVariableClassPrefix);
+				if(appVarMutationList == null)
+				{
+					//the whole map is written, the node in memory already has the changed entries
+					appVarMutationList = mapCodec != null ? serializeMap(ElementBase.AppVariableMapField, elementBase.appVariables)
+							: CassandraHelper.getDynamicMutationList(serializeAppVariables(elementBase, this.columnValueHash));
+				}
 			}
 			
 			List<Mutation> outNodesMutationList = null;
-			if(this.columnList == null || this.columnList.contains("outNodesMap"))
+			if(fullWrite || this.columnList.contains("outNodesMap"))
 			{
-				outNodesMutationList = CassandraHelper.getDynamicMutationList(serializeOutNodes(elementBase, this.columnValueHash));
+				outNodesMutationList = serializeChangedEntries(elementBase.getOutNodesMap(), fullWrite, ElementBase.OutNodesMapField,
+						ElementBase.OutNodesValuePrefix, ElementBase.OutNodesClassPrefix);
+				if(outNodesMutationList == null)
+				{
+					outNodesMutationList = mapCodec != null ? serializeMap(ElementBase.OutNodesMapField, elementBase.getOutNodesMap())
+							: CassandraHelper.getDynamicMutationList(serializeOutNodes(elementBase, this.columnValueHash));
+				}
 			}
 			
 			List<Mutation> inNodesMutationList = null;
-			if(this.columnList == null || this.columnList.contains("inNodesMap"))
+			if(fullWrite || this.columnList.contains("inNodesMap"))
 			{
-				inNodesMutationList = CassandraHelper.getDynamicMutationList(serializeInNodes(elementBase, this.columnValueHash));
+				inNodesMutationList = serializeChangedEntries(elementBase.getInNodesMap(), fullWrite, ElementBase.InNodesMapField,
+						ElementBase.InNodesValuePrefix, ElementBase.InNodesClassPrefix);
+				if(inNodesMutationList == null)
+				{
+					inNodesMutationList = mapCodec != null ? serializeMap(ElementBase.InNodesMapField, elementBase.getInNodesMap())
+							: CassandraHelper.getDynamicMutationList(serializeInNodes(elementBase, this.columnValueHash));
+				}
 			}
 			
 			List<Mutation> attributeMutationList = null;
-			if(this.columnList == null || this.columnList.contains("attributeMap"))
+			if(fullWrite || this.columnList.contains("attributeMap"))
 			{
-				attributeMutationList = CassandraHelper.getDynamicMutationList(serializeAttribute(elementBase));
+				attributeMutationList = serializeChangedEntries(elementBase.getAttributeMap(), fullWrite, ElementBase.AttributeMapField,
+						ElementBase.AttributeValuePrefix, ElementBase.AttributeClassPrefix);
+				if(attributeMutationList == null)
+				{
+					attributeMutationList = mapCodec != null ? serializeMap(ElementBase.AttributeMapField, elementBase.getAttributeMap())
+							: CassandraHelper.getDynamicMutationList(serializeAttribute(elementBase));
+				}
 			}
 			 
 			if(valueMutation != null)
@@ -483,7 +668,7 @@ public class CassandraAsyncNodeDao
 	{
 		List<ElementBase> elementList = new ArrayList<ElementBase>();
 		elementList.add(elementBase);
-		CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getBatchPutColumnValuesMutation(elementList, null, new VariableColumnsConverter(null, null)), ConsistencyLevel.ONE);
+		batchUpdate(elementList, null, new VariableColumnsConverter(null, null));
 	}
 
 	
@@ -493,6 +678,21 @@ public class CassandraAsyncNodeDao
 		convertFunc = new VariableColumnsConverter(columnList, columnValueHash);	
 		List<ElementBase> elementList = new ArrayList<ElementBase>();
 		elementList.add(elementBase);
-		CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getBatchPutColumnValuesMutation(elementList, columnList, convertFunc), ConsistencyLevel.ONE);
-	}	
+		batchUpdate(elementList, columnList, convertFunc);
+	}
+	
+	//the mutations are sent by a batch, so the drained dirty keys are marked again when they are not sent
+	protected void batchUpdate(List<ElementBase> elementList, List<String> columnList, IFunc<ElementBase, List<Mutation>> convertFunc) throws Exception
+	{
+		CassandraBatch batch = CassandraBatch.begin();
+		try
+		{
+			CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getBatchPutColumnValuesMutation(elementList, columnList, convertFunc), ConsistencyLevel.ONE);
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
+	}
 }
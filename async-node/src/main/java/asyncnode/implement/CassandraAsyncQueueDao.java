@@ -37,9 +37,10 @@ import asyncnode.implement.cassandra.CassandraHelper;
 import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
 import asyncnode.implement.cassandra.FieldSerailzerBase;
 import asyncnode.core.IAction2;
+import asyncnode.core.IAsyncQueueDao;
 
 @Singleton
-public class CassandraAsyncQueueDao {
+public class CassandraAsyncQueueDao implements IAsyncQueueDao {
 	protected CassandraDescrib cassandraDescrib = null;	
 	public void setCassandraDescrib(CassandraDescrib cassandraDescrib)
 	{
@@ -47,18 +48,29 @@ public class CassandraAsyncQueueDao {
 	}
 	
 	public ConcurrentMap<Integer, Set<String[]>> load() throws Exception
+	{
+		return load(CassandraHelper.DefaultPageSize);
+	}
+	
+	//one priority row may hold a lot of nodes, so the columns are read page by page
+	public ConcurrentMap<Integer, Set<String[]>> load(int pageSize) throws Exception
 	{
 		final ConcurrentMap<Integer, Set<String[]>> result = new ConcurrentHashMap<Integer, Set<String[]>>();
-		CassandraHelper.getAllMutation(cassandraDescrib, new IAction2<String, List<String>>(){
+		CassandraHelper.visitPagedColumns(cassandraDescrib, pageSize, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
 			
-			public void invoke(String tParam, List<String> param2)
+			public void invoke(ByteBuffer tParam, List<ColumnOrSuperColumn> param2)
 					throws Exception {
 				
-				Integer key = Integer.parseInt(tParam);
-				Set<String[]> columns = new HashSet<String[]>();
-				result.put(key, columns);
-				for(String statusNode : param2)
+				Integer key = Integer.parseInt(CassandraHelper.getString(tParam));
+				Set<String[]> columns = result.get(key);
+				if(columns == null)
+				{
+					columns = new HashSet<String[]>();
+					result.put(key, columns);
+				}
+				for(ColumnOrSuperColumn column : param2)
 				{
+					String statusNode = new String(column.getColumn().getName());
 					String nodeID = statusNode.substring(0, statusNode.length() - 3);
 					String status = statusNode.substring(statusNode.length() - 3 + 1, statusNode.length());
 					columns.add(new String[] {
@@ -40,11 +40,12 @@ import asyncnode.ElementStatusEnum;
 import asyncnode.implement.cassandra.CassandraHelper;
 import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
 import asyncnode.core.IAction2;
+import asyncnode.core.IWorkFlowDao;
 
 import asyncnode.core.IFunc;
 
 @Singleton
-public class CassandraWorkFlowDao
+public class CassandraWorkFlowDao implements IWorkFlowDao
 {	
 	public static final String PendingPrefix = "PI";
 	public static final String ReadyPrefix = "RD";
@@ -0,0 +1,376 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.inject.Singleton;
+
+import asyncnode.AsyncNodeRunner;
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+
+//queue without the global monitor, every bucket is indexed by nodeID so add/remove/forceRemove are O(1)
+//and the same node with the same status is only queued once.
+//the schdule thread is the only reader of getCurrentRunableList, the workers only add and remove
+@Singleton
+public class ConcurrentAsyncQueueDao extends MemoryAsyncQueueDao {
+	//priority -> nodeID -> statusPrefix set
+	protected ConcurrentMap<Integer, ConcurrentMap<String, Set<String>>> nodeQueue = new ConcurrentHashMap<Integer, ConcurrentMap<String, Set<String>>>();
+	protected AtomicInteger nodeQueueSize = new AtomicInteger(0);
+
+	//item is { priority, nodeID, statusPrefix }
+	protected ConcurrentLinkedQueue<Object[]> pendingNodeQueue = new ConcurrentLinkedQueue<Object[]>();
+	protected ConcurrentLinkedQueue<Object[]> wakeupNodeQueue = new ConcurrentLinkedQueue<Object[]>();
+
+	protected volatile Thread waitingThread = null;
+
+	protected static Set<String> newConcurrentSet()
+	{
+		return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	}
+
+	protected ConcurrentMap<String, Set<String>> getBucket(Integer priority)
+	{
+		ConcurrentMap<String, Set<String>> bucket = nodeQueue.get(priority);
+		if(bucket == null)
+		{
+			ConcurrentMap<String, Set<String>> newBucket = new ConcurrentHashMap<String, Set<String>>();
+			bucket = nodeQueue.putIfAbsent(priority, newBucket);
+			if(bucket == null)
+			{
+				bucket = newBucket;
+			}
+		}
+		return bucket;
+	}
+
+	//the status set of a node is changed and dropped by compute, so a set which is being emptied can't take a new status
+	@Override
+	protected void addRunable(Integer priority, String nodeID, final String statusPrefix)
+	{
+		getBucket(priority).compute(nodeID, new BiFunction<String, Set<String>, Set<String>>(){
+			public Set<String> apply(String key, Set<String> statusSet) {
+				if(statusSet == null)
+				{
+					statusSet = newConcurrentSet();
+				}
+				if(statusSet.add(statusPrefix))
+				{
+					nodeQueueSize.incrementAndGet();
+				}
+				return statusSet;
+			}
+		});
+	}
+
+	//remove all status of the node when statusPrefix is null
+	@Override
+	protected void removeRunable(Integer priority, String nodeID, final String statusPrefix)
+	{
+		ConcurrentMap<String, Set<String>> bucket = nodeQueue.get(priority);
+		if(bucket == null)
+		{
+			return;
+		}
+		bucket.computeIfPresent(nodeID, new BiFunction<String, Set<String>, Set<String>>(){
+			public Set<String> apply(String key, Set<String> statusSet) {
+				if(statusPrefix != null)
+				{
+					if(statusSet.remove(statusPrefix))
+					{
+						nodeQueueSize.decrementAndGet();
+					}
+				}
+				else
+				{
+					nodeQueueSize.addAndGet(-statusSet.size());
+					statusSet.clear();
+				}
+				return statusSet.isEmpty() ? null : statusSet;
+			}
+		});
+	}
+
+	protected boolean isQueued(Integer priority, String nodeID, String statusPrefix)
+	{
+		ConcurrentMap<String, Set<String>> bucket = nodeQueue.get(priority);
+		if(bucket == null)
+		{
+			return false;
+		}
+		Set<String> statusSet = bucket.get(nodeID);
+		return statusSet != null && statusSet.contains(statusPrefix);
+	}
+
+	@Override
+	protected boolean isRunableEmpty()
+	{
+		return nodeQueueSize.get() <= 0;
+	}
+
+	@Override
+	protected void addDueNodes(Map<Integer, Set<String>> runableMap)
+	{
+		for(Entry<Integer, ConcurrentMap<String, Set<String>>> entry : this.nodeQueue.entrySet())
+		{
+			if(counter % entry.getKey() == 0 && !entry.getValue().isEmpty())
+			{
+				Set<String> nodeSet = getRunableSet(runableMap, entry.getKey());
+				for(Entry<String, Set<String>> nodeEntry : entry.getValue().entrySet())
+				{
+					if(!nodeEntry.getValue().isEmpty())
+					{
+						nodeSet.add(nodeEntry.getKey());
+					}
+				}
+			}
+		}
+
+		if(counter < Integer.MAX_VALUE)
+		{
+			counter++;
+		}
+		else
+		{
+			counter = 1;
+		}
+	}
+
+	protected void wakeup(Integer priority, String nodeID, String statusPrefix)
+	{
+		if(isEventDrivenSchdule())
+		{
+			wakeupNodeQueue.add(new Object[] { priority, nodeID, statusPrefix });
+			signalWaitingThread();
+		}
+	}
+
+	protected void signalWaitingThread()
+	{
+		Thread thread = waitingThread;
+		if(thread != null)
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@Override
+	public ConcurrentMap<Integer, Set<String[]>> getAsyncQueue()
+	{
+		ConcurrentMap<Integer, Set<String[]>> result = new ConcurrentHashMap<Integer, Set<String[]>>();
+		for(Entry<Integer, ConcurrentMap<String, Set<String>>> entry : this.nodeQueue.entrySet())
+		{
+			Set<String[]> queue = new HashSet<String[]>();
+			for(Entry<String, Set<String>> nodeEntry : entry.getValue().entrySet())
+			{
+				for(String statusPrefix : nodeEntry.getValue())
+				{
+					queue.add(new String[] { nodeEntry.getKey(), statusPrefix });
+				}
+			}
+			if(!queue.isEmpty())
+			{
+				result.put(entry.getKey(), queue);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public ConcurrentMap<Integer, Set<String[]>> getPendingAsyncQueue()
+	{
+		ConcurrentMap<Integer, Set<String[]>> result = new ConcurrentHashMap<Integer, Set<String[]>>();
+		for(Object[] item : pendingNodeQueue)
+		{
+			Set<String[]> queue = result.get(item[0]);
+			if(queue == null)
+			{
+				queue = new HashSet<String[]>();
+				result.put((Integer)item[0], queue);
+			}
+			queue.add(new String[] { (String)item[1], (String)item[2] });
+		}
+		return result;
+	}
+
+	@Override
+	public void setAsyncQueue(ConcurrentMap<Integer, Set<String[]>> asyncQueue)
+	{
+		this.nodeQueue.clear();
+		this.nodeQueueSize.set(0);
+		for(Entry<Integer, Set<String[]>> entry : asyncQueue.entrySet())
+		{
+			for(String[] statusNode : entry.getValue())
+			{
+				addRunable(entry.getKey(), statusNode[0], statusNode[1]);
+			}
+		}
+	}
+
+	@Override
+	public void addBufferList(List<ElementBase> elementList) throws Exception
+	{
+		for(ElementBase element : elementList)
+		{
+			ElementStatusEnum newStatus = element.getStatus();
+			if(!(newStatus.equals(ElementStatusEnum.Pending)
+					|| newStatus.equals(ElementStatusEnum.Running)
+					|| newStatus.equals(ElementStatusEnum.NotifiedInput)
+					|| newStatus.equals(ElementStatusEnum.Destryed)))
+			{
+				pendingNodeQueue.add(new Object[] { AsyncNodeRunner.getSchduleCycle(newStatus, element),
+						element.getId().toString(),
+						CassandraWorkFlowDao.getStatus(newStatus) });
+			}
+		}
+		signalWaitingThread();
+	}
+
+	@Override
+	public void moveBufferQueue()
+	{
+		Object[] item = null;
+		while((item = pendingNodeQueue.poll()) != null)
+		{
+			addRunable((Integer)item[0], (String)item[1], (String)item[2]);
+			wakeup((Integer)item[0], (String)item[1], (String)item[2]);
+		}
+	}
+
+	@Override
+	public boolean isActiveEmpty()
+	{
+		return isRunableEmpty() && pendingNodeQueue.isEmpty();
+	}
+
+	@Override
+	public void awaitRunable() throws InterruptedException
+	{
+		int tickInterval = getTickInterval();
+		waitingThread = Thread.currentThread();
+		try
+		{
+			while(wakeupNodeQueue.isEmpty() && pendingNodeQueue.isEmpty())
+			{
+				if(Thread.interrupted())
+				{
+					throw new InterruptedException();
+				}
+				if(isRunableEmpty())
+				{
+					LockSupport.park(this);
+					continue;
+				}
+				long waitTime = lastTickTime + tickInterval - System.currentTimeMillis();
+				if(waitTime <= 0)
+				{
+					return;
+				}
+				LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(waitTime));
+			}
+		}
+		finally
+		{
+			waitingThread = null;
+		}
+	}
+
+	@Override
+	public Map<Integer, String[]> getCurrentRunableList()
+	{
+		Map<Integer, Set<String>> runableMap = new HashMap<Integer, Set<String>>();
+		if(isEventDrivenSchdule())
+		{
+			Object[] item = null;
+			while((item = wakeupNodeQueue.poll()) != null)
+			{
+				//the node may be moved to other status after woken up
+				if(isQueued((Integer)item[0], (String)item[1], (String)item[2]))
+				{
+					getRunableSet(runableMap, (Integer)item[0]).add((String)item[1]);
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			if(now - lastTickTime >= getTickInterval())
+			{
+				lastTickTime = now;
+				addDueNodes(runableMap);
+			}
+		}
+		else
+		{
+			addDueNodes(runableMap);
+		}
+
+		Map<Integer, String[]> result = new HashMap<Integer, String[]>();
+		for(Entry<Integer, Set<String>> entry : runableMap.entrySet())
+		{
+			if(!entry.getValue().isEmpty())
+			{
+				result.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public void add(ElementStatusEnum status, ElementBase element) throws Exception {
+		add(status, element, true);
+	}
+
+	@Override
+	public void add(ElementStatusEnum status, ElementBase element, boolean wakeup) throws Exception {
+		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
+		String nodeID = element.getId().toString();
+		String statusPrefix = CassandraWorkFlowDao.getStatus(status);
+		addRunable(priority, nodeID, statusPrefix);
+		if(wakeup)
+		{
+			wakeup(priority, nodeID, statusPrefix);
+		}
+		else
+		{
+			//the schdule thread may be parked without timeout because the queue was empty
+			signalWaitingThread();
+		}
+	}
+
+	@Override
+	public void remove(ElementStatusEnum status, ElementBase element) throws Exception {
+		removeRunable(AsyncNodeRunner.getSchduleCycle(status, element),
+				element.getId().toString(),
+				CassandraWorkFlowDao.getStatus(status));
+	}
+
+	@Override
+	public void forceRemove(Integer priority, String nodeID) throws Exception {
+		removeRunable(priority, nodeID, null);
+	}
+}
@@ -0,0 +1,291 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.Singleton;
+
+import asyncnode.App;
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+import asyncnode.ExceptionHandler;
+import asyncnode.WorkflowGraph;
+
+//runs the workflows which have only non persistent nodes without the queue and the schdule thread.
+//a node is executed by the thread which finishes its last input, and is destroyed when it and all its out nodes are finished.
+//the workflow is laid out as a WorkflowGraph, the maps of its nodes are views of the graph
+@Singleton
+public class ExpressElementDao extends StoreableElementDao {
+	protected ConcurrentMap<String, ExpressNode> expressNodeMap = new ConcurrentHashMap<String, ExpressNode>();
+	private Timer recallTimer = null;
+	
+	//the counters of the node are kept by the graph of its workflow
+	public static class ExpressNode
+	{
+		protected WorkflowGraph graph;
+		protected int index;
+		
+		public ExpressNode(WorkflowGraph graph, int index)
+		{
+			this.graph = graph;
+			this.index = index;
+		}
+		
+		public ElementBase getElement() {
+			return graph.getElement(index);
+		}
+	}
+	
+	public boolean isEnabled()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getExpressExecution();
+	}
+	
+	public int getNodeCount()
+	{
+		return expressNodeMap.size();
+	}
+	
+	//the nodes can be run when they are not persistent and all the inputs outside of the list are express nodes,
+	//the nodes built dynamically by an express node must be express too, the node would not be destroyed otherwise
+	public boolean canRun(List<ElementBase> elementList) throws Exception
+	{
+		Set<String> idSet = new HashSet<String>();
+		for(ElementBase element : elementList)
+		{
+			idSet.add(element.getId().toString());
+		}
+		boolean express = isEnabled();
+		boolean expressInput = false;
+		for(ElementBase element : elementList)
+		{
+			if(element.isPersistent())
+			{
+				express = false;
+			}
+			for(String inNode : element.getInNodesMap().keySet())
+			{
+				if(idSet.contains(inNode))
+				{
+					continue;
+				}
+				if(expressNodeMap.containsKey(inNode))
+				{
+					expressInput = true;
+				}
+				else
+				{
+					express = false;
+				}
+			}
+		}
+		if(expressInput && !express)
+		{
+			throw new Exception("the nodes built by an express node must be non persistent!");
+		}
+		return express;
+	}
+	
+	public void run(List<ElementBase> elementList) throws Exception
+	{
+		//every node is registered before any of them runs, so a fast node always finds its out nodes
+		WorkflowGraph graph = WorkflowGraph.compile(elementList);
+		graph.attach();
+		for(int i = 0; i < graph.getNodeCount(); i++)
+		{
+			graph.getElement(i).setiElementDao(this);
+			graph.getElement(i).stopDirtyTracking();
+			expressNodeMap.put(graph.getNodeId(i), new ExpressNode(graph, i));
+		}
+		//the node which builds them dynamically waits for them too
+		for(int i = 0; i < graph.getNodeCount(); i++)
+		{
+			for(int slot = graph.getInStart(i); slot < graph.getInEnd(i); slot++)
+			{
+				if(graph.isExternal(graph.getInNode(slot)))
+				{
+					ExpressNode inExpressNode = expressNodeMap.get(graph.getNodeId(graph.getInNode(slot)));
+					if(inExpressNode != null)
+					{
+						inExpressNode.graph.addRemainingOutput(inExpressNode.index, 1);
+					}
+				}
+			}
+		}
+		for(ElementBase element : elementList)
+		{
+			element.build();
+		}
+		for(ElementBase element : elementList)
+		{
+			if(element.getStatus().equals(ElementStatusEnum.Ready))
+			{
+				dispatch(element);
+			}
+		}
+	}
+	
+	protected void dispatch(ElementBase element)
+	{
+		try
+		{
+			element.schdule();
+			//canExecute is false, it is tried again as the schdule thread does
+			if(element.getStatus().equals(ElementStatusEnum.Ready))
+			{
+				dispatchLater(element);
+			}
+		}
+		catch(Exception ex)
+		{
+			App.getConfig().getInstance(ExceptionHandler.class).safeHandleException(ex);
+		}
+	}
+	
+	protected synchronized void dispatchLater(final ElementBase element)
+	{
+		if(recallTimer == null)
+		{
+			recallTimer = new Timer("ExpressElementDao", true);
+		}
+		recallTimer.schedule(new TimerTask(){
+			public void run() {
+				dispatch(element);
+			}
+		}, Math.max(1, App.getConfig().getInstance(App.AppContext.class).getSleepInterval()));
+	}
+	
+	@Override
+	public Object getAttribute(String elementID) throws Exception {
+		ExpressNode expressNode = expressNodeMap.get(elementID);
+		if(expressNode == null)
+		{
+			return super.getAttribute(elementID);
+		}
+		return expressNode.getElement().getValue();
+	}
+
+	@Override
+	public ElementBase getElementBase(String elementID) throws Exception
+	{
+		ExpressNode expressNode = expressNodeMap.get(elementID);
+		if(expressNode == null)
+		{
+			return super.getElementBase(elementID);
+		}
+		return expressNode.getElement();
+	}
+	
+	@Override
+	public void addElement(ElementBase element) throws Exception {
+		ExpressNode expressNode = expressNodeMap.get(element.getId().toString());
+		element.setStatus(expressNode.graph.getRemainingInput(expressNode.index) > 0 ? ElementStatusEnum.Pending : ElementStatusEnum.Ready);
+	}
+	
+	@Override
+	public void submitAppVariables(ElementBase element, ConcurrentMap<String, Object> varMap) throws Exception
+	{
+		element.setLastEditTime(System.currentTimeMillis());
+	}
+	
+	//only a recalling node comes back to ready, the pending nodes are dispatched by their last input
+	@Override
+	public void setReady(ElementBase element)  throws Exception {
+		if(element.getStatus().equals(ElementStatusEnum.Running))
+		{
+			element.setStatus(ElementStatusEnum.Ready);
+			element.setLastEditTime(System.currentTimeMillis());
+			dispatchLater(element);
+		}
+	}
+	
+	@Override
+	public void setRunning(ElementBase element)  throws Exception {
+		element.setStatus(ElementStatusEnum.Running);
+		element.setLastEditTime(System.currentTimeMillis());
+	}
+	
+	//the out nodes and in nodes are found by index, only the node outside of the workflow is looked up by id
+	@Override
+	public void setNotifyFinish(ElementBase element)  throws Exception {
+		try
+		{
+			element.setStatus(ElementStatusEnum.NotifyFinish);
+			element.setLastEditTime(System.currentTimeMillis());
+			String elementID = element.getId().toString();
+			ExpressNode expressNode = expressNodeMap.get(elementID);
+			WorkflowGraph graph = expressNode.graph;
+			int index = expressNode.index;
+			//the dynamic nodes added later know the node finished when they are built
+			for(int slot = graph.getOutStart(index); slot < graph.getOutEnd(index); slot++)
+			{
+				int outIndex = graph.getOutNode(slot);
+				if(!graph.isExternal(outIndex) && graph.finishInput(outIndex, graph.getOutPeer(slot)) == 0)
+				{
+					ElementBase outElement = graph.getElement(outIndex);
+					outElement.setStatus(ElementStatusEnum.Ready);
+					dispatch(outElement);
+				}
+			}
+			for(int slot = graph.getInStart(index); slot < graph.getInEnd(index); slot++)
+			{
+				int inIndex = graph.getInNode(slot);
+				if(graph.isExternal(inIndex))
+				{
+					ExpressNode inExpressNode = expressNodeMap.get(graph.getNodeId(inIndex));
+					if(inExpressNode != null)
+					{
+						inExpressNode.getElement().getOutNodesMap().put(elementID, true);
+						release(inExpressNode.graph, inExpressNode.index);
+					}
+				}
+				else
+				{
+					graph.finishOutput(graph.getInPeer(slot));
+					release(graph, inIndex);
+				}
+			}
+			release(graph, index);
+		}
+		catch(Exception ex)
+		{
+			App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);
+		}
+	}
+	
+	protected void release(WorkflowGraph graph, int index) throws Exception
+	{
+		if(graph.addRemainingOutput(index, -1) == 0)
+		{
+			ElementBase element = graph.getElement(index);
+			element.setStatus(ElementStatusEnum.Destryable);
+			element.schdule();
+		}
+	}
+	
+	@Override
+	public void setDestryed(ElementBase element)  throws Exception {
+		expressNodeMap.remove(element.getId().toString());
+		element.setStatus(ElementStatusEnum.Destryed);
+	}
+}
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -27,6 +28,7 @@ import java.util.concurrent.ConcurrentMap;
 
 import com.google.inject.Singleton;
 
+import asyncnode.App;
 import asyncnode.AsyncNodeRunner;
 import asyncnode.ElementBase;
 import asyncnode.ElementStatusEnum;
@@ -37,6 +39,10 @@ public class MemoryAsyncQueueDao {
 	
 	protected ConcurrentMap<Integer, Set<String[]>> asyncQueue = new ConcurrentHashMap<Integer, Set<String[]>>();
 	protected ConcurrentMap<Integer, Set<String[]>> pendingAsyncQueue = new ConcurrentHashMap<Integer, Set<String[]>>();
+	//node which is queued after last loop, event driven schdule run them without waiting the schdule cycle.
+	//the item is nodeID_statusPrefix, same as the column name of cassandra queue
+	protected ConcurrentMap<Integer, Set<String>> wakeupQueue = new ConcurrentHashMap<Integer, Set<String>>();
+	protected long lastTickTime = 0;
 	
 	public synchronized ConcurrentMap<Integer, Set<String[]>> getAsyncQueue()
 	{
@@ -66,20 +72,17 @@ public class MemoryAsyncQueueDao {
 				add(this.pendingAsyncQueue, element.getStatus(), element);
 			}		
 		}
+		this.notifyAll();
 	}
 	
 	public synchronized void moveBufferQueue()
 	{
 		for(Entry<Integer, Set<String[]>> entry : pendingAsyncQueue.entrySet())
 		{
-			if(!asyncQueue.containsKey(entry.getKey()))
+			for(String[] statusNode : entry.getValue())
 			{
-				asyncQueue.put(entry.getKey(), entry.getValue());
-			}
-			else
-			{
-				Set<String[]> strSet = asyncQueue.get(entry.getKey());
-				strSet.addAll(entry.getValue());
+				addRunable(entry.getKey(), statusNode[0], statusNode[1]);
+				addWakeup(entry.getKey(), statusNode[0], statusNode[1]);
 			}
 		}
 		pendingAsyncQueue.clear();
@@ -99,25 +102,151 @@ public class MemoryAsyncQueueDao {
 	
 	public synchronized boolean isActiveEmpty()
 	{
-		return isMapEmpty(this.asyncQueue) && isMapEmpty(this.pendingAsyncQueue);
+		return isRunableEmpty() && isMapEmpty(this.pendingAsyncQueue);
+	}
+	
+	protected boolean isEventDrivenSchdule()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getEventDrivenSchdule();
 	}
 	
+	protected int getTickInterval()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getSleepInterval();
+	}
+	
+	protected void addWakeup(Integer priority, String nodeID, String statusPrefix)
+	{
+		if(!isEventDrivenSchdule())
+		{
+			return;
+		}
+		Set<String> nodeSet = wakeupQueue.get(priority);
+		if(nodeSet == null)
+		{
+			nodeSet = new LinkedHashSet<String>();
+			wakeupQueue.put(priority, nodeSet);
+		}
+		nodeSet.add(nodeID + "_" + statusPrefix);
+	}
+	
+	protected void removeWakeup(Integer priority, String nodeID, String statusPrefix)
+	{
+		if(wakeupQueue.isEmpty())
+		{
+			return;
+		}
+		Set<String> nodeSet = wakeupQueue.get(priority);
+		if(nodeSet != null)
+		{
+			if(statusPrefix != null)
+			{
+				nodeSet.remove(nodeID + "_" + statusPrefix);
+			}
+			else
+			{
+				List<String> selectedList = new ArrayList<String>();
+				for(String statusNode : nodeSet)
+				{
+					if(getWakeupNodeID(statusNode).equalsIgnoreCase(nodeID))
+					{
+						selectedList.add(statusNode);
+					}
+				}
+				nodeSet.removeAll(selectedList);
+			}
+			if(nodeSet.isEmpty())
+			{
+				wakeupQueue.remove(priority);
+			}
+		}
+	}
+	
+	protected String getWakeupNodeID(String statusNode)
+	{
+		return statusNode.substring(0, statusNode.length() - CassandraWorkFlowDao.PrefixLength - 1);
+	}
+	
+	//block the schdule thread until some node is queued or the next schdule cycle tick is due
+	public synchronized void awaitRunable() throws InterruptedException
+	{
+		int tickInterval = getTickInterval();
+		while(wakeupQueue.isEmpty() && isMapEmpty(pendingAsyncQueue))
+		{
+			if(isRunableEmpty())
+			{
+				this.wait();
+				continue;
+			}
+			long waitTime = lastTickTime + tickInterval - System.currentTimeMillis();
+			if(waitTime <= 0)
+			{
+				return;
+			}
+			this.wait(waitTime);
+		}
+	}
+	
+	//the woken up nodes are always runable, in event driven mode the schdule cycle is only counted when one tick interval is passed
 	public synchronized Map<Integer, String[]> getCurrentRunableList()
 	{		
+		Map<Integer, Set<String>> runableMap = new HashMap<Integer, Set<String>>();
+		if(isEventDrivenSchdule())
+		{
+			for(Entry<Integer, Set<String>> entry : this.wakeupQueue.entrySet())
+			{
+				Set<String> nodeSet = new LinkedHashSet<String>();
+				for(String statusNode : entry.getValue())
+				{
+					nodeSet.add(getWakeupNodeID(statusNode));
+				}
+				runableMap.put(entry.getKey(), nodeSet);
+			}
+			this.wakeupQueue.clear();
+			
+			long now = System.currentTimeMillis();
+			if(now - lastTickTime >= getTickInterval())
+			{
+				lastTickTime = now;
+				addDueNodes(runableMap);
+			}
+		}
+		else
+		{
+			addDueNodes(runableMap);
+		}
+		
 		Map<Integer, String[]> result = new HashMap<Integer, String[]>();
+		for(Entry<Integer, Set<String>> entry : runableMap.entrySet())
+		{
+			result.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+		}
+		return result;
+	}
+	
+	protected Set<String> getRunableSet(Map<Integer, Set<String>> runableMap, Integer priority)
+	{
+		Set<String> nodeSet = runableMap.get(priority);
+		if(nodeSet == null)
+		{
+			nodeSet = new LinkedHashSet<String>();
+			runableMap.put(priority, nodeSet);
+		}
+		return nodeSet;
+	}
+	
+	//collect the nodes which is due at current tick and move to next tick
+	protected void addDueNodes(Map<Integer, Set<String>> runableMap)
+	{
 		for(Entry<Integer, Set<String[]>> entry : this.asyncQueue.entrySet())
 		{
 			if(counter % entry.getKey() == 0)
 			{
-				Set<String[]> statusValueSet = entry.getValue();
-				String[] valueArray = new String[statusValueSet.size()];
-				int valueI = 0;
-				for(String[] statusValue : statusValueSet)
+				Set<String> nodeSet = getRunableSet(runableMap, entry.getKey());
+				for(String[] statusValue : entry.getValue())
 				{
-					valueArray[valueI] = statusValue[0];
-					valueI++;
+					nodeSet.add(statusValue[0]);
 				}
-				result.put(entry.getKey(), valueArray);
 			}
 		}
 		
@@ -129,45 +258,39 @@ public class MemoryAsyncQueueDao {
 		{
 			counter = 1;
 		}
-		return result;
 	}
-		
-	protected synchronized void add(ConcurrentMap<Integer, Set<String[]>> map, ElementStatusEnum status, ElementBase element) throws Exception	
+	
+	protected boolean isRunableEmpty()
+	{
+		return isMapEmpty(this.asyncQueue);
+	}
+	
+	protected void addRunable(Integer priority, String nodeID, String statusPrefix)
 	{
-		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
-		String nodeID = element.getId().toString();		
 		Set<String[]> queue = null;
-		if(map.containsKey(priority))
+		if(asyncQueue.containsKey(priority))
 		{
-			queue = map.get(priority);
+			queue = asyncQueue.get(priority);
 		}
 		else
 		{
 			queue = new HashSet<String[]>();
-			map.put(priority, queue);
+			asyncQueue.put(priority, queue);
 		}
-		queue.add(new String[] { nodeID,
-					CassandraWorkFlowDao.getStatus(status) } );
-	}
-	
-	public synchronized void add(ElementStatusEnum status, ElementBase element) throws Exception {
-		add(this.asyncQueue, status, element);
+		queue.add(new String[] { nodeID, statusPrefix } );
 	}
-
 	
-	public synchronized void remove(ElementStatusEnum status, ElementBase element) throws Exception {
-		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
-		String nodeID = element.getId().toString();	
-
+	//remove all status of the node when statusPrefix is null
+	protected void removeRunable(Integer priority, String nodeID, String statusPrefix)
+	{
 		if(this.asyncQueue.containsKey(priority))
 		{
 			Set<String[]> queue = this.asyncQueue.get(priority);
 			List<String[]> selectedNodeList = new ArrayList<String[]>();
-			String statusPrefix = CassandraWorkFlowDao.getStatus(status);
 			for(String[] statusNode : queue)
 			{
 				if(statusNode[0].equalsIgnoreCase(nodeID) 
-						&& statusNode[1].equalsIgnoreCase(statusPrefix))
+						&& (statusPrefix == null || statusNode[1].equalsIgnoreCase(statusPrefix)))
 				{
 					selectedNodeList.add(statusNode);
 				}
@@ -185,32 +308,54 @@ public class MemoryAsyncQueueDao {
 			}
 		}
 	}
-
-	
-	public synchronized void forceRemove(Integer priority, String nodeID) throws Exception {
 		
-		if(this.asyncQueue.containsKey(priority))
+	protected synchronized void add(ConcurrentMap<Integer, Set<String[]>> map, ElementStatusEnum status, ElementBase element) throws Exception	
+	{
+		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
+		String nodeID = element.getId().toString();		
+		Set<String[]> queue = null;
+		if(map.containsKey(priority))
 		{
-			Set<String[]> queue = this.asyncQueue.get(priority);
-			List<String[]> selectedNodeList = new ArrayList<String[]>();
-			for(String[] statusNode : queue)
-			{
-				if(statusNode[0].equalsIgnoreCase(nodeID))
-				{
-					selectedNodeList.add(statusNode);
-				}
-			}
-			if(selectedNodeList != null && selectedNodeList.size() > 0)
-			{
-				for(String[] selectedNode : selectedNodeList)
-				{
-					queue.remove(selectedNode);
-				}
-			}
-			if(queue.isEmpty())
-			{
-				this.asyncQueue.remove(priority);
-			}
+			queue = map.get(priority);
+		}
+		else
+		{
+			queue = new HashSet<String[]>();
+			map.put(priority, queue);
+		}
+		queue.add(new String[] { nodeID,
+					CassandraWorkFlowDao.getStatus(status) } );
+	}
+	
+	public synchronized void add(ElementStatusEnum status, ElementBase element) throws Exception {
+		add(status, element, true);
+	}
+	
+	public synchronized void add(ElementStatusEnum status, ElementBase element, boolean wakeup) throws Exception {
+		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
+		String nodeID = element.getId().toString();
+		String statusPrefix = CassandraWorkFlowDao.getStatus(status);
+		addRunable(priority, nodeID, statusPrefix);
+		if(wakeup)
+		{
+			addWakeup(priority, nodeID, statusPrefix);
 		}
+		//the schdule thread may wait without timeout because the queue was empty
+		this.notifyAll();
+	}
+
+	
+	public synchronized void remove(ElementStatusEnum status, ElementBase element) throws Exception {
+		Integer priority = AsyncNodeRunner.getSchduleCycle(status, element);
+		String nodeID = element.getId().toString();	
+		String statusPrefix = CassandraWorkFlowDao.getStatus(status);
+		removeRunable(priority, nodeID, statusPrefix);
+		removeWakeup(priority, nodeID, statusPrefix);
+	}
+
+	
+	public synchronized void forceRemove(Integer priority, String nodeID) throws Exception {
+		removeRunable(priority, nodeID, null);
+		removeWakeup(priority, nodeID, null);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.inject.Singleton;
+
+import asyncnode.App;
+import asyncnode.core.IAction2;
+
+//every shard owns one thread, the nodes of one workflow are always put into the same shard,
+//so the workflows are schduled in parallel while the transitions in one workflow keep serialized
+@Singleton
+public class ShardedSchduleExecutor {
+	protected ExecutorService[] shardExecutors = null;
+
+	public int getShardCount()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getSchduleShardCount();
+	}
+
+	public int getShardIndex(String workFlowID, int shardCount)
+	{
+		int hash = workFlowID.hashCode();
+		hash ^= (hash >>> 16);
+		return (hash & Integer.MAX_VALUE) % shardCount;
+	}
+
+	protected synchronized ExecutorService[] getShardExecutors(int shardCount)
+	{
+		if(shardExecutors == null || shardExecutors.length != shardCount)
+		{
+			shutdown();
+			shardExecutors = new ExecutorService[shardCount];
+			for(int i = 0; i < shardCount; i++)
+			{
+				final String threadName = "asyncnode-schdule-shard-" + i;
+				shardExecutors[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, threadName);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		return shardExecutors;
+	}
+
+	public synchronized void shutdown()
+	{
+		if(shardExecutors != null)
+		{
+			for(ExecutorService executorService : shardExecutors)
+			{
+				executorService.shutdown();
+			}
+			shardExecutors = null;
+		}
+	}
+
+	//run every shard on its own thread and wait until all shards are finished,
+	//so one node is never schduled again before its last schdule is done
+	public <T> void invokeAll(List<List<T>> shardList, final IAction2<Integer, T> action) throws Exception
+	{
+		ExecutorService[] executors = getShardExecutors(shardList.size());
+		final CountDownLatch latch = new CountDownLatch(shardList.size());
+		final AtomicReference<Exception> firstException = new AtomicReference<Exception>();
+		for(int i = 0; i < shardList.size(); i++)
+		{
+			final Integer shardIndex = i;
+			final List<T> itemList = shardList.get(i);
+			executors[i].execute(new Runnable() {
+				public void run() {
+					try
+					{
+						for(T item : itemList)
+						{
+							action.invoke(shardIndex, item);
+						}
+					}
+					catch(Exception ex)
+					{
+						firstException.compareAndSet(null, ex);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			});
+		}
+		latch.await();
+		if(firstException.get() != null)
+		{
+			throw firstException.get();
+		}
+	}
+
+	public static <T> List<List<T>> createShardList(int shardCount)
+	{
+		List<List<T>> shardList = new ArrayList<List<T>>();
+		for(int i = 0; i < shardCount; i++)
+		{
+			shardList.add(new ArrayList<T>());
+		}
+		return shardList;
+	}
+}
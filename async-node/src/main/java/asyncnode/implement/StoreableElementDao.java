@@ -16,11 +16,11 @@ package asyncnode.implement;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -41,18 +41,26 @@ import asyncnode.App;
 import asyncnode.ElementBase;
 import asyncnode.ElementStatusEnum;
 import asyncnode.ExceptionHandler;
+import asyncnode.implement.cassandra.CassandraBatch;
 import asyncnode.implement.cassandra.CassandraHelper;
 import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.implement.local.LocalLogStore;
+import asyncnode.core.IAction;
 import asyncnode.core.IAction2;
+import asyncnode.core.IAsyncNodeDao;
+import asyncnode.core.IAsyncQueueDao;
+import asyncnode.core.IWorkFlowDao;
 import asyncnode.core.IFunc;
 
 @Singleton
 public class StoreableElementDao {		
 	protected MemoryAsyncNodeDao memoryAsyncNodeDao = null;
 	protected MemoryAsyncQueueDao memoryAsyncQueueDao = null;	
-	protected CassandraAsyncNodeDao cassandraAsyncNodeDao = null;
-	protected CassandraAsyncQueueDao cassandraAsyncQueueDao = null;
-	protected CassandraWorkFlowDao cassandraWorkFlowDao = null;
+	//the durable stores, the cassandra daos unless the module binds other providers
+	protected IAsyncNodeDao asyncNodeDao = null;
+	protected IAsyncQueueDao asyncQueueDao = null;
+	protected IWorkFlowDao workFlowDao = null;
+	protected ShardedSchduleExecutor shardedSchduleExecutor = null;
 		
 	@Inject
 	public void setMemoryAsyncNodeDao(MemoryAsyncNodeDao MemoryAsyncNodeDao) {
@@ -65,25 +73,41 @@ public class StoreableElementDao {
 	}
 
 	@Inject
-	public void setCassandraAsyncNodeDao(CassandraAsyncNodeDao CassandraAsyncNodeDao) {
-		this.cassandraAsyncNodeDao = CassandraAsyncNodeDao;
+	public void setAsyncNodeDao(IAsyncNodeDao asyncNodeDao) {
+		this.asyncNodeDao = asyncNodeDao;
 	}
 
 	@Inject
-	public void setCassandraAsyncQueueDao(
-			CassandraAsyncQueueDao cassandraAsyncQueueDao) {
-		this.cassandraAsyncQueueDao = cassandraAsyncQueueDao;
+	public void setAsyncQueueDao(IAsyncQueueDao asyncQueueDao) {
+		this.asyncQueueDao = asyncQueueDao;
 	}
 
 	@Inject
-	public void setCassandraWorkFlowDao(CassandraWorkFlowDao cassandraWorkFlowDao) {
-		this.cassandraWorkFlowDao = cassandraWorkFlowDao;
+	public void setShardedSchduleExecutor(ShardedSchduleExecutor shardedSchduleExecutor) {
+		this.shardedSchduleExecutor = shardedSchduleExecutor;
+	}
+
+	@Inject
+	public void setWorkFlowDao(IWorkFlowDao workFlowDao) {
+		this.workFlowDao = workFlowDao;
+	}
+	
+	//the memory daos are changed at once, the store is written by the pipeline after the batch is committed
+	protected CassandraBatch beginBatch()
+	{
+		return CassandraBatch.begin(App.getConfig().getInstance(App.AppContext.class).getWriteBehindPipeline());
 	}
 	
 	public void initAllStorage() throws Exception
 	{			
 		try
 		{
+			//the log is replayed before the nodes and queues are read back from the store
+			LocalLogStore localLogStore = App.getConfig().getInstance(App.AppContext.class).getLocalLogStore();
+			if(localLogStore != null)
+			{
+				localLogStore.open();
+			}
 			restoreQueue();
 		}
 		catch(Exception ex)
@@ -92,22 +116,43 @@ public class StoreableElementDao {
 		}
 	}
 	
+	protected int getRestorePageSize()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getRestorePageSize();
+	}
+	
+	//the nodes are registered page by page, so the restore does not hold all stored rows at once
 	protected void restoreAsyncNode() throws Exception
 	{
-		List<ElementBase> elementBaseList = cassandraAsyncNodeDao.getAll();
-		App.getConfig().getInstance(Logger.class).info("..........load " + elementBaseList.size() + " nodes from store!");
 		memoryAsyncNodeDao.clearAll();
-		for(ElementBase elementBase : elementBaseList)
+		final AtomicLong restoreCount = new AtomicLong(0);
+		IAction<ElementBase> restoreAction = new IAction<ElementBase>(){
+			public void invoke(ElementBase elementBase) throws Exception {
+				elementBase.doStartupResotre();
+				memoryAsyncNodeDao.add(elementBase);
+				long count = restoreCount.incrementAndGet();
+				if(count % 10000 == 0)
+				{
+					App.getConfig().getInstance(Logger.class).info("..........loading " + count + " nodes from store");
+				}
+			}
+		};
+		int restoreThreadCount = App.getConfig().getInstance(App.AppContext.class).getRestoreThreadCount();
+		if(restoreThreadCount > 1)
+		{
+			asyncNodeDao.visitAllParallel(getRestorePageSize(), restoreThreadCount, restoreAction);
+		}
+		else
 		{
-			elementBase.doStartupResotre();
-			memoryAsyncNodeDao.add(elementBase);
+			asyncNodeDao.visitAll(getRestorePageSize(), restoreAction);
 		}
+		App.getConfig().getInstance(Logger.class).info("..........load " + restoreCount.get() + " nodes from store!");
 	}
 	
 	protected void restoreQueue() throws Exception
 	{		
 		List<String> nodeList = new ArrayList<String>();		
-		ConcurrentMap<Integer, Set<String[]>> asyncQueue = cassandraAsyncQueueDao.load();
+		ConcurrentMap<Integer, Set<String[]>> asyncQueue = asyncQueueDao.load(getRestorePageSize());
 		memoryAsyncQueueDao.setAsyncQueue(asyncQueue);
 		restoreAsyncNode();
 	}
@@ -161,7 +206,7 @@ public class StoreableElementDao {
 	
 	protected void removeElementQueue(Integer priority, String elementID) throws Exception
 	{
-		cassandraAsyncQueueDao.forceRemove(priority, elementID);
+		asyncQueueDao.forceRemove(priority, elementID);
 		memoryAsyncQueueDao.forceRemove(priority, elementID);
 	}
 	
@@ -190,6 +235,21 @@ public class StoreableElementDao {
 				return false;
 			}
 			Map<Integer, String[]> currentList = memoryAsyncQueueDao.getCurrentRunableList();
+			schduleElementList(currentList);
+			return true;
+		}
+		catch(Exception ex)
+		{
+			App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);
+			return false;
+		}
+	}
+
+	protected void schduleElementList(Map<Integer, String[]> currentList) throws Exception
+	{
+		int shardCount = shardedSchduleExecutor.getShardCount();
+		if(shardCount <= 1)
+		{
 			for(Entry<Integer, String[]> nodeEntry : currentList.entrySet())
 			{
 				Integer priority = nodeEntry.getKey();
@@ -198,13 +258,26 @@ public class StoreableElementDao {
 					this.schduleOneElement(priority, node);
 				}
 			}
-			return true;
+			return;
 		}
-		catch(Exception ex)
+		
+		List<List<Object[]>> shardList = ShardedSchduleExecutor.createShardList(shardCount);
+		for(Entry<Integer, String[]> nodeEntry : currentList.entrySet())
 		{
-			App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);
-			return false;
+			for(String node : nodeEntry.getValue())
+			{
+				ElementBase elementBase = getElementBase(node);
+				//a dynamic build links nodes of other workflows, they share the schdule group of the node which builds them
+				UUID schduleGroupID = elementBase == null ? null : elementBase.getSchduleGroupID();
+				String shardKey = schduleGroupID == null ? node : schduleGroupID.toString();
+				shardList.get(shardedSchduleExecutor.getShardIndex(shardKey, shardCount)).add(new Object[] { nodeEntry.getKey(), node });
+			}
 		}
+		shardedSchduleExecutor.invokeAll(shardList, new IAction2<Integer, Object[]>(){
+			public void invoke(Integer shardIndex, Object[] priorityNode) throws Exception {
+				schduleOneElement((Integer)priorityNode[0], (String)priorityNode[1]);
+			}			
+		});
 	}
 
 	public void syncElementStatus(ElementBase elementBase,
@@ -212,7 +285,7 @@ public class StoreableElementDao {
 	{
 		if(elementBase.isPersistent())
 		{
-			cassandraWorkFlowDao.swapStatus(elementBase.getWorkFlowID().toString(), 
+			workFlowDao.swapStatus(elementBase.getWorkFlowID().toString(), 
 					elementBase.getId().toString(), 
 					oldStatus, newStatus);		
 		}
@@ -237,6 +310,11 @@ public class StoreableElementDao {
 	
 	
 	public void addElement(ElementBase element) throws Exception {
+		if(!element.isPersistent())
+		{
+			element.stopDirtyTracking();
+		}
+		CassandraBatch batch = beginBatch();
 		try
 		{
 			ElementStatusEnum oldStatus = null;
@@ -249,7 +327,7 @@ public class StoreableElementDao {
 				{
 					addCassandraElementQueue(element);
 				
-					cassandraWorkFlowDao.swapStatus(element.getWorkFlowID().toString(), 
+					workFlowDao.swapStatus(element.getWorkFlowID().toString(), 
 							element.getId().toString(), 
 							null, ElementStatusEnum.Pending);		
 				}
@@ -263,7 +341,7 @@ public class StoreableElementDao {
 				{
 					addCassandraElementQueue(element);
 					
-					cassandraWorkFlowDao.swapStatus(element.getWorkFlowID().toString(), 
+					workFlowDao.swapStatus(element.getWorkFlowID().toString(), 
 							element.getId().toString(), 
 							null, ElementStatusEnum.Ready);		
 				}
@@ -272,25 +350,49 @@ public class StoreableElementDao {
 			ElementBase.checkNameValidate(element.getId().toString());
 			if(element.isPersistent())
 			{
-				cassandraAsyncNodeDao.add(element);
+				asyncNodeDao.add(element);
 			}
 			
 			App.getConfig().getInstance(Logger.class).info("setPending!" + element.getClassName()+"," + element.getWorkFlowID()+ "," + element.getId());
+			batch.commit();
 		}
 		catch(Exception ex)
 		{
 			App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);
 		}
+		finally
+		{
+			batch.end();
+		}
 	}
 	
+	//the nodes go first, the schdule thread moves the queue buffer before the node buffer and drops a queued node it can't find
 	public void addBufferElementList(List<ElementBase> elementList) throws Exception {
-		memoryAsyncQueueDao.addBufferList(elementList);
 		memoryAsyncNodeDao.addBufferList(elementList);
+		memoryAsyncQueueDao.addBufferList(elementList);
+	}
+	
+	//the nodes of many workflows are stored by one batch, they are queued only after the batch is committed
+	public void addElementList(List<ElementBase> elementList) throws Exception {
+		CassandraBatch batch = beginBatch();
+		try
+		{
+			for(ElementBase element : elementList)
+			{
+				element.build();
+			}
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
+		addBufferElementList(elementList);
 	}
 	
 	public void submitAppVariables(ElementBase element, ConcurrentMap<String, Object> varMap) throws Exception
 	{
-		element.setLastEditDate(new Date());
+		element.setLastEditTime(System.currentTimeMillis());
 		List<String> columnList = new ArrayList<String>();			
 		columnList.add("lastEditDate");
 		columnList.add("appVariables");
@@ -298,14 +400,14 @@ public class StoreableElementDao {
 		columnValueHash.put("appVariables", varMap);
 		if(element.isPersistent())
 		{
-			cassandraAsyncNodeDao.update(element, columnList, columnValueHash);
+			asyncNodeDao.update(element, columnList, columnValueHash);
 		}
 		memoryAsyncNodeDao.update(element, columnList, columnValueHash);
 	}
 	
 	protected void updateStatus(ElementBase element, List<String> affectedFields) throws Exception
 	{
-		element.setLastEditDate(new Date());
+		element.setLastEditTime(System.currentTimeMillis());
 		List<String> columnList = new ArrayList<String>();
 		columnList.add("lastEditDate");
 		columnList.add("status");
@@ -315,7 +417,7 @@ public class StoreableElementDao {
 		}
 		if(element.isPersistent())
 		{
-			cassandraAsyncNodeDao.update(element, columnList, null);
+			asyncNodeDao.update(element, columnList, null);
 		}
 		memoryAsyncNodeDao.update(element, columnList, null);
 		syncElementStatus(element);
@@ -323,22 +425,32 @@ public class StoreableElementDao {
 	
 	
 	public void setReady(ElementBase element)  throws Exception {
-		if(isAllInputNodesFinished(element))
-		{
-			ElementStatusEnum oldStatus = element.getStatus();
-			element.setStatus(ElementStatusEnum.Ready);
-			addElementQueue(oldStatus, element);
-			updateStatus(element, null);
-			removeElementQueue(oldStatus, element);
-			App.getConfig().getInstance(Logger.class).info("setReady!");
-		}
-		else
+		CassandraBatch batch = beginBatch();
+		try
 		{
-			ElementStatusEnum oldStatus = element.getStatus();
-			if(oldStatus.equals(ElementStatusEnum.Pending))
+			if(isAllInputNodesFinished(element))
 			{
+				ElementStatusEnum oldStatus = element.getStatus();
+				element.setStatus(ElementStatusEnum.Ready);
+				//a recalling node is not on the schdule thread, the status is written before the queue shows it
+				updateStatus(element, null);
+				addElementQueue(oldStatus, element);
 				removeElementQueue(oldStatus, element);
+				App.getConfig().getInstance(Logger.class).info("setReady!");
 			}
+			else
+			{
+				ElementStatusEnum oldStatus = element.getStatus();
+				if(oldStatus.equals(ElementStatusEnum.Pending))
+				{
+					removeElementQueue(oldStatus, element);
+				}
+			}
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
 		}
 	}
 	
@@ -353,12 +465,19 @@ public class StoreableElementDao {
 			App.getConfig().getInstance(Logger.class).info("add queue:" + element.getStatus() + "," + element.getClass().getName());
 			if(element.isPersistent())
 			{
-				cassandraAsyncQueueDao.add(element.getStatus(), element);
+				asyncQueueDao.add(element.getStatus(), element);
 			}
-			memoryAsyncQueueDao.add(element.getStatus(), element);
+			memoryAsyncQueueDao.add(element.getStatus(), element, !isRecalling(oldQueueStatus, element));
 		}
 	}
 	
+	//recalling node is polling for something, so it should wait for the schdule cycle instead of waking up the runner
+	protected boolean isRecalling(ElementStatusEnum oldQueueStatus, ElementBase element)
+	{
+		return ElementStatusEnum.Running.equals(oldQueueStatus) 
+				&& element.getStatus().equals(ElementStatusEnum.Ready);
+	}
+	
 	protected void addCassandraElementQueue(ElementBase element) throws Exception
 	{
 		ElementStatusEnum newStatus = element.getStatus();
@@ -370,7 +489,7 @@ public class StoreableElementDao {
 			App.getConfig().getInstance(Logger.class).info("add queue:" + element.getStatus() + "," + element.getClass().getName());
 			if(element.isPersistent())
 			{
-				cassandraAsyncQueueDao.add(element.getStatus(), element);
+				asyncQueueDao.add(element.getStatus(), element);
 			}
 		}
 	}
@@ -380,43 +499,68 @@ public class StoreableElementDao {
 	{
 		if(element.isPersistent())
 		{
-			cassandraAsyncQueueDao.remove(oldQueueStatus, element);
+			asyncQueueDao.remove(oldQueueStatus, element);
 		}
 		memoryAsyncQueueDao.remove(oldQueueStatus, element);
 	}
 	
 	
 	public void setRunning(ElementBase element)  throws Exception {
+		CassandraBatch batch = beginBatch();
+		try
+		{
 				
-		ElementStatusEnum oldStatus = element.getStatus();
-		element.setStatus(ElementStatusEnum.Running);
-		addElementQueue(oldStatus, element);
+			ElementStatusEnum oldStatus = element.getStatus();
+			element.setStatus(ElementStatusEnum.Running);
+			addElementQueue(oldStatus, element);
 		
-		updateStatus(element, null);
-		removeElementQueue(oldStatus, element);
-		App.getConfig().getInstance(Logger.class).info("setRunning!" + element.getClassName());
+			updateStatus(element, null);
+			removeElementQueue(oldStatus, element);
+			App.getConfig().getInstance(Logger.class).info("setRunning!" + element.getClassName());
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
 	}
 
 	
 	public void setNotifyFinish(ElementBase element)  throws Exception {		
+		CassandraBatch batch = beginBatch();
 		try
 		{
 			ElementStatusEnum oldStatus = element.getStatus();
 			element.setStatus(ElementStatusEnum.NotifyFinish);
-			addElementQueue(oldStatus, element);
 			List<String> columnList = new ArrayList<String>();
 			columnList.add("value");
+			//only the variables changed by notifyFinish are written
+			columnList.add("appVariables");
+			//the schdule thread may move the node on as soon as it is queued, so the status is swapped first
 			updateStatus(element, columnList);
+			addElementQueue(oldStatus, element);
 			removeElementQueue(oldStatus, element);
 			App.getConfig().getInstance(Logger.class).info("setNotifyFinish!");
+			batch.commit();
 		}
 		catch(Exception ex)
 		{
 			App.getConfig().getInstance(ExceptionHandler.class).handleException(ex);			
 		}
+		finally
+		{
+			batch.end();
+		}
 	}
 
 	protected void notifyAllOutNodeInputFinished(ElementBase element) throws Exception
+	{
+		notifyAllOutNodeInputFinished(element, null);
+	}
+	
+	//readyList not null, the out nodes whose last input is finished are set ready at once instead of queued as pending,
+	//they are executed by dispatchReadyList when the batch is committed
+	protected void notifyAllOutNodeInputFinished(ElementBase element, List<ElementBase> readyList) throws Exception
 	{
 		for(Entry<String, Boolean> outEntry : element.getOutNodesMap().entrySet())
 		{
@@ -429,7 +573,7 @@ public class StoreableElementDao {
 			}
 			ElementBase.checkNameValidate(element.getId().toString());
 			outElement.getInNodesMap().put(element.getId().toString(), true);
-			outElement.setLastEditDate(new Date());
+			outElement.setLastEditTime(System.currentTimeMillis());
 			List<String> columnList = new ArrayList<String>();			
 			columnList.add("lastEditDate");
 			columnList.add("inNodesMap");
@@ -437,27 +581,54 @@ public class StoreableElementDao {
 			columnValueHash.put("inNodesMap", element.getId().toString());
 			if(outElement.isPersistent())
 			{
-				cassandraAsyncNodeDao.update(outElement, columnList, columnValueHash);
+				asyncNodeDao.update(outElement, columnList, columnValueHash);
 			}
 			memoryAsyncNodeDao.update(outElement, columnList, columnValueHash);
 			
-			handleSingleOutNodeReadyEvent(outElement);
+			if(readyList != null && outElement.getStatus().equals(ElementStatusEnum.Pending) && isAllInputNodesFinished(outElement))
+			{
+				setReady(outElement);
+				readyList.add(outElement);
+			}
+			else
+			{
+				handleSingleOutNodeReadyEvent(outElement);
+			}
 		}
 	}
 	
-	protected Boolean isAllInputNodesFinished(ElementBase outElement)
+	protected boolean isDirectDispatch()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getDirectDispatch();
+	}
+	
+	//the node stays in the ready queue when it can't be executed now, the schdule thread tries it again
+	protected void dispatchReadyList(List<ElementBase> readyList)
 	{
-		Boolean inputAllFinished = true;
-		for(Entry<String, Boolean> inEntry : outElement.getInNodesMap().entrySet())
+		if(readyList == null)
+		{
+			return;
+		}
+		for(ElementBase readyElement : readyList)
 		{
-			if(!inEntry.getValue())
+			try
 			{
-				inputAllFinished = false;
-				break;
+				if(readyElement.getStatus().equals(ElementStatusEnum.Ready))
+				{
+					readyElement.schdule();
+				}
+			}
+			catch(Exception ex)
+			{
+				App.getConfig().getInstance(ExceptionHandler.class).safeHandleException(ex);
 			}
 		}
+	}
+	
+	protected Boolean isAllInputNodesFinished(ElementBase outElement)
+	{
 		App.getConfig().getInstance(Logger.class).info("find one node all input finished:" + outElement.getClass().getName()+",status:" + outElement.getStatus());
-		return inputAllFinished;
+		return outElement.getRemainingInputCount() == 0;
 	}
 	
 	protected boolean handleSingleOutNodeReadyEvent(ElementBase outElement)  throws Exception
@@ -467,7 +638,7 @@ public class StoreableElementDao {
 		{
 			if(outElement.isPersistent())
 			{
-				cassandraAsyncQueueDao.add(outElement.getStatus(), outElement);
+				asyncQueueDao.add(outElement.getStatus(), outElement);
 			}
 			memoryAsyncQueueDao.add(outElement.getStatus(), outElement);
 			return true;
@@ -480,20 +651,74 @@ public class StoreableElementDao {
 	
 	
 	public void setNotifiedOutput(ElementBase element)  throws Exception {
-		notifyAllOutNodeInputFinished(element);			
+		List<ElementBase> readyList = isDirectDispatch() ? new ArrayList<ElementBase>() : null;
+		CassandraBatch batch = beginBatch();
+		try
+		{
+			notifyAllOutNodeInputFinished(element, readyList);			
 
-		ElementStatusEnum oldStatus = element.getStatus();
-		element.setStatus(ElementStatusEnum.NotifiedOutput);
-		addElementQueue(oldStatus, element);
+			ElementStatusEnum oldStatus = element.getStatus();
+			element.setStatus(ElementStatusEnum.NotifiedOutput);
+			addElementQueue(oldStatus, element);
 		
-		updateStatus(element, null);
-		removeElementQueue(oldStatus, element);
-		App.getConfig().getInstance(Logger.class).info("setNotifiedOutput!");
+			updateStatus(element, null);
+			removeElementQueue(oldStatus, element);
+			App.getConfig().getInstance(Logger.class).info("setNotifiedOutput!");
+			if(isCompletionCascade())
+			{
+				cascadeCompletion(element);
+			}
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
+		dispatchReadyList(readyList);
+	}
+	
+	protected boolean isCompletionCascade()
+	{
+		return App.getConfig().getInstance(App.AppContext.class).getCompletionCascade();
+	}
+	
+	//runs the rest of the housekeeping steps of the node in the batch of the caller, as the schdule thread would run
+	//them one tick after another. it stops at NotifiedInput while an out node is not finished, the node is queued
+	//by handleSingleInNodeDestroyableEvent when the last one notifies it. the in nodes released by this node go on too
+	protected void cascadeCompletion(ElementBase element) throws Exception
+	{
+		List<String> inNodeList = new ArrayList<String>(element.getInNodesMap().keySet());
+		while(true)
+		{
+			ElementStatusEnum status = element.getStatus();
+			if(!(status.equals(ElementStatusEnum.NotifiedOutput)
+					|| (status.equals(ElementStatusEnum.NotifiedInput) && isAllOutNodesFinish(element))
+					|| status.equals(ElementStatusEnum.Destryable)))
+			{
+				break;
+			}
+			element.schdule();
+			if(element.getStatus().equals(status))
+			{
+				break;
+			}
+			if(status.equals(ElementStatusEnum.NotifiedOutput))
+			{
+				for(String inNode : inNodeList)
+				{
+					ElementBase inElement = getElementBase(inNode);
+					if(inElement != null && inElement.getStatus().equals(ElementStatusEnum.NotifiedInput))
+					{
+						cascadeCompletion(inElement);
+					}
+				}
+			}
+		}
 	}
 	
 	protected void saveOutNodesChange(ElementBase inElement, Object[][] outElementArray) throws Exception
 	{
-		inElement.setLastEditDate(new Date());			
+		inElement.setLastEditTime(System.currentTimeMillis());			
 		List<String> columnList = new ArrayList<String>();
 		columnList.add("lastEditDate");
 		columnList.add("outNodesMap");			
@@ -501,7 +726,7 @@ public class StoreableElementDao {
 		columnValueHash.put("outNodesMap", outElementArray);			
 		if(inElement.isPersistent())
 		{
-			cassandraAsyncNodeDao.update(inElement, columnList, columnValueHash);
+			asyncNodeDao.update(inElement, columnList, columnValueHash);
 		}
 		memoryAsyncNodeDao.update(inElement, columnList, columnValueHash);
 	}
@@ -528,16 +753,7 @@ public class StoreableElementDao {
 	
 	protected boolean isAllOutNodesFinish(ElementBase inElement)
 	{
-		Boolean outputAllFinished = true;
-		for(Entry<String, Boolean> outEntry : inElement.getOutNodesMap().entrySet())
-		{
-			if(!outEntry.getValue())
-			{
-				outputAllFinished = false;
-				break;
-			}
-		}
-		return outputAllFinished;
+		return inElement.getRemainingOutputCount() == 0;
 	}
 
 	protected boolean handleSingleInNodeDestroyableEvent(ElementBase inElement)  throws Exception
@@ -547,7 +763,7 @@ public class StoreableElementDao {
 		{
 			if(inElement.isPersistent())
 			{
-				cassandraAsyncQueueDao.add(inElement.getStatus(), inElement);
+				asyncQueueDao.add(inElement.getStatus(), inElement);
 			}
 			memoryAsyncQueueDao.add(inElement.getStatus(), inElement);
 			App.getConfig().getInstance(Logger.class).info("can notify finished!" + inElement.getClass().getName());
@@ -561,54 +777,81 @@ public class StoreableElementDao {
 
 	
 	public void setNotifiedInput(ElementBase element)  throws Exception {
-		notifyAllInNodeDestroyable(element);			
-		
-		ElementStatusEnum oldStatus = element.getStatus();
-		element.setStatus(ElementStatusEnum.NotifiedInput);
-		addElementQueue(oldStatus, element);
-		handleSingleInNodeDestroyableEvent(element);
-		updateStatus(element, null);
-		removeElementQueue(oldStatus, element);
-		
-		App.getConfig().getInstance(Logger.class).info("setNotifiedInput!");
-	}
-
-	
-	public void setDestryable(ElementBase element)  throws Exception {
-		if(isAllOutNodesFinish(element))
+		CassandraBatch batch = beginBatch();
+		try
 		{
+			notifyAllInNodeDestroyable(element);			
+		
 			ElementStatusEnum oldStatus = element.getStatus();
-			element.setStatus(ElementStatusEnum.Destryable);
+			element.setStatus(ElementStatusEnum.NotifiedInput);
 			addElementQueue(oldStatus, element);
-			
+			handleSingleInNodeDestroyableEvent(element);
 			updateStatus(element, null);
 			removeElementQueue(oldStatus, element);
-			App.getConfig().getInstance(Logger.class).info("setDestryable!");
+		
+			App.getConfig().getInstance(Logger.class).info("setNotifiedInput!");
+			batch.commit();
 		}
-		else
+		finally
 		{
-			ElementStatusEnum oldStatus = element.getStatus();
-			if(oldStatus.equals(ElementStatusEnum.NotifiedInput))
+			batch.end();
+		}
+	}
+
+	
+	public void setDestryable(ElementBase element)  throws Exception {
+		CassandraBatch batch = beginBatch();
+		try
+		{
+			if(isAllOutNodesFinish(element))
 			{
+				ElementStatusEnum oldStatus = element.getStatus();
+				element.setStatus(ElementStatusEnum.Destryable);
+				addElementQueue(oldStatus, element);
+			
+				updateStatus(element, null);
 				removeElementQueue(oldStatus, element);
+				App.getConfig().getInstance(Logger.class).info("setDestryable!");
+			}
+			else
+			{
+				ElementStatusEnum oldStatus = element.getStatus();
+				if(oldStatus.equals(ElementStatusEnum.NotifiedInput))
+				{
+					removeElementQueue(oldStatus, element);
+				}
 			}
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
 		}
 	}
 	
 	
 	public void setDestryed(ElementBase element)  throws Exception {
-		ElementStatusEnum oldStatus = element.getStatus();
+		CassandraBatch batch = beginBatch();
+		try
+		{
+			ElementStatusEnum oldStatus = element.getStatus();
 		
-		String workFlowID = element.getWorkFlowID().toString();
-		String nodeID = element.getId().toString();
-		if(element.isPersistent())
+			String workFlowID = element.getWorkFlowID().toString();
+			String nodeID = element.getId().toString();
+			if(element.isPersistent())
+			{
+				workFlowDao.delete(workFlowID, nodeID);
+				asyncNodeDao.delete(nodeID);
+			}
+			memoryAsyncNodeDao.delete(nodeID);
+			element.setStatus(ElementStatusEnum.Destryed);
+			removeElementQueue(oldStatus, element);
+			App.getConfig().getInstance(Logger.class).info("delete node!!" + element.getClassName());
+			batch.commit();
+		}
+		finally
 		{
-			cassandraWorkFlowDao.delete(workFlowID, nodeID);
-			cassandraAsyncNodeDao.delete(nodeID);
+			batch.end();
 		}
-		memoryAsyncNodeDao.delete(nodeID);
-		element.setStatus(ElementStatusEnum.Destryed);
-		removeElementQueue(oldStatus, element);
-		App.getConfig().getInstance(Logger.class).info("delete node!!" + element.getClassName());
 	}
 }
\ No newline at end of file
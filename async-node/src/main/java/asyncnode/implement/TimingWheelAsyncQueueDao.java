@@ -0,0 +1,244 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.inject.Singleton;
+
+//every queued node is placed into the slot of the tick where it is due next,
+//so one tick only touches the due nodes instead of scanning every priority bucket.
+//the cycles beyond the wheel are kept in a delay heap and moved into the wheel when they come close
+@Singleton
+public class TimingWheelAsyncQueueDao extends MemoryAsyncQueueDao {
+	public static final int DefaultWheelSize = 512;
+
+	protected final int wheelMask;
+
+	protected final List<WheelEntry>[] wheel;
+
+	protected PriorityQueue<WheelEntry> overflowQueue = new PriorityQueue<WheelEntry>(16, new Comparator<WheelEntry>() {
+		public int compare(WheelEntry o1, WheelEntry o2) {
+			return o1.dueTick < o2.dueTick ? -1 : (o1.dueTick == o2.dueTick ? 0 : 1);
+		}
+	});
+
+	//nodeID -> priority_statusPrefix -> entry
+	protected Map<String, Map<String, WheelEntry>> nodeIndex = new HashMap<String, Map<String, WheelEntry>>();
+
+	protected int entryCount = 0;
+
+	protected long currentTick = 1;
+
+	public TimingWheelAsyncQueueDao()
+	{
+		this(DefaultWheelSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	public TimingWheelAsyncQueueDao(int wheelSize)
+	{
+		int size = 1;
+		while(size < wheelSize)
+		{
+			size <<= 1;
+		}
+		this.wheelMask = size - 1;
+		this.wheel = new List[size];
+		for(int i = 0; i < size; i++)
+		{
+			this.wheel[i] = new ArrayList<WheelEntry>();
+		}
+	}
+
+	protected static class WheelEntry
+	{
+		protected final Integer priority;
+		protected final String nodeID;
+		protected final String statusPrefix;
+		protected long dueTick;
+		protected boolean cancelled;
+
+		public WheelEntry(Integer priority, String nodeID, String statusPrefix)
+		{
+			this.priority = priority;
+			this.nodeID = nodeID;
+			this.statusPrefix = statusPrefix;
+		}
+	}
+
+	protected static String getIndexKey(Integer priority, String statusPrefix)
+	{
+		return priority + "_" + statusPrefix;
+	}
+
+	//the first tick which is not before current tick and can be divided by the priority, same as the counter-modulo scan
+	protected long getNextDueTick(int priority)
+	{
+		return currentTick + ((priority - currentTick % priority) % priority);
+	}
+
+	protected void schdule(WheelEntry entry)
+	{
+		if(entry.dueTick - currentTick <= wheelMask)
+		{
+			wheel[(int)(entry.dueTick & wheelMask)].add(entry);
+		}
+		else
+		{
+			overflowQueue.add(entry);
+		}
+	}
+
+	protected void moveOverflowQueue()
+	{
+		while(!overflowQueue.isEmpty() && overflowQueue.peek().dueTick - currentTick <= wheelMask)
+		{
+			WheelEntry entry = overflowQueue.poll();
+			if(!entry.cancelled)
+			{
+				wheel[(int)(entry.dueTick & wheelMask)].add(entry);
+			}
+		}
+	}
+
+	@Override
+	protected void addDueNodes(Map<Integer, Set<String>> runableMap)
+	{
+		List<WheelEntry> slot = wheel[(int)(currentTick & wheelMask)];
+		if(!slot.isEmpty())
+		{
+			List<WheelEntry> dueList = new ArrayList<WheelEntry>(slot);
+			slot.clear();
+			for(WheelEntry entry : dueList)
+			{
+				if(entry.cancelled)
+				{
+					continue;
+				}
+				getRunableSet(runableMap, entry.priority).add(entry.nodeID);
+				entry.dueTick = currentTick + entry.priority;
+				schdule(entry);
+			}
+		}
+		currentTick++;
+		moveOverflowQueue();
+	}
+
+	@Override
+	protected boolean isRunableEmpty()
+	{
+		return entryCount == 0;
+	}
+
+	@Override
+	protected void addRunable(Integer priority, String nodeID, String statusPrefix)
+	{
+		Map<String, WheelEntry> entryMap = nodeIndex.get(nodeID);
+		if(entryMap == null)
+		{
+			entryMap = new HashMap<String, WheelEntry>();
+			nodeIndex.put(nodeID, entryMap);
+		}
+		String key = getIndexKey(priority, statusPrefix);
+		if(entryMap.containsKey(key))
+		{
+			return;
+		}
+		WheelEntry entry = new WheelEntry(priority, nodeID, statusPrefix);
+		entry.dueTick = getNextDueTick(priority);
+		entryMap.put(key, entry);
+		entryCount++;
+		schdule(entry);
+	}
+
+	//the entry is only marked as cancelled, it is dropped when its slot is visited
+	@Override
+	protected void removeRunable(Integer priority, String nodeID, String statusPrefix)
+	{
+		Map<String, WheelEntry> entryMap = nodeIndex.get(nodeID);
+		if(entryMap == null)
+		{
+			return;
+		}
+		Iterator<Entry<String, WheelEntry>> iterator = entryMap.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			WheelEntry entry = iterator.next().getValue();
+			if(entry.priority.equals(priority)
+					&& (statusPrefix == null || entry.statusPrefix.equalsIgnoreCase(statusPrefix)))
+			{
+				entry.cancelled = true;
+				iterator.remove();
+				entryCount--;
+			}
+		}
+		if(entryMap.isEmpty())
+		{
+			nodeIndex.remove(nodeID);
+		}
+	}
+
+	//snapshot of the queued nodes grouped by priority
+	@Override
+	public synchronized ConcurrentMap<Integer, Set<String[]>> getAsyncQueue()
+	{
+		ConcurrentMap<Integer, Set<String[]>> result = new ConcurrentHashMap<Integer, Set<String[]>>();
+		for(Map<String, WheelEntry> entryMap : nodeIndex.values())
+		{
+			for(WheelEntry entry : entryMap.values())
+			{
+				Set<String[]> queue = result.get(entry.priority);
+				if(queue == null)
+				{
+					queue = new HashSet<String[]>();
+					result.put(entry.priority, queue);
+				}
+				queue.add(new String[] { entry.nodeID, entry.statusPrefix });
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void setAsyncQueue(ConcurrentMap<Integer, Set<String[]>> asyncQueue)
+	{
+		for(List<WheelEntry> slot : wheel)
+		{
+			slot.clear();
+		}
+		overflowQueue.clear();
+		nodeIndex.clear();
+		entryCount = 0;
+		for(Entry<Integer, Set<String[]>> entry : asyncQueue.entrySet())
+		{
+			for(String[] statusNode : entry.getValue())
+			{
+				addRunable(entry.getKey(), statusNode[0], statusNode[1]);
+			}
+		}
+	}
+}
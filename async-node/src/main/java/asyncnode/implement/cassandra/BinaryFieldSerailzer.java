@@ -0,0 +1,105 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.UUID;
+
+//uuid as 16 bytes, date as 8 bytes of epoch millis, int and long as big endian after a zero byte.
+//the text written by FieldSerailzerBase is still read, it never has the binary length or starts with zero
+public class BinaryFieldSerailzer extends FieldSerailzerBase
+{
+	public static final int UUIDLength = 16;
+	public static final int DateLength = 8;
+	public static final byte NumberMarker = 0;
+
+	public static byte[] getBinaryValue(Class fieldClass, Object fieldValue) throws Exception
+	{
+		if(fieldValue == null)
+		{
+			return emptyByteArray;
+		}
+		if(fieldClass.equals(UUID.class))
+		{
+			UUID uuid = (UUID)fieldValue;
+			return ByteBuffer.allocate(UUIDLength).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+		}
+		else if(fieldClass.equals(Date.class))
+		{
+			return ByteBuffer.allocate(DateLength).putLong(((Date)fieldValue).getTime()).array();
+		}
+		else if(fieldClass.equals(int.class) || fieldClass.equals(Integer.class))
+		{
+			return ByteBuffer.allocate(5).put(NumberMarker).putInt((Integer)fieldValue).array();
+		}
+		else if(fieldClass.equals(long.class) || fieldClass.equals(Long.class))
+		{
+			return ByteBuffer.allocate(9).put(NumberMarker).putLong((Long)fieldValue).array();
+		}
+		return getStoreValue(fieldClass, fieldValue);
+	}
+
+	public static Object getBinaryRuntimeValue(Class fieldClass, byte[] fieldValue) throws Exception
+	{
+		if(fieldValue == null || fieldValue.length == 0)
+		{
+			return null;
+		}
+		if(fieldClass.equals(UUID.class))
+		{
+			if(fieldValue.length == UUIDLength)
+			{
+				ByteBuffer buffer = ByteBuffer.wrap(fieldValue);
+				return new UUID(buffer.getLong(), buffer.getLong());
+			}
+		}
+		else if(fieldClass.equals(Date.class))
+		{
+			if(fieldValue.length == DateLength)
+			{
+				return new Date(ByteBuffer.wrap(fieldValue).getLong());
+			}
+		}
+		else if(fieldClass.equals(int.class) || fieldClass.equals(Integer.class))
+		{
+			if(fieldValue[0] == NumberMarker)
+			{
+				return ByteBuffer.wrap(fieldValue, 1, 4).getInt();
+			}
+			//negative values were written as unsigned hex
+			return Integer.parseUnsignedInt(new String(fieldValue), 16);
+		}
+		else if(fieldClass.equals(long.class) || fieldClass.equals(Long.class))
+		{
+			if(fieldValue[0] == NumberMarker)
+			{
+				return ByteBuffer.wrap(fieldValue, 1, 8).getLong();
+			}
+			return Long.parseUnsignedLong(new String(fieldValue), 16);
+		}
+		return getRuntimeValue(fieldClass, fieldValue);
+	}
+
+	@Override
+	public byte[] getStoreValue(Object fieldValue) throws Exception {
+		return getBinaryValue(fieldClass, fieldValue);
+	}
+
+	@Override
+	public Object getRuntimeValue(byte[] fieldValue) throws Exception {
+		return getBinaryRuntimeValue(fieldClass, fieldValue);
+	}
+}
@@ -0,0 +1,293 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//version byte, varint entry count, then every entry as varint length key and a type tag.
+//common types are written inline, other values are json with a registered class id or the class name
+public class BinaryMapCodec implements IMapCodec {
+	public static final byte FormatVersion = 1;
+
+	protected static final byte NullTag = 0;
+	protected static final byte TrueTag = 1;
+	protected static final byte FalseTag = 2;
+	protected static final byte IntTag = 3;
+	protected static final byte LongTag = 4;
+	protected static final byte DoubleTag = 5;
+	protected static final byte StringTag = 6;
+	protected static final byte UUIDTag = 7;
+	protected static final byte DateTag = 8;
+	protected static final byte RegisteredClassTag = 9;
+	protected static final byte NamedClassTag = 10;
+
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	//the ids are stored, they must not change between restarts
+	private static ConcurrentMap<Class, Integer> classIDMap = new ConcurrentHashMap<Class, Integer>();
+	private static ConcurrentMap<Integer, Class> idClassMap = new ConcurrentHashMap<Integer, Class>();
+
+	public static synchronized void registerClass(int classID, Class classType) throws Exception
+	{
+		Class oldClass = idClassMap.get(classID);
+		if(oldClass != null && !oldClass.equals(classType))
+		{
+			throw new Exception("class id " + classID + " is registered by " + oldClass.getName());
+		}
+		Integer oldID = classIDMap.get(classType);
+		if(oldID != null && oldID.intValue() != classID)
+		{
+			throw new Exception(classType.getName() + " is registered by class id " + oldID);
+		}
+		idClassMap.put(classID, classType);
+		classIDMap.put(classType, classID);
+	}
+
+	public byte[] encode(Map<String, ?> sourceMap) throws Exception
+	{
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		output.write(FormatVersion);
+		writeVarint(output, sourceMap == null ? 0 : sourceMap.size());
+		if(sourceMap != null)
+		{
+			for(Map.Entry<String, ?> entry : sourceMap.entrySet())
+			{
+				writeBytes(output, entry.getKey().getBytes(utf8));
+				writeValue(output, entry.getValue());
+			}
+		}
+		return output.toByteArray();
+	}
+
+	protected void writeValue(ByteArrayOutputStream output, Object value) throws Exception
+	{
+		if(value == null)
+		{
+			output.write(NullTag);
+		}
+		else if(value instanceof Boolean)
+		{
+			output.write(((Boolean)value).booleanValue() ? TrueTag : FalseTag);
+		}
+		else if(value instanceof Integer)
+		{
+			output.write(IntTag);
+			writeVarint(output, zigzag((Integer)value));
+		}
+		else if(value instanceof Long)
+		{
+			output.write(LongTag);
+			writeVarint(output, zigzag((Long)value));
+		}
+		else if(value instanceof Double)
+		{
+			output.write(DoubleTag);
+			writeFixedLong(output, Double.doubleToLongBits((Double)value));
+		}
+		else if(value instanceof String)
+		{
+			output.write(StringTag);
+			writeBytes(output, ((String)value).getBytes(utf8));
+		}
+		else if(value instanceof UUID)
+		{
+			output.write(UUIDTag);
+			writeFixedLong(output, ((UUID)value).getMostSignificantBits());
+			writeFixedLong(output, ((UUID)value).getLeastSignificantBits());
+		}
+		else if(value.getClass().equals(Date.class))
+		{
+			output.write(DateTag);
+			writeVarint(output, zigzag(((Date)value).getTime()));
+		}
+		else
+		{
+			Integer classID = classIDMap.get(value.getClass());
+			if(classID != null)
+			{
+				output.write(RegisteredClassTag);
+				writeVarint(output, classID);
+			}
+			else
+			{
+				output.write(NamedClassTag);
+				writeBytes(output, value.getClass().getName().getBytes(utf8));
+			}
+			writeBytes(output, SerializationService.writeValueAsBytes(value));
+		}
+	}
+
+	public <T> void decode(byte[] data, Map<String, T> destMap) throws Exception
+	{
+		destMap.clear();
+		if(data == null || data.length == 0)
+		{
+			return;
+		}
+		Reader reader = new Reader(data);
+		byte version = reader.readByte();
+		if(version != FormatVersion)
+		{
+			throw new Exception("unknown map format version:" + version);
+		}
+		long count = reader.readVarint();
+		for(long i = 0; i < count; i++)
+		{
+			String key = new String(reader.readBytes(), utf8);
+			Object value = readValue(reader);
+			//the node maps are concurrent maps, they can not hold null
+			if(value != null)
+			{
+				destMap.put(key, (T)value);
+			}
+		}
+	}
+
+	protected Object readValue(Reader reader) throws Exception
+	{
+		byte tag = reader.readByte();
+		switch(tag)
+		{
+		case NullTag:
+			return null;
+		case TrueTag:
+			return Boolean.TRUE;
+		case FalseTag:
+			return Boolean.FALSE;
+		case IntTag:
+			return (int)unzigzag(reader.readVarint());
+		case LongTag:
+			return unzigzag(reader.readVarint());
+		case DoubleTag:
+			return Double.longBitsToDouble(reader.readFixedLong());
+		case StringTag:
+			return new String(reader.readBytes(), utf8);
+		case UUIDTag:
+			return new UUID(reader.readFixedLong(), reader.readFixedLong());
+		case DateTag:
+			return new Date(unzigzag(reader.readVarint()));
+		case RegisteredClassTag:
+			int classID = (int)reader.readVarint();
+			Class classType = idClassMap.get(classID);
+			if(classType == null)
+			{
+				throw new Exception("class id is not registered:" + classID);
+			}
+			return SerializationService.readValue(reader.readBytes(), classType);
+		case NamedClassTag:
+			Class namedClass = SerializationService.getClass(new String(reader.readBytes(), utf8));
+			return SerializationService.readValue(reader.readBytes(), namedClass);
+		default:
+			throw new Exception("unknown value tag:" + tag);
+		}
+	}
+
+	protected static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	protected static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	protected static void writeVarint(ByteArrayOutputStream output, long value)
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			output.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.write((int)value);
+	}
+
+	protected static void writeFixedLong(ByteArrayOutputStream output, long value)
+	{
+		for(int shift = 56; shift >= 0; shift -= 8)
+		{
+			output.write((int)(value >>> shift));
+		}
+	}
+
+	protected static void writeBytes(ByteArrayOutputStream output, byte[] bytes)
+	{
+		writeVarint(output, bytes.length);
+		output.write(bytes, 0, bytes.length);
+	}
+
+	protected static class Reader
+	{
+		private byte[] data;
+		private int position = 0;
+
+		public Reader(byte[] data)
+		{
+			this.data = data;
+		}
+
+		public byte readByte() throws Exception
+		{
+			if(position >= data.length)
+			{
+				throw new Exception("map data is truncated");
+			}
+			return data[position++];
+		}
+
+		public long readVarint() throws Exception
+		{
+			long result = 0;
+			for(int shift = 0; shift < 64; shift += 7)
+			{
+				byte current = readByte();
+				result |= (long)(current & 0x7F) << shift;
+				if((current & 0x80) == 0)
+				{
+					return result;
+				}
+			}
+			throw new Exception("varint is too long");
+		}
+
+		public long readFixedLong() throws Exception
+		{
+			long result = 0;
+			for(int i = 0; i < 8; i++)
+			{
+				result = (result << 8) | (readByte() & 0xFF);
+			}
+			return result;
+		}
+
+		public byte[] readBytes() throws Exception
+		{
+			int length = (int)readVarint();
+			if(length < 0 || position + length > data.length)
+			{
+				throw new Exception("map data is truncated");
+			}
+			byte[] result = new byte[length];
+			System.arraycopy(data, position, result, 0, length);
+			position += length;
+			return result;
+		}
+	}
+}
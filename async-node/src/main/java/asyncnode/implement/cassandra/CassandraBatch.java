@@ -0,0 +1,381 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.log4j.Logger;
+
+import asyncnode.App;
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+//collect the mutations of current thread and send them by one batch_mutate for every keyspace when committed.
+//the mutations of the same column are coalesced, the last one wins.
+//the failure actions are called when the mutations are not sent, because the send fails or the batch is not committed.
+//usage: batch = CassandraBatch.begin(); try { ...; batch.commit(); } finally { batch.end(); }
+public class CassandraBatch {
+	private static ThreadLocal<CassandraBatch> currentBatch = new ThreadLocal<CassandraBatch>();
+
+	protected int depth = 0;
+	protected Map<String, KeyspaceBatch> keyspaceBatchMap = new LinkedHashMap<String, KeyspaceBatch>();
+	//not null, the committed mutations are handed to the pipeline instead of being sent by this thread
+	protected WriteBehindPipeline writeBehindPipeline = null;
+	protected List<IAction<Exception>> failureActionList = new ArrayList<IAction<Exception>>();
+
+	public static CassandraBatch getCurrent()
+	{
+		return currentBatch.get();
+	}
+
+	//nested begin joins the outer batch, only the outer commit sends the mutations
+	public static CassandraBatch begin()
+	{
+		CassandraBatch batch = currentBatch.get();
+		if(batch == null)
+		{
+			batch = new CassandraBatch();
+			currentBatch.set(batch);
+		}
+		batch.depth++;
+		return batch;
+	}
+
+	//the pipeline of the outer batch is used, null sends the mutations when committed
+	public static CassandraBatch begin(WriteBehindPipeline writeBehindPipeline)
+	{
+		CassandraBatch batch = begin();
+		if(batch.depth == 1)
+		{
+			batch.writeBehindPipeline = writeBehindPipeline;
+		}
+		return batch;
+	}
+
+	public void commit() throws Exception
+	{
+		if(depth == 1)
+		{
+			List<IAction<Exception>> actionList = failureActionList;
+			failureActionList = new ArrayList<IAction<Exception>>();
+			if(writeBehindPipeline != null)
+			{
+				writeBehindPipeline.enqueue(keyspaceBatchMap.values(), actionList);
+				keyspaceBatchMap.clear();
+			}
+			else
+			{
+				try
+				{
+					flush();
+				}
+				catch(Exception ex)
+				{
+					invokeFailureActions(actionList, ex);
+					throw ex;
+				}
+			}
+		}
+	}
+
+	//the mutations which are not committed are discarded
+	public void end()
+	{
+		depth--;
+		if(depth <= 0)
+		{
+			if(!failureActionList.isEmpty())
+			{
+				invokeFailureActions(failureActionList, new IllegalStateException("the batch is not committed!"));
+				failureActionList.clear();
+			}
+			keyspaceBatchMap.clear();
+			writeBehindPipeline = null;
+			currentBatch.remove();
+		}
+	}
+
+	public void addFailureAction(IAction<Exception> failureAction)
+	{
+		failureActionList.add(failureAction);
+	}
+
+	protected static void invokeFailureActions(List<IAction<Exception>> actionList, Exception failure)
+	{
+		for(IAction<Exception> action : actionList)
+		{
+			try
+			{
+				action.invoke(failure);
+			}
+			catch(Exception ex)
+			{
+				App.getConfig().getInstance(Logger.class).error("batch failure action failed!", ex);
+			}
+		}
+	}
+
+	public boolean isEmpty()
+	{
+		return keyspaceBatchMap.isEmpty();
+	}
+
+	protected KeyspaceBatch getKeyspaceBatch(CassandraDescrib cassandraDescrib, ConsistencyLevel consistencyLevel)
+	{
+		return getKeyspaceBatch(keyspaceBatchMap, cassandraDescrib, consistencyLevel);
+	}
+
+	protected static KeyspaceBatch getKeyspaceBatch(Map<String, KeyspaceBatch> keyspaceBatchMap, CassandraDescrib cassandraDescrib,
+			ConsistencyLevel consistencyLevel)
+	{
+		String key = cassandraDescrib.getIp() + ":" + cassandraDescrib.getPort() + "/" + cassandraDescrib.getKeySpace();
+		KeyspaceBatch keyspaceBatch = keyspaceBatchMap.get(key);
+		if(keyspaceBatch == null)
+		{
+			keyspaceBatch = new KeyspaceBatch(cassandraDescrib, consistencyLevel);
+			keyspaceBatchMap.put(key, keyspaceBatch);
+		}
+		return keyspaceBatch;
+	}
+
+	public void addMutation(CassandraDescrib cassandraDescrib, Map<ByteBuffer, List<Mutation>> valueMap,
+			ConsistencyLevel consistencyLevel)
+	{
+		KeyspaceBatch keyspaceBatch = getKeyspaceBatch(cassandraDescrib, consistencyLevel);
+		for(Map.Entry<ByteBuffer, List<Mutation>> entry : valueMap.entrySet())
+		{
+			if(entry.getValue() == null)
+			{
+				continue;
+			}
+			RowBatch rowBatch = keyspaceBatch.getRowBatch(entry.getKey(), cassandraDescrib.getColumnFamily());
+			for(Mutation mutation : entry.getValue())
+			{
+				rowBatch.add(mutation);
+			}
+		}
+	}
+
+	public void addRowDeletion(CassandraDescrib cassandraDescrib, byte[] row, ConsistencyLevel consistencyLevel)
+	{
+		KeyspaceBatch keyspaceBatch = getKeyspaceBatch(cassandraDescrib, consistencyLevel);
+		keyspaceBatch.getRowBatch(ByteBuffer.wrap(row), cassandraDescrib.getColumnFamily())
+			.deleteRow(System.currentTimeMillis());
+	}
+
+	protected void flush() throws Exception
+	{
+		send(keyspaceBatchMap.values());
+		keyspaceBatchMap.clear();
+	}
+
+	//one batch_mutate for every keyspace
+	protected static void send(Collection<KeyspaceBatch> keyspaceBatchList) throws Exception
+	{
+		for(final KeyspaceBatch keyspaceBatch : keyspaceBatchList)
+		{
+			final Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = keyspaceBatch.getMutationMap();
+			if(mutationMap.isEmpty())
+			{
+				continue;
+			}
+			CassandraHelper.invokeCassandraCore(keyspaceBatch.cassandraDescrib, new IAction<Cassandra.Client>(){
+				public void invoke(Client client) throws Exception {
+					client.batch_mutate(mutationMap, keyspaceBatch.consistencyLevel);
+				}
+			});
+		}
+	}
+
+	protected static class KeyspaceBatch
+	{
+		protected CassandraDescrib cassandraDescrib;
+		protected ConsistencyLevel consistencyLevel;
+		protected Map<ByteBuffer, Map<String, RowBatch>> rowMap = new LinkedHashMap<ByteBuffer, Map<String, RowBatch>>();
+
+		public KeyspaceBatch(CassandraDescrib cassandraDescrib, ConsistencyLevel consistencyLevel)
+		{
+			this.cassandraDescrib = cassandraDescrib;
+			this.consistencyLevel = consistencyLevel;
+		}
+
+		public RowBatch getRowBatch(ByteBuffer row, String columnFamily)
+		{
+			Map<String, RowBatch> columnFamilyMap = rowMap.get(row);
+			if(columnFamilyMap == null)
+			{
+				columnFamilyMap = new LinkedHashMap<String, RowBatch>();
+				rowMap.put(row, columnFamilyMap);
+			}
+			RowBatch rowBatch = columnFamilyMap.get(columnFamily);
+			if(rowBatch == null)
+			{
+				rowBatch = new RowBatch();
+				columnFamilyMap.put(columnFamily, rowBatch);
+			}
+			return rowBatch;
+		}
+
+		//the mutations of the other batch are newer, they are coalesced with the ones of this batch
+		public void addAll(KeyspaceBatch keyspaceBatch)
+		{
+			for(Map.Entry<ByteBuffer, Map<String, RowBatch>> rowEntry : keyspaceBatch.rowMap.entrySet())
+			{
+				for(Map.Entry<String, RowBatch> entry : rowEntry.getValue().entrySet())
+				{
+					getRowBatch(rowEntry.getKey(), entry.getKey()).addAll(entry.getValue());
+				}
+			}
+		}
+
+		public int getMutationCount()
+		{
+			int count = 0;
+			for(Map<String, RowBatch> columnFamilyMap : rowMap.values())
+			{
+				for(RowBatch rowBatch : columnFamilyMap.values())
+				{
+					count += rowBatch.getMutationCount();
+				}
+			}
+			return count;
+		}
+
+		public Map<ByteBuffer, Map<String, List<Mutation>>> getMutationMap()
+		{
+			Map<ByteBuffer, Map<String, List<Mutation>>> result = new LinkedHashMap<ByteBuffer, Map<String, List<Mutation>>>();
+			for(Map.Entry<ByteBuffer, Map<String, RowBatch>> rowEntry : rowMap.entrySet())
+			{
+				Map<String, List<Mutation>> columnFamilyMap = new LinkedHashMap<String, List<Mutation>>();
+				for(Map.Entry<String, RowBatch> entry : rowEntry.getValue().entrySet())
+				{
+					List<Mutation> mutationList = entry.getValue().getMutationList();
+					if(!mutationList.isEmpty())
+					{
+						columnFamilyMap.put(entry.getKey(), mutationList);
+					}
+				}
+				if(!columnFamilyMap.isEmpty())
+				{
+					result.put(rowEntry.getKey(), columnFamilyMap);
+				}
+			}
+			return result;
+		}
+	}
+
+	protected static class RowBatch
+	{
+		protected long rowDeletionTimestamp = -1;
+		protected Map<ByteBuffer, Mutation> columnMap = new LinkedHashMap<ByteBuffer, Mutation>();
+		//the mutation which can not be coalesced, like slice range deletion
+		protected List<Mutation> otherList = new ArrayList<Mutation>();
+
+		public void add(Mutation mutation)
+		{
+			if(mutation.isSetColumn_or_supercolumn() && mutation.getColumn_or_supercolumn().isSetColumn())
+			{
+				Column column = mutation.getColumn_or_supercolumn().getColumn();
+				//the column is written after the row is deleted, it must be newer than the row tombstone
+				if(rowDeletionTimestamp >= 0 && column.getTimestamp() <= rowDeletionTimestamp)
+				{
+					column.setTimestamp(rowDeletionTimestamp + 1);
+				}
+				columnMap.put(ByteBuffer.wrap(column.getName()), mutation);
+			}
+			else if(mutation.isSetDeletion() && mutation.getDeletion().isSetPredicate()
+					&& mutation.getDeletion().getPredicate().isSetColumn_names()
+					&& !mutation.getDeletion().isSetSuper_column())
+			{
+				Deletion deletion = mutation.getDeletion();
+				for(ByteBuffer columnName : deletion.getPredicate().getColumn_names())
+				{
+					columnMap.put(columnName, getColumnDeletion(columnName, deletion.getTimestamp()));
+				}
+			}
+			else
+			{
+				otherList.add(mutation);
+			}
+		}
+
+		public void addAll(RowBatch rowBatch)
+		{
+			if(rowBatch.rowDeletionTimestamp >= 0)
+			{
+				deleteRow(rowBatch.rowDeletionTimestamp);
+			}
+			for(Mutation mutation : rowBatch.columnMap.values())
+			{
+				add(mutation);
+			}
+			otherList.addAll(rowBatch.otherList);
+		}
+
+		public int getMutationCount()
+		{
+			return (rowDeletionTimestamp >= 0 ? 1 : 0) + columnMap.size() + otherList.size();
+		}
+
+		//the columns before are covered by the row tombstone
+		public void deleteRow(long timestamp)
+		{
+			rowDeletionTimestamp = Math.max(rowDeletionTimestamp, timestamp);
+			columnMap.clear();
+			otherList.clear();
+		}
+
+		public List<Mutation> getMutationList()
+		{
+			List<Mutation> mutationList = new ArrayList<Mutation>();
+			if(rowDeletionTimestamp >= 0)
+			{
+				Mutation mutation = new Mutation();
+				Deletion deletion = new Deletion();
+				deletion.setTimestamp(rowDeletionTimestamp);
+				mutation.setDeletion(deletion);
+				mutationList.add(mutation);
+			}
+			mutationList.addAll(columnMap.values());
+			mutationList.addAll(otherList);
+			return mutationList;
+		}
+
+		protected static Mutation getColumnDeletion(ByteBuffer columnName, long timestamp)
+		{
+			Mutation mutation = new Mutation();
+			Deletion deletion = new Deletion();
+			deletion.setTimestamp(timestamp);
+			SlicePredicate predicate = new SlicePredicate();
+			predicate.column_names = new ArrayList<ByteBuffer>();
+			predicate.column_names.add(columnName);
+			deletion.setPredicate(predicate);
+			mutation.setDeletion(deletion);
+			return mutation;
+		}
+	}
+}
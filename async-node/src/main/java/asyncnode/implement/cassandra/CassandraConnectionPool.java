@@ -0,0 +1,373 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+//connections are kept open with the keyspace already set, one pool for every ip, port and keyspace
+public class CassandraConnectionPool {
+	private static ConcurrentMap<String, CassandraConnectionPool> poolMap = new ConcurrentHashMap<String, CassandraConnectionPool>();
+	private static volatile PoolSetting defaultSetting = new PoolSetting();
+
+	protected CassandraDescrib cassandraDescrib;
+	protected PoolSetting setting;
+	protected Semaphore activePermits;
+	//last returned connection is borrowed first, so the rarely used ones become idle and are evicted
+	protected LinkedBlockingDeque<Connection> idleQueue = new LinkedBlockingDeque<Connection>();
+
+	protected AtomicInteger activeCount = new AtomicInteger(0);
+	protected AtomicLong borrowCount = new AtomicLong(0);
+	protected AtomicLong borrowWaitNanos = new AtomicLong(0);
+	protected AtomicLong maxBorrowWaitNanos = new AtomicLong(0);
+	protected AtomicLong borrowTimeoutCount = new AtomicLong(0);
+	protected AtomicLong createdCount = new AtomicLong(0);
+	protected AtomicLong destroyedCount = new AtomicLong(0);
+
+	public static class PoolSetting
+	{
+		private int maxActive = 32;
+		private int maxIdle = 16;
+		private long borrowTimeout = 5000;
+		private long idleTimeout = 60000;
+		//idle connection is checked by a light call before it is borrowed again
+		private long validateIdleTime = 10000;
+
+		public int getMaxActive() {
+			return maxActive;
+		}
+		public void setMaxActive(int maxActive) {
+			this.maxActive = maxActive;
+		}
+		public int getMaxIdle() {
+			return maxIdle;
+		}
+		public void setMaxIdle(int maxIdle) {
+			this.maxIdle = maxIdle;
+		}
+		public long getBorrowTimeout() {
+			return borrowTimeout;
+		}
+		public void setBorrowTimeout(long borrowTimeout) {
+			this.borrowTimeout = borrowTimeout;
+		}
+		public long getIdleTimeout() {
+			return idleTimeout;
+		}
+		public void setIdleTimeout(long idleTimeout) {
+			this.idleTimeout = idleTimeout;
+		}
+		public long getValidateIdleTime() {
+			return validateIdleTime;
+		}
+		public void setValidateIdleTime(long validateIdleTime) {
+			this.validateIdleTime = validateIdleTime;
+		}
+	}
+
+	public static class Connection
+	{
+		protected TTransport transport;
+		protected Cassandra.Client client;
+		protected long lastUsedTime;
+
+		public Connection(TTransport transport, Cassandra.Client client)
+		{
+			this.transport = transport;
+			this.client = client;
+			this.lastUsedTime = System.currentTimeMillis();
+		}
+
+		public Cassandra.Client getClient() {
+			return client;
+		}
+
+		public void close()
+		{
+			if(transport != null)
+			{
+				transport.close();
+			}
+		}
+	}
+
+	public static PoolSetting getDefaultSetting() {
+		return defaultSetting;
+	}
+
+	//only the pools created later use the new setting
+	public static void setDefaultSetting(PoolSetting setting) {
+		defaultSetting = setting;
+	}
+
+	public static String getPoolKey(CassandraDescrib cassandraDescrib)
+	{
+		return cassandraDescrib.getIp() + ":" + cassandraDescrib.getPort() + "/" + cassandraDescrib.getKeySpace();
+	}
+
+	public static CassandraConnectionPool getPool(CassandraDescrib cassandraDescrib)
+	{
+		String key = getPoolKey(cassandraDescrib);
+		CassandraConnectionPool pool = poolMap.get(key);
+		if(pool == null)
+		{
+			CassandraConnectionPool newPool = new CassandraConnectionPool(cassandraDescrib, defaultSetting);
+			pool = poolMap.putIfAbsent(key, newPool);
+			if(pool == null)
+			{
+				pool = newPool;
+			}
+		}
+		return pool;
+	}
+
+	public static ConcurrentMap<String, CassandraConnectionPool> getPoolMap() {
+		return poolMap;
+	}
+
+	public static void closeAll()
+	{
+		for(CassandraConnectionPool pool : poolMap.values())
+		{
+			pool.close();
+		}
+		poolMap.clear();
+	}
+
+	public CassandraConnectionPool(CassandraDescrib cassandraDescrib, PoolSetting setting)
+	{
+		this.cassandraDescrib = cassandraDescrib;
+		this.setting = setting;
+		this.activePermits = new Semaphore(setting.getMaxActive(), true);
+	}
+
+	protected Connection createConnection() throws Exception
+	{
+		TSocket socket = new TSocket(cassandraDescrib.getIp(), cassandraDescrib.getPort());
+		TTransport transport = new TFramedTransport(socket);
+		Cassandra.Client client = new Cassandra.Client(new TBinaryProtocol(transport));
+		transport.open();
+		try
+		{
+			client.set_keyspace(cassandraDescrib.getKeySpace());
+		}
+		catch(Exception ex)
+		{
+			transport.close();
+			throw ex;
+		}
+		createdCount.incrementAndGet();
+		return new Connection(transport, client);
+	}
+
+	protected boolean validate(Connection connection)
+	{
+		if(connection.transport == null || !connection.transport.isOpen())
+		{
+			return false;
+		}
+		if(System.currentTimeMillis() - connection.lastUsedTime < setting.getValidateIdleTime())
+		{
+			return true;
+		}
+		try
+		{
+			connection.client.describe_version();
+			return true;
+		}
+		catch(Exception ex)
+		{
+			return false;
+		}
+	}
+
+	protected void destroy(Connection connection)
+	{
+		connection.close();
+		destroyedCount.incrementAndGet();
+	}
+
+	public Connection borrow() throws Exception
+	{
+		long beginTime = System.nanoTime();
+		if(!activePermits.tryAcquire(setting.getBorrowTimeout(), TimeUnit.MILLISECONDS))
+		{
+			borrowTimeoutCount.incrementAndGet();
+			throw new TimeoutException("borrow cassandra connection timeout:" + getPoolKey(cassandraDescrib));
+		}
+		try
+		{
+			Connection connection = null;
+			while((connection = idleQueue.pollFirst()) != null)
+			{
+				if(validate(connection))
+				{
+					break;
+				}
+				destroy(connection);
+			}
+			if(connection == null)
+			{
+				connection = createConnection();
+			}
+			activeCount.incrementAndGet();
+			recordBorrowWait(System.nanoTime() - beginTime);
+			return connection;
+		}
+		catch(Exception ex)
+		{
+			activePermits.release();
+			throw ex;
+		}
+	}
+
+	protected void recordBorrowWait(long waitNanos)
+	{
+		borrowCount.incrementAndGet();
+		borrowWaitNanos.addAndGet(waitNanos);
+		long maxWait = maxBorrowWaitNanos.get();
+		while(waitNanos > maxWait && !maxBorrowWaitNanos.compareAndSet(maxWait, waitNanos))
+		{
+			maxWait = maxBorrowWaitNanos.get();
+		}
+	}
+
+	//broken connection is closed instead of going back to the pool
+	public void giveBack(Connection connection, boolean broken)
+	{
+		activeCount.decrementAndGet();
+		try
+		{
+			if(broken || idleQueue.size() >= setting.getMaxIdle())
+			{
+				destroy(connection);
+			}
+			else
+			{
+				connection.lastUsedTime = System.currentTimeMillis();
+				idleQueue.offerFirst(connection);
+			}
+			evictIdle();
+		}
+		finally
+		{
+			activePermits.release();
+		}
+	}
+
+	public void evictIdle()
+	{
+		long now = System.currentTimeMillis();
+		Iterator<Connection> iterator = idleQueue.descendingIterator();
+		while(iterator.hasNext())
+		{
+			Connection connection = iterator.next();
+			if(now - connection.lastUsedTime < setting.getIdleTimeout())
+			{
+				break;
+			}
+			if(idleQueue.removeLastOccurrence(connection))
+			{
+				destroy(connection);
+			}
+		}
+	}
+
+	//any exception may leave the thrift stream in a broken state, so the connection is not reused
+	public void invoke(IAction<Cassandra.Client> action) throws Exception
+	{
+		Connection connection = borrow();
+		boolean broken = true;
+		try
+		{
+			if(action != null)
+			{
+				action.invoke(connection.getClient());
+			}
+			broken = false;
+		}
+		finally
+		{
+			giveBack(connection, broken);
+		}
+	}
+
+	public void close()
+	{
+		Connection connection = null;
+		while((connection = idleQueue.pollFirst()) != null)
+		{
+			destroy(connection);
+		}
+	}
+
+	public int getActiveCount() {
+		return activeCount.get();
+	}
+
+	public int getIdleCount() {
+		return idleQueue.size();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	public long getBorrowTimeoutCount() {
+		return borrowTimeoutCount.get();
+	}
+
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	public long getDestroyedCount() {
+		return destroyedCount.get();
+	}
+
+	public double getAverageBorrowWaitMillis() {
+		long count = borrowCount.get();
+		return count == 0 ? 0 : borrowWaitNanos.get() / 1000000.0 / count;
+	}
+
+	public double getMaxBorrowWaitMillis() {
+		return maxBorrowWaitNanos.get() / 1000000.0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getPoolKey(cassandraDescrib) + " active:" + getActiveCount() + ", idle:" + getIdleCount()
+				+ ", borrow:" + getBorrowCount() + ", timeout:" + getBorrowTimeoutCount()
+				+ ", avgWait:" + getAverageBorrowWaitMillis() + "ms, maxWait:" + getMaxBorrowWaitMillis() + "ms"
+				+ ", created:" + getCreatedCount() + ", destroyed:" + getDestroyedCount();
+	}
+}
@@ -57,15 +57,16 @@ import org.apache.thrift.transport.TTransport;
 import asyncnode.CommonUtil;
 import asyncnode.GenericResult;
 import asyncnode.ListHelper;
+import asyncnode.implement.cassandra.PersistenceDescriptor.ColumnDescriptor;
 import asyncnode.core.IAction;
 import asyncnode.core.IAction2;
 import asyncnode.core.IFunc;
-import org.codehaus.jackson.map.ObjectMapper;
 
 public class CassandraHelper {	
 	private static byte[] emptyByteArray = new byte[0];
 	private static ByteBuffer emptyByteBuffer = ByteBuffer.wrap(emptyByteArray);
 	public static final int DefaultGetSize = 100;
+	public static final int DefaultPageSize = 1000;
 		
 	public static Map<ByteBuffer, List<Mutation>> getMutationMap(String key, List<Mutation> mutationList)
 	{
@@ -235,13 +236,6 @@ public class CassandraHelper {
 		visitAction.invoke(keyField, fieldArray);
 	}
 	
-	private static FieldSerailzerBase getFieldSerailzerBase(Field field, ICassandraField columnField) throws InstantiationException, IllegalAccessException
-	{
-		FieldSerailzerBase serializer = (FieldSerailzerBase)columnField.Serialer().newInstance();
-		serializer.setFieldClass(field.getType());
-		return serializer;
-	}
-	
 	public static <T> Map<ByteBuffer,List<Mutation>> getBatchPutColumnValuesMutation(final List<T> objList, final List<String> columnList, IFunc<T, List<Mutation>> relationFunc) throws Exception
 	{
 		Map<ByteBuffer,List<Mutation>> mapList = new HashMap<ByteBuffer,List<Mutation>>();
@@ -267,6 +261,12 @@ public class CassandraHelper {
 	
 	public static void deleteRow(final CassandraDescrib cassandraDescrib, final byte[] row) throws Exception
 	{
+		CassandraBatch batch = CassandraBatch.getCurrent();
+		if(batch != null)
+		{
+			batch.addRowDeletion(cassandraDescrib, row, ConsistencyLevel.ONE);
+			return;
+		}
 		CassandraHelper.invokeCassandraCore(cassandraDescrib, new IAction<Client>(){
 			public void invoke(Client client) throws Exception {
 				
@@ -323,6 +323,102 @@ public class CassandraHelper {
 			}});
 	}
 	
+	public static String getString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return new String(bytes);
+	}
+	
+	public static KeyRange getAllKeyRange()
+	{
+		KeyRange keyRange = new KeyRange();
+		keyRange.setStart_key(emptyByteBuffer);
+		keyRange.setEnd_key(emptyByteBuffer);
+		return keyRange;
+	}
+	
+	public static void visitPagedColumns(final CassandraDescrib cassandraDescrib, final int pageSize,
+			final IAction2<ByteBuffer, List<ColumnOrSuperColumn>> columnsAction) throws Exception
+	{
+		CassandraHelper.invokeCassandraCore(cassandraDescrib, new IAction<Client>(){
+			public void invoke(Client client) throws Exception {
+				visitPagedColumns(cassandraDescrib, client, getAllKeyRange(), pageSize, columnsAction);
+			}
+		});
+	}
+	
+	//read the rows in the key range by pages of pageSize columns, the next page starts from the last key and column.
+	//a wide row may be visited by several calls, the rows are visited in the order of the ring
+	public static void visitPagedColumns(CassandraDescrib cassandraDescrib, Client client, KeyRange keyRange, int pageSize,
+			IAction2<ByteBuffer, List<ColumnOrSuperColumn>> columnsAction) throws Exception
+	{
+		//the first column of every next page is the last one of the page before
+		pageSize = Math.max(pageSize <= 0 ? DefaultPageSize : pageSize, 2);
+		KeyRange pageRange = keyRange.deepCopy();
+		pageRange.setCount(pageSize);
+		ByteBuffer startColumn = emptyByteBuffer;
+		while(true)
+		{
+			List<KeySlice> keySliceList = client.get_paged_slice(cassandraDescrib.getColumnFamily(), pageRange, startColumn, cassandraDescrib.getConsistencyLevel());
+			int columnCount = 0;
+			ByteBuffer lastKey = null;
+			ByteBuffer lastColumn = null;
+			for(KeySlice keySlice : keySliceList)
+			{
+				List<ColumnOrSuperColumn> columnList = keySlice.getColumns();
+				if(columnList == null || columnList.isEmpty())
+				{
+					continue;
+				}
+				columnCount += columnList.size();
+				ByteBuffer key = keySlice.bufferForKey();
+				lastKey = key;
+				lastColumn = columnList.get(columnList.size() - 1).getColumn().bufferForName();
+				if(startColumn.hasRemaining() 
+						&& key.equals(pageRange.bufferForStart_key())
+						&& columnList.get(0).getColumn().bufferForName().equals(startColumn))
+				{
+					columnList = columnList.subList(1, columnList.size());
+				}
+				if(!columnList.isEmpty())
+				{
+					columnsAction.invoke(key, columnList);
+				}
+			}
+			if(columnCount < pageSize || lastKey == null)
+			{
+				break;
+			}
+			pageRange.unsetStart_token();
+			pageRange.setStart_key(lastKey);
+			startColumn = lastColumn;
+		}
+	}
+	
+	//the columns of one row are merged before visited
+	public static void visitPagedRows(CassandraDescrib cassandraDescrib, Client client, KeyRange keyRange, int pageSize,
+			final IAction2<ByteBuffer, List<ColumnOrSuperColumn>> rowAction) throws Exception
+	{
+		final GenericResult<ByteBuffer> currentKey = new GenericResult<ByteBuffer>();
+		final List<ColumnOrSuperColumn> currentColumnList = new ArrayList<ColumnOrSuperColumn>();
+		visitPagedColumns(cassandraDescrib, client, keyRange, pageSize, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+			public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+				if(currentKey.getResult() != null && !currentKey.getResult().equals(key))
+				{
+					rowAction.invoke(currentKey.getResult(), new ArrayList<ColumnOrSuperColumn>(currentColumnList));
+					currentColumnList.clear();
+				}
+				currentKey.setResult(key);
+				currentColumnList.addAll(columnList);
+			}
+		});
+		if(currentKey.getResult() != null)
+		{
+			rowAction.invoke(currentKey.getResult(), new ArrayList<ColumnOrSuperColumn>(currentColumnList));
+		}
+	}
+	
 	public static Mutation getDeleteMutation(byte[] bColumnName)
 	{
 	    Mutation result = new Mutation();  
@@ -366,8 +462,7 @@ public class CassandraHelper {
 			byte[] columnValue = FieldSerailzerBase.emptyByteArray;
 			if(isSerialize)
 			{
-				ObjectMapper objectMapper = new ObjectMapper();
-				columnValue = objectMapper.writeValueAsString(obj).getBytes();
+				columnValue = SerializationService.writeValueAsString(obj).getBytes();
 			}
 			Mutation columnMutation = getMutation(bColumnName, columnValue, timestamp);
 			mutationList.add(columnMutation);
@@ -395,8 +490,7 @@ public class CassandraHelper {
 				T itemValue = null;
 				if(jsonValue != null && jsonValue.length() > 0)
 				{
-					ObjectMapper objectMapper = new ObjectMapper();				
-					itemValue = objectMapper.readValue(jsonValue, classType);				
+					itemValue = SerializationService.readValue(jsonValue, classType);				
 				}
 				else
 				{
@@ -416,67 +510,30 @@ public class CassandraHelper {
 		{
 			return result;
 		}
-		Class objClass = obj.getClass();		
+		PersistenceDescriptor descriptor = PersistenceDescriptor.getDescriptor(obj.getClass());
 		final long timestamp = System.currentTimeMillis();
-		visitColumns(objClass, columnList, new IAction2<Field, Field[]>(){
-			public void invoke(Field keyField, Field[] fieldArray) throws Exception {
-				List<Mutation> mutationList = new ArrayList<Mutation>();
-				for(Field field : fieldArray)
-				{							
-					ICassandraField columnField = (ICassandraField)field.getAnnotation(ICassandraField.class);
-					if(columnField == null)
-					{
-						continue;
-					}
-					FieldSerailzerBase serializer = getFieldSerailzerBase(field, columnField);
-					byte[] valueArray = serializer.getStoreValue(getFieldValue(obj, field));
-					Column column = new Column();
-					column.setName(columnField.ColumnName().getBytes());
-					column.setValue(valueArray);
-					column.setTimestamp(timestamp);
-					ColumnOrSuperColumn columnOrSuperColumn = new ColumnOrSuperColumn();
-					columnOrSuperColumn.setColumn(column);
-					Mutation columnMutation = new Mutation();
-					columnMutation.setColumn_or_supercolumn(columnOrSuperColumn);
-					mutationList.add(columnMutation);
-				}
-				
-				ICassandraField keyColumnField = (ICassandraField)keyField.getAnnotation(ICassandraField.class);
-				FieldSerailzerBase keySerializer = getFieldSerailzerBase(keyField, keyColumnField);
-				byte[] keyValueArray = keySerializer.getStoreValue(getFieldValue(obj, keyField));	
-				result.put(ByteBuffer.wrap(keyValueArray), mutationList);
-			}			
-		});
+		List<Mutation> mutationList = new ArrayList<Mutation>();
+		for(ColumnDescriptor columnDescriptor : descriptor.getColumnList(columnList))
+		{
+			byte[] valueArray = columnDescriptor.getSerializer().getStoreValue(columnDescriptor.getValue(obj));
+			Column column = new Column();
+			column.setName(columnDescriptor.getColumnNameBuffer());
+			column.setValue(valueArray);
+			column.setTimestamp(timestamp);
+			ColumnOrSuperColumn columnOrSuperColumn = new ColumnOrSuperColumn();
+			columnOrSuperColumn.setColumn(column);
+			Mutation columnMutation = new Mutation();
+			columnMutation.setColumn_or_supercolumn(columnOrSuperColumn);
+			mutationList.add(columnMutation);
+		}
+		result.put(ByteBuffer.wrap(descriptor.getStoreKey(obj)), mutationList);
 		return result;		
 	}
 	
 
 	public static void invokeCassandraCore(CassandraDescrib cassandraDescrib, IAction<Cassandra.Client> action) throws Exception
 	{
-
-			TSocket socket = new TSocket(cassandraDescrib.getIp(), cassandraDescrib.getPort());
-			String keyspace = cassandraDescrib.getKeySpace();
-			String columnFamily = cassandraDescrib.getColumnFamily();
-			ConsistencyLevel consistencyLevel = cassandraDescrib.getConsistencyLevel();			
-			TTransport tr = new TFramedTransport(socket);
-			try
-			{
-				TProtocol proto = new TBinaryProtocol(tr);				
-				Cassandra.Client client = new Cassandra.Client(proto);
-				tr.open();		 				
-				client.set_keyspace(keyspace);
-				if(action != null)
-				{
-					action.invoke(client);
-				}
-			}
-			finally
-			{
-				if(tr != null)
-				{
-					tr.close();
-				}
-			}
+		CassandraConnectionPool.getPool(cassandraDescrib).invoke(action);
 	}
 
 	private static Map<ByteBuffer, Map<String, List<Mutation>>> getColumnFamilyMap(final CassandraDescrib cassandraDescrib, final Map<ByteBuffer,List<Mutation>> valueMap)
@@ -495,6 +552,12 @@ public class CassandraHelper {
 	public static void batchUpdate(final CassandraDescrib cassandraDescrib, final Map<ByteBuffer,List<Mutation>> valueMap, 
 			final ConsistencyLevel consistencyLevel) throws Exception
 	{
+		CassandraBatch batch = CassandraBatch.getCurrent();
+		if(batch != null)
+		{
+			batch.addMutation(cassandraDescrib, valueMap, consistencyLevel);
+			return;
+		}
 		invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
 			public void invoke(Client client) throws Exception {
 				Map<ByteBuffer, Map<String, List<Mutation>>> updateMap = getColumnFamilyMap(cassandraDescrib, valueMap);
@@ -508,12 +571,6 @@ public class CassandraHelper {
 
 	}
 	
-	private static class FieldSerializePair
-	{
-		public Field _field;
-		public FieldSerailzerBase _serializer;
-	}	
-	
 	private static Map<ByteBuffer, List<ColumnOrSuperColumn>> batchGet(CassandraDescrib cassandraDescrib, Client client, List<ByteBuffer> keyBufferList) throws Exception
 	{
 		ColumnParent columnParent = new ColumnParent();
@@ -574,28 +631,6 @@ public class CassandraHelper {
 		return result.getResult();
 	}
 	
-	public static class ClassFieldsVisitor<T> implements IFunc<List<ColumnOrSuperColumn>, Map<String, FieldSerializePair>>
-	{
-		private IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc = null;
-		public ClassFieldsVisitor(IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc)
-		{
-			this.getInstanceFunc = getInstanceFunc;
-		}
-
-		public Map<String, FieldSerializePair> getValue(
-				List<ColumnOrSuperColumn> param) throws Exception {
-			Class classType = getInstanceFunc.getValue(param).getClass();						
-			final GenericResult<Map<String, FieldSerializePair>> resultMap = new GenericResult<Map<String, FieldSerializePair>>();
-			visitColumns(classType, null, new IAction2<Field, Field[]>(){
-				public void invoke(final Field keyField, final Field[] fieldArray) throws Exception {
-					final Map<String, FieldSerializePair> columnSerializerMap = getColumnSerializerMap(fieldArray);
-					resultMap.setResult(columnSerializerMap);
-				}			
-			});
-			return resultMap.getResult();
-		}
-	}	
-
 	public static <T> List<T> batchGet(final IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc, 
 			final CassandraDescrib cassandraDescrib, 
 			final List<ByteBuffer> keyBufferList,
@@ -604,10 +639,8 @@ public class CassandraHelper {
 		final GenericResult<List<T>>	resultList = new GenericResult<List<T>>(); 
 		invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
 			public void invoke(Client client) throws Exception {
-				ClassFieldsVisitor classFieldsVisitor = new ClassFieldsVisitor(getInstanceFunc);
 				Map<ByteBuffer, List<ColumnOrSuperColumn>> queryResultList = batchGet(cassandraDescrib, client, keyBufferList);
 				List<T> batchResultList = batchGet(cassandraDescrib, client,
-						classFieldsVisitor,
 						keyBufferList,
 						getInstanceFunc,
 						relationFunc,
@@ -618,25 +651,47 @@ public class CassandraHelper {
 		return resultList.getResult();
 	}
 	
-	private static Map<String, FieldSerializePair> getColumnSerializerMap(Field[] fieldArray) throws Exception
+	//convert the rows page by page instead of loading all of them, the memory is bounded by the page size
+	public static <T> void visitAll(final IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc, 
+			final CassandraDescrib cassandraDescrib, 
+			final int pageSize,
+			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
+			final IAction<T> visitAction) throws Exception
 	{
-		final Map<String, FieldSerializePair> columnSerializerMap = new HashMap<String, FieldSerializePair>();
-		for(Field field : fieldArray)
-		{			
-			ICassandraField columnField = (ICassandraField)field.getAnnotation(ICassandraField.class);
-			if(columnField == null)
-			{
-				continue;
+		invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
+			public void invoke(Client client) throws Exception {
+				visitAll(getInstanceFunc, cassandraDescrib, client, getAllKeyRange(), pageSize, relationFunc, visitAction);
+			}	
+		});
+	}
+	
+	public static <T> void visitAll(final IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc, 
+			final CassandraDescrib cassandraDescrib, 
+			final Client client,
+			KeyRange keyRange,
+			int pageSize,
+			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
+			final IAction<T> visitAction) throws Exception
+	{
+		visitPagedRows(cassandraDescrib, client, keyRange, pageSize, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+			public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+				Map<ByteBuffer, List<ColumnOrSuperColumn>> rowMap = new HashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+				rowMap.put(key, columnList);
+				for(T entity : convertRows(getInstanceFunc, relationFunc, rowMap))
+				{
+					visitAction.invoke(entity);
+				}
 			}
-			FieldSerailzerBase columnSerializer = getFieldSerailzerBase(field, columnField);
-			FieldSerializePair pair = new FieldSerializePair();
-			pair._field = field;
-			pair._serializer = columnSerializer;
-			columnSerializerMap.put(columnField.ColumnName(), pair);
-		}		
-		return columnSerializerMap;
+		});
 	}
-		
+	
+	public static <T> List<T> convertRows(IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc, 
+			IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
+			Map<ByteBuffer, List<ColumnOrSuperColumn>> rowMap) throws Exception
+	{
+		return batchGet(null, null, null, getInstanceFunc, relationFunc, rowMap);
+	}
+	
 	public static <T> List<T> batchGet(final Class<T> classType, final CassandraDescrib cassandraDescrib, List<T> keyList,
 			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc) throws Exception
 	{		
@@ -652,50 +707,37 @@ public class CassandraHelper {
 			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc) throws Exception
 	{				
 		final GenericResult<List<T>>	resultList = new GenericResult<List<T>>(); 
-		visitColumns(classType, null, new IAction2<Field, Field[]>(){
-			public void invoke(final Field keyField, final Field[] fieldArray) throws Exception {
-				invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
-					public void invoke(Client client) throws Exception {	
-						final ICassandraField keyColumnField = (ICassandraField)keyField.getAnnotation(ICassandraField.class);
-						final FieldSerailzerBase keySerializer = getFieldSerailzerBase(keyField, keyColumnField);
-						List<ByteBuffer> keyBufferList = null;
-						
-						if(keyList != null)
-						{
-							keyBufferList = new ArrayList<ByteBuffer>();
-							for(Object keyObj : keyList)
-							{														
-								ByteBuffer keyBuffer = ByteBuffer.wrap(keySerializer.getStoreValue(getFieldValue(keyObj, keyField)));
-								keyBufferList.add(keyBuffer);
-							}
-						}
+		final PersistenceDescriptor descriptor = PersistenceDescriptor.getDescriptor(classType);
+		invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
+			public void invoke(Client client) throws Exception {	
+				List<ByteBuffer> keyBufferList = null;
+				
+				if(keyList != null)
+				{
+					keyBufferList = new ArrayList<ByteBuffer>();
+					for(Object keyObj : keyList)
+					{														
+						keyBufferList.add(ByteBuffer.wrap(descriptor.getStoreKey(keyObj)));
+					}
+				}
 
-						final Map<String, FieldSerializePair> columnSerializerMap = getColumnSerializerMap(fieldArray);						
-						Map<ByteBuffer, List<ColumnOrSuperColumn>> queryResultList = batchGet(cassandraDescrib, client, keyBufferList);
-						List<T> batchResultList = batchGet(cassandraDescrib, client,
-								new IFunc<List<ColumnOrSuperColumn>, Map<String, FieldSerializePair>>(){
-									public Map<String, FieldSerializePair> getValue(
-											List<ColumnOrSuperColumn> param) throws Exception {
-										return columnSerializerMap;
-									}},
-								keyBufferList,
-								new IFunc<List<ColumnOrSuperColumn>, T>(){
-									public T getValue(List<ColumnOrSuperColumn> param)
-											throws Exception {
-										return classType.newInstance();
-									}},
-								relationFunc,
-								queryResultList);							
-						resultList.setResult(batchResultList);
-					}	
-				});
-			}			
-		});		
+				Map<ByteBuffer, List<ColumnOrSuperColumn>> queryResultList = batchGet(cassandraDescrib, client, keyBufferList);
+				List<T> batchResultList = batchGet(cassandraDescrib, client,
+						keyBufferList,
+						new IFunc<List<ColumnOrSuperColumn>, T>(){
+							public T getValue(List<ColumnOrSuperColumn> param)
+									throws Exception {
+								return classType.newInstance();
+							}},
+						relationFunc,
+						queryResultList);							
+				resultList.setResult(batchResultList);
+			}	
+		});
 		return resultList.getResult();
 	}
 	
 	private static <T> List<T> batchGet(final CassandraDescrib cassandraDescrib, Client client,
-			IFunc<List<ColumnOrSuperColumn>, Map<String, FieldSerializePair>> fieldSerilizeFunc,
 			final List<ByteBuffer> keyBufferList,
 			IFunc<List<ColumnOrSuperColumn>, T> newFunc,
 			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
@@ -704,19 +746,22 @@ public class CassandraHelper {
 		final List<T> returnList = new ArrayList<T>();
 		for(Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> resultEntity : resultList.entrySet())
 		{
-			Map<String, FieldSerializePair> columnSerializerMap = fieldSerilizeFunc.getValue(resultEntity.getValue());
 			T returnEntity = newFunc.getValue(resultEntity.getValue());
+			if(returnEntity == null)
+			{
+				returnList.add(returnEntity);
+				continue;
+			}
+			PersistenceDescriptor descriptor = PersistenceDescriptor.getDescriptor(returnEntity.getClass());
 			for(ColumnOrSuperColumn column : resultEntity.getValue())
 			{
-				String columnName = new String(column.getColumn().getName());
-				FieldSerializePair pair = columnSerializerMap.get(columnName);
-				if(pair == null)
+				ColumnDescriptor columnDescriptor = descriptor.getColumn(column.getColumn().bufferForName());
+				if(columnDescriptor == null)
 				{
 					continue;
 				}
-				FieldSerailzerBase fieldSerailzerBase  = pair._serializer;
-				Object objValue = fieldSerailzerBase.getRuntimeValue(column.getColumn().getValue());
-				setFieldValue(returnEntity, pair._field, objValue);
+				Object objValue = columnDescriptor.getSerializer().getRuntimeValue(column.getColumn().getValue());
+				columnDescriptor.setValue(returnEntity, objValue);
 			}
 			
 			if(relationFunc != null && returnEntity != null)
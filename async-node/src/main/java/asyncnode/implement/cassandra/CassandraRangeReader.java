@@ -0,0 +1,347 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.cassandra.thrift.CfSplit;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.TokenRange;
+import org.apache.log4j.Logger;
+
+import asyncnode.App;
+import asyncnode.core.IAction;
+import asyncnode.core.IAction2;
+import asyncnode.core.IFunc;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+//read the whole column family by token ranges on several connections at the same time,
+//the rows are converted on a fork join pool while the next pages are fetched
+public class CassandraRangeReader {
+	public static final String Murmur3Partitioner = "org.apache.cassandra.dht.Murmur3Partitioner";
+	public static final String RandomPartitioner = "org.apache.cassandra.dht.RandomPartitioner";
+	public static final int DefaultKeysPerSplit = 10000;
+	public static final int ConvertBatchSize = 256;
+	public static final long ProgressLogInterval = 10000;
+
+
+	protected CassandraDescrib cassandraDescrib;
+	protected int pageSize = CassandraHelper.DefaultPageSize;
+	protected int fetchThreadCount = 4;
+	protected int keysPerSplit = DefaultKeysPerSplit;
+
+	protected AtomicLong rowCount = new AtomicLong(0);
+	protected long beginTime;
+
+	public CassandraRangeReader(CassandraDescrib cassandraDescrib)
+	{
+		this.cassandraDescrib = cassandraDescrib;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+	public int getFetchThreadCount() {
+		return fetchThreadCount;
+	}
+	public void setFetchThreadCount(int fetchThreadCount) {
+		this.fetchThreadCount = fetchThreadCount;
+	}
+	public int getKeysPerSplit() {
+		return keysPerSplit;
+	}
+	public void setKeysPerSplit(int keysPerSplit) {
+		this.keysPerSplit = keysPerSplit;
+	}
+	public long getRowCount() {
+		return rowCount.get();
+	}
+
+	//{ min, max } token, null when the partitioner does not hash the keys
+	public static BigInteger[] getTokenBound(String partitioner)
+	{
+		if(Murmur3Partitioner.equals(partitioner))
+		{
+			return new BigInteger[] { BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MAX_VALUE) };
+		}
+		else if(RandomPartitioner.equals(partitioner))
+		{
+			return new BigInteger[] { BigInteger.valueOf(-1), BigInteger.valueOf(2).pow(127) };
+		}
+		return null;
+	}
+
+	//the ranges are (start, end], a range which wraps around the ring is split into two
+	public static List<String[]> normalizeRange(String startToken, String endToken, BigInteger[] tokenBound)
+	{
+		List<String[]> result = new ArrayList<String[]>();
+		BigInteger start = new BigInteger(startToken);
+		BigInteger end = new BigInteger(endToken);
+		if(end.equals(tokenBound[0]))
+		{
+			end = tokenBound[1];
+		}
+		if(start.compareTo(end) < 0)
+		{
+			result.add(new String[] { start.toString(), end.toString() });
+		}
+		else
+		{
+			if(start.compareTo(tokenBound[1]) < 0)
+			{
+				result.add(new String[] { start.toString(), tokenBound[1].toString() });
+			}
+			result.add(new String[] { tokenBound[0].toString(), end.toString() });
+		}
+		return result;
+	}
+
+	//split the ring by describe_splits_ex, or by the ranges of the ring when the splits are not supported
+	public List<String[]> getSplitList() throws Exception
+	{
+		final List<String[]> splitList = new ArrayList<String[]>();
+		CassandraHelper.invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
+			public void invoke(Client client) throws Exception {
+				BigInteger[] tokenBound = getTokenBound(client.describe_partitioner());
+				if(tokenBound == null)
+				{
+					return;
+				}
+				for(TokenRange tokenRange : client.describe_ring(cassandraDescrib.getKeySpace()))
+				{
+					List<CfSplit> cfSplitList = null;
+					try
+					{
+						cfSplitList = client.describe_splits_ex(cassandraDescrib.getColumnFamily(),
+								tokenRange.getStart_token(), tokenRange.getEnd_token(), keysPerSplit);
+					}
+					catch(Exception ex)
+					{
+						App.getConfig().getInstance(Logger.class).warn("describe_splits_ex failed, read the whole token range:" + ex.getMessage());
+					}
+					if(cfSplitList == null || cfSplitList.isEmpty())
+					{
+						splitList.addAll(normalizeRange(tokenRange.getStart_token(), tokenRange.getEnd_token(), tokenBound));
+						continue;
+					}
+					for(CfSplit cfSplit : cfSplitList)
+					{
+						splitList.addAll(normalizeRange(cfSplit.getStart_token(), cfSplit.getEnd_token(), tokenBound));
+					}
+				}
+			}
+		});
+		return splitList;
+	}
+
+	protected void increaseRowCount(int count)
+	{
+		long before = rowCount.getAndAdd(count);
+		if(before / ProgressLogInterval != (before + count) / ProgressLogInterval)
+		{
+			App.getConfig().getInstance(Logger.class).info("..........restore " + (before + count) + " rows, " + getRowsPerSecond() + " rows/sec");
+		}
+	}
+
+	public long getRowsPerSecond()
+	{
+		long costTime = Math.max(System.currentTimeMillis() - beginTime, 1);
+		return rowCount.get() * 1000 / costTime;
+	}
+
+	protected class ConvertTask<T> extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private List<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>> rowList;
+		private IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc;
+		private IAction2<T, List<ColumnOrSuperColumn>> relationFunc;
+		private IAction<T> visitAction;
+		private AtomicReference<Exception> firstException;
+
+		public ConvertTask(List<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>> rowList,
+				IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc,
+				IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
+				IAction<T> visitAction,
+				AtomicReference<Exception> firstException)
+		{
+			this.rowList = rowList;
+			this.getInstanceFunc = getInstanceFunc;
+			this.relationFunc = relationFunc;
+			this.visitAction = visitAction;
+			this.firstException = firstException;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(rowList.size() > 32)
+			{
+				int middle = rowList.size() / 2;
+				invokeAll(new ConvertTask<T>(rowList.subList(0, middle), getInstanceFunc, relationFunc, visitAction, firstException),
+						new ConvertTask<T>(rowList.subList(middle, rowList.size()), getInstanceFunc, relationFunc, visitAction, firstException));
+				return;
+			}
+			try
+			{
+				for(Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> row : rowList)
+				{
+					Map<ByteBuffer, List<ColumnOrSuperColumn>> rowMap = new LinkedHashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+					rowMap.put(row.getKey(), row.getValue());
+					for(T entity : CassandraHelper.convertRows(getInstanceFunc, relationFunc, rowMap))
+					{
+						visitAction.invoke(entity);
+					}
+				}
+				increaseRowCount(rowList.size());
+			}
+			catch(Exception ex)
+			{
+				firstException.compareAndSet(null, ex);
+			}
+		}
+	}
+
+	//visitAction is called on the convert threads at the same time, it must be thread safe.
+	//returns false when the partitioner can not be split, then the caller should read it in order
+	public <T> boolean visitAll(final IFunc<List<ColumnOrSuperColumn>, T> getInstanceFunc,
+			final IAction2<T, List<ColumnOrSuperColumn>> relationFunc,
+			final IAction<T> visitAction) throws Exception
+	{
+		List<String[]> splitList = getSplitList();
+		if(splitList.isEmpty())
+		{
+			return false;
+		}
+		beginTime = System.currentTimeMillis();
+		rowCount.set(0);
+		ExecutorService fetchPool = Executors.newFixedThreadPool(fetchThreadCount);
+		final ForkJoinPool convertPool = new ForkJoinPool();
+		//bound the rows which are fetched but not converted yet
+		final int maxPendingBatch = fetchThreadCount * 4;
+		final Semaphore pendingBatch = new Semaphore(maxPendingBatch);
+		final AtomicReference<Exception> firstException = new AtomicReference<Exception>();
+		try
+		{
+			List<Future<?>> futureList = new ArrayList<Future<?>>();
+			for(final String[] split : splitList)
+			{
+				futureList.add(fetchPool.submit(new Callable<Object>() {
+					public Object call() throws Exception {
+						CassandraHelper.invokeCassandraCore(cassandraDescrib, new IAction<Cassandra.Client>(){
+							public void invoke(Client client) throws Exception {
+								KeyRange keyRange = new KeyRange();
+								keyRange.setStart_token(split[0]);
+								keyRange.setEnd_token(split[1]);
+								final List<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>> rowList = new ArrayList<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>>();
+								CassandraHelper.visitPagedRows(cassandraDescrib, client, keyRange, pageSize, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+									public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+										rowList.add(new AbstractMap.SimpleEntry<ByteBuffer, List<ColumnOrSuperColumn>>(key, columnList));
+										if(rowList.size() >= ConvertBatchSize)
+										{
+											submitConvert(new ArrayList<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>>(rowList));
+											rowList.clear();
+										}
+									}
+								});
+								if(!rowList.isEmpty())
+								{
+									submitConvert(rowList);
+								}
+							}
+						});
+						return null;
+					}
+
+					private void submitConvert(List<Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>>> rowList) throws Exception
+					{
+						if(firstException.get() != null)
+						{
+							throw firstException.get();
+						}
+						pendingBatch.acquire();
+						final ConvertTask<T> task = new ConvertTask<T>(rowList, getInstanceFunc, relationFunc, visitAction, firstException);
+						convertPool.execute(new RecursiveAction() {
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							protected void compute() {
+								try
+								{
+									task.invoke();
+								}
+								finally
+								{
+									pendingBatch.release();
+								}
+							}
+						});
+					}
+				}));
+			}
+			for(Future<?> future : futureList)
+			{
+				try
+				{
+					future.get();
+				}
+				catch(ExecutionException ex)
+				{
+					firstException.compareAndSet(null, ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex);
+					break;
+				}
+			}
+			if(firstException.get() == null)
+			{
+				//wait until every submitted batch is converted
+				pendingBatch.acquire(maxPendingBatch);
+				pendingBatch.release(maxPendingBatch);
+			}
+			if(firstException.get() != null)
+			{
+				throw firstException.get();
+			}
+		}
+		finally
+		{
+			fetchPool.shutdownNow();
+			convertPool.shutdownNow();
+		}
+		App.getConfig().getInstance(Logger.class).info("..........restore " + rowCount.get() + " rows by " + splitList.size() + " token ranges in "
+				+ (System.currentTimeMillis() - beginTime) + "ms, " + getRowsPerSecond() + " rows/sec");
+		return true;
+	}
+}
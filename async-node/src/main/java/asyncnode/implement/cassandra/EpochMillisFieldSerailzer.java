@@ -0,0 +1,38 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+//a long field of epoch millis stored as a date column, so the columns written by a Date field are still read.
+//0 is no value
+public class EpochMillisFieldSerailzer extends BinaryFieldSerailzer
+{
+	@Override
+	public byte[] getStoreValue(Object fieldValue) throws Exception {
+		if(fieldValue == null || ((Long)fieldValue).longValue() == 0)
+		{
+			return emptyByteArray;
+		}
+		return ByteBuffer.allocate(DateLength).putLong((Long)fieldValue).array();
+	}
+
+	@Override
+	public Object getRuntimeValue(byte[] fieldValue) throws Exception {
+		Date date = (Date)getBinaryRuntimeValue(Date.class, fieldValue);
+		return date == null ? 0L : date.getTime();
+	}
+}
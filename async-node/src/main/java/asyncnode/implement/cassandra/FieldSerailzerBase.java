@@ -22,7 +22,6 @@ import java.util.UUID;
 
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
-import org.codehaus.jackson.map.ObjectMapper;
 
 import asyncnode.ElementStatusEnum;
 
@@ -115,8 +114,7 @@ public class FieldSerailzerBase
 			}
 			else
 			{
-				ObjectMapper objectMapper = new ObjectMapper();
-				btArray = objectMapper.writeValueAsBytes(fieldValue);
+				btArray = SerializationService.writeValueAsBytes(fieldValue);
 			}
 			return btArray;
 		}
@@ -126,6 +124,11 @@ public class FieldSerailzerBase
 		return getStoreValue(fieldClass, fieldValue);
 	}
 	
+	//row keys are also used as node id strings, so they keep the text form
+	public byte[] getStoreKey(Object fieldValue) throws Exception {
+		return getStoreValue(fieldClass, fieldValue);
+	}
+	
 	public static Object getRuntimeValue(Class fieldClass, byte[] fieldValue) throws Exception
 	{	
 		if(fieldValue == null || fieldValue.length == 0)
@@ -202,8 +205,7 @@ public class FieldSerailzerBase
 			}
 			else
 			{
-				ObjectMapper objectMapper = new ObjectMapper();
-				result = objectMapper.readValue(fieldValue, fieldClass);	
+				result = SerializationService.readValue(fieldValue, fieldClass);	
 			}
 			return result;
 		}
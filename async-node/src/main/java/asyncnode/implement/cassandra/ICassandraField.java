@@ -24,5 +24,5 @@ import java.lang.annotation.Target;
 public @interface ICassandraField
 {
 	public String ColumnName();
-	public Class<FieldSerailzerBase> Serialer();
+	public Class<? extends FieldSerailzerBase> Serialer();
 }
\ No newline at end of file
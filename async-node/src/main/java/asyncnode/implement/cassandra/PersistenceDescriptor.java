@@ -0,0 +1,199 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+//the persistent fields of one class, found by reflection once and reused by every read and write
+public class PersistenceDescriptor
+{
+	private static ConcurrentMap<Class, PersistenceDescriptor> descriptorMap = new ConcurrentHashMap<Class, PersistenceDescriptor>();
+
+	protected Class classType;
+	protected ColumnDescriptor keyColumn;
+	protected List<ColumnDescriptor> columnList = new ArrayList<ColumnDescriptor>();
+	protected Map<String, ColumnDescriptor> fieldNameMap = new HashMap<String, ColumnDescriptor>();
+	protected Map<ByteBuffer, ColumnDescriptor> columnNameMap = new HashMap<ByteBuffer, ColumnDescriptor>();
+
+	public static class ColumnDescriptor
+	{
+		protected Field field;
+		protected String columnName;
+		protected ByteBuffer columnNameBuffer;
+		//serializers only keep the field class, so one instance is shared by all the rows
+		protected FieldSerailzerBase serializer;
+		protected MethodHandle getter;
+		protected MethodHandle setter;
+
+		public ColumnDescriptor(Field field, ICassandraField cassandraField) throws Exception
+		{
+			this.field = field;
+			this.columnName = cassandraField.ColumnName();
+			this.columnNameBuffer = ByteBuffer.wrap(columnName.getBytes());
+			this.serializer = cassandraField.Serialer().newInstance();
+			this.serializer.setFieldClass(field.getType());
+			field.setAccessible(true);
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			this.getter = lookup.unreflectGetter(field);
+			this.setter = lookup.unreflectSetter(field);
+		}
+
+		public Field getField() {
+			return field;
+		}
+		public String getColumnName() {
+			return columnName;
+		}
+		public FieldSerailzerBase getSerializer() {
+			return serializer;
+		}
+
+		//the bytes are shared, every column gets its own position
+		public ByteBuffer getColumnNameBuffer() {
+			return columnNameBuffer.duplicate();
+		}
+
+		public Object getValue(Object obj) throws Exception
+		{
+			try
+			{
+				return getter.invoke(obj);
+			}
+			catch(Exception ex)
+			{
+				throw ex;
+			}
+			catch(Throwable ex)
+			{
+				throw new Exception(ex);
+			}
+		}
+
+		public void setValue(Object obj, Object value) throws Exception
+		{
+			try
+			{
+				setter.invoke(obj, value);
+			}
+			catch(Exception ex)
+			{
+				throw ex;
+			}
+			catch(Throwable ex)
+			{
+				throw new Exception(ex);
+			}
+		}
+	}
+
+	public static PersistenceDescriptor getDescriptor(Class classType) throws Exception
+	{
+		PersistenceDescriptor descriptor = descriptorMap.get(classType);
+		if(descriptor == null)
+		{
+			descriptor = new PersistenceDescriptor(classType);
+			PersistenceDescriptor oldDescriptor = descriptorMap.putIfAbsent(classType, descriptor);
+			if(oldDescriptor != null)
+			{
+				descriptor = oldDescriptor;
+			}
+		}
+		return descriptor;
+	}
+
+	protected PersistenceDescriptor(Class classType) throws Exception
+	{
+		this.classType = classType;
+		ICassandraKeyField keyCassandraField = CassandraHelper.getAncestorAnnotation(classType, ICassandraKeyField.class);
+		if(keyCassandraField == null)
+		{
+			throw new Exception("can't find key field define!");
+		}
+		for(Field field : CassandraHelper.getAncestorFields(classType))
+		{
+			ICassandraField cassandraField = field.getAnnotation(ICassandraField.class);
+			if(cassandraField == null)
+			{
+				continue;
+			}
+			//the field of the sub class hides the one of the parent
+			if(fieldNameMap.containsKey(field.getName()))
+			{
+				continue;
+			}
+			ColumnDescriptor column = new ColumnDescriptor(field, cassandraField);
+			columnList.add(column);
+			fieldNameMap.put(field.getName(), column);
+			columnNameMap.put(column.columnNameBuffer, column);
+		}
+		keyColumn = fieldNameMap.get(keyCassandraField.KeyFieldName());
+		if(keyColumn == null)
+		{
+			throw new Exception("can't load key field!");
+		}
+		columnList = Collections.unmodifiableList(columnList);
+	}
+
+	public Class getClassType() {
+		return classType;
+	}
+
+	public ColumnDescriptor getKeyColumn() {
+		return keyColumn;
+	}
+
+	public List<ColumnDescriptor> getColumnList() {
+		return columnList;
+	}
+
+	//fieldNameList is the java field names, the fields without ICassandraField are skipped
+	public List<ColumnDescriptor> getColumnList(List<String> fieldNameList)
+	{
+		if(fieldNameList == null)
+		{
+			return columnList;
+		}
+		List<ColumnDescriptor> result = new ArrayList<ColumnDescriptor>();
+		for(String fieldName : fieldNameList)
+		{
+			ColumnDescriptor column = fieldNameMap.get(fieldName);
+			if(column != null)
+			{
+				result.add(column);
+			}
+		}
+		return result;
+	}
+
+	public ColumnDescriptor getColumn(ByteBuffer columnName)
+	{
+		return columnNameMap.get(columnName);
+	}
+
+	public byte[] getStoreKey(Object obj) throws Exception
+	{
+		return keyColumn.getSerializer().getStoreKey(keyColumn.getValue(obj));
+	}
+}
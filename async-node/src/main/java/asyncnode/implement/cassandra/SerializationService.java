@@ -0,0 +1,108 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
+import org.codehaus.jackson.map.ObjectWriter;
+
+//one ObjectMapper for all the json values, a new mapper rebuilds its serializer caches every time.
+//the mapper is not configured after it is created, so it and the readers and writers are thread safe
+public class SerializationService
+{
+	private static final ObjectMapper objectMapper = new ObjectMapper();
+	private static ConcurrentMap<Class, ObjectReader> readerMap = new ConcurrentHashMap<Class, ObjectReader>();
+	private static ConcurrentMap<Class, ObjectWriter> writerMap = new ConcurrentHashMap<Class, ObjectWriter>();
+	private static ConcurrentMap<String, Class> classMap = new ConcurrentHashMap<String, Class>();
+
+	public static ObjectMapper getObjectMapper()
+	{
+		return objectMapper;
+	}
+
+	public static ObjectReader getReader(Class classType)
+	{
+		ObjectReader reader = readerMap.get(classType);
+		if(reader == null)
+		{
+			reader = objectMapper.reader(classType);
+			ObjectReader oldReader = readerMap.putIfAbsent(classType, reader);
+			if(oldReader != null)
+			{
+				reader = oldReader;
+			}
+		}
+		return reader;
+	}
+
+	public static ObjectWriter getWriter(Class classType)
+	{
+		ObjectWriter writer = writerMap.get(classType);
+		if(writer == null)
+		{
+			writer = objectMapper.writerWithType(classType);
+			ObjectWriter oldWriter = writerMap.putIfAbsent(classType, writer);
+			if(oldWriter != null)
+			{
+				writer = oldWriter;
+			}
+		}
+		return writer;
+	}
+
+	//the stored class names are looked up for every value when the nodes are restored
+	public static Class getClass(String className) throws ClassNotFoundException
+	{
+		Class classType = classMap.get(className);
+		if(classType == null)
+		{
+			classType = Class.forName(className);
+			classMap.put(className, classType);
+		}
+		return classType;
+	}
+
+	public static String writeValueAsString(Object value) throws IOException
+	{
+		if(value == null)
+		{
+			return objectMapper.writeValueAsString(value);
+		}
+		return getWriter(value.getClass()).writeValueAsString(value);
+	}
+
+	public static byte[] writeValueAsBytes(Object value) throws IOException
+	{
+		if(value == null)
+		{
+			return objectMapper.writeValueAsBytes(value);
+		}
+		return getWriter(value.getClass()).writeValueAsBytes(value);
+	}
+
+	public static <T> T readValue(String content, Class<T> classType) throws IOException
+	{
+		return (T)getReader(classType).readValue(content);
+	}
+
+	public static <T> T readValue(byte[] content, Class<T> classType) throws IOException
+	{
+		return (T)getReader(classType).readValue(content);
+	}
+}
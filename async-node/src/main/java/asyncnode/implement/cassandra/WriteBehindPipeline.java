@@ -0,0 +1,311 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import asyncnode.App;
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraBatch.KeyspaceBatch;
+
+//the committed batches are buffered and sent by one thread, the mutations of the same row and column are coalesced.
+//a flush starts when the first buffered batch is older than flushInterval or maxBatchMutationCount mutations are buffered.
+//the commit blocks when bufferCapacity mutations are buffered or being sent, so the store can not fall behind without limit
+public class WriteBehindPipeline
+{
+	public enum AckMode
+	{
+		//commit returns when the batch is buffered, the buffered mutations are lost if the process stops
+		Enqueue,
+		//commit returns when the batch is sent, the flush exception is thrown to the committer
+		Flush
+	}
+
+	protected long flushInterval = 2;
+	protected int maxBatchMutationCount = 1000;
+	protected int bufferCapacity = 20000;
+	protected AckMode ackMode = AckMode.Enqueue;
+	//called with the flush exception in Enqueue mode, the exception is logged when it is null
+	protected IAction<Exception> exceptionAction = null;
+
+	protected final Object lock = new Object();
+	protected Map<String, KeyspaceBatch> pendingMap = new LinkedHashMap<String, KeyspaceBatch>();
+	//called when the pending mutations are not sent
+	protected List<IAction<Exception>> pendingFailureActionList = new ArrayList<IAction<Exception>>();
+	protected FlushTicket pendingTicket = new FlushTicket();
+	protected FlushTicket sendingTicket = null;
+	protected int pendingCount = 0;
+	//pending and sending mutations, the commit waits when it is over bufferCapacity
+	protected int bufferedCount = 0;
+	protected long firstPendingTime = 0;
+	protected boolean flushRequested = false;
+	protected boolean closed = false;
+	protected Thread flushThread = null;
+
+	protected static class FlushTicket
+	{
+		protected boolean done = false;
+		protected Exception exception = null;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+	//milliseconds
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+	public int getMaxBatchMutationCount() {
+		return maxBatchMutationCount;
+	}
+	public void setMaxBatchMutationCount(int maxBatchMutationCount) {
+		this.maxBatchMutationCount = maxBatchMutationCount;
+	}
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+	public void setBufferCapacity(int bufferCapacity) {
+		this.bufferCapacity = bufferCapacity;
+	}
+	public AckMode getAckMode() {
+		return ackMode;
+	}
+	public void setAckMode(AckMode ackMode) {
+		this.ackMode = ackMode;
+	}
+	public IAction<Exception> getExceptionAction() {
+		return exceptionAction;
+	}
+	public void setExceptionAction(IAction<Exception> exceptionAction) {
+		this.exceptionAction = exceptionAction;
+	}
+
+	public int getBufferedCount()
+	{
+		synchronized(lock)
+		{
+			return bufferedCount;
+		}
+	}
+
+	//the failure actions are called by the flush thread when the batch is not sent
+	public void enqueue(Collection<KeyspaceBatch> keyspaceBatchList, List<IAction<Exception>> failureActionList) throws Exception
+	{
+		int count = 0;
+		for(KeyspaceBatch keyspaceBatch : keyspaceBatchList)
+		{
+			count += keyspaceBatch.getMutationCount();
+		}
+		if(count == 0)
+		{
+			return;
+		}
+		FlushTicket ticket;
+		synchronized(lock)
+		{
+			try
+			{
+				if(closed)
+				{
+					throw new IllegalStateException("write behind pipeline is closed!");
+				}
+				startFlushThread();
+				//a batch larger than the capacity is buffered alone
+				while(bufferedCount > 0 && bufferedCount + count > bufferCapacity)
+				{
+					lock.wait();
+				}
+			}
+			catch(Exception ex)
+			{
+				CassandraBatch.invokeFailureActions(failureActionList, ex);
+				throw ex;
+			}
+			pendingFailureActionList.addAll(failureActionList);
+			for(KeyspaceBatch keyspaceBatch : keyspaceBatchList)
+			{
+				CassandraBatch.getKeyspaceBatch(pendingMap, keyspaceBatch.cassandraDescrib, keyspaceBatch.consistencyLevel)
+					.addAll(keyspaceBatch);
+			}
+			if(pendingCount == 0)
+			{
+				firstPendingTime = System.nanoTime();
+			}
+			pendingCount += count;
+			bufferedCount += count;
+			ticket = pendingTicket;
+			lock.notifyAll();
+			if(ackMode == AckMode.Flush)
+			{
+				waitTicket(ticket);
+			}
+		}
+	}
+
+	//sends the buffered mutations now and waits for them
+	public void flush() throws Exception
+	{
+		synchronized(lock)
+		{
+			if(pendingCount == 0)
+			{
+				if(sendingTicket != null)
+				{
+					waitTicket(sendingTicket);
+				}
+				return;
+			}
+			flushRequested = true;
+			lock.notifyAll();
+			waitTicket(pendingTicket);
+		}
+	}
+
+	//the buffered mutations are sent before the flush thread stops
+	public void close() throws InterruptedException
+	{
+		Thread thread;
+		synchronized(lock)
+		{
+			closed = true;
+			lock.notifyAll();
+			thread = flushThread;
+		}
+		if(thread != null)
+		{
+			thread.join();
+		}
+	}
+
+	protected void waitTicket(FlushTicket ticket) throws Exception
+	{
+		while(!ticket.done)
+		{
+			lock.wait();
+		}
+		if(ticket.exception != null)
+		{
+			throw ticket.exception;
+		}
+	}
+
+	protected void startFlushThread()
+	{
+		if(flushThread != null)
+		{
+			return;
+		}
+		flushThread = new Thread(new Runnable(){
+			public void run() {
+				try
+				{
+					flushLoop();
+				}
+				catch(InterruptedException ex)
+				{
+					App.getConfig().getInstance(Logger.class).error("write behind pipeline is interrupted!", ex);
+				}
+			}
+		}, "WriteBehindPipeline");
+		flushThread.setDaemon(true);
+		flushThread.start();
+	}
+
+	protected void flushLoop() throws InterruptedException
+	{
+		while(true)
+		{
+			Map<String, KeyspaceBatch> flushMap;
+			List<IAction<Exception>> failureActionList;
+			FlushTicket ticket;
+			int flushCount;
+			synchronized(lock)
+			{
+				while(pendingCount == 0)
+				{
+					if(closed)
+					{
+						return;
+					}
+					lock.wait();
+				}
+				//wait for more batches to coalesce, unless enough are buffered already
+				long deadline = firstPendingTime + flushInterval * 1000000L;
+				long remain;
+				while(!closed && !flushRequested && pendingCount < maxBatchMutationCount
+						&& (remain = deadline - System.nanoTime()) > 0)
+				{
+					lock.wait(remain / 1000000L, (int)(remain % 1000000L));
+				}
+				flushMap = pendingMap;
+				failureActionList = pendingFailureActionList;
+				ticket = pendingTicket;
+				flushCount = pendingCount;
+				sendingTicket = ticket;
+				pendingMap = new LinkedHashMap<String, KeyspaceBatch>();
+				pendingFailureActionList = new ArrayList<IAction<Exception>>();
+				pendingTicket = new FlushTicket();
+				pendingCount = 0;
+				flushRequested = false;
+			}
+			Exception flushException = null;
+			try
+			{
+				CassandraBatch.send(flushMap.values());
+			}
+			catch(Exception ex)
+			{
+				flushException = ex;
+				CassandraBatch.invokeFailureActions(failureActionList, ex);
+			}
+			synchronized(lock)
+			{
+				bufferedCount -= flushCount;
+				ticket.exception = flushException;
+				ticket.done = true;
+				sendingTicket = null;
+				lock.notifyAll();
+			}
+			if(flushException != null && ackMode == AckMode.Enqueue)
+			{
+				handleException(flushException);
+			}
+		}
+	}
+
+	protected void handleException(Exception flushException)
+	{
+		if(exceptionAction == null)
+		{
+			App.getConfig().getInstance(Logger.class).error("write behind flush failed!", flushException);
+			return;
+		}
+		try
+		{
+			exceptionAction.invoke(flushException);
+		}
+		catch(Exception ex)
+		{
+			App.getConfig().getInstance(Logger.class).error("write behind flush failed!", ex);
+		}
+	}
+}
@@ -0,0 +1,776 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.local;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.log4j.Logger;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TBinaryProtocol;
+
+import asyncnode.App;
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+import asyncnode.implement.cassandra.CassandraConnectionPool.Connection;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+//keeps the column families of the attached keyspaces on the local disk instead of cassandra.
+//every batch_mutate is appended to the segment log and applied to sorted maps in memory, the log is replayed
+//after the last snapshot when the store is opened. when compactLogSize bytes are logged, a snapshot of the maps
+//is written and the segments before it are deleted.
+//the mutations are applied in the order of the log, a column is not replaced by an older timestamp and a
+//deletion removes the columns which are not newer than it. the deletions are kept as tombstones for tombstoneGrace ms
+//like cassandra does, so a column written before a deletion by another thread but logged after it stays deleted
+public class LocalLogStore
+{
+	public static final String SnapshotPrefix = "snapshot-";
+	public static final String SnapshotSuffix = ".snap";
+
+	//cassandra compares the names and keys as unsigned bytes
+	public static final Comparator<ByteBuffer> ByteComparator = new Comparator<ByteBuffer>(){
+		public int compare(ByteBuffer left, ByteBuffer right) {
+			int leftPosition = left.position();
+			int rightPosition = right.position();
+			int length = Math.min(left.remaining(), right.remaining());
+			for(int i = 0; i < length; i++)
+			{
+				int result = (left.get(leftPosition + i) & 0xff) - (right.get(rightPosition + i) & 0xff);
+				if(result != 0)
+				{
+					return result;
+				}
+			}
+			return left.remaining() - right.remaining();
+		}
+	};
+
+	protected File directory;
+	protected int segmentSize = 64 * 1024 * 1024;
+	protected long compactLogSize = 256L * 1024 * 1024;
+	//false leaves the log to the os page cache, the last batches may be lost when the host stops
+	protected boolean syncOnCommit = true;
+	//the tombstones older than it are dropped when a snapshot is written
+	protected long tombstoneGrace = 10 * 60 * 1000;
+
+	protected SegmentLog segmentLog = null;
+	protected ConcurrentMap<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>>> tableMap
+			= new ConcurrentHashMap<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>>>();
+	//table -> row -> column name -> deletion timestamp, a row deletion is kept under the empty name
+	protected ConcurrentMap<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>>> tombstoneMap
+			= new ConcurrentHashMap<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>>>();
+	protected static final ByteBuffer RowTombstoneName = ByteBuffer.wrap(new byte[0]);
+	//the log order is the order the batches are applied
+	protected final Object applyLock = new Object();
+	protected volatile boolean opened = false;
+	protected long compactedBytes = 0;
+	protected boolean compacting = false;
+	protected final Object compactLock = new Object();
+	protected ExecutorService compactExecutor = null;
+
+	public LocalLogStore(File directory)
+	{
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = segmentSize;
+	}
+	public long getCompactLogSize() {
+		return compactLogSize;
+	}
+	public void setCompactLogSize(long compactLogSize) {
+		this.compactLogSize = compactLogSize;
+	}
+	public boolean getSyncOnCommit() {
+		return syncOnCommit;
+	}
+	public void setSyncOnCommit(boolean syncOnCommit) {
+		this.syncOnCommit = syncOnCommit;
+	}
+	public long getTombstoneGrace() {
+		return tombstoneGrace;
+	}
+	public void setTombstoneGrace(long tombstoneGrace) {
+		this.tombstoneGrace = tombstoneGrace;
+	}
+
+	//the connections of the keyspace of cassandraDescrib are served by this store
+	public void attach(final CassandraDescrib cassandraDescrib)
+	{
+		CassandraConnectionPool.getPoolMap().put(CassandraConnectionPool.getPoolKey(cassandraDescrib),
+				new CassandraConnectionPool(cassandraDescrib, CassandraConnectionPool.getDefaultSetting()){
+					@Override
+					protected Connection createConnection() throws Exception
+					{
+						LocalStoreClient client = new LocalStoreClient(LocalLogStore.this);
+						client.set_keyspace(cassandraDescrib.getKeySpace());
+						createdCount.incrementAndGet();
+						return new Connection(client.getTransport(), client);
+					}
+				});
+	}
+
+	//loads the last snapshot and replays the log after it, the next batches go to a new segment
+	public void open() throws Exception
+	{
+		synchronized(applyLock)
+		{
+			if(opened)
+			{
+				return;
+			}
+			if(!directory.exists() && !directory.mkdirs())
+			{
+				throw new IOException("can't create store directory:" + directory);
+			}
+			tableMap.clear();
+			tombstoneMap.clear();
+			long snapshotSegmentId = loadSnapshot();
+			segmentLog = new SegmentLog(directory, segmentSize);
+			long recordCount = segmentLog.replay(snapshotSegmentId, new IAction<byte[]>(){
+				public void invoke(byte[] payload) throws Exception {
+					applyRecord(payload);
+				}
+			});
+			segmentLog.open();
+			compactExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "LocalLogStoreCompact");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			compactedBytes = 0;
+			opened = true;
+			App.getConfig().getInstance(Logger.class).info("local store opened, snapshot:" + snapshotSegmentId + ", replayed batches:" + recordCount);
+		}
+	}
+
+	protected void ensureOpened() throws Exception
+	{
+		if(!opened)
+		{
+			open();
+		}
+	}
+
+	public void close() throws Exception
+	{
+		ExecutorService executor;
+		synchronized(applyLock)
+		{
+			if(!opened)
+			{
+				return;
+			}
+			opened = false;
+			executor = compactExecutor;
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		segmentLog.close();
+	}
+
+	protected ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> getTable(String keyspace, String columnFamily)
+	{
+		String key = keyspace + "/" + columnFamily;
+		ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> table = tableMap.get(key);
+		if(table == null)
+		{
+			table = new ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>>(ByteComparator);
+			ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> oldTable = tableMap.putIfAbsent(key, table);
+			if(oldTable != null)
+			{
+				table = oldTable;
+			}
+		}
+		return table;
+	}
+
+	protected ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> getTombstoneTable(String keyspace, String columnFamily)
+	{
+		String key = keyspace + "/" + columnFamily;
+		ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> table = tombstoneMap.get(key);
+		if(table == null)
+		{
+			table = new ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>>(ByteComparator);
+			ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> oldTable = tombstoneMap.putIfAbsent(key, table);
+			if(oldTable != null)
+			{
+				table = oldTable;
+			}
+		}
+		return table;
+	}
+
+	protected static ByteBuffer copy(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	//the batch is applied when it is logged, the call returns when the log is synced
+	public void batchMutate(String keyspace, Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap) throws Exception
+	{
+		ensureOpened();
+		byte[] payload = encodeBatch(keyspace, mutationMap);
+		long sequence;
+		synchronized(applyLock)
+		{
+			sequence = segmentLog.append(payload);
+			apply(keyspace, mutationMap);
+		}
+		if(syncOnCommit)
+		{
+			segmentLog.sync(sequence);
+		}
+		compactIfNeeded();
+	}
+
+	protected void apply(String keyspace, Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap)
+	{
+		for(Map.Entry<ByteBuffer, Map<String, List<Mutation>>> rowEntry : mutationMap.entrySet())
+		{
+			for(Map.Entry<String, List<Mutation>> entry : rowEntry.getValue().entrySet())
+			{
+				ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> table = getTable(keyspace, entry.getKey());
+				ByteBuffer rowKey = copy(rowEntry.getKey());
+				ConcurrentSkipListMap<ByteBuffer, Column> row = table.get(rowKey);
+				if(row == null)
+				{
+					row = new ConcurrentSkipListMap<ByteBuffer, Column>(ByteComparator);
+				}
+				ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> tombstoneTable = getTombstoneTable(keyspace, entry.getKey());
+				ConcurrentSkipListMap<ByteBuffer, Long> tombstoneRow = tombstoneTable.get(rowKey);
+				if(tombstoneRow == null)
+				{
+					tombstoneRow = new ConcurrentSkipListMap<ByteBuffer, Long>(ByteComparator);
+				}
+				for(Mutation mutation : entry.getValue())
+				{
+					applyMutation(row, tombstoneRow, mutation);
+				}
+				if(!tombstoneRow.isEmpty())
+				{
+					tombstoneTable.put(rowKey, tombstoneRow);
+				}
+				//the reads never see a row without columns
+				if(row.isEmpty())
+				{
+					table.remove(rowKey);
+				}
+				else
+				{
+					table.put(rowKey, row);
+				}
+			}
+		}
+	}
+
+	protected static boolean isDeleted(ConcurrentSkipListMap<ByteBuffer, Long> tombstoneRow, ByteBuffer name, long timestamp)
+	{
+		Long rowTimestamp = tombstoneRow.get(RowTombstoneName);
+		Long columnTimestamp = tombstoneRow.get(name);
+		return (rowTimestamp != null && timestamp <= rowTimestamp) || (columnTimestamp != null && timestamp <= columnTimestamp);
+	}
+
+	protected static void addTombstone(ConcurrentSkipListMap<ByteBuffer, Long> tombstoneRow, ByteBuffer name, long timestamp)
+	{
+		Long oldTimestamp = tombstoneRow.get(name);
+		if(oldTimestamp == null || oldTimestamp < timestamp)
+		{
+			tombstoneRow.put(name, timestamp);
+		}
+	}
+
+	protected static void applyMutation(ConcurrentSkipListMap<ByteBuffer, Column> row, ConcurrentSkipListMap<ByteBuffer, Long> tombstoneRow, Mutation mutation)
+	{
+		if(mutation.isSetColumn_or_supercolumn() && mutation.getColumn_or_supercolumn().isSetColumn())
+		{
+			Column column = mutation.getColumn_or_supercolumn().getColumn().deepCopy();
+			ByteBuffer name = copy(column.bufferForName());
+			if(isDeleted(tombstoneRow, name, column.getTimestamp()))
+			{
+				return;
+			}
+			Column oldColumn = row.get(name);
+			if(oldColumn == null || oldColumn.getTimestamp() <= column.getTimestamp())
+			{
+				row.put(name, column);
+			}
+			return;
+		}
+		if(!mutation.isSetDeletion())
+		{
+			return;
+		}
+		Deletion deletion = mutation.getDeletion();
+		Map<ByteBuffer, Column> deletedMap = row;
+		if(deletion.isSetPredicate())
+		{
+			SlicePredicate predicate = deletion.getPredicate();
+			if(predicate.isSetColumn_names())
+			{
+				for(ByteBuffer name : predicate.getColumn_names())
+				{
+					addTombstone(tombstoneRow, copy(name), deletion.getTimestamp());
+					Column column = row.get(name);
+					if(column != null && column.getTimestamp() <= deletion.getTimestamp())
+					{
+						row.remove(name, column);
+					}
+				}
+				return;
+			}
+			if(predicate.isSetSlice_range())
+			{
+				deletedMap = getSliceMap(row, predicate.getSlice_range());
+			}
+			//only the columns in the range now are remembered
+			for(ByteBuffer name : deletedMap.keySet())
+			{
+				addTombstone(tombstoneRow, name, deletion.getTimestamp());
+			}
+		}
+		else
+		{
+			addTombstone(tombstoneRow, RowTombstoneName, deletion.getTimestamp());
+		}
+		Iterator<Column> iterator = deletedMap.values().iterator();
+		while(iterator.hasNext())
+		{
+			if(iterator.next().getTimestamp() <= deletion.getTimestamp())
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	protected static ConcurrentNavigableMap<ByteBuffer, Column> getSliceMap(ConcurrentSkipListMap<ByteBuffer, Column> row, SliceRange sliceRange)
+	{
+		ConcurrentNavigableMap<ByteBuffer, Column> result = sliceRange.isReversed() ? row.descendingMap() : row;
+		boolean hasStart = sliceRange.isSetStart() && sliceRange.bufferForStart().hasRemaining();
+		boolean hasFinish = sliceRange.isSetFinish() && sliceRange.bufferForFinish().hasRemaining();
+		if(hasStart)
+		{
+			result = result.tailMap(sliceRange.bufferForStart(), true);
+		}
+		if(hasFinish)
+		{
+			result = result.headMap(sliceRange.bufferForFinish(), true);
+		}
+		return result;
+	}
+
+	//the columns of the row selected by the predicate, in the order of the names
+	public List<Column> getSlice(String keyspace, String columnFamily, ByteBuffer key, SlicePredicate predicate) throws Exception
+	{
+		ensureOpened();
+		ConcurrentSkipListMap<ByteBuffer, Column> row = getTable(keyspace, columnFamily).get(key);
+		return getSlice(row, predicate);
+	}
+
+	protected static List<Column> getSlice(ConcurrentSkipListMap<ByteBuffer, Column> row, SlicePredicate predicate)
+	{
+		List<Column> result = new ArrayList<Column>();
+		if(row == null)
+		{
+			return result;
+		}
+		if(predicate != null && predicate.isSetColumn_names())
+		{
+			for(ByteBuffer name : predicate.getColumn_names())
+			{
+				Column column = row.get(name);
+				if(column != null)
+				{
+					result.add(column.deepCopy());
+				}
+			}
+			return result;
+		}
+		Map<ByteBuffer, Column> sliceMap = row;
+		int count = Integer.MAX_VALUE;
+		if(predicate != null && predicate.isSetSlice_range())
+		{
+			sliceMap = getSliceMap(row, predicate.getSlice_range());
+			count = predicate.getSlice_range().getCount();
+		}
+		for(Column column : sliceMap.values())
+		{
+			if(result.size() >= count)
+			{
+				break;
+			}
+			result.add(column.deepCopy());
+		}
+		return result;
+	}
+
+	//the rows from startKey, an empty key is the start or the end of the table
+	public ConcurrentNavigableMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> getRowMap(String keyspace, String columnFamily,
+			ByteBuffer startKey, ByteBuffer endKey) throws Exception
+	{
+		ensureOpened();
+		ConcurrentNavigableMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> result = getTable(keyspace, columnFamily);
+		if(startKey != null && startKey.hasRemaining())
+		{
+			result = result.tailMap(startKey, true);
+		}
+		if(endKey != null && endKey.hasRemaining())
+		{
+			result = result.headMap(endKey, true);
+		}
+		return result;
+	}
+
+	protected static byte[] encodeBatch(String keyspace, Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap) throws Exception
+	{
+		TSerializer serializer = new TSerializer(new TBinaryProtocol.Factory());
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(byteStream);
+		output.writeUTF(keyspace);
+		output.writeInt(mutationMap.size());
+		for(Map.Entry<ByteBuffer, Map<String, List<Mutation>>> rowEntry : mutationMap.entrySet())
+		{
+			writeBytes(output, rowEntry.getKey());
+			output.writeInt(rowEntry.getValue().size());
+			for(Map.Entry<String, List<Mutation>> entry : rowEntry.getValue().entrySet())
+			{
+				output.writeUTF(entry.getKey());
+				output.writeInt(entry.getValue().size());
+				for(Mutation mutation : entry.getValue())
+				{
+					byte[] bytes = serializer.serialize(mutation);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+			}
+		}
+		output.flush();
+		return byteStream.toByteArray();
+	}
+
+	protected static void writeBytes(DataOutputStream output, ByteBuffer buffer) throws IOException
+	{
+		output.writeInt(buffer.remaining());
+		output.write(copy(buffer).array());
+	}
+
+	protected static byte[] readBytes(DataInputStream input) throws IOException
+	{
+		byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return bytes;
+	}
+
+	protected void applyRecord(byte[] payload) throws Exception
+	{
+		TDeserializer deserializer = new TDeserializer(new TBinaryProtocol.Factory());
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+		String keyspace = input.readUTF();
+		int rowCount = input.readInt();
+		Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+		for(int i = 0; i < rowCount; i++)
+		{
+			ByteBuffer key = ByteBuffer.wrap(readBytes(input));
+			int columnFamilyCount = input.readInt();
+			Map<String, List<Mutation>> columnFamilyMap = new HashMap<String, List<Mutation>>();
+			for(int j = 0; j < columnFamilyCount; j++)
+			{
+				String columnFamily = input.readUTF();
+				int mutationCount = input.readInt();
+				List<Mutation> mutationList = new ArrayList<Mutation>(mutationCount);
+				for(int k = 0; k < mutationCount; k++)
+				{
+					Mutation mutation = new Mutation();
+					deserializer.deserialize(mutation, readBytes(input));
+					mutationList.add(mutation);
+				}
+				columnFamilyMap.put(columnFamily, mutationList);
+			}
+			mutationMap.put(key, columnFamilyMap);
+		}
+		apply(keyspace, mutationMap);
+	}
+
+	protected void compactIfNeeded()
+	{
+		synchronized(applyLock)
+		{
+			if(!opened || compacting || segmentLog.getAppendedBytes() - compactedBytes < compactLogSize)
+			{
+				return;
+			}
+			compacting = true;
+		}
+		compactExecutor.execute(new Runnable(){
+			public void run() {
+				try
+				{
+					compact();
+				}
+				catch(Exception ex)
+				{
+					App.getConfig().getInstance(Logger.class).error("local store compaction failed!", ex);
+				}
+			}
+		});
+	}
+
+	//the snapshot is taken while the batches go on, it may have some of the batches logged after the rolled segment.
+	//replaying them again gives the same columns, so the snapshot and the segments after it restore the store
+	public void compact() throws Exception
+	{
+		synchronized(compactLock)
+		{
+			compactCore();
+		}
+	}
+
+	protected void compactCore() throws Exception
+	{
+		ensureOpened();
+		long lastSegmentId;
+		synchronized(applyLock)
+		{
+			compacting = true;
+			lastSegmentId = segmentLog.roll();
+			compactedBytes = segmentLog.getAppendedBytes();
+		}
+		try
+		{
+			writeSnapshot(lastSegmentId);
+			for(long snapshotId : getSnapshotIdList())
+			{
+				if(snapshotId < lastSegmentId)
+				{
+					new File(directory, getSnapshotName(snapshotId)).delete();
+				}
+			}
+			segmentLog.deleteSegments(lastSegmentId);
+			App.getConfig().getInstance(Logger.class).info("local store compacted to snapshot:" + lastSegmentId);
+		}
+		finally
+		{
+			synchronized(applyLock)
+			{
+				compacting = false;
+			}
+		}
+	}
+
+	//one record for every row, the record is a batch which deletes the tombstones and puts the columns of the row
+	protected void writeSnapshot(long lastSegmentId) throws Exception
+	{
+		purgeTombstones(System.currentTimeMillis() - tombstoneGrace);
+		File tempFile = new File(directory, getSnapshotName(lastSegmentId) + ".tmp");
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
+		try
+		{
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream));
+			for(Map.Entry<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>>> tableEntry : tableMap.entrySet())
+			{
+				int index = tableEntry.getKey().lastIndexOf('/');
+				String keyspace = tableEntry.getKey().substring(0, index);
+				String columnFamily = tableEntry.getKey().substring(index + 1);
+				ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> tombstoneTable = getTombstoneTable(keyspace, columnFamily);
+				for(Map.Entry<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> rowEntry : tableEntry.getValue().entrySet())
+				{
+					List<Mutation> mutationList = getTombstoneMutationList(tombstoneTable.get(rowEntry.getKey()));
+					for(Column column : rowEntry.getValue().values())
+					{
+						Mutation mutation = new Mutation();
+						mutation.setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(column));
+						mutationList.add(mutation);
+					}
+					writeSnapshotRow(output, keyspace, columnFamily, rowEntry.getKey(), mutationList);
+				}
+			}
+			//the rows which have only tombstones
+			for(Map.Entry<String, ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>>> tableEntry : tombstoneMap.entrySet())
+			{
+				int index = tableEntry.getKey().lastIndexOf('/');
+				String keyspace = tableEntry.getKey().substring(0, index);
+				String columnFamily = tableEntry.getKey().substring(index + 1);
+				ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> table = getTable(keyspace, columnFamily);
+				for(Map.Entry<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> rowEntry : tableEntry.getValue().entrySet())
+				{
+					if(!table.containsKey(rowEntry.getKey()))
+					{
+						writeSnapshotRow(output, keyspace, columnFamily, rowEntry.getKey(), getTombstoneMutationList(rowEntry.getValue()));
+					}
+				}
+			}
+			output.flush();
+			fileStream.getFD().sync();
+		}
+		finally
+		{
+			fileStream.close();
+		}
+		if(!tempFile.renameTo(new File(directory, getSnapshotName(lastSegmentId))))
+		{
+			throw new IOException("can't rename snapshot:" + tempFile);
+		}
+	}
+
+	protected static void writeSnapshotRow(DataOutputStream output, String keyspace, String columnFamily, ByteBuffer key, List<Mutation> mutationList) throws Exception
+	{
+		if(mutationList.isEmpty())
+		{
+			return;
+		}
+		Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+		mutationMap.put(key, Collections.singletonMap(columnFamily, mutationList));
+		SegmentLog.writeRecord(output, encodeBatch(keyspace, mutationMap));
+	}
+
+	protected static List<Mutation> getTombstoneMutationList(ConcurrentSkipListMap<ByteBuffer, Long> tombstoneRow)
+	{
+		List<Mutation> mutationList = new ArrayList<Mutation>();
+		if(tombstoneRow == null)
+		{
+			return mutationList;
+		}
+		for(Map.Entry<ByteBuffer, Long> entry : tombstoneRow.entrySet())
+		{
+			Deletion deletion = new Deletion();
+			deletion.setTimestamp(entry.getValue());
+			if(entry.getKey().hasRemaining())
+			{
+				deletion.setPredicate(new SlicePredicate().setColumn_names(Collections.singletonList(entry.getKey())));
+			}
+			mutationList.add(new Mutation().setDeletion(deletion));
+		}
+		return mutationList;
+	}
+
+	protected void purgeTombstones(long expiredTimestamp)
+	{
+		for(ConcurrentSkipListMap<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> tombstoneTable : tombstoneMap.values())
+		{
+			for(Map.Entry<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Long>> rowEntry : tombstoneTable.entrySet())
+			{
+				Iterator<Long> iterator = rowEntry.getValue().values().iterator();
+				while(iterator.hasNext())
+				{
+					if(iterator.next() < expiredTimestamp)
+					{
+						iterator.remove();
+					}
+				}
+				if(rowEntry.getValue().isEmpty())
+				{
+					tombstoneTable.remove(rowEntry.getKey(), rowEntry.getValue());
+				}
+			}
+		}
+	}
+
+	//returns the last segment id of the snapshot, 0 when there is no snapshot
+	protected long loadSnapshot() throws Exception
+	{
+		List<Long> snapshotIdList = getSnapshotIdList();
+		if(snapshotIdList.isEmpty())
+		{
+			return 0;
+		}
+		long snapshotId = snapshotIdList.get(snapshotIdList.size() - 1);
+		RandomAccessFile file = new RandomAccessFile(new File(directory, getSnapshotName(snapshotId)), "r");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			boolean completed = SegmentLog.readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), new IAction<byte[]>(){
+				public void invoke(byte[] payload) throws Exception {
+					applyRecord(payload);
+				}
+			});
+			//the segments before the snapshot may be deleted already, so the store can't be restored
+			if(!completed)
+			{
+				throw new IOException("broken snapshot:" + getSnapshotName(snapshotId));
+			}
+		}
+		finally
+		{
+			file.close();
+		}
+		return snapshotId;
+	}
+
+	public static String getSnapshotName(long lastSegmentId)
+	{
+		return String.format("%s%016d%s", SnapshotPrefix, lastSegmentId, SnapshotSuffix);
+	}
+
+	protected List<Long> getSnapshotIdList()
+	{
+		List<Long> result = new ArrayList<Long>();
+		String[] fileNames = directory.list();
+		if(fileNames != null)
+		{
+			for(String fileName : fileNames)
+			{
+				if(fileName.startsWith(SnapshotPrefix) && fileName.endsWith(SnapshotSuffix))
+				{
+					result.add(Long.parseLong(fileName.substring(SnapshotPrefix.length(), fileName.length() - SnapshotSuffix.length())));
+				}
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+}
@@ -0,0 +1,242 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.local;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TTransport;
+
+//the calls used by CassandraHelper and the daos are served by the local store, the consistency level is ignored.
+//the store has no token ring, the rows are in the order of the keys
+public class LocalStoreClient extends Cassandra.Client
+{
+	public static final String Version = "19.36.0";
+	public static final String Partitioner = "asyncnode.implement.local.LocalLogStore";
+
+	protected LocalLogStore store;
+	protected String keyspace;
+	protected TTransport transport;
+
+	public LocalStoreClient(LocalLogStore store)
+	{
+		this(store, new TMemoryBuffer(16));
+	}
+
+	protected LocalStoreClient(LocalLogStore store, TTransport transport)
+	{
+		super(new TBinaryProtocol(transport));
+		this.store = store;
+		this.transport = transport;
+	}
+
+	//nothing is sent by the transport, it is kept open for the pool
+	public TTransport getTransport() {
+		return transport;
+	}
+
+	protected static TException getException(Exception ex)
+	{
+		if(ex instanceof TException)
+		{
+			return (TException)ex;
+		}
+		return new TException(ex);
+	}
+
+	protected static List<ColumnOrSuperColumn> getColumnList(List<Column> columnList)
+	{
+		List<ColumnOrSuperColumn> result = new ArrayList<ColumnOrSuperColumn>(columnList.size());
+		for(Column column : columnList)
+		{
+			result.add(new ColumnOrSuperColumn().setColumn(column));
+		}
+		return result;
+	}
+
+	@Override
+	public void set_keyspace(String keyspace)
+	{
+		this.keyspace = keyspace;
+	}
+
+	@Override
+	public String describe_version()
+	{
+		return Version;
+	}
+
+	@Override
+	public String describe_partitioner()
+	{
+		return Partitioner;
+	}
+
+	@Override
+	public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap, ConsistencyLevel consistencyLevel) throws TException
+	{
+		try
+		{
+			store.batchMutate(keyspace, mutationMap);
+		}
+		catch(Exception ex)
+		{
+			throw getException(ex);
+		}
+	}
+
+	@Override
+	public void remove(ByteBuffer key, ColumnPath columnPath, long timestamp, ConsistencyLevel consistencyLevel) throws TException
+	{
+		Deletion deletion = new Deletion();
+		deletion.setTimestamp(timestamp);
+		if(columnPath.isSetColumn())
+		{
+			SlicePredicate predicate = new SlicePredicate();
+			predicate.addToColumn_names(columnPath.bufferForColumn());
+			deletion.setPredicate(predicate);
+		}
+		List<Mutation> mutationList = new ArrayList<Mutation>();
+		mutationList.add(new Mutation().setDeletion(deletion));
+		Map<String, List<Mutation>> columnFamilyMap = new HashMap<String, List<Mutation>>();
+		columnFamilyMap.put(columnPath.getColumn_family(), mutationList);
+		Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+		mutationMap.put(key, columnFamilyMap);
+		batch_mutate(mutationMap, consistencyLevel);
+	}
+
+	@Override
+	public List<ColumnOrSuperColumn> get_slice(ByteBuffer key, ColumnParent columnParent, SlicePredicate predicate,
+			ConsistencyLevel consistencyLevel) throws TException
+	{
+		try
+		{
+			return getColumnList(store.getSlice(keyspace, columnParent.getColumn_family(), key, predicate));
+		}
+		catch(Exception ex)
+		{
+			throw getException(ex);
+		}
+	}
+
+	@Override
+	public Map<ByteBuffer, List<ColumnOrSuperColumn>> multiget_slice(List<ByteBuffer> keys, ColumnParent columnParent,
+			SlicePredicate predicate, ConsistencyLevel consistencyLevel) throws TException
+	{
+		Map<ByteBuffer, List<ColumnOrSuperColumn>> result = new LinkedHashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+		for(ByteBuffer key : keys)
+		{
+			result.put(key, get_slice(key, columnParent, predicate, consistencyLevel));
+		}
+		return result;
+	}
+
+	protected static void checkKeyRange(KeyRange range) throws InvalidRequestException
+	{
+		if(range.isSetStart_token() || range.isSetEnd_token())
+		{
+			throw new InvalidRequestException("token range is not supported by the local store");
+		}
+	}
+
+	//count is the number of rows
+	@Override
+	public List<KeySlice> get_range_slices(ColumnParent columnParent, SlicePredicate predicate, KeyRange range,
+			ConsistencyLevel consistencyLevel) throws InvalidRequestException, TException
+	{
+		checkKeyRange(range);
+		try
+		{
+			List<KeySlice> result = new ArrayList<KeySlice>();
+			for(Map.Entry<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> entry
+					: store.getRowMap(keyspace, columnParent.getColumn_family(), range.bufferForStart_key(), range.bufferForEnd_key()).entrySet())
+			{
+				if(result.size() >= range.getCount())
+				{
+					break;
+				}
+				result.add(new KeySlice(entry.getKey(), getColumnList(LocalLogStore.getSlice(entry.getValue(), predicate))));
+			}
+			return result;
+		}
+		catch(Exception ex)
+		{
+			throw getException(ex);
+		}
+	}
+
+	//count is the number of columns, the first row starts from startColumn and the others from their first column
+	@Override
+	public List<KeySlice> get_paged_slice(String columnFamily, KeyRange range, ByteBuffer startColumn,
+			ConsistencyLevel consistencyLevel) throws InvalidRequestException, TException
+	{
+		checkKeyRange(range);
+		try
+		{
+			List<KeySlice> result = new ArrayList<KeySlice>();
+			int columnCount = 0;
+			for(Map.Entry<ByteBuffer, ConcurrentSkipListMap<ByteBuffer, Column>> entry
+					: store.getRowMap(keyspace, columnFamily, range.bufferForStart_key(), range.bufferForEnd_key()).entrySet())
+			{
+				if(columnCount >= range.getCount())
+				{
+					break;
+				}
+				Map<ByteBuffer, Column> row = entry.getValue();
+				if(result.isEmpty() && startColumn != null && startColumn.hasRemaining())
+				{
+					row = entry.getValue().tailMap(startColumn, true);
+				}
+				List<ColumnOrSuperColumn> columnList = new ArrayList<ColumnOrSuperColumn>();
+				for(Column column : row.values())
+				{
+					if(columnCount >= range.getCount())
+					{
+						break;
+					}
+					columnList.add(new ColumnOrSuperColumn().setColumn(column.deepCopy()));
+					columnCount++;
+				}
+				result.add(new KeySlice(entry.getKey(), columnList));
+			}
+			return result;
+		}
+		catch(Exception ex)
+		{
+			throw getException(ex);
+		}
+	}
+}
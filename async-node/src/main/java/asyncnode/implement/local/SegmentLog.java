@@ -0,0 +1,376 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.local;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import asyncnode.App;
+import asyncnode.core.IAction;
+
+//records are appended to memory mapped segment files, every record is [length][crc32][payload].
+//the file is zero filled when it is mapped, so a zero length ends the segment. a record which is not
+//completely written or whose checksum does not match ends the log, the segment is cut at it and the
+//segments after it are renamed, so the records appended after the restart are replayed next time
+public class SegmentLog
+{
+	public static final String SegmentPrefix = "segment-";
+	public static final String SegmentSuffix = ".log";
+	public static final String BrokenSuffix = ".broken";
+	public static final int HeaderLength = 8;
+
+	protected File directory;
+	protected int segmentSize;
+
+	protected final Object appendLock = new Object();
+	protected long segmentId = 0;
+	protected FileChannel segmentChannel = null;
+	protected MappedByteBuffer segmentBuffer = null;
+	protected long appendedSequence = 0;
+	protected long appendedBytes = 0;
+
+	protected final Object syncLock = new Object();
+	protected long syncedSequence = 0;
+	protected boolean syncing = false;
+
+	public SegmentLog(File directory, int segmentSize)
+	{
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+	}
+
+	public static String getSegmentName(long segmentId)
+	{
+		return String.format("%s%016d%s", SegmentPrefix, segmentId, SegmentSuffix);
+	}
+
+	//the ids of the segment files in order, 0 when the name is not a segment
+	public static long getSegmentId(String fileName)
+	{
+		if(!fileName.startsWith(SegmentPrefix) || !fileName.endsWith(SegmentSuffix))
+		{
+			return 0;
+		}
+		try
+		{
+			return Long.parseLong(fileName.substring(SegmentPrefix.length(), fileName.length() - SegmentSuffix.length()));
+		}
+		catch(NumberFormatException ex)
+		{
+			return 0;
+		}
+	}
+
+	public List<Long> getSegmentIdList()
+	{
+		List<Long> result = new ArrayList<Long>();
+		String[] fileNames = directory.list();
+		if(fileNames != null)
+		{
+			for(String fileName : fileNames)
+			{
+				long id = getSegmentId(fileName);
+				if(id > 0)
+				{
+					result.add(id);
+				}
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	public static void writeRecord(DataOutput output, byte[] payload) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		output.writeInt(payload.length);
+		output.writeInt((int)crc.getValue());
+		output.write(payload);
+	}
+
+	//visits the records of the buffer, false when a broken record is found before the end,
+	//the position of the buffer is left at the start of the broken record
+	public static boolean readRecords(ByteBuffer buffer, IAction<byte[]> recordAction) throws Exception
+	{
+		CRC32 crc = new CRC32();
+		while(buffer.remaining() >= HeaderLength)
+		{
+			int recordStart = buffer.position();
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if(length == 0 && checksum == 0)
+			{
+				return true;
+			}
+			if(length < 0 || length > buffer.remaining())
+			{
+				buffer.position(recordStart);
+				return false;
+			}
+			byte[] payload = new byte[length];
+			buffer.get(payload);
+			crc.reset();
+			crc.update(payload, 0, length);
+			if((int)crc.getValue() != checksum)
+			{
+				buffer.position(recordStart);
+				return false;
+			}
+			recordAction.invoke(payload);
+		}
+		return true;
+	}
+
+	//visits the records of the segments after afterSegmentId, the replay stops at the first broken record.
+	//the broken segment is cut before the record and the segments after it are put aside, otherwise the
+	//next replay would stop at the same record and skip the segments opened after this one
+	public long replay(long afterSegmentId, final IAction<byte[]> recordAction) throws Exception
+	{
+		final long[] recordCount = new long[1];
+		IAction<byte[]> countAction = new IAction<byte[]>(){
+			public void invoke(byte[] payload) throws Exception {
+				recordAction.invoke(payload);
+				recordCount[0]++;
+			}
+		};
+		long brokenSegmentId = 0;
+		for(long id : getSegmentIdList())
+		{
+			if(id <= afterSegmentId)
+			{
+				continue;
+			}
+			if(brokenSegmentId > 0)
+			{
+				putAside(id);
+				continue;
+			}
+			long brokenPosition = -1;
+			RandomAccessFile file = new RandomAccessFile(new File(directory, getSegmentName(id)), "r");
+			try
+			{
+				FileChannel channel = file.getChannel();
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(!readRecords(buffer, countAction))
+				{
+					brokenPosition = buffer.position();
+				}
+			}
+			finally
+			{
+				file.close();
+			}
+			if(brokenPosition >= 0)
+			{
+				App.getConfig().getInstance(Logger.class).warn("broken record in " + getSegmentName(id) + " at " + brokenPosition + ", the log after it is ignored");
+				truncateSegment(id, brokenPosition);
+				brokenSegmentId = id;
+			}
+		}
+		return recordCount[0];
+	}
+
+	protected void truncateSegment(long id, long length) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(new File(directory, getSegmentName(id)), "rw");
+		try
+		{
+			file.getChannel().truncate(length);
+			file.getChannel().force(true);
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	//the segment is kept for inspection, but it is not a segment of the log any more
+	protected void putAside(long id) throws IOException
+	{
+		File file = new File(directory, getSegmentName(id));
+		File brokenFile = new File(directory, getSegmentName(id) + BrokenSuffix);
+		if(!file.renameTo(brokenFile))
+		{
+			throw new IOException("can't put aside segment:" + file);
+		}
+		App.getConfig().getInstance(Logger.class).warn("segment after the broken record is put aside:" + brokenFile);
+	}
+
+	//the records are appended to a new segment after the existing ones
+	public void open() throws IOException
+	{
+		synchronized(appendLock)
+		{
+			List<Long> segmentIdList = getSegmentIdList();
+			segmentId = segmentIdList.isEmpty() ? 0 : segmentIdList.get(segmentIdList.size() - 1);
+			mapSegment(segmentId + 1, segmentSize);
+		}
+	}
+
+	protected void mapSegment(long id, int size) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(new File(directory, getSegmentName(id)), "rw");
+		segmentChannel = file.getChannel();
+		segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		segmentId = id;
+	}
+
+	protected void closeSegment() throws IOException
+	{
+		if(segmentChannel != null)
+		{
+			segmentBuffer.force();
+			segmentChannel.close();
+			segmentChannel = null;
+			segmentBuffer = null;
+		}
+	}
+
+	//returns the sequence of the record, which is passed to sync
+	public long append(byte[] payload) throws IOException
+	{
+		synchronized(appendLock)
+		{
+			if(segmentBuffer == null)
+			{
+				throw new IOException("segment log is not opened!");
+			}
+			int recordLength = HeaderLength + payload.length;
+			if(segmentBuffer.remaining() < recordLength)
+			{
+				closeSegment();
+				mapSegment(segmentId + 1, Math.max(segmentSize, recordLength));
+			}
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, payload.length);
+			segmentBuffer.putInt(payload.length);
+			segmentBuffer.putInt((int)crc.getValue());
+			segmentBuffer.put(payload);
+			appendedBytes += recordLength;
+			return ++appendedSequence;
+		}
+	}
+
+	//group fsync, the thread which forces the segment syncs the records appended by the others too
+	public void sync(long sequence) throws Exception
+	{
+		synchronized(syncLock)
+		{
+			while(syncing && syncedSequence < sequence)
+			{
+				syncLock.wait();
+			}
+			if(syncedSequence >= sequence)
+			{
+				return;
+			}
+			syncing = true;
+		}
+		long targetSequence = 0;
+		try
+		{
+			MappedByteBuffer buffer;
+			synchronized(appendLock)
+			{
+				targetSequence = appendedSequence;
+				buffer = segmentBuffer;
+			}
+			//the segments before are forced when they are closed
+			if(buffer != null)
+			{
+				buffer.force();
+			}
+		}
+		catch(Exception ex)
+		{
+			targetSequence = 0;
+			throw ex;
+		}
+		finally
+		{
+			synchronized(syncLock)
+			{
+				syncing = false;
+				syncedSequence = Math.max(syncedSequence, targetSequence);
+				syncLock.notifyAll();
+			}
+		}
+	}
+
+	//the next records go to a new segment, returns the id of the closed one
+	public long roll() throws IOException
+	{
+		synchronized(appendLock)
+		{
+			long closedId = segmentId;
+			closeSegment();
+			mapSegment(closedId + 1, segmentSize);
+			return closedId;
+		}
+	}
+
+	public void deleteSegments(long lastSegmentId)
+	{
+		for(long id : getSegmentIdList())
+		{
+			if(id <= lastSegmentId && id != segmentId)
+			{
+				File file = new File(directory, getSegmentName(id));
+				if(!file.delete())
+				{
+					App.getConfig().getInstance(Logger.class).warn("can't delete segment:" + file);
+				}
+			}
+		}
+	}
+
+	public long getSegmentId()
+	{
+		synchronized(appendLock)
+		{
+			return segmentId;
+		}
+	}
+
+	//bytes appended since the log is opened
+	public long getAppendedBytes()
+	{
+		synchronized(appendLock)
+		{
+			return appendedBytes;
+		}
+	}
+
+	public void close() throws IOException
+	{
+		synchronized(appendLock)
+		{
+			closeSegment();
+		}
+	}
+}
@@ -24,7 +24,8 @@ import com.google.inject.Inject;
 import asyncnode.rpc.AsyncServiceModule;
 import asyncnode.App;
 import asyncnode.ElementBase;
-import asyncnode.ElementBuilder;
+import asyncnode.WorkflowTemplate;
+import asyncnode.core.IFunc;
 import asyncnode.rpc.ServiceProcessElement;
 import asyncnode.rpc.ServiceResultElement;
 import asyncnode.implement.StoreableElementDao;
@@ -36,6 +37,7 @@ import asyncnode.rpc.ServiceProcessStep;
 public class AsyncServiceLocator
 {
 	protected ConcurrentMap<String, Class> selfServiceMap = new ConcurrentHashMap<String, Class>();
+	protected ConcurrentMap<String, WorkflowTemplate> serviceTemplateMap = new ConcurrentHashMap<String, WorkflowTemplate>();
 	protected StoreableElementDao storeableElementDao;
 	
 	@Inject
@@ -47,6 +49,33 @@ public class AsyncServiceLocator
 	public void publish(ConcurrentHashMap<String, Class> serviceMap)
 	{
 		selfServiceMap.putAll(serviceMap);			
+		for(String url : serviceMap.keySet())
+		{
+			serviceTemplateMap.remove(url);
+		}
+	}
+	
+	//params of a run: service param, result element
+	protected WorkflowTemplate getServiceTemplate(String url) throws Exception
+	{
+		WorkflowTemplate template = serviceTemplateMap.get(url);
+		if(template == null)
+		{
+			final Class<ServiceProcessElement> serviceClass = (Class<ServiceProcessElement>)selfServiceMap.get(url);
+			template = new WorkflowTemplate.Definition()
+				.add("process", new IFunc<Object[], ElementBase>(){
+					public ElementBase getValue(Object[] params) throws Exception {
+						ServiceProcessElement elementBase = serviceClass.newInstance();
+						elementBase.initParam(params[0]);
+						return elementBase;
+					}
+				})
+				.addParam("result", 1)
+				.addMap("result", "ServiceResultAttribute", "process")
+				.compile();
+			serviceTemplateMap.put(url, template);
+		}
+		return template;
 	}
 	
 	public Object activate(RPCCallDescrib describ, Object param) throws Exception
@@ -56,13 +85,7 @@ public class AsyncServiceLocator
 			UUID workFlowID = UUID.randomUUID();
 			ServiceResultElement resultElement = new ServiceResultElement();
 			resultElement.setId(workFlowID);
-			ElementBase elementBase = ((Class<ServiceProcessElement>)selfServiceMap.get(describ.getUrl())).newInstance();
-			((ServiceProcessElement)elementBase).initParam(param);
-			ElementBuilder elementBuilder = new ElementBuilder(workFlowID);
-			elementBuilder.add("process", elementBase);
-			elementBuilder.add("result", resultElement);
-			elementBuilder.addMap("result", "ServiceResultAttribute", "process");
-			elementBuilder.build();
+			getServiceTemplate(describ.getUrl()).build(workFlowID, param, resultElement);
 			App.getConfig().getInstance(Logger.class).info("...............after service build!" + "," + workFlowID + "," + resultElement.getId());
 			return workFlowID;
 		}			
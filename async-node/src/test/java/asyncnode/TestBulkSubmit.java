@@ -0,0 +1,185 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Mutation;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asyncnode.App.AppContext;
+import asyncnode.implement.CassandraWorkFlowDao;
+import asyncnode.implement.MemoryAsyncNodeDao;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+import asyncnode.implement.local.LocalLogStore;
+
+public class TestBulkSubmit {
+	private static AtomicInteger batchMutateCount = new AtomicInteger(0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class BulkAppModule extends App.LocalStoreAppModule
+	{
+		public BulkAppModule(String directory)
+		{
+			super(directory);
+		}
+
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setMaxThreadCount(10);
+			appContext.setEventDrivenSchdule(true);
+			appContext.setSubmitPageSize(300);
+			return appContext;
+		}
+
+		@Override
+		protected LocalLogStore createLocalLogStore()
+		{
+			return new LocalLogStore(new File(directory)){
+				@Override
+				public void batchMutate(String keyspace, Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap) throws Exception
+				{
+					batchMutateCount.incrementAndGet();
+					super.batchMutate(keyspace, mutationMap);
+				}
+			};
+		}
+	}
+
+	private void initConfig() throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(true);
+		initConfigSetting.setInitStorage(true);
+		App.initConfig(new BulkAppModule(folder.getRoot().getPath()), initConfigSetting);
+		batchMutateCount.set(0);
+	}
+
+	@After
+	public void closeStore() throws Exception
+	{
+		App.getConfig().getInstance(AppContext.class).getLocalLogStore().close();
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(App.getConfig().getInstance(CassandraWorkFlowDao.class).getDescrib()));
+	}
+
+	private static ElementBuilder createChain(UUID workFlowID, int count) throws Exception
+	{
+		ElementBuilder elementBuilder = new ElementBuilder(workFlowID);
+		elementBuilder.add("node0", new TestDirectDispatch.ChainElement());
+		for(int i = 1; i < count; i++)
+		{
+			elementBuilder.add("node" + i, new TestDirectDispatch.ChainElement());
+			elementBuilder.addMap("node" + i, "Prev", "node" + (i - 1));
+		}
+		return elementBuilder;
+	}
+
+	//300 nodes in a page, one batch_mutate for every page
+	@Test
+	public void testBuildAll() throws Exception
+	{
+		initConfig();
+		List<UUID> workFlowIDList = new ArrayList<UUID>();
+		List<ElementBuilder> builderList = new ArrayList<ElementBuilder>();
+		for(int i = 0; i < 200; i++)
+		{
+			workFlowIDList.add(UUID.randomUUID());
+			builderList.add(createChain(workFlowIDList.get(i), 3));
+		}
+		ElementBuilder.buildAll(builderList);
+		assertEquals(2, batchMutateCount.get());
+		TestEventDrivenSchdule.runUntilEmpty(60000);
+		for(UUID workFlowID : workFlowIDList)
+		{
+			TestDirectDispatch.assertStoreEmpty(workFlowID);
+		}
+	}
+
+	@Test
+	public void testCycleFailsPage() throws Exception
+	{
+		initConfig();
+		List<ElementBuilder> builderList = new ArrayList<ElementBuilder>();
+		builderList.add(createChain(UUID.randomUUID(), 3));
+		ElementBuilder cycleBuilder = createChain(UUID.randomUUID(), 3);
+		cycleBuilder.addMap("node0", "Last", "node2");
+		builderList.add(cycleBuilder);
+		try
+		{
+			ElementBuilder.buildAll(builderList);
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().startsWith("the workflow has a cycle"));
+		}
+		assertEquals(0, batchMutateCount.get());
+		TestEventDrivenSchdule.runUntilEmpty(1000);
+		assertTrue(App.getConfig().getInstance(MemoryAsyncNodeDao.class).getElementBaseMap().isEmpty());
+	}
+
+	//the page with the cycle keeps every workflow in its builders, the page before is submitted
+	@Test
+	public void testCycleInMiddleOfPage() throws Exception
+	{
+		initConfig();
+		List<UUID> workFlowIDList = new ArrayList<UUID>();
+		List<ElementBuilder> builderList = new ArrayList<ElementBuilder>();
+		for(int i = 0; i < 150; i++)
+		{
+			workFlowIDList.add(UUID.randomUUID());
+			builderList.add(createChain(workFlowIDList.get(i), 3));
+		}
+		builderList.get(120).addMap("node0", "Last", "node2");
+		try
+		{
+			ElementBuilder.buildAll(builderList);
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().startsWith("the workflow has a cycle"));
+		}
+		assertEquals(1, batchMutateCount.get());
+		for(int i = 0; i < 150; i++)
+		{
+			assertEquals(i < 100 ? 0 : 3, builderList.get(i).elementMapping.size());
+		}
+		TestEventDrivenSchdule.runUntilEmpty(60000);
+		for(UUID workFlowID : workFlowIDList)
+		{
+			TestDirectDispatch.assertStoreEmpty(workFlowID);
+		}
+		assertTrue(App.getConfig().getInstance(MemoryAsyncNodeDao.class).getElementBaseMap().isEmpty());
+	}
+}
@@ -0,0 +1,152 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asyncnode.App.AppContext;
+import asyncnode.implement.CassandraWorkFlowDao;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+
+public class TestCompletionCascade {
+	public static Logger logger = Logger.getLogger(TestCompletionCascade.class);
+	//the housekeeping steps started by the schdule thread, the steps run by the cascade are nested in another schdule
+	private static AtomicInteger housekeepingTickCount = new AtomicInteger(0);
+	private static ThreadLocal<Integer> schduleDepth = new ThreadLocal<Integer>(){
+		@Override
+		protected Integer initialValue() {
+			return 0;
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class CascadeAppModule extends App.LocalStoreAppModule
+	{
+		protected boolean completionCascade;
+
+		public CascadeAppModule(String directory, boolean completionCascade)
+		{
+			super(directory);
+			this.completionCascade = completionCascade;
+		}
+
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setMaxThreadCount(10);
+			appContext.setEventDrivenSchdule(true);
+			appContext.setCompletionCascade(completionCascade);
+			return appContext;
+		}
+	}
+
+	public static class CascadeElement extends ElementBase
+	{
+		@Override
+		public Boolean schdule() throws Exception
+		{
+			int depth = schduleDepth.get();
+			if(depth == 0 && (status.equals(ElementStatusEnum.NotifiedOutput)
+					|| status.equals(ElementStatusEnum.NotifiedInput) || status.equals(ElementStatusEnum.Destryable)))
+			{
+				housekeepingTickCount.incrementAndGet();
+			}
+			schduleDepth.set(depth + 1);
+			try
+			{
+				return super.schdule();
+			}
+			finally
+			{
+				schduleDepth.set(depth);
+			}
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			this.notifyFinish(this.getClassName(), null);
+		}
+	}
+
+	private void initConfig(boolean completionCascade) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(true);
+		initConfigSetting.setInitStorage(true);
+		App.initConfig(new CascadeAppModule(folder.getRoot().getPath(), completionCascade), initConfigSetting);
+		housekeepingTickCount.set(0);
+	}
+
+	@After
+	public void closeStore() throws Exception
+	{
+		App.getConfig().getInstance(AppContext.class).getLocalLogStore().close();
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(App.getConfig().getInstance(CassandraWorkFlowDao.class).getDescrib()));
+	}
+
+	//node0 and node1 feed node2 and node3, node4 waits for both of them
+	private UUID runDiamond() throws Exception
+	{
+		UUID workFlowID = UUID.randomUUID();
+		ElementBuilder elementBuilder = new ElementBuilder(workFlowID);
+		for(int i = 0; i < 5; i++)
+		{
+			elementBuilder.add("node" + i, new CascadeElement());
+		}
+		elementBuilder.addMap("node2", "First", "node0");
+		elementBuilder.addMap("node2", "Second", "node1");
+		elementBuilder.addMap("node3", "First", "node0");
+		elementBuilder.addMap("node3", "Second", "node1");
+		elementBuilder.addMap("node4", "First", "node2");
+		elementBuilder.addMap("node4", "Second", "node3");
+		elementBuilder.build();
+		long costTime = TestEventDrivenSchdule.runUntilEmpty(30000);
+		logger.info("diamond finished in " + costTime + "ms, housekeeping ticks:" + housekeepingTickCount.get());
+		return workFlowID;
+	}
+
+	//every node is released and destroyed by the cascade of itself or of its last out node
+	@Test
+	public void testCompletionCascade() throws Exception
+	{
+		initConfig(true);
+		UUID workFlowID = runDiamond();
+		assertEquals(0, housekeepingTickCount.get());
+		TestDirectDispatch.assertStoreEmpty(workFlowID);
+	}
+
+	@Test
+	public void testStepwiseCompletion() throws Exception
+	{
+		initConfig(false);
+		UUID workFlowID = runDiamond();
+		assertTrue(housekeepingTickCount.get() >= 15);
+		TestDirectDispatch.assertStoreEmpty(workFlowID);
+	}
+}
@@ -0,0 +1,146 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asyncnode.App.AppContext;
+import asyncnode.implement.CassandraAsyncQueueDao;
+import asyncnode.implement.CassandraWorkFlowDao;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+
+public class TestDirectDispatch {
+	public static Logger logger = Logger.getLogger(TestDirectDispatch.class);
+	private static AtomicInteger pendingSchduleCount = new AtomicInteger(0);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	public static class DirectDispatchAppModule extends App.LocalStoreAppModule
+	{
+		protected boolean directDispatch;
+
+		public DirectDispatchAppModule(String directory, boolean directDispatch)
+		{
+			super(directory);
+			this.directDispatch = directDispatch;
+		}
+
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setMaxThreadCount(10);
+			appContext.setEventDrivenSchdule(true);
+			appContext.setDirectDispatch(directDispatch);
+			return appContext;
+		}
+	}
+
+	//persistent, so the state written by the direct path is checked in the store
+	public static class ChainElement extends ElementBase
+	{
+		@Override
+		public Boolean schdule() throws Exception
+		{
+			if(status.equals(ElementStatusEnum.Pending))
+			{
+				pendingSchduleCount.incrementAndGet();
+			}
+			return super.schdule();
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			this.notifyFinish(this.getClassName(), null);
+		}
+	}
+
+	private void initConfig(boolean directDispatch) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(true);
+		initConfigSetting.setInitStorage(true);
+		App.initConfig(new DirectDispatchAppModule(folder.getRoot().getPath(), directDispatch), initConfigSetting);
+		pendingSchduleCount.set(0);
+	}
+
+	@After
+	public void closeStore() throws Exception
+	{
+		App.getConfig().getInstance(AppContext.class).getLocalLogStore().close();
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(App.getConfig().getInstance(CassandraWorkFlowDao.class).getDescrib()));
+	}
+
+	private UUID runChain(int count) throws Exception
+	{
+		UUID workFlowID = UUID.randomUUID();
+		ElementBuilder elementBuilder = new ElementBuilder(workFlowID);
+		elementBuilder.add("node0", new ChainElement());
+		for(int i = 1; i < count; i++)
+		{
+			elementBuilder.add("node" + i, new ChainElement());
+			elementBuilder.addMap("node" + i, "Prev", "node" + (i - 1));
+		}
+		elementBuilder.build();
+		long costTime = TestEventDrivenSchdule.runUntilEmpty(30000);
+		logger.info("chain of " + count + " nodes finished in " + costTime + "ms");
+		return workFlowID;
+	}
+
+	static void assertStoreEmpty(UUID workFlowID) throws Exception
+	{
+		for(Set<String[]> nodeSet : App.getConfig().getInstance(CassandraAsyncQueueDao.class).load(100).values())
+		{
+			assertTrue(nodeSet.isEmpty());
+		}
+		CassandraWorkFlowDao cassandraWorkFlowDao = App.getConfig().getInstance(CassandraWorkFlowDao.class);
+		for(ElementStatusEnum status : ElementStatusEnum.values())
+		{
+			assertTrue(cassandraWorkFlowDao.getStatusList(workFlowID.toString(), status, 10).isEmpty());
+		}
+	}
+
+	//the out nodes never wait in the queue as pending
+	@Test
+	public void testDirectDispatch() throws Exception
+	{
+		initConfig(true);
+		UUID workFlowID = runChain(5);
+		assertEquals(0, pendingSchduleCount.get());
+		assertStoreEmpty(workFlowID);
+	}
+
+	@Test
+	public void testQueuedDispatch() throws Exception
+	{
+		initConfig(false);
+		UUID workFlowID = runChain(5);
+		assertEquals(4, pendingSchduleCount.get());
+		assertStoreEmpty(workFlowID);
+	}
+}
@@ -0,0 +1,159 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class TestDirtyTrackingMap {
+	@Test
+	public void testChangedKeys()
+	{
+		DirtyTrackingMap<Object> map = new DirtyTrackingMap<Object>();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.putIfAbsent("b", 3);
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), map.drainDirtyKeys());
+		assertFalse(map.isDirty());
+
+		map.replace("a", 5);
+		map.remove("b");
+		map.remove("c");
+		assertEquals(new HashSet<String>(Arrays.asList("a")), map.drainDirtyKeys());
+		assertEquals(new HashSet<String>(Arrays.asList("b")), map.drainRemovedKeys());
+
+		//a removed key which is put again is only dirty
+		map.remove("a");
+		map.put("a", 6);
+		assertTrue(map.drainRemovedKeys().isEmpty());
+		assertEquals(new HashSet<String>(Arrays.asList("a")), map.drainDirtyKeys());
+	}
+
+	@Test
+	public void testAssign()
+	{
+		DirtyTrackingMap<Object> map = new DirtyTrackingMap<Object>();
+		map.put("same", "value");
+		map.put("changed", 1);
+		map.put("removed", true);
+		map.clearDirty();
+
+		Map<String, Object> sourceMap = new HashMap<String, Object>();
+		sourceMap.put("same", new String("value"));
+		sourceMap.put("changed", 2);
+		sourceMap.put("added", 3);
+		map.assign(sourceMap);
+		assertEquals(sourceMap, map);
+		assertEquals(new HashSet<String>(Arrays.asList("changed", "added")), map.drainDirtyKeys());
+		assertEquals(new HashSet<String>(Arrays.asList("removed")), map.drainRemovedKeys());
+	}
+
+	//the map moves from the array to a ConcurrentHashMap after SmallSize entries, and keeps tracking
+	@Test
+	public void testGrowAndShrink()
+	{
+		DirtyTrackingMap<Object> map = new DirtyTrackingMap<Object>();
+		Map<String, Object> expectedMap = new HashMap<String, Object>();
+		for(int i = 0; i < DirtyTrackingMap.SmallSize * 2; i++)
+		{
+			map.put("key" + i, i);
+			expectedMap.put("key" + i, i);
+			assertEquals(expectedMap, map);
+		}
+		assertEquals(expectedMap.keySet(), map.drainDirtyKeys());
+		map.remove("key3");
+		expectedMap.remove("key3");
+		assertEquals(expectedMap, map);
+		assertEquals(new HashSet<String>(Arrays.asList("key3")), map.drainRemovedKeys());
+
+		DirtyTrackingMap<Object> smallMap = new DirtyTrackingMap<Object>();
+		smallMap.put("a", 1);
+		smallMap.put("b", 2);
+		smallMap.put("c", 3);
+		smallMap.remove("a");
+		assertEquals(2, smallMap.size());
+		assertEquals(3, smallMap.get("c"));
+		assertFalse(smallMap.containsKey("a"));
+	}
+
+	//the entries are iterated from a copy, the map can be changed meanwhile
+	@Test
+	public void testChangeWhileIterating()
+	{
+		DirtyTrackingMap<Object> map = new DirtyTrackingMap<Object>();
+		map.put("a", 1);
+		map.put("b", 2);
+		for(String key : map.keySet())
+		{
+			map.put(key + "x", 0);
+		}
+		assertEquals(4, map.size());
+		Iterator<String> iterator = map.keySet().iterator();
+		iterator.next();
+		iterator.remove();
+		assertEquals(3, map.size());
+		assertEquals(1, map.drainRemovedKeys().size());
+	}
+
+	//the map of a node which is not stored keeps no key sets
+	@Test
+	public void testStopTracking()
+	{
+		DirtyTrackingMap<Object> map = new DirtyTrackingMap<Object>();
+		map.put("a", 1);
+		map.stopTracking();
+		assertFalse(map.isDirty());
+		map.put("b", 2);
+		map.remove("a");
+		assertFalse(map.isDirty());
+		assertTrue(map.drainDirtyKeys().isEmpty());
+		assertTrue(map.drainRemovedKeys().isEmpty());
+		map.put("c", 3);
+		assertFalse(map.isDirty());
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void testNodeWhichIsNotStoredIsNotTracked() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		ElementBase first = new TestEventDrivenSchdule.MemoryElement();
+		ElementBase second = new TestEventDrivenSchdule.MemoryElement();
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		elementBuilder.add("first", first)
+			.add("second", second)
+			.addMap("second", "Prev", "first")
+			.build();
+		for(ElementBase element : Arrays.asList(first, second))
+		{
+			for(Map<String, ?> map : Arrays.<Map<String, ?>>asList(element.appVariables, element.getInNodesMap(),
+					element.getOutNodesMap(), element.getAttributeMap()))
+			{
+				assertFalse(map instanceof DirtyTrackingMap && ((DirtyTrackingMap<?>)map).isDirty());
+			}
+		}
+	}
+}
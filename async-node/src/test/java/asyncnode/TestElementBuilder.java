@@ -0,0 +1,105 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.benchmark.BuildOrderBenchmark.BenchmarkElement;
+
+public class TestElementBuilder {
+
+	@Before
+	public void initConfig() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new App.DefaultAppModule());
+	}
+
+	private static Map<ElementBase, Integer> getPositionMap(List<ElementBase> elementList)
+	{
+		Map<ElementBase, Integer> positionMap = new HashMap<ElementBase, Integer>();
+		for(int i = 0; i < elementList.size(); i++)
+		{
+			positionMap.put(elementList.get(i), i);
+		}
+		return positionMap;
+	}
+
+	//a node is added before the nodes it takes as input
+	@Test
+	public void testBuildOrder() throws Exception
+	{
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		for(int i = 0; i < 6; i++)
+		{
+			elementBuilder.add("node" + i, new BenchmarkElement());
+		}
+		elementBuilder.addMap("node2", "First", "node0");
+		elementBuilder.addMap("node2", "Second", "node1");
+		elementBuilder.addMap("node3", "First", "node2");
+		elementBuilder.addMap("node4", "First", "node2");
+		elementBuilder.addMap("node4", "Second", "node2");
+		elementBuilder.addMap("node5", "First", "node3");
+		elementBuilder.addMap("node5", "Second", "node4");
+		List<ElementBase> elementList = elementBuilder.getBuildOrder();
+		assertEquals(6, elementList.size());
+		Map<ElementBase, Integer> positionMap = getPositionMap(elementList);
+		for(Map.Entry<String, List<String[]>> relationEntry : elementBuilder.relationMapping.entrySet())
+		{
+			ElementBase parent = elementBuilder.elementMapping.get(relationEntry.getKey());
+			for(String[] childNameArray : relationEntry.getValue())
+			{
+				ElementBase child = elementBuilder.elementMapping.get(childNameArray[0]);
+				assertTrue(positionMap.get(parent) < positionMap.get(child));
+			}
+		}
+	}
+
+	@Test
+	public void testCycleIsRejected() throws Exception
+	{
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		for(int i = 0; i < 4; i++)
+		{
+			elementBuilder.add("node" + i, new BenchmarkElement());
+		}
+		elementBuilder.addMap("node1", "First", "node0");
+		elementBuilder.addMap("node2", "First", "node1");
+		elementBuilder.addMap("node3", "First", "node2");
+		elementBuilder.addMap("node1", "Second", "node3");
+		try
+		{
+			elementBuilder.getBuildOrder();
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().startsWith("the workflow has a cycle"));
+			for(int i = 1; i < 4; i++)
+			{
+				assertTrue(ex.getMessage().contains("node" + i));
+			}
+		}
+	}
+}
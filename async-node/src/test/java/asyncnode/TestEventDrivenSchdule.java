@@ -0,0 +1,144 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.App.AppContext;
+import asyncnode.implement.MemoryAsyncNodeDao;
+import asyncnode.implement.MemoryAsyncQueueDao;
+
+public class TestEventDrivenSchdule {
+	public static Logger logger = Logger.getLogger(TestEventDrivenSchdule.class);
+
+	public static class EventDrivenAppModule extends App.DefaultAppModule
+	{
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setMaxThreadCount(10);
+			appContext.setEventDrivenSchdule(true);
+			return appContext;
+		}
+	}
+
+	public static void initMemoryConfig(App.DefaultAppModule module) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(true);
+		initConfigSetting.setInitStorage(false);
+		App.initConfig(module, initConfigSetting);
+	}
+
+	//run the schdule loop on current thread until every node of the workflow is destroyed
+	public static long runUntilEmpty(long timeout) throws Exception
+	{
+		long beginTime = System.currentTimeMillis();
+		MemoryAsyncNodeDao memoryAsyncNodeDao = App.getConfig().getInstance(MemoryAsyncNodeDao.class);
+		MemoryAsyncQueueDao memoryAsyncQueueDao = App.getConfig().getInstance(MemoryAsyncQueueDao.class);
+		while(System.currentTimeMillis() - beginTime < timeout)
+		{
+			AsyncNodeRunner.runByPriority();
+			if(memoryAsyncNodeDao.getElementBaseMap().isEmpty()
+					&& memoryAsyncNodeDao.getPendingElementBaseMap().isEmpty()
+					&& memoryAsyncQueueDao.isActiveEmpty())
+			{
+				break;
+			}
+			memoryAsyncQueueDao.awaitRunable();
+		}
+		return System.currentTimeMillis() - beginTime;
+	}
+
+	@Before
+	public void init() throws Exception
+	{
+		initMemoryConfig(new EventDrivenAppModule());
+	}
+
+	@Test
+	public void testChainFinishWithoutTickLatency() throws Exception
+	{
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		elementBuilder.add("first", new MemoryElement())
+			.add("second", new MemoryElement())
+			.add("third", new MemoryElement())
+			.addMap("second", "Prev", "first")
+			.addMap("third", "Prev", "second")
+			.build();
+
+		long costTime = runUntilEmpty(30000);
+		logger.info("event driven chain finished in " + costTime + "ms");
+		//every state hop costs one second when the runner is polling
+		assertTrue(costTime < 1000);
+	}
+
+	//the node which is queued without wakeup, like a recalling node, must still end the wait on the empty queue
+	public static void assertQuietAddEndsWait(final MemoryAsyncQueueDao queue) throws Exception
+	{
+		Thread schduleThread = new Thread(new Runnable() {
+			public void run() {
+				try
+				{
+					queue.awaitRunable();
+				}
+				catch(InterruptedException ex)
+				{
+				}
+			}
+		});
+		schduleThread.setDaemon(true);
+		schduleThread.start();
+		while(schduleThread.getState() != Thread.State.WAITING)
+		{
+			Thread.sleep(10);
+		}
+
+		MemoryElement element = new MemoryElement();
+		element.setId(UUID.randomUUID());
+		element.setWorkFlowID(UUID.randomUUID());
+		queue.add(ElementStatusEnum.Ready, element, false);
+		schduleThread.join(5000);
+		assertFalse(schduleThread.isAlive());
+	}
+
+	@Test
+	public void testQuietAddEndsWait() throws Exception
+	{
+		assertQuietAddEndsWait(App.getConfig().getInstance(MemoryAsyncQueueDao.class));
+	}
+
+	public static class MemoryElement extends ElementBase
+	{
+		@Override
+		public boolean isPersistent()
+		{
+			return false;
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			this.notifyFinish(this.getClassName(), null);
+		}
+	}
+}
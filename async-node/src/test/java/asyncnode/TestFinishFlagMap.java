@@ -0,0 +1,101 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Test;
+
+public class TestFinishFlagMap {
+	@Test
+	public void testUnfinishedCount()
+	{
+		FinishFlagMap map = new FinishFlagMap();
+		map.put("a", false);
+		map.put("b", false);
+		map.putIfAbsent("b", true);
+		map.put("c", true);
+		assertEquals(2, map.getUnfinishedCount());
+
+		map.put("a", true);
+		map.put("a", true);
+		assertEquals(1, map.getUnfinishedCount());
+		map.replace("c", false);
+		map.replace("c", false, true);
+		map.replace("b", true, false);
+		assertEquals(1, map.getUnfinishedCount());
+		map.remove("b");
+		map.remove("x");
+		assertEquals(0, map.getUnfinishedCount());
+
+		map.put("d", false);
+		map.clear();
+		assertEquals(0, map.getUnfinishedCount());
+	}
+
+	//the maps set from the store are counted
+	@Test
+	public void testWrappedMap() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		ConcurrentMap<String, Boolean> sourceMap = new ConcurrentHashMap<String, Boolean>();
+		sourceMap.put("a", false);
+		sourceMap.put("b", true);
+		sourceMap.put("c", false);
+		ElementBase element = new TestEventDrivenSchdule.MemoryElement();
+		element.setInNodesMap(sourceMap);
+		element.setOutNodesMap(sourceMap);
+		assertEquals(2, element.getRemainingInputCount());
+		element.getOutNodesMap().put("a", true);
+		assertEquals(1, element.getRemainingOutputCount());
+		assertEquals(2, element.getRemainingInputCount());
+	}
+
+	@Test
+	public void testConcurrentFinish() throws Exception
+	{
+		final FinishFlagMap map = new FinishFlagMap();
+		final int count = 10000;
+		for(int i = 0; i < count; i++)
+		{
+			map.put("node" + i, false);
+		}
+		List<Thread> threadList = new ArrayList<Thread>();
+		for(int t = 0; t < 4; t++)
+		{
+			Thread thread = new Thread(){
+				public void run() {
+					for(int i = 0; i < count; i++)
+					{
+						map.put("node" + i, true);
+					}
+				}
+			};
+			threadList.add(thread);
+			thread.start();
+		}
+		for(Thread thread : threadList)
+		{
+			thread.join();
+		}
+		assertEquals(0, map.getUnfinishedCount());
+	}
+}
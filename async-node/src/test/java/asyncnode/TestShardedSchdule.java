@@ -0,0 +1,165 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.App.AppContext;
+import asyncnode.implement.MemoryAsyncNodeDao;
+
+public class TestShardedSchdule {
+	private static ConcurrentMap<String, List<String>> executeOrderMap = new ConcurrentHashMap<String, List<String>>();
+	private static Set<String> schduleThreadSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public static class ShardedAppModule extends TestEventDrivenSchdule.EventDrivenAppModule
+	{
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setSchduleShardCount(4);
+			return appContext;
+		}
+	}
+
+	@Before
+	public void init() throws Exception
+	{
+		executeOrderMap.clear();
+		schduleThreadSet.clear();
+		TestEventDrivenSchdule.initMemoryConfig(new ShardedAppModule());
+	}
+
+	@Test
+	public void testWorkflowKeepOrderInShard() throws Exception
+	{
+		List<String> workFlowList = new ArrayList<String>();
+		for(int i = 0; i < 40; i++)
+		{
+			UUID workFlowID = UUID.randomUUID();
+			workFlowList.add(workFlowID.toString());
+			ElementBuilder elementBuilder = new ElementBuilder(workFlowID);
+			elementBuilder.add("first", new OrderedElement("first"))
+				.add("second", new OrderedElement("second"))
+				.add("third", new OrderedElement("third"))
+				.addMap("second", "Prev", "first")
+				.addMap("third", "Prev", "second")
+				.build();
+		}
+
+		TestEventDrivenSchdule.runUntilEmpty(30000);
+		assertTrue(App.getConfig().getInstance(MemoryAsyncNodeDao.class).getElementBaseMap().isEmpty());
+		for(String workFlowID : workFlowList)
+		{
+			assertEquals(Arrays.asList("first", "second", "third"), executeOrderMap.get(workFlowID));
+		}
+		assertTrue(schduleThreadSet.size() > 1);
+	}
+
+	//the nodes built under another workflow id are schduled with the node which builds them
+	@Test
+	public void testDynamicBuildSharesSchduleGroup() throws Exception
+	{
+		UUID workFlowID = UUID.randomUUID();
+		new ElementBuilder(workFlowID).add("builder", new DynamicElement()).build();
+
+		TestEventDrivenSchdule.runUntilEmpty(30000);
+		assertTrue(App.getConfig().getInstance(MemoryAsyncNodeDao.class).getElementBaseMap().isEmpty());
+		assertEquals(Arrays.asList(workFlowID.toString(), workFlowID.toString()), executeOrderMap.get("dynamic"));
+	}
+
+	public static class DynamicElement extends ElementBase
+	{
+		@Override
+		public boolean isPersistent()
+		{
+			return false;
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+			elementBuilder.add("first", new GroupElement())
+				.add("second", new GroupElement())
+				.addMap("second", "Prev", "first");
+			this.notifyFinish(null, null, elementBuilder);
+		}
+	}
+
+	public static class GroupElement extends ElementBase
+	{
+		@Override
+		public boolean isPersistent()
+		{
+			return false;
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			List<String> groupList = Collections.synchronizedList(new ArrayList<String>());
+			List<String> oldList = executeOrderMap.putIfAbsent("dynamic", groupList);
+			(oldList == null ? groupList : oldList).add(this.getSchduleGroupID().toString());
+			this.notifyFinish(null, null);
+		}
+	}
+
+	public static class OrderedElement extends ElementBase
+	{
+		private String name;
+
+		public OrderedElement()
+		{
+		}
+
+		public OrderedElement(String name)
+		{
+			this.name = name;
+		}
+
+		@Override
+		public boolean isPersistent()
+		{
+			return false;
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			List<String> orderList = Collections.synchronizedList(new ArrayList<String>());
+			List<String> oldList = executeOrderMap.putIfAbsent(this.getWorkFlowID().toString(), orderList);
+			(oldList == null ? orderList : oldList).add(name);
+			this.notifyFinish(name, null);
+		}
+
+		@Override
+		protected void notifyOuput() throws Exception
+		{
+			schduleThreadSet.add(Thread.currentThread().getName());
+			super.notifyOuput();
+		}
+	}
+}
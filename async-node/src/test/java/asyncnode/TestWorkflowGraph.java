@@ -0,0 +1,131 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.TestEventDrivenSchdule.MemoryElement;
+
+public class TestWorkflowGraph {
+	private List<ElementBase> elementList;
+
+	//first feeds merge by two attributes, second feeds merge once
+	@Before
+	public void buildDiamond() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		elementList = new ArrayList<ElementBase>();
+		for(int i = 0; i < 3; i++)
+		{
+			elementList.add(new MemoryElement());
+			elementList.get(i).setWorkFlowID(UUID.randomUUID());
+		}
+		elementList.get(2).addElement(elementList.get(0), "First");
+		elementList.get(2).addElement(elementList.get(0), "Again");
+		elementList.get(2).addElement(elementList.get(1), "Second");
+	}
+
+	@Test
+	public void testViewsKeepTheMaps() throws Exception
+	{
+		List<Map<String, Boolean>> inMapList = new ArrayList<Map<String, Boolean>>();
+		List<Map<String, Boolean>> outMapList = new ArrayList<Map<String, Boolean>>();
+		List<Map<String, String>> attributeMapList = new ArrayList<Map<String, String>>();
+		for(ElementBase element : elementList)
+		{
+			inMapList.add(new HashMap<String, Boolean>(element.getInNodesMap()));
+			outMapList.add(new HashMap<String, Boolean>(element.getOutNodesMap()));
+			attributeMapList.add(new HashMap<String, String>(element.getAttributeMap()));
+		}
+		WorkflowGraph graph = WorkflowGraph.compile(elementList);
+		graph.attach();
+		for(int i = 0; i < elementList.size(); i++)
+		{
+			ElementBase element = elementList.get(i);
+			assertTrue(element.getInNodesMap() instanceof WorkflowGraph.FlagMapView);
+			assertEquals(inMapList.get(i), element.getInNodesMap());
+			assertEquals(outMapList.get(i), element.getOutNodesMap());
+			assertEquals(attributeMapList.get(i), element.getAttributeMap());
+		}
+		assertEquals(2, elementList.get(2).getRemainingInputCount());
+		assertEquals(1, elementList.get(0).getRemainingOutputCount());
+	}
+
+	@Test
+	public void testFinishByIndexAndByView() throws Exception
+	{
+		WorkflowGraph graph = WorkflowGraph.compile(elementList);
+		graph.attach();
+		ElementBase merge = elementList.get(2);
+		int outSlot = graph.getOutStart(0);
+		assertEquals(2, graph.getOutNode(outSlot));
+		assertEquals(0, graph.getInNode(graph.getOutPeer(outSlot)));
+		assertEquals(outSlot, graph.getInPeer(graph.getOutPeer(outSlot)));
+		assertEquals(1, graph.finishInput(2, graph.getOutPeer(outSlot)));
+		assertEquals(-1, graph.finishInput(2, graph.getOutPeer(outSlot)));
+		assertEquals(Boolean.TRUE, merge.getInNodesMap().get(elementList.get(0).getId().toString()));
+		assertFalse(merge.getInNodesMap().put(elementList.get(1).getId().toString(), true));
+		assertEquals(0, graph.getRemainingInput(2));
+		assertEquals(0, merge.getRemainingInputCount());
+	}
+
+	//the dynamic node is linked after the graph is built
+	@Test
+	public void testLinksAddedLater() throws Exception
+	{
+		WorkflowGraph graph = WorkflowGraph.compile(elementList);
+		graph.attach();
+		ElementBase first = elementList.get(0);
+		ElementBase dynamic = new MemoryElement();
+		dynamic.addElementCore(first, ElementBase.DynamicAttributeName, true);
+		assertEquals(2, first.getOutNodesMap().size());
+		assertEquals(2, first.getRemainingOutputCount());
+		first.getOutNodesMap().put(dynamic.getId().toString(), true);
+		assertEquals(1, first.getRemainingOutputCount());
+		try
+		{
+			elementList.get(2).getInNodesMap().remove(first.getId().toString());
+			fail();
+		}
+		catch(UnsupportedOperationException ex)
+		{
+		}
+	}
+
+	@Test
+	public void testAttributeByIndex() throws Exception
+	{
+		WorkflowGraph graph = WorkflowGraph.compile(elementList);
+		graph.attach();
+		elementList.get(0).value = 7;
+		WorkflowGraph.AttributeMapView attributeMap = (WorkflowGraph.AttributeMapView)elementList.get(2).getAttributeMap();
+		assertSame(elementList.get(0), attributeMap.getElement("Again"));
+		assertEquals(7, elementList.get(2).getAttribute("First"));
+		assertEquals(null, elementList.get(2).getAttribute("Missing"));
+	}
+}
@@ -0,0 +1,117 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.TestEventDrivenSchdule.MemoryElement;
+import asyncnode.implement.MemoryAsyncNodeDao;
+
+public class TestWorkflowTemplate {
+
+	@Before
+	public void initConfig() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+	}
+
+	//first and second feed merge, the last one is a parameter of the run
+	private static WorkflowTemplate compileDiamond() throws Exception
+	{
+		return new WorkflowTemplate.Definition()
+			.add("first", MemoryElement.class)
+			.add("second", MemoryElement.class)
+			.add("merge", MemoryElement.class)
+			.addParam("last", 0)
+			.addMap("merge", "First", "first")
+			.addMap("merge", "Second", "second")
+			.addMap("last", "Merge", "merge")
+			.compile();
+	}
+
+	@Test
+	public void testInstantiate() throws Exception
+	{
+		WorkflowTemplate template = compileDiamond();
+		UUID workFlowID = UUID.randomUUID();
+		MemoryElement last = new MemoryElement();
+		List<ElementBase> elementList = template.instantiate(workFlowID, last);
+		assertEquals(4, elementList.size());
+		assertSame(last, elementList.get(0));
+		ElementBase merge = elementList.get(1);
+		assertEquals(merge.getId().toString(), last.attributeMap.get("Merge"));
+		assertEquals(2, merge.getInNodesMap().size());
+		assertEquals(2, merge.getRemainingInputCount());
+		for(ElementBase element : elementList)
+		{
+			assertEquals(workFlowID, element.getWorkFlowID());
+		}
+		List<ElementBase> otherList = template.instantiate(UUID.randomUUID(), new MemoryElement());
+		assertNotSame(merge, otherList.get(1));
+	}
+
+	@Test
+	public void testBuildRuns() throws Exception
+	{
+		WorkflowTemplate template = compileDiamond();
+		for(int i = 0; i < 20; i++)
+		{
+			template.build(UUID.randomUUID(), new MemoryElement());
+		}
+		TestEventDrivenSchdule.runUntilEmpty(30000);
+		assertTrue(App.getConfig().getInstance(MemoryAsyncNodeDao.class).getElementBaseMap().isEmpty());
+	}
+
+	@Test
+	public void testInvalidShape() throws Exception
+	{
+		try
+		{
+			new WorkflowTemplate.Definition()
+				.add("first", MemoryElement.class)
+				.addMap("first", "Prev", "missing")
+				.compile();
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertEquals("the node is not added:missing", ex.getMessage());
+		}
+		try
+		{
+			new WorkflowTemplate.Definition()
+				.add("first", MemoryElement.class)
+				.add("second", MemoryElement.class)
+				.addMap("first", "Prev", "second")
+				.addMap("second", "Prev", "first")
+				.compile();
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().startsWith("the workflow has a cycle"));
+		}
+	}
+}
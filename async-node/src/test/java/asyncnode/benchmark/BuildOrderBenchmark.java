@@ -0,0 +1,140 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import asyncnode.App;
+import asyncnode.ElementBase;
+import asyncnode.ElementBuilder;
+
+//orders the nodes of a deep workflow, every node takes the two nodes before it, so there is one node in every layer.
+//the layered order rescans all the relations for every layer as saveNode did before.
+//not run by the tests, start it by main after mvn test-compile:
+//java --add-opens java.base/java.lang=ALL-UNNAMED -cp target/classes:target/test-classes:<dependency classpath> asyncnode.benchmark.BuildOrderBenchmark
+public class BuildOrderBenchmark {
+	private static final int WarmupRounds = 3;
+	private static final int MeasureRounds = 5;
+	private static final int[] WorkflowSizes = new int[]{ 100, 1000, 5000 };
+
+	public static class BenchmarkElement extends ElementBase
+	{
+		@Override
+		public void executeCore() throws Exception {
+		}
+	}
+
+	public static class BenchmarkBuilder extends ElementBuilder
+	{
+		public BenchmarkBuilder(int size)
+		{
+			super(UUID.randomUUID());
+			for(int i = 0; i < size; i++)
+			{
+				add("node" + i, new BenchmarkElement());
+				if(i > 0)
+				{
+					addMap("node" + i, "First", "node" + (i - 1));
+				}
+				if(i > 1)
+				{
+					addMap("node" + i, "Second", "node" + (i - 2));
+				}
+			}
+		}
+
+		public List<ElementBase> getKahnOrder() throws Exception
+		{
+			return getBuildOrder();
+		}
+
+		public List<ElementBase> getLayeredOrder()
+		{
+			Set<String> doneSet = new HashSet<String>();
+			List<ElementBase> elementList = new ArrayList<ElementBase>();
+			while(doneSet.size() < elementMapping.size())
+			{
+				Set<String> childrenSet = new HashSet<String>();
+				for(Entry<String, List<String[]>> relationEntry : relationMapping.entrySet())
+				{
+					if(doneSet.contains(relationEntry.getKey()))
+					{
+						continue;
+					}
+					for(String[] childNameArray : relationEntry.getValue())
+					{
+						childrenSet.add(childNameArray[0]);
+					}
+				}
+				List<String> layer = new ArrayList<String>();
+				for(String elementName : elementMapping.keySet())
+				{
+					if(!doneSet.contains(elementName) && !childrenSet.contains(elementName))
+					{
+						layer.add(elementName);
+					}
+				}
+				for(String elementName : layer)
+				{
+					doneSet.add(elementName);
+					elementList.add(elementMapping.get(elementName));
+				}
+			}
+			return elementList;
+		}
+	}
+
+	private static double measure(int size, boolean kahn) throws Exception
+	{
+		BenchmarkBuilder builder = new BenchmarkBuilder(size);
+		for(int round = 0; round < WarmupRounds; round++)
+		{
+			order(builder, kahn);
+		}
+		long beginTime = System.nanoTime();
+		for(int round = 0; round < MeasureRounds; round++)
+		{
+			order(builder, kahn);
+		}
+		return (System.nanoTime() - beginTime) / (double)MeasureRounds / 1000000;
+	}
+
+	private static void order(BenchmarkBuilder builder, boolean kahn) throws Exception
+	{
+		List<ElementBase> elementList = kahn ? builder.getKahnOrder() : builder.getLayeredOrder();
+		if(elementList.isEmpty())
+		{
+			throw new Exception("no node is ordered");
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(false);
+		initConfigSetting.setInitStorage(false);
+		App.initConfig(new App.DefaultAppModule(), initConfigSetting);
+		System.out.println(String.format("%8s %12s %12s", "nodes", "layered ms", "kahn ms"));
+		for(int size : WorkflowSizes)
+		{
+			System.out.println(String.format("%8d %12.2f %12.2f", size, measure(size, false), measure(size, true)));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.benchmark;
+
+import java.util.Date;
+import java.util.UUID;
+
+import asyncnode.App;
+import asyncnode.ElementBase;
+
+//retained heap of the resident nodes: nodes without links, and a chain where every node takes the one before it and
+//has one app variable. not run by the tests, start it by main after mvn test-compile:
+//java --add-opens java.base/java.lang=ALL-UNNAMED -cp target/classes:target/test-classes:<dependency classpath> asyncnode.benchmark.HeapFootprintBenchmark
+public class HeapFootprintBenchmark {
+	private static final int NodeCount = 200000;
+
+	public static class ResidentElement extends ElementBase
+	{
+		public void link(ElementBase element) throws Exception
+		{
+			addElement(element, "Prev");
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+		}
+	}
+
+	private static long getUsedHeap() throws Exception
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long usedHeap = Long.MAX_VALUE;
+		for(int i = 0; i < 5; i++)
+		{
+			System.gc();
+			Thread.sleep(100);
+			usedHeap = Math.min(usedHeap, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return usedHeap;
+	}
+
+	private static void measure(String name, boolean linked) throws Exception
+	{
+		ElementBase[] elements = new ElementBase[NodeCount];
+		long beginHeap = getUsedHeap();
+		UUID workFlowID = UUID.randomUUID();
+		for(int i = 0; i < NodeCount; i++)
+		{
+			ResidentElement element = new ResidentElement();
+			element.setWorkFlowID(workFlowID);
+			element.setLastEditDate(new Date());
+			if(linked)
+			{
+				if(i > 0)
+				{
+					element.link(elements[i - 1]);
+				}
+				element.appVariables.put("step", i);
+			}
+			elements[i] = element;
+		}
+		long usedHeap = getUsedHeap() - beginHeap;
+		System.out.println(String.format("%-12s %10.1f bytes/node", name, usedHeap / (double)NodeCount));
+		if(elements[NodeCount - 1] == null)
+		{
+			throw new Exception("the nodes are not retained");
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(false);
+		initConfigSetting.setInitStorage(false);
+		App.initConfig(new App.DefaultAppModule(), initConfigSetting);
+		measure("empty", false);
+		measure("linked", true);
+	}
+}
@@ -0,0 +1,113 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.SerializationService;
+
+//json round trip of one node variable, a new ObjectMapper per value against the shared one.
+//not run by the tests, start it by main after mvn test-compile:
+//java -cp target/classes:target/test-classes:<dependency classpath> asyncnode.benchmark.SerializationBenchmark
+public class SerializationBenchmark {
+	private static final int WarmupRounds = 5;
+	private static final int MeasureRounds = 10;
+	private static final int OperationsPerRound = 20000;
+
+	public static class Variable
+	{
+		private String name;
+		private int count;
+		private List<String> tagList;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getCount() {
+			return count;
+		}
+		public void setCount(int count) {
+			this.count = count;
+		}
+		public List<String> getTagList() {
+			return tagList;
+		}
+		public void setTagList(List<String> tagList) {
+			this.tagList = tagList;
+		}
+	}
+
+	private static Variable createVariable()
+	{
+		Variable variable = new Variable();
+		variable.setName("order-variable");
+		variable.setCount(42);
+		List<String> tagList = new ArrayList<String>();
+		for(int i = 0; i < 8; i++)
+		{
+			tagList.add("tag" + i);
+		}
+		variable.setTagList(tagList);
+		return variable;
+	}
+
+	//returns nanoseconds of one operation
+	private static double measure(String name, IAction<Variable> operation) throws Exception
+	{
+		Variable variable = createVariable();
+		for(int round = 0; round < WarmupRounds; round++)
+		{
+			for(int i = 0; i < OperationsPerRound; i++)
+			{
+				operation.invoke(variable);
+			}
+		}
+		long beginTime = System.nanoTime();
+		for(int round = 0; round < MeasureRounds; round++)
+		{
+			for(int i = 0; i < OperationsPerRound; i++)
+			{
+				operation.invoke(variable);
+			}
+		}
+		double nanosPerOperation = (System.nanoTime() - beginTime) / (double)(MeasureRounds * OperationsPerRound);
+		System.out.println(String.format("%-24s %10.1f ns/op", name, nanosPerOperation));
+		return nanosPerOperation;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		double before = measure("newObjectMapper", new IAction<Variable>(){
+			public void invoke(Variable variable) throws Exception {
+				String json = new ObjectMapper().writeValueAsString(variable);
+				new ObjectMapper().readValue(json, Variable.class);
+			}
+		});
+		double after = measure("serializationService", new IAction<Variable>(){
+			public void invoke(Variable variable) throws Exception {
+				String json = SerializationService.writeValueAsString(variable);
+				SerializationService.readValue(json, Variable.class);
+			}
+		});
+		System.out.println(String.format("speedup %.1fx", before / after));
+	}
+}
@@ -0,0 +1,277 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.AsyncNodeRunner;
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.implement.CassandraWorkFlowDao;
+import asyncnode.implement.cassandra.TestCassandraBatch.PersistentElement;
+
+//every storage provider must pass these tests, the test of a provider extends the kit and creates its daos.
+//testThroughput logs the operations per second and fails when the provider is slower than getMinThroughput
+public abstract class StoreConformanceKit {
+	protected static Logger logger = Logger.getLogger(StoreConformanceKit.class);
+
+	protected IAsyncNodeDao asyncNodeDao;
+	protected IAsyncQueueDao asyncQueueDao;
+	protected IWorkFlowDao workFlowDao;
+
+	protected abstract IAsyncNodeDao createAsyncNodeDao() throws Exception;
+	protected abstract IAsyncQueueDao createAsyncQueueDao() throws Exception;
+	protected abstract IWorkFlowDao createWorkFlowDao() throws Exception;
+
+	protected void closeStore() throws Exception
+	{
+	}
+
+	//nodes written by testThroughput, every node is added, updated, queued and indexed
+	protected int getThroughputCount()
+	{
+		return 2000;
+	}
+
+	protected double getMinThroughput()
+	{
+		return 500;
+	}
+
+	@Before
+	public void initStore() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		asyncNodeDao = createAsyncNodeDao();
+		asyncQueueDao = createAsyncQueueDao();
+		workFlowDao = createWorkFlowDao();
+	}
+
+	@After
+	public void close() throws Exception
+	{
+		closeStore();
+	}
+
+	protected static PersistentElement newElement(UUID workFlowID)
+	{
+		PersistentElement element = new PersistentElement();
+		element.setId(UUID.randomUUID());
+		element.setWorkFlowID(workFlowID);
+		element.setStatus(ElementStatusEnum.Ready);
+		element.appVariables.put("count", 1);
+		element.appVariables.put("name", "node");
+		element.getOutNodesMap().put(UUID.randomUUID().toString(), false);
+		element.getAttributeMap().put("owner", "kit");
+		return element;
+	}
+
+	protected static Set<String> getIdSet(List<? extends ElementBase> elementList)
+	{
+		Set<String> result = new HashSet<String>();
+		for(ElementBase element : elementList)
+		{
+			result.add(element.getId().toString());
+		}
+		return result;
+	}
+
+	//priority -> "node id,status"
+	protected Set<String> loadQueue() throws Exception
+	{
+		Set<String> result = new HashSet<String>();
+		for(ConcurrentMap.Entry<Integer, Set<String[]>> entry : asyncQueueDao.load(3).entrySet())
+		{
+			for(String[] node : entry.getValue())
+			{
+				result.add(entry.getKey() + ":" + node[0] + "," + node[1]);
+			}
+		}
+		return result;
+	}
+
+	@Test
+	public void testAddGetDelete() throws Exception
+	{
+		PersistentElement element = newElement(UUID.randomUUID());
+		asyncNodeDao.add(element);
+		ElementBase result = asyncNodeDao.get(element.getId().toString());
+		assertNotNull(result);
+		assertEquals(PersistentElement.class, result.getClass());
+		assertEquals(element.getWorkFlowID(), result.getWorkFlowID());
+		assertEquals(element.getStatus(), result.getStatus());
+		assertEquals(element.appVariables, result.appVariables);
+		assertEquals(element.getOutNodesMap(), result.getOutNodesMap());
+		assertEquals(element.getAttributeMap(), result.getAttributeMap());
+
+		asyncNodeDao.delete(element.getId().toString());
+		assertNull(asyncNodeDao.get(element.getId().toString()));
+	}
+
+	@Test
+	public void testUpdateColumns() throws Exception
+	{
+		PersistentElement element = newElement(UUID.randomUUID());
+		asyncNodeDao.add(element);
+		element.setStatus(ElementStatusEnum.Running);
+		element.appVariables.put("count", 2);
+		element.appVariables.remove("name");
+		asyncNodeDao.update(element, Arrays.asList("status", "appVariables"), null);
+
+		ElementBase result = asyncNodeDao.get(element.getId().toString());
+		assertEquals(ElementStatusEnum.Running, result.getStatus());
+		assertEquals(element.appVariables, result.appVariables);
+	}
+
+	@Test
+	public void testGetList() throws Exception
+	{
+		List<PersistentElement> elementList = new ArrayList<PersistentElement>();
+		List<String> keyList = new ArrayList<String>();
+		for(int i = 0; i < 3; i++)
+		{
+			PersistentElement element = newElement(UUID.randomUUID());
+			asyncNodeDao.add(element);
+			elementList.add(element);
+			keyList.add(element.getId().toString());
+		}
+		assertEquals(getIdSet(elementList), getIdSet(asyncNodeDao.get(keyList)));
+	}
+
+	@Test
+	public void testVisitAll() throws Exception
+	{
+		List<PersistentElement> elementList = new ArrayList<PersistentElement>();
+		for(int i = 0; i < 25; i++)
+		{
+			PersistentElement element = newElement(UUID.randomUUID());
+			asyncNodeDao.add(element);
+			elementList.add(element);
+		}
+		final List<ElementBase> visitList = Collections.synchronizedList(new ArrayList<ElementBase>());
+		IAction<ElementBase> visitAction = new IAction<ElementBase>(){
+			public void invoke(ElementBase element) throws Exception {
+				visitList.add(element);
+			}
+		};
+		asyncNodeDao.visitAll(4, visitAction);
+		assertEquals(elementList.size(), visitList.size());
+		assertEquals(getIdSet(elementList), getIdSet(visitList));
+
+		visitList.clear();
+		asyncNodeDao.visitAllParallel(4, 3, visitAction);
+		assertEquals(elementList.size(), visitList.size());
+		assertEquals(getIdSet(elementList), getIdSet(visitList));
+	}
+
+	@Test
+	public void testQueue() throws Exception
+	{
+		PersistentElement readyElement = newElement(UUID.randomUUID());
+		PersistentElement runningElement = newElement(UUID.randomUUID());
+		runningElement.setStatus(ElementStatusEnum.Running);
+		asyncQueueDao.add(ElementStatusEnum.Ready, readyElement);
+		asyncQueueDao.add(ElementStatusEnum.NotifyFinish, runningElement);
+		int readyPriority = AsyncNodeRunner.getSchduleCycle(ElementStatusEnum.Ready, readyElement);
+		int finishPriority = AsyncNodeRunner.getSchduleCycle(ElementStatusEnum.NotifyFinish, runningElement);
+		String readyNode = readyPriority + ":" + readyElement.getId() + "," + CassandraWorkFlowDao.ReadyPrefix;
+		String finishNode = finishPriority + ":" + runningElement.getId() + "," + CassandraWorkFlowDao.NotifyFinishPrefix;
+		assertEquals(new HashSet<String>(Arrays.asList(readyNode, finishNode)), loadQueue());
+
+		asyncQueueDao.remove(ElementStatusEnum.Ready, readyElement);
+		assertEquals(new HashSet<String>(Arrays.asList(finishNode)), loadQueue());
+		asyncQueueDao.forceRemove(finishPriority, runningElement.getId().toString());
+		assertTrue(loadQueue().isEmpty());
+	}
+
+	@Test
+	public void testWorkFlowStatus() throws Exception
+	{
+		String workFlowID = UUID.randomUUID().toString();
+		String firstNode = UUID.randomUUID().toString();
+		String secondNode = UUID.randomUUID().toString();
+		workFlowDao.swapStatus(workFlowID, firstNode, null, ElementStatusEnum.Pending);
+		workFlowDao.swapStatus(workFlowID, secondNode, null, ElementStatusEnum.Pending);
+		workFlowDao.swapStatus(workFlowID, firstNode, ElementStatusEnum.Pending, ElementStatusEnum.Destryable);
+		assertEquals(Arrays.asList(secondNode), workFlowDao.getStatusList(workFlowID, ElementStatusEnum.Pending, 10));
+		assertEquals(Arrays.asList(firstNode), workFlowDao.getStatusList(workFlowID, ElementStatusEnum.Destryable, 10));
+		assertEquals(1, workFlowDao.getStatusList(workFlowID, ElementStatusEnum.Pending, 1).size());
+
+		workFlowDao.delete(workFlowID, firstNode);
+		assertTrue(workFlowDao.getStatusList(workFlowID, ElementStatusEnum.Destryable, 10).isEmpty());
+		workFlowDao.delete(workFlowID);
+		assertTrue(workFlowDao.getStatusList(workFlowID, ElementStatusEnum.Pending, 10).isEmpty());
+	}
+
+	//the writes of one transition: node update, queue swap and workflow index swap
+	@Test
+	public void testThroughput() throws Exception
+	{
+		int count = getThroughputCount();
+		UUID workFlowID = UUID.randomUUID();
+		List<PersistentElement> elementList = new ArrayList<PersistentElement>();
+		for(int i = 0; i < count; i++)
+		{
+			elementList.add(newElement(workFlowID));
+		}
+		List<String> statusList = Arrays.asList("status");
+		long beginTime = System.nanoTime();
+		for(PersistentElement element : elementList)
+		{
+			asyncNodeDao.add(element);
+			asyncQueueDao.add(ElementStatusEnum.Ready, element);
+			workFlowDao.swapStatus(workFlowID.toString(), element.getId().toString(), null, ElementStatusEnum.Ready);
+		}
+		for(PersistentElement element : elementList)
+		{
+			element.setStatus(ElementStatusEnum.Running);
+			asyncNodeDao.update(element, statusList, null);
+			asyncQueueDao.remove(ElementStatusEnum.Ready, element);
+			workFlowDao.swapStatus(workFlowID.toString(), element.getId().toString(), ElementStatusEnum.Ready, ElementStatusEnum.Running);
+		}
+		final ConcurrentMap<String, Boolean> visitedMap = new ConcurrentHashMap<String, Boolean>();
+		asyncNodeDao.visitAll(1000, new IAction<ElementBase>(){
+			public void invoke(ElementBase element) throws Exception {
+				visitedMap.put(element.getId().toString(), true);
+			}
+		});
+		long elapsed = System.nanoTime() - beginTime;
+		assertEquals(count, visitedMap.size());
+
+		double throughput = (count * 7) * 1000000000.0 / elapsed;
+		logger.info(getClass().getSimpleName() + " throughput: " + (long)throughput + " operations per second");
+		assertTrue("throughput " + (long)throughput + " is lower than " + getMinThroughput(), throughput >= getMinThroughput());
+	}
+}
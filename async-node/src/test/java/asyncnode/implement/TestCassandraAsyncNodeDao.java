@@ -0,0 +1,229 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.TimedOutException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.ElementBase;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.implement.cassandra.BinaryMapCodec;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.implement.cassandra.TestCassandraBatch.PersistentElement;
+
+public class TestCassandraAsyncNodeDao {
+	private PersistentElement element;
+
+	@Before
+	public void init() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		element = new PersistentElement();
+		element.setId(UUID.randomUUID());
+		element.appVariables.put("count", 3);
+		element.appVariables.put("name", "order");
+		for(int i = 0; i < 10; i++)
+		{
+			element.getInNodesMap().put(UUID.randomUUID().toString(), false);
+			element.getOutNodesMap().put(UUID.randomUUID().toString(), true);
+		}
+		element.getAttributeMap().put("owner", "clark");
+	}
+
+	private static List<ColumnOrSuperColumn> getColumnList(CassandraAsyncNodeDao dao, ElementBase element) throws Exception
+	{
+		List<ColumnOrSuperColumn> columnList = new ArrayList<ColumnOrSuperColumn>();
+		for(Mutation mutation : dao.new VariableColumnsConverter(null, null).getValue(element))
+		{
+			columnList.add(mutation.getColumn_or_supercolumn());
+		}
+		return columnList;
+	}
+
+	//the names of the written map columns and of the deleted ones, which start with "-"
+	private static Set<String> getChangedColumnSet(CassandraAsyncNodeDao dao, ElementBase element, String... fieldNames) throws Exception
+	{
+		Set<String> result = new HashSet<String>();
+		for(Mutation mutation : dao.new VariableColumnsConverter(Arrays.asList(fieldNames), null).getValue(element))
+		{
+			if(mutation.isSetDeletion())
+			{
+				result.add("-" + new String(mutation.getDeletion().getPredicate().getColumn_names().get(0).array()));
+			}
+			else
+			{
+				result.add(new String(mutation.getColumn_or_supercolumn().getColumn().getName()));
+			}
+		}
+		result.remove(ElementBase.ClassNameField);
+		return result;
+	}
+
+	private static PersistentElement read(CassandraAsyncNodeDao dao, List<ColumnOrSuperColumn> columnList) throws Exception
+	{
+		PersistentElement result = new PersistentElement();
+		dao.getColumnValuesAction().invoke(result, columnList);
+		return result;
+	}
+
+	private void assertSameMaps(ElementBase result)
+	{
+		assertEquals(element.appVariables, result.appVariables);
+		assertEquals(element.getInNodesMap(), result.getInNodesMap());
+		assertEquals(element.getOutNodesMap(), result.getOutNodesMap());
+		assertEquals(element.getAttributeMap(), result.getAttributeMap());
+	}
+
+	@Test
+	public void testMapColumn() throws Exception
+	{
+		CassandraAsyncNodeDao legacyDao = new CassandraAsyncNodeDao();
+		CassandraAsyncNodeDao binaryDao = new CassandraAsyncNodeDao();
+		binaryDao.setMapCodec(new BinaryMapCodec());
+
+		List<ColumnOrSuperColumn> legacyColumnList = getColumnList(legacyDao, element);
+		List<ColumnOrSuperColumn> binaryColumnList = getColumnList(binaryDao, element);
+		assertTrue(legacyColumnList.size() > 40);
+		assertEquals(5, binaryColumnList.size());
+		assertSameMaps(read(binaryDao, binaryColumnList));
+	}
+
+	//rows written before the codec was configured are still readable
+	@Test
+	public void testReadLegacyColumns() throws Exception
+	{
+		CassandraAsyncNodeDao binaryDao = new CassandraAsyncNodeDao();
+		binaryDao.setMapCodec(new BinaryMapCodec());
+		assertSameMaps(read(binaryDao, getColumnList(new CassandraAsyncNodeDao(), element)));
+	}
+
+	@Test
+	public void testOnlyChangedEntriesAreWritten() throws Exception
+	{
+		CassandraAsyncNodeDao legacyDao = new CassandraAsyncNodeDao();
+		getColumnList(legacyDao, element);
+		assertTrue(getChangedColumnSet(legacyDao, element, "appVariables", "inNodesMap").isEmpty());
+
+		element.appVariables.put("count", 4);
+		element.appVariables.remove("name");
+		Set<String> expectSet = new HashSet<String>(Arrays.asList(
+				ElementBase.AppVariableValuePrefix + "count", ElementBase.AppVariableClassPrefix + "count",
+				"-" + ElementBase.AppVariableValuePrefix + "name", "-" + ElementBase.AppVariableClassPrefix + "name"));
+		assertEquals(expectSet, getChangedColumnSet(legacyDao, element, "appVariables"));
+		assertTrue(getChangedColumnSet(legacyDao, element, "appVariables").isEmpty());
+	}
+
+	@Test
+	public void testMapColumnIsWrittenWhenChanged() throws Exception
+	{
+		CassandraAsyncNodeDao binaryDao = new CassandraAsyncNodeDao();
+		binaryDao.setMapCodec(new BinaryMapCodec());
+		PersistentElement result = read(binaryDao, getColumnList(binaryDao, element));
+		assertTrue(getChangedColumnSet(binaryDao, result, "appVariables", "attributeMap").isEmpty());
+
+		result.getAttributeMap().put("owner", "liu");
+		assertEquals(new HashSet<String>(Arrays.asList(ElementBase.AttributeMapField)),
+				getChangedColumnSet(binaryDao, result, "appVariables", "attributeMap"));
+	}
+
+	//the map column left when the codec is turned off is replaced by the entry columns with the next write
+	@Test
+	public void testMapColumnIsRewrittenWithoutCodec() throws Exception
+	{
+		CassandraAsyncNodeDao binaryDao = new CassandraAsyncNodeDao();
+		binaryDao.setMapCodec(new BinaryMapCodec());
+		CassandraAsyncNodeDao legacyDao = new CassandraAsyncNodeDao();
+		PersistentElement result = read(legacyDao, getColumnList(binaryDao, element));
+		assertSameMaps(result);
+
+		Set<String> expectSet = new HashSet<String>(Arrays.asList(
+				ElementBase.AppVariableValuePrefix + "count", ElementBase.AppVariableClassPrefix + "count",
+				ElementBase.AppVariableValuePrefix + "name", ElementBase.AppVariableClassPrefix + "name",
+				"-" + ElementBase.AppVariableMapField));
+		assertEquals(expectSet, getChangedColumnSet(legacyDao, result, "appVariables"));
+		assertTrue(getChangedColumnSet(legacyDao, result, "appVariables").isEmpty());
+	}
+
+	//the entries drained for a write which is not sent are written by the next update
+	@Test
+	public void testFailedWriteKeepsDirtyEntries() throws Exception
+	{
+		CassandraDescrib cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("FailedStore");
+		cassandraDescrib.setColumnFamily("AsyncNode");
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		CassandraConnectionPool.getPoolMap().put(CassandraConnectionPool.getPoolKey(cassandraDescrib),
+				new CassandraConnectionPool(cassandraDescrib, CassandraConnectionPool.getDefaultSetting()){
+					@Override
+					protected Connection createConnection() throws Exception
+					{
+						return new Connection(new TMemoryBuffer(16), new Cassandra.Client(new TBinaryProtocol(new TMemoryBuffer(16))){
+							@Override
+							public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap, ConsistencyLevel consistencyLevel)
+									throws TimedOutException
+							{
+								throw new TimedOutException();
+							}
+						});
+					}
+				});
+		try
+		{
+			CassandraAsyncNodeDao legacyDao = new CassandraAsyncNodeDao();
+			legacyDao.setCassandraDescrib(cassandraDescrib);
+			getColumnList(legacyDao, element);
+			element.appVariables.put("count", 4);
+			element.appVariables.remove("name");
+			try
+			{
+				legacyDao.update(element, Arrays.asList("appVariables"), null);
+				fail();
+			}
+			catch(TimedOutException ex)
+			{
+			}
+			Set<String> expectSet = new HashSet<String>(Arrays.asList(
+					ElementBase.AppVariableValuePrefix + "count", ElementBase.AppVariableClassPrefix + "count",
+					"-" + ElementBase.AppVariableValuePrefix + "name", "-" + ElementBase.AppVariableClassPrefix + "name"));
+			assertEquals(expectSet, getChangedColumnSet(legacyDao, element, "appVariables"));
+		}
+		finally
+		{
+			CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(cassandraDescrib));
+		}
+	}
+}
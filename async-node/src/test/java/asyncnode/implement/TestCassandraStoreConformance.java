@@ -0,0 +1,105 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asyncnode.App;
+import asyncnode.core.IAsyncNodeDao;
+import asyncnode.core.IAsyncQueueDao;
+import asyncnode.core.IWorkFlowDao;
+import asyncnode.core.StoreConformanceKit;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.implement.local.LocalLogStore;
+
+//the cassandra provider, the keyspace is served by the local store so no cassandra is needed
+public class TestCassandraStoreConformance extends StoreConformanceKit {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private LocalLogStore localLogStore;
+	private List<CassandraDescrib> describList = new ArrayList<CassandraDescrib>();
+
+	private CassandraDescrib getDescrib(String columnFamily) throws Exception
+	{
+		if(localLogStore == null)
+		{
+			localLogStore = new LocalLogStore(folder.getRoot());
+			localLogStore.setSyncOnCommit(false);
+		}
+		CassandraDescrib cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("ConformanceStore");
+		cassandraDescrib.setColumnFamily(columnFamily);
+		cassandraDescrib.setConsistencyLevel(ConsistencyLevel.ONE);
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		localLogStore.attach(cassandraDescrib);
+		describList.add(cassandraDescrib);
+		return cassandraDescrib;
+	}
+
+	@Override
+	protected IAsyncNodeDao createAsyncNodeDao() throws Exception
+	{
+		CassandraAsyncNodeDao cassandraAsyncNodeDao = new CassandraAsyncNodeDao();
+		cassandraAsyncNodeDao.setCassandraDescrib(getDescrib("AsyncNode"));
+		return cassandraAsyncNodeDao;
+	}
+
+	@Override
+	protected IAsyncQueueDao createAsyncQueueDao() throws Exception
+	{
+		CassandraAsyncQueueDao cassandraAsyncQueueDao = new CassandraAsyncQueueDao();
+		cassandraAsyncQueueDao.setCassandraDescrib(getDescrib("AsyncQueue"));
+		return cassandraAsyncQueueDao;
+	}
+
+	@Override
+	protected IWorkFlowDao createWorkFlowDao() throws Exception
+	{
+		CassandraWorkFlowDao cassandraWorkFlowDao = new CassandraWorkFlowDao();
+		cassandraWorkFlowDao.setCassandraDescrib(getDescrib("AsyncWorkFlow"));
+		return cassandraWorkFlowDao;
+	}
+
+	@Override
+	protected void closeStore() throws Exception
+	{
+		localLogStore.close();
+		for(CassandraDescrib cassandraDescrib : describList)
+		{
+			CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(cassandraDescrib));
+		}
+	}
+
+	//a module which binds no provider gets the cassandra daos it configured
+	@Test
+	public void testDefaultProvider() throws Exception
+	{
+		assertSame(App.getConfig().getInstance(CassandraAsyncNodeDao.class), App.getConfig().getInstance(IAsyncNodeDao.class));
+		assertSame(App.getConfig().getInstance(CassandraAsyncQueueDao.class), App.getConfig().getInstance(IAsyncQueueDao.class));
+		assertSame(App.getConfig().getInstance(CassandraWorkFlowDao.class), App.getConfig().getInstance(IWorkFlowDao.class));
+	}
+}
@@ -0,0 +1,248 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import asyncnode.ElementBuilder;
+import asyncnode.TestEventDrivenSchdule;
+
+public class TestConcurrentAsyncQueueDao {
+	private static final int[] Priorities = new int[] { 1, 3, 10, 60 };
+	private static final String[] StatusPrefixes = new String[] { "RD", "NF", "DA" };
+
+	public static class ConcurrentQueueAppModule extends TestEventDrivenSchdule.EventDrivenAppModule
+	{
+		@Override
+		protected MemoryAsyncQueueDao createMemoryAsyncQueueDao()
+		{
+			return new ConcurrentAsyncQueueDao();
+		}
+	}
+
+	@Test
+	public void testSameDueNodesAsModuloScan() throws Exception
+	{
+		MemoryAsyncQueueDao moduloQueue = new MemoryAsyncQueueDao();
+		ConcurrentAsyncQueueDao concurrentQueue = new ConcurrentAsyncQueueDao();
+		Random random = new Random(20130602);
+
+		for(int tick = 0; tick < 5000; tick++)
+		{
+			for(int i = 0; i < 3; i++)
+			{
+				Integer priority = Priorities[random.nextInt(Priorities.length)];
+				String nodeID = "node" + random.nextInt(100);
+				String statusPrefix = StatusPrefixes[random.nextInt(StatusPrefixes.length)];
+				int operation = random.nextInt(3);
+				if(operation == 0)
+				{
+					moduloQueue.addRunable(priority, nodeID, statusPrefix);
+					concurrentQueue.addRunable(priority, nodeID, statusPrefix);
+				}
+				else if(operation == 1)
+				{
+					moduloQueue.removeRunable(priority, nodeID, statusPrefix);
+					concurrentQueue.removeRunable(priority, nodeID, statusPrefix);
+				}
+				else
+				{
+					moduloQueue.removeRunable(priority, nodeID, null);
+					concurrentQueue.removeRunable(priority, nodeID, null);
+				}
+			}
+
+			Map<Integer, Set<String>> moduloMap = new HashMap<Integer, Set<String>>();
+			Map<Integer, Set<String>> concurrentMap = new HashMap<Integer, Set<String>>();
+			moduloQueue.addDueNodes(moduloMap);
+			concurrentQueue.addDueNodes(concurrentMap);
+			assertEquals("tick " + tick, removeEmpty(moduloMap), removeEmpty(concurrentMap));
+			assertEquals(moduloQueue.isRunableEmpty(), concurrentQueue.isRunableEmpty());
+		}
+	}
+
+	//every thread owns its nodes but they share the buckets, the queue must end with exactly the expected entries
+	@Test
+	public void testConcurrentAddRemove() throws Exception
+	{
+		final ConcurrentAsyncQueueDao queue = new ConcurrentAsyncQueueDao();
+		final int threadCount = 8;
+		final CountDownLatch latch = new CountDownLatch(threadCount);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final Set<String> expectedSet = Collections.synchronizedSet(new HashSet<String>());
+		for(int t = 0; t < threadCount; t++)
+		{
+			final int threadIndex = t;
+			new Thread(new Runnable() {
+				public void run() {
+					try
+					{
+						Random random = new Random(threadIndex);
+						Set<String> ownSet = new HashSet<String>();
+						for(int i = 0; i < 50000; i++)
+						{
+							String nodeID = "node" + threadIndex + "_" + random.nextInt(20);
+							String statusPrefix = StatusPrefixes[random.nextInt(StatusPrefixes.length)];
+							if(random.nextBoolean())
+							{
+								queue.addRunable(1, nodeID, statusPrefix);
+								ownSet.add(nodeID + "_" + statusPrefix);
+							}
+							else
+							{
+								queue.removeRunable(1, nodeID, statusPrefix);
+								ownSet.remove(nodeID + "_" + statusPrefix);
+							}
+						}
+						expectedSet.addAll(ownSet);
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		latch.await();
+		assertEquals(null, error.get());
+
+		Set<String> actualSet = new HashSet<String>();
+		Set<String[]> bucket = queue.getAsyncQueue().get(1);
+		if(bucket != null)
+		{
+			for(String[] statusNode : bucket)
+			{
+				actualSet.add(statusNode[0] + "_" + statusNode[1]);
+			}
+		}
+		assertEquals(expectedSet, actualSet);
+		assertEquals(expectedSet.size(), queue.nodeQueueSize.get());
+	}
+
+	//the threads add and remove the status of the same nodes, an add must not be lost with a set which is being dropped
+	@Test
+	public void testConcurrentAddRemoveSameNodes() throws Exception
+	{
+		final ConcurrentAsyncQueueDao queue = new ConcurrentAsyncQueueDao();
+		final int threadCount = 8;
+		final CountDownLatch latch = new CountDownLatch(threadCount);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		for(int t = 0; t < threadCount; t++)
+		{
+			final int threadIndex = t;
+			new Thread(new Runnable() {
+				public void run() {
+					try
+					{
+						Random random = new Random(threadIndex);
+						for(int i = 0; i < 200000; i++)
+						{
+							String nodeID = "node" + random.nextInt(2);
+							String statusPrefix = StatusPrefixes[random.nextInt(StatusPrefixes.length)];
+							int operation = random.nextInt(3);
+							if(operation == 0)
+							{
+								queue.addRunable(1, nodeID, statusPrefix);
+							}
+							else if(operation == 1)
+							{
+								queue.removeRunable(1, nodeID, statusPrefix);
+							}
+							else
+							{
+								queue.removeRunable(1, nodeID, null);
+							}
+						}
+					}
+					catch(Throwable ex)
+					{
+						error.compareAndSet(null, ex);
+					}
+					finally
+					{
+						latch.countDown();
+					}
+				}
+			}).start();
+		}
+		latch.await();
+		assertEquals(null, error.get());
+
+		int entryCount = 0;
+		for(Set<String> statusSet : queue.nodeQueue.get(1).values())
+		{
+			assertTrue(!statusSet.isEmpty());
+			entryCount += statusSet.size();
+		}
+		assertEquals(entryCount, queue.nodeQueueSize.get());
+		for(int i = 0; i < 2; i++)
+		{
+			queue.removeRunable(1, "node" + i, null);
+		}
+		assertEquals(0, queue.nodeQueueSize.get());
+		assertTrue(queue.isRunableEmpty());
+	}
+
+	@Test
+	public void testEventDrivenChain() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new ConcurrentQueueAppModule());
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		elementBuilder.add("first", new TestEventDrivenSchdule.MemoryElement())
+			.add("second", new TestEventDrivenSchdule.MemoryElement())
+			.addMap("second", "Prev", "first")
+			.build();
+
+		long costTime = TestEventDrivenSchdule.runUntilEmpty(30000);
+		assertTrue(costTime < 1000);
+	}
+
+	@Test
+	public void testQuietAddEndsWait() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new ConcurrentQueueAppModule());
+		TestEventDrivenSchdule.assertQuietAddEndsWait(new ConcurrentAsyncQueueDao());
+	}
+
+	private static Map<Integer, Set<String>> removeEmpty(Map<Integer, Set<String>> map)
+	{
+		Map<Integer, Set<String>> result = new HashMap<Integer, Set<String>>();
+		for(Map.Entry<Integer, Set<String>> entry : map.entrySet())
+		{
+			if(!entry.getValue().isEmpty())
+			{
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,272 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.App;
+import asyncnode.App.AppContext;
+import asyncnode.ElementBase;
+import asyncnode.ElementBuilder;
+import asyncnode.ElementStatusEnum;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.WorkflowGraph;
+
+public class TestExpressElementDao {
+	public static Logger logger = Logger.getLogger(TestExpressElementDao.class);
+	private static CountDownLatch finishLatch;
+	private static volatile Object finishValue;
+
+	public static class ExpressAppModule extends TestEventDrivenSchdule.EventDrivenAppModule
+	{
+		@Override
+		protected AppContext createAppContext()
+		{
+			AppContext appContext = super.createAppContext();
+			appContext.setExpressExecution(true);
+			return appContext;
+		}
+	}
+
+	public static class NumberElement extends ElementBase
+	{
+		protected int number;
+
+		public NumberElement(int number)
+		{
+			this.number = number;
+		}
+
+		@Override
+		public boolean isPersistent()
+		{
+			return false;
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			this.notifyFinish(number, null);
+		}
+	}
+
+	//sums its inputs
+	public static class SumElement extends NumberElement
+	{
+		protected List<String> attributeList = new ArrayList<String>();
+
+		public SumElement(String... attributeArray)
+		{
+			super(0);
+			for(String attribute : attributeArray)
+			{
+				attributeList.add(attribute);
+			}
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			int sum = 0;
+			for(String attribute : attributeList)
+			{
+				sum += (Integer)this.getAttribute(attribute);
+			}
+			this.notifyFinish(sum, null);
+		}
+	}
+
+	public static class FinishElement extends SumElement
+	{
+		public FinishElement(String... attributeArray)
+		{
+			super(attributeArray);
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			super.executeCore();
+			finishValue = this.getValue();
+			finishLatch.countDown();
+		}
+	}
+
+	//builds "dyn" and "hundred", the nodes without input get the value of this node as DynamicAttribute
+	public static class DynamicElement extends NumberElement
+	{
+		public DynamicElement(int number)
+		{
+			super(number);
+		}
+
+		@Override
+		public void executeCore() throws Exception {
+			ElementBuilder elementBuilder = new ElementBuilder(this.getWorkFlowID());
+			elementBuilder.add("dyn", new SumElement(ElementBase.DynamicAttributeName));
+			elementBuilder.add("hundred", new NumberElement(100));
+			elementBuilder.add("result", new FinishElement("Dyn", "Hundred"));
+			elementBuilder.addMap("result", "Dyn", "dyn");
+			elementBuilder.addMap("result", "Hundred", "hundred");
+			this.notifyFinish(number, null, elementBuilder);
+		}
+	}
+
+	private ExpressElementDao expressElementDao;
+
+	@Before
+	public void init() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new ExpressAppModule());
+		expressElementDao = App.getConfig().getInstance(ExpressElementDao.class);
+		finishLatch = new CountDownLatch(1);
+		finishValue = null;
+	}
+
+	private void awaitDestroyed() throws Exception
+	{
+		long beginTime = System.currentTimeMillis();
+		while(expressElementDao.getNodeCount() > 0)
+		{
+			assertTrue(System.currentTimeMillis() - beginTime < 10000);
+			Thread.sleep(1);
+		}
+	}
+
+	private void assertQueueNotUsed()
+	{
+		MemoryAsyncNodeDao memoryAsyncNodeDao = App.getConfig().getInstance(MemoryAsyncNodeDao.class);
+		assertTrue(memoryAsyncNodeDao.getElementBaseMap().isEmpty());
+		assertTrue(memoryAsyncNodeDao.getPendingElementBaseMap().isEmpty());
+		assertTrue(App.getConfig().getInstance(MemoryAsyncQueueDao.class).isActiveEmpty());
+	}
+
+	@Test
+	public void testDiamond() throws Exception
+	{
+		FinishElement finish = new FinishElement("Left", "Right");
+		new ElementBuilder(UUID.randomUUID())
+			.add("root", new NumberElement(1))
+			.add("left", new SumElement("Root"))
+			.add("right", new SumElement("Root"))
+			.add("finish", finish)
+			.addMap("left", "Root", "root")
+			.addMap("right", "Root", "root")
+			.addMap("finish", "Left", "left")
+			.addMap("finish", "Right", "right")
+			.build();
+		assertTrue(finishLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(2, finishValue);
+		awaitDestroyed();
+		assertEquals(ElementStatusEnum.Destryed, finish.getStatus());
+		assertQueueNotUsed();
+	}
+
+	@Test
+	public void testDynamicBuild() throws Exception
+	{
+		new ElementBuilder(UUID.randomUUID())
+			.add("root", new DynamicElement(5))
+			.build();
+		assertTrue(finishLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(105, finishValue);
+		awaitDestroyed();
+		assertQueueNotUsed();
+	}
+
+	@Test
+	public void testPersistentNodesUseQueue() throws Exception
+	{
+		List<ElementBase> elementList = new ArrayList<ElementBase>();
+		elementList.add(new NumberElement(1));
+		elementList.add(new NumberElement(2){
+			@Override
+			public boolean isPersistent()
+			{
+				return true;
+			}
+		});
+		assertFalse(expressElementDao.canRun(elementList));
+		App.getConfig().getInstance(AppContext.class).setExpressExecution(false);
+		elementList.remove(1);
+		assertFalse(expressElementDao.canRun(elementList));
+	}
+
+	@Test
+	public void testDynamicNodesMustBeExpress() throws Exception
+	{
+		NumberElement root = new NumberElement(1);
+		List<ElementBase> elementList = new ArrayList<ElementBase>();
+		elementList.add(root);
+		root.setStatus(ElementStatusEnum.Running);
+		expressElementDao.expressNodeMap.put(root.getId().toString(), new ExpressElementDao.ExpressNode(WorkflowGraph.compile(elementList), 0));
+		ElementBase dynamic = new NumberElement(2){
+			@Override
+			public boolean isPersistent()
+			{
+				return true;
+			}
+		};
+		dynamic.getInNodesMap().put(root.getId().toString(), true);
+		elementList.clear();
+		elementList.add(dynamic);
+		try
+		{
+			expressElementDao.canRun(elementList);
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().contains("non persistent"));
+		}
+	}
+
+	//each node is dispatched by the thread finishing its input, no schdule tick between the nodes
+	@Test
+	public void testChainLatency() throws Exception
+	{
+		int count = 500;
+		ElementBuilder elementBuilder = new ElementBuilder(UUID.randomUUID());
+		elementBuilder.add("node0", new NumberElement(1));
+		for(int i = 1; i < count - 1; i++)
+		{
+			elementBuilder.add("node" + i, new SumElement("Prev"));
+			elementBuilder.addMap("node" + i, "Prev", "node" + (i - 1));
+		}
+		elementBuilder.add("node" + (count - 1), new FinishElement("Prev"));
+		elementBuilder.addMap("node" + (count - 1), "Prev", "node" + (count - 2));
+		long beginTime = System.nanoTime();
+		elementBuilder.build();
+		assertTrue(finishLatch.await(30, TimeUnit.SECONDS));
+		long elapsed = System.nanoTime() - beginTime;
+		assertEquals(1, finishValue);
+		logger.info("express chain of " + count + " nodes: " + (elapsed / count / 1000) + " us per node");
+		//one tick of the schdule thread is a second without the event driven schdule
+		assertTrue(elapsed / count < TimeUnit.MILLISECONDS.toNanos(5));
+		awaitDestroyed();
+	}
+}
@@ -0,0 +1,85 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestTimingWheelAsyncQueueDao {
+	private static final int[] Priorities = new int[] { 1, 3, 10, 60, 700, 2000 };
+	private static final String[] StatusPrefixes = new String[] { "RD", "NF", "DA" };
+
+	//the wheel must return the same due nodes as the counter-modulo scan at every tick
+	@Test
+	public void testSameDueNodesAsModuloScan() throws Exception
+	{
+		MemoryAsyncQueueDao moduloQueue = new MemoryAsyncQueueDao();
+		TimingWheelAsyncQueueDao wheelQueue = new TimingWheelAsyncQueueDao(64);
+		Random random = new Random(20130601);
+
+		for(int tick = 0; tick < 20000; tick++)
+		{
+			int operationCount = random.nextInt(4);
+			for(int i = 0; i < operationCount; i++)
+			{
+				Integer priority = Priorities[random.nextInt(Priorities.length)];
+				String nodeID = "node" + random.nextInt(200);
+				String statusPrefix = StatusPrefixes[random.nextInt(StatusPrefixes.length)];
+				int operation = random.nextInt(3);
+				if(operation == 0)
+				{
+					moduloQueue.addRunable(priority, nodeID, statusPrefix);
+					wheelQueue.addRunable(priority, nodeID, statusPrefix);
+				}
+				else if(operation == 1)
+				{
+					moduloQueue.removeRunable(priority, nodeID, statusPrefix);
+					wheelQueue.removeRunable(priority, nodeID, statusPrefix);
+				}
+				else
+				{
+					moduloQueue.removeRunable(priority, nodeID, null);
+					wheelQueue.removeRunable(priority, nodeID, null);
+				}
+			}
+
+			Map<Integer, Set<String>> moduloMap = new HashMap<Integer, Set<String>>();
+			Map<Integer, Set<String>> wheelMap = new HashMap<Integer, Set<String>>();
+			moduloQueue.addDueNodes(moduloMap);
+			wheelQueue.addDueNodes(wheelMap);
+			assertEquals("tick " + tick, removeEmpty(moduloMap), removeEmpty(wheelMap));
+			assertEquals(moduloQueue.isRunableEmpty(), wheelQueue.isRunableEmpty());
+		}
+	}
+
+	private static Map<Integer, Set<String>> removeEmpty(Map<Integer, Set<String>> map)
+	{
+		Map<Integer, Set<String>> result = new HashMap<Integer, Set<String>>();
+		for(Map.Entry<Integer, Set<String>> entry : map.entrySet())
+		{
+			if(!entry.getValue().isEmpty())
+			{
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,90 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import asyncnode.ElementStatusEnum;
+
+public class TestBinaryFieldSerailzer {
+	private static BinaryFieldSerailzer getSerializer(Class fieldClass)
+	{
+		BinaryFieldSerailzer serializer = new BinaryFieldSerailzer();
+		serializer.setFieldClass(fieldClass);
+		return serializer;
+	}
+
+	private static Object roundTrip(Class fieldClass, Object value) throws Exception
+	{
+		BinaryFieldSerailzer serializer = getSerializer(fieldClass);
+		return serializer.getRuntimeValue(serializer.getStoreValue(value));
+	}
+
+	@Test
+	public void testFixedWidth() throws Exception
+	{
+		UUID id = UUID.randomUUID();
+		Date date = new Date();
+		assertEquals(16, getSerializer(UUID.class).getStoreValue(id).length);
+		assertEquals(8, getSerializer(Date.class).getStoreValue(date).length);
+		assertEquals(5, getSerializer(int.class).getStoreValue(-1).length);
+		assertEquals(9, getSerializer(Long.class).getStoreValue(Long.MIN_VALUE).length);
+
+		assertEquals(id, roundTrip(UUID.class, id));
+		assertEquals(date, roundTrip(Date.class, date));
+		assertEquals(-42, roundTrip(int.class, -42));
+		assertEquals(Long.MIN_VALUE, roundTrip(long.class, Long.MIN_VALUE));
+		assertEquals(ElementStatusEnum.Ready, roundTrip(ElementStatusEnum.class, ElementStatusEnum.Ready));
+	}
+
+	@Test
+	public void testReadLegacyText() throws Exception
+	{
+		UUID id = UUID.randomUUID();
+		Date date = new Date();
+		assertEquals(id, getSerializer(UUID.class).getRuntimeValue(FieldSerailzerBase.getStoreValue(UUID.class, id)));
+		assertEquals(date, getSerializer(Date.class).getRuntimeValue(FieldSerailzerBase.getStoreValue(Date.class, date)));
+		assertEquals(-42, getSerializer(Integer.class).getRuntimeValue(FieldSerailzerBase.getStoreValue(Integer.class, -42)));
+		assertEquals(0x1234L, getSerializer(long.class).getRuntimeValue(FieldSerailzerBase.getStoreValue(long.class, 0x1234L)));
+	}
+
+	//a Date column is read into the long field, and the long field writes the same bytes
+	@Test
+	public void testEpochMillis() throws Exception
+	{
+		Date date = new Date();
+		EpochMillisFieldSerailzer serializer = new EpochMillisFieldSerailzer();
+		serializer.setFieldClass(long.class);
+		assertArrayEquals(getSerializer(Date.class).getStoreValue(date), serializer.getStoreValue(date.getTime()));
+		assertEquals(date.getTime(), serializer.getRuntimeValue(getSerializer(Date.class).getStoreValue(date)));
+		assertEquals(date.getTime(), serializer.getRuntimeValue(FieldSerailzerBase.getStoreValue(Date.class, date)));
+		assertEquals(0, serializer.getStoreValue(0L).length);
+		assertEquals(0L, serializer.getRuntimeValue(FieldSerailzerBase.emptyByteArray));
+	}
+
+	//the row key is the node id string
+	@Test
+	public void testKeyKeepsText() throws Exception
+	{
+		UUID id = UUID.randomUUID();
+		assertArrayEquals(id.toString().getBytes(), getSerializer(UUID.class).getStoreKey(id));
+	}
+}
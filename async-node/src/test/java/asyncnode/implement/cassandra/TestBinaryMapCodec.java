@@ -0,0 +1,113 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.junit.Test;
+
+public class TestBinaryMapCodec {
+	public static class Point
+	{
+		private int x;
+		private int y;
+
+		public int getX() {
+			return x;
+		}
+		public void setX(int x) {
+			this.x = x;
+		}
+		public int getY() {
+			return y;
+		}
+		public void setY(int y) {
+			this.y = y;
+		}
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof Point && ((Point)obj).x == x && ((Point)obj).y == y;
+		}
+		@Override
+		public int hashCode() {
+			return x * 31 + y;
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		BinaryMapCodec.registerClass(1, Point.class);
+		Point point = new Point();
+		point.setX(-3);
+		point.setY(7);
+		Map<String, Object> sourceMap = new HashMap<String, Object>();
+		sourceMap.put("bool", true);
+		sourceMap.put("int", -42);
+		sourceMap.put("long", Long.MIN_VALUE);
+		sourceMap.put("double", 1.5);
+		sourceMap.put("string", "\u4e2d\u6587");
+		sourceMap.put("uuid", UUID.randomUUID());
+		sourceMap.put("date", new Date(1234567890L));
+		sourceMap.put("registered", point);
+		sourceMap.put("named", new ArrayList<String>(Arrays.asList("a", "b")));
+
+		BinaryMapCodec codec = new BinaryMapCodec();
+		ConcurrentMap<String, Object> destMap = new ConcurrentHashMap<String, Object>();
+		destMap.put("stale", 1);
+		codec.decode(codec.encode(sourceMap), destMap);
+		assertEquals(sourceMap, destMap);
+	}
+
+	@Test
+	public void testSmallerThanJsonColumns() throws Exception
+	{
+		Map<String, Boolean> nodeMap = new HashMap<String, Boolean>();
+		int jsonSize = 0;
+		for(int i = 0; i < 10; i++)
+		{
+			String id = UUID.randomUUID().toString();
+			nodeMap.put(id, i % 2 == 0);
+			jsonSize += (id.length() * 2 + SerializationService.writeValueAsString(true).length() + Boolean.class.getName().length());
+		}
+		assertTrue(new BinaryMapCodec().encode(nodeMap).length < jsonSize / 2);
+	}
+
+	@Test
+	public void testClassIDConflict() throws Exception
+	{
+		BinaryMapCodec.registerClass(2, Date.class);
+		try
+		{
+			BinaryMapCodec.registerClass(2, UUID.class);
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertTrue(ex.getMessage().contains("java.util.Date"));
+		}
+	}
+}
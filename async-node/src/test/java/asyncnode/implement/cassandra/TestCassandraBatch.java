@@ -0,0 +1,138 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.cassandra.thrift.Mutation;
+import org.junit.Test;
+
+import asyncnode.App;
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.implement.StoreableElementDao;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+public class TestCassandraBatch {
+	private static CassandraDescrib getDescrib(String columnFamily)
+	{
+		CassandraDescrib cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("AsyncNodeStore");
+		cassandraDescrib.setColumnFamily(columnFamily);
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		return cassandraDescrib;
+	}
+
+	@Test
+	public void testCoalesceSameColumn() throws Exception
+	{
+		CassandraDescrib queueDescrib = getDescrib("AsyncQueue");
+		CassandraBatch batch = CassandraBatch.begin();
+		try
+		{
+			Map<String, String> columnHash = new HashMap<String, String>();
+			columnHash.put("node_RD", null);
+			CassandraHelper.batchUpdate(queueDescrib, CassandraHelper.getMutationMap("1", CassandraHelper.getDynamicMutationList(columnHash)), null);
+			List<Mutation> deleteList = new ArrayList<Mutation>();
+			deleteList.add(CassandraHelper.getDeleteMutation("node_RD".getBytes()));
+			CassandraHelper.batchUpdate(queueDescrib, CassandraHelper.getMutationMap("1", deleteList), null);
+
+			Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = batch.keyspaceBatchMap.values().iterator().next().getMutationMap();
+			List<Mutation> mutationList = mutationMap.get(ByteBuffer.wrap("1".getBytes())).get("AsyncQueue");
+			assertEquals(1, mutationList.size());
+			assertTrue(mutationList.get(0).isSetDeletion());
+		}
+		finally
+		{
+			batch.end();
+		}
+		assertNull(CassandraBatch.getCurrent());
+	}
+
+	@Test
+	public void testRowDeletionCoversColumns() throws Exception
+	{
+		CassandraDescrib nodeDescrib = getDescrib("AsyncNode");
+		CassandraBatch batch = CassandraBatch.begin();
+		try
+		{
+			Map<String, String> columnHash = new HashMap<String, String>();
+			columnHash.put("value", "1");
+			CassandraHelper.batchUpdate(nodeDescrib, CassandraHelper.getMutationMap("node", CassandraHelper.getDynamicMutationList(columnHash)), null);
+			CassandraHelper.deleteRow(nodeDescrib, "node".getBytes());
+
+			List<Mutation> mutationList = batch.keyspaceBatchMap.values().iterator().next()
+					.getMutationMap().get(ByteBuffer.wrap("node".getBytes())).get("AsyncNode");
+			assertEquals(1, mutationList.size());
+			assertTrue(mutationList.get(0).isSetDeletion());
+			assertTrue(!mutationList.get(0).getDeletion().isSetPredicate());
+		}
+		finally
+		{
+			batch.end();
+		}
+	}
+
+	//one transition touches queue, node and workflow column families, they must go into one batch_mutate
+	@Test
+	public void testTransitionInOneBatch() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		PersistentElement element = new PersistentElement();
+		element.setId(UUID.randomUUID());
+		element.setWorkFlowID(UUID.randomUUID());
+		element.setStatus(ElementStatusEnum.Ready);
+
+		CassandraBatch batch = CassandraBatch.begin();
+		try
+		{
+			App.getConfig().getInstance(StoreableElementDao.class).setRunning(element);
+			assertEquals(1, batch.keyspaceBatchMap.size());
+			Set<String> columnFamilySet = new HashSet<String>();
+			for(Map<String, List<Mutation>> columnFamilyMap : batch.keyspaceBatchMap.values().iterator().next().getMutationMap().values())
+			{
+				columnFamilySet.addAll(columnFamilyMap.keySet());
+			}
+			assertTrue(columnFamilySet.contains("AsyncQueue"));
+			assertTrue(columnFamilySet.contains("AsyncNode"));
+			assertTrue(columnFamilySet.contains("AsyncWorkFlow"));
+		}
+		finally
+		{
+			//not committed, nothing is sent
+			batch.end();
+		}
+	}
+
+	public static class PersistentElement extends ElementBase
+	{
+		@Override
+		public void executeCore() throws Exception {
+		}
+	}
+}
@@ -0,0 +1,139 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeoutException;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Cassandra.Client;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Test;
+
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraConnectionPool.Connection;
+import asyncnode.implement.cassandra.CassandraConnectionPool.PoolSetting;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+public class TestCassandraConnectionPool {
+	//connection over memory buffer, so the pool can be tested without cassandra
+	public static class MemoryConnectionPool extends CassandraConnectionPool
+	{
+		public MemoryConnectionPool(PoolSetting setting)
+		{
+			super(new CassandraDescrib(), setting);
+		}
+
+		@Override
+		protected Connection createConnection() throws Exception
+		{
+			TMemoryBuffer transport = new TMemoryBuffer(16);
+			createdCount.incrementAndGet();
+			return new Connection(transport, new Cassandra.Client(new TBinaryProtocol(transport)));
+		}
+	}
+
+	private static PoolSetting getSetting(int maxActive)
+	{
+		PoolSetting setting = new PoolSetting();
+		setting.setMaxActive(maxActive);
+		setting.setMaxIdle(maxActive);
+		setting.setBorrowTimeout(100);
+		return setting;
+	}
+
+	@Test
+	public void testReuseConnection() throws Exception
+	{
+		CassandraConnectionPool pool = new MemoryConnectionPool(getSetting(2));
+		final Client[] clients = new Client[2];
+		pool.invoke(new IAction<Client>(){
+			public void invoke(Client client) throws Exception {
+				clients[0] = client;
+			}
+		});
+		pool.invoke(new IAction<Client>(){
+			public void invoke(Client client) throws Exception {
+				clients[1] = client;
+			}
+		});
+		assertSame(clients[0], clients[1]);
+		assertEquals(1, pool.getCreatedCount());
+		assertEquals(2, pool.getBorrowCount());
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testBrokenConnectionIsDestroyed() throws Exception
+	{
+		CassandraConnectionPool pool = new MemoryConnectionPool(getSetting(2));
+		try
+		{
+			pool.invoke(new IAction<Client>(){
+				public void invoke(Client client) throws Exception {
+					throw new Exception("broken");
+				}
+			});
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertEquals("broken", ex.getMessage());
+		}
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(1, pool.getDestroyedCount());
+		assertEquals(0, pool.getActiveCount());
+	}
+
+	@Test
+	public void testBorrowTimeout() throws Exception
+	{
+		CassandraConnectionPool pool = new MemoryConnectionPool(getSetting(1));
+		Connection connection = pool.borrow();
+		try
+		{
+			pool.borrow();
+			fail();
+		}
+		catch(TimeoutException ex)
+		{
+			assertEquals(1, pool.getBorrowTimeoutCount());
+		}
+		pool.giveBack(connection, false);
+		pool.giveBack(pool.borrow(), false);
+		assertEquals(1, pool.getCreatedCount());
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception
+	{
+		PoolSetting setting = getSetting(2);
+		setting.setIdleTimeout(0);
+		CassandraConnectionPool pool = new MemoryConnectionPool(setting);
+		Connection first = pool.borrow();
+		Connection second = pool.borrow();
+		pool.giveBack(first, false);
+		pool.giveBack(second, false);
+		assertEquals(0, pool.getIdleCount());
+		assertEquals(2, pool.getDestroyedCount());
+		assertTrue(pool.getAverageBorrowWaitMillis() >= 0);
+	}
+}
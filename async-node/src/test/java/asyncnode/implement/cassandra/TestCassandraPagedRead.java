@@ -0,0 +1,143 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Test;
+
+import asyncnode.core.IAction2;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+public class TestCassandraPagedRead {
+	//get_paged_slice over sorted rows, the keys are in ring order
+	public static class PagedSliceClient extends Cassandra.Client
+	{
+		protected TreeMap<String, TreeMap<String, String>> rowMap = new TreeMap<String, TreeMap<String, String>>();
+		protected int callCount = 0;
+		protected int maxReturnedColumns = 0;
+
+		public PagedSliceClient()
+		{
+			super(new TBinaryProtocol(new TMemoryBuffer(16)));
+		}
+
+		public void put(String key, String column)
+		{
+			TreeMap<String, String> columnMap = rowMap.get(key);
+			if(columnMap == null)
+			{
+				columnMap = new TreeMap<String, String>();
+				rowMap.put(key, columnMap);
+			}
+			columnMap.put(column, "");
+		}
+
+		@Override
+		public List<KeySlice> get_paged_slice(String columnFamily, KeyRange range, ByteBuffer startColumn, ConsistencyLevel consistencyLevel)
+		{
+			callCount++;
+			String startKey = CassandraHelper.getString(range.bufferForStart_key());
+			String firstColumn = CassandraHelper.getString(startColumn);
+			List<KeySlice> result = new ArrayList<KeySlice>();
+			int columnCount = 0;
+			for(Map.Entry<String, TreeMap<String, String>> rowEntry : rowMap.tailMap(startKey, true).entrySet())
+			{
+				List<ColumnOrSuperColumn> columnList = new ArrayList<ColumnOrSuperColumn>();
+				Map<String, String> columnMap = rowEntry.getKey().equals(startKey) && !firstColumn.isEmpty()
+						? rowEntry.getValue().tailMap(firstColumn, true) : rowEntry.getValue();
+				for(String columnName : columnMap.keySet())
+				{
+					if(columnCount >= range.getCount())
+					{
+						break;
+					}
+					Column column = new Column(ByteBuffer.wrap(columnName.getBytes()));
+					column.setValue(new byte[0]);
+					column.setTimestamp(0);
+					columnList.add(new ColumnOrSuperColumn().setColumn(column));
+					columnCount++;
+				}
+				result.add(new KeySlice(ByteBuffer.wrap(rowEntry.getKey().getBytes()), columnList));
+				if(columnCount >= range.getCount())
+				{
+					break;
+				}
+			}
+			maxReturnedColumns = Math.max(maxReturnedColumns, columnCount);
+			return result;
+		}
+	}
+
+	@Test
+	public void testWideRowIsMergedAcrossPages() throws Exception
+	{
+		PagedSliceClient client = new PagedSliceClient();
+		for(int row = 0; row < 20; row++)
+		{
+			int width = row == 7 ? 95 : row % 4 + 1;
+			for(int column = 0; column < width; column++)
+			{
+				client.put(String.format("row%02d", row), String.format("col%03d", column));
+			}
+		}
+
+		final Map<String, Integer> rowColumnCount = new TreeMap<String, Integer>();
+		CassandraHelper.visitPagedRows(new CassandraDescrib(), client, CassandraHelper.getAllKeyRange(), 10, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+			public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+				String row = CassandraHelper.getString(key);
+				assertTrue("row is visited twice:" + row, !rowColumnCount.containsKey(row));
+				rowColumnCount.put(row, columnList.size());
+			}
+		});
+
+		assertEquals(20, rowColumnCount.size());
+		for(int row = 0; row < 20; row++)
+		{
+			assertEquals(Integer.valueOf(row == 7 ? 95 : row % 4 + 1), rowColumnCount.get(String.format("row%02d", row)));
+		}
+		assertTrue(client.maxReturnedColumns <= 10);
+		assertTrue(client.callCount > 10);
+	}
+
+	@Test
+	public void testEmptyStore() throws Exception
+	{
+		PagedSliceClient client = new PagedSliceClient();
+		final List<String> rowList = new ArrayList<String>();
+		CassandraHelper.visitPagedRows(new CassandraDescrib(), client, CassandraHelper.getAllKeyRange(), 10, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+			public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+				rowList.add(CassandraHelper.getString(key));
+			}
+		});
+		assertEquals(0, rowList.size());
+		assertEquals(1, client.callCount);
+	}
+}
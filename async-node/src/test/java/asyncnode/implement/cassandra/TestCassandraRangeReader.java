@@ -0,0 +1,231 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.dht.LongToken;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.CfSplit;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.TokenRange;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.core.IAction;
+import asyncnode.core.IAction2;
+import asyncnode.core.IFunc;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.implement.cassandra.TestCassandraBatch.PersistentElement;
+
+public class TestCassandraRangeReader {
+	private static final long RingToken = 1000;
+	private static Murmur3Partitioner partitioner = new Murmur3Partitioner();
+
+	//rows ordered by murmur3 token, the ring has one node which owns the range (RingToken, RingToken]
+	public static class RingClient extends Cassandra.Client
+	{
+		private TreeMap<Long, String> tokenKeyMap;
+		private Map<String, Integer> rowWidthMap;
+
+		public RingClient(TreeMap<Long, String> tokenKeyMap, Map<String, Integer> rowWidthMap)
+		{
+			super(new TBinaryProtocol(new TMemoryBuffer(16)));
+			this.tokenKeyMap = tokenKeyMap;
+			this.rowWidthMap = rowWidthMap;
+		}
+
+		@Override
+		public String describe_partitioner()
+		{
+			return CassandraRangeReader.Murmur3Partitioner;
+		}
+
+		@Override
+		public List<TokenRange> describe_ring(String keyspace)
+		{
+			String token = String.valueOf(RingToken);
+			return Arrays.asList(new TokenRange(token, token, Arrays.asList("127.0.0.1")));
+		}
+
+		//(RingToken, 0] wraps around the ring, (0, RingToken] does not
+		@Override
+		public List<CfSplit> describe_splits_ex(String cfName, String startToken, String endToken, int keysPerSplit)
+		{
+			return Arrays.asList(new CfSplit(startToken, "0", 0), new CfSplit("0", endToken, 0));
+		}
+
+		@Override
+		public List<KeySlice> get_paged_slice(String columnFamily, KeyRange range, ByteBuffer startColumn, ConsistencyLevel consistencyLevel)
+		{
+			long endToken = Long.parseLong(range.getEnd_token());
+			Map<Long, String> tailMap = range.isSetStart_key()
+					? tokenKeyMap.tailMap(getToken(range.bufferForStart_key()), true)
+					: tokenKeyMap.tailMap(Long.parseLong(range.getStart_token()), false);
+			String startKey = range.isSetStart_key() ? CassandraHelper.getString(range.bufferForStart_key()) : null;
+			int firstColumn = startKey != null && startColumn.hasRemaining() ? Integer.parseInt(CassandraHelper.getString(startColumn)) : 0;
+			List<KeySlice> result = new ArrayList<KeySlice>();
+			int columnCount = 0;
+			for(Map.Entry<Long, String> entry : tailMap.entrySet())
+			{
+				if(entry.getKey() > endToken || columnCount >= range.getCount())
+				{
+					break;
+				}
+				String key = entry.getValue();
+				List<ColumnOrSuperColumn> columnList = new ArrayList<ColumnOrSuperColumn>();
+				int column = key.equals(startKey) ? firstColumn : 0;
+				for(; column < rowWidthMap.get(key) && columnCount < range.getCount(); column++)
+				{
+					Column cassandraColumn = new Column(ByteBuffer.wrap(String.format("%03d", column).getBytes()));
+					cassandraColumn.setValue(key.getBytes());
+					cassandraColumn.setTimestamp(0);
+					columnList.add(new ColumnOrSuperColumn().setColumn(cassandraColumn));
+					columnCount++;
+				}
+				result.add(new KeySlice(ByteBuffer.wrap(key.getBytes()), columnList));
+			}
+			return result;
+		}
+	}
+
+	private static long getToken(ByteBuffer key)
+	{
+		return ((LongToken)partitioner.getToken(key)).token;
+	}
+
+	private CassandraDescrib cassandraDescrib;
+	private TreeMap<Long, String> tokenKeyMap = new TreeMap<Long, String>();
+	private Map<String, Integer> rowWidthMap = new ConcurrentHashMap<String, Integer>();
+
+	@Before
+	public void initRing() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("RangeReaderStore");
+		cassandraDescrib.setColumnFamily("AsyncNode");
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		for(int row = 0; row < 2000; row++)
+		{
+			String key = String.format("row%04d", row);
+			tokenKeyMap.put(getToken(ByteBuffer.wrap(key.getBytes())), key);
+			rowWidthMap.put(key, row % 50 == 0 ? 25 : row % 3 + 1);
+		}
+		CassandraConnectionPool.getPoolMap().put(CassandraConnectionPool.getPoolKey(cassandraDescrib),
+				new CassandraConnectionPool(cassandraDescrib, CassandraConnectionPool.getDefaultSetting()){
+					@Override
+					protected Connection createConnection() throws Exception
+					{
+						createdCount.incrementAndGet();
+						return new Connection(new TMemoryBuffer(16), new RingClient(tokenKeyMap, rowWidthMap));
+					}
+				});
+	}
+
+	@After
+	public void removePool()
+	{
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(cassandraDescrib));
+	}
+
+	private static IFunc<List<ColumnOrSuperColumn>, PersistentElement> getInstanceFunc()
+	{
+		return new IFunc<List<ColumnOrSuperColumn>, PersistentElement>(){
+			public PersistentElement getValue(List<ColumnOrSuperColumn> columnList) throws Exception {
+				return new PersistentElement();
+			}
+		};
+	}
+
+	@Test
+	public void testWrappingRangeIsSplit()
+	{
+		BigInteger[] tokenBound = CassandraRangeReader.getTokenBound(CassandraRangeReader.Murmur3Partitioner);
+		List<String[]> rangeList = CassandraRangeReader.normalizeRange("1000", "0", tokenBound);
+		assertEquals(2, rangeList.size());
+		assertEquals(String.valueOf(Long.MAX_VALUE), rangeList.get(0)[1]);
+		assertEquals(String.valueOf(Long.MIN_VALUE), rangeList.get(1)[0]);
+		assertEquals(1, CassandraRangeReader.normalizeRange(String.valueOf(Long.MIN_VALUE), String.valueOf(Long.MIN_VALUE), tokenBound).size());
+	}
+
+	@Test
+	public void testEveryRowIsVisitedOnce() throws Exception
+	{
+		final ConcurrentMap<String, Integer> visitedMap = new ConcurrentHashMap<String, Integer>();
+		final AtomicInteger visitCount = new AtomicInteger(0);
+		CassandraRangeReader rangeReader = new CassandraRangeReader(cassandraDescrib);
+		rangeReader.setPageSize(7);
+		rangeReader.setFetchThreadCount(3);
+		boolean splitted = rangeReader.visitAll(getInstanceFunc(), new IAction2<PersistentElement, List<ColumnOrSuperColumn>>(){
+			public void invoke(PersistentElement element, List<ColumnOrSuperColumn> columnList) throws Exception {
+				String key = new String(columnList.get(0).getColumn().getValue());
+				assertTrue("row is visited twice:" + key, visitedMap.putIfAbsent(key, columnList.size()) == null);
+			}
+		}, new IAction<PersistentElement>(){
+			public void invoke(PersistentElement element) throws Exception {
+				visitCount.incrementAndGet();
+			}
+		});
+		assertTrue(splitted);
+		assertEquals(3, rangeReader.getSplitList().size());
+		assertEquals(rowWidthMap.size(), visitCount.get());
+		assertEquals(rowWidthMap, visitedMap);
+		assertEquals(rowWidthMap.size(), rangeReader.getRowCount());
+	}
+
+	@Test
+	public void testVisitExceptionIsThrown() throws Exception
+	{
+		CassandraRangeReader rangeReader = new CassandraRangeReader(cassandraDescrib);
+		rangeReader.setFetchThreadCount(2);
+		try
+		{
+			rangeReader.visitAll(getInstanceFunc(), null, new IAction<PersistentElement>(){
+				public void invoke(PersistentElement element) throws Exception {
+					throw new Exception("visit failed");
+				}
+			});
+			fail();
+		}
+		catch(Exception ex)
+		{
+			assertEquals("visit failed", ex.getMessage());
+		}
+	}
+}
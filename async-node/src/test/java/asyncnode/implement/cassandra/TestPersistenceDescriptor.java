@@ -0,0 +1,68 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.cassandra.thrift.Mutation;
+import org.junit.Test;
+
+import asyncnode.ElementBase;
+import asyncnode.ElementStatusEnum;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.implement.cassandra.PersistenceDescriptor.ColumnDescriptor;
+import asyncnode.implement.cassandra.TestCassandraBatch.PersistentElement;
+
+public class TestPersistenceDescriptor {
+	@Test
+	public void testDescriptorIsCached() throws Exception
+	{
+		PersistenceDescriptor descriptor = PersistenceDescriptor.getDescriptor(PersistentElement.class);
+		assertSame(descriptor, PersistenceDescriptor.getDescriptor(PersistentElement.class));
+		assertEquals("id", descriptor.getKeyColumn().getField().getName());
+		assertEquals(5, descriptor.getColumnList().size());
+		//appVariables is not a column, it is skipped
+		assertEquals(1, descriptor.getColumnList(Arrays.asList("status", "appVariables")).size());
+		assertNull(descriptor.getColumn(ByteBuffer.wrap("unknown".getBytes())));
+	}
+
+	@Test
+	public void testPutColumnValues() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		PersistentElement element = new PersistentElement();
+		element.setId(UUID.randomUUID());
+		element.setStatus(ElementStatusEnum.Running);
+
+		Map<ByteBuffer, List<Mutation>> mutationMap = CassandraHelper.getPutColumnValuesMutation(element, Arrays.asList("status"));
+		List<Mutation> mutationList = mutationMap.get(ByteBuffer.wrap(element.getId().toString().getBytes()));
+		assertEquals(1, mutationList.size());
+
+		PersistenceDescriptor descriptor = PersistenceDescriptor.getDescriptor(PersistentElement.class);
+		ColumnDescriptor column = descriptor.getColumn(mutationList.get(0).getColumn_or_supercolumn().getColumn().bufferForName());
+		assertEquals(ElementBase.StatusField, column.getColumnName());
+		PersistentElement result = new PersistentElement();
+		column.setValue(result, column.getSerializer().getRuntimeValue(mutationList.get(0).getColumn_or_supercolumn().getColumn().getValue()));
+		assertEquals(ElementStatusEnum.Running, result.getStatus());
+	}
+}
@@ -0,0 +1,80 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+public class TestSerializationService {
+	@Test
+	public void testSameOutputAsNewMapper() throws Exception
+	{
+		List<String> value = Arrays.asList("a", "b");
+		assertEquals(new ObjectMapper().writeValueAsString(value), SerializationService.writeValueAsString(value));
+		assertArrayEquals(new ObjectMapper().writeValueAsBytes(12L), SerializationService.writeValueAsBytes(12L));
+		assertEquals("null", SerializationService.writeValueAsString(null));
+		assertNull(SerializationService.readValue("null", String.class));
+		assertSame(SerializationService.getReader(String.class), SerializationService.getReader(String.class));
+		assertSame(String.class, SerializationService.getClass("java.lang.String"));
+	}
+
+	@Test
+	public void testConcurrentRoundTrip() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<Integer>> futureList = new ArrayList<Future<Integer>>();
+			for(int thread = 0; thread < 8; thread++)
+			{
+				final int seed = thread;
+				futureList.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						int count = 0;
+						for(int i = 0; i < 1000; i++)
+						{
+							Integer value = seed * 1000 + i;
+							byte[] bytes = SerializationService.writeValueAsBytes(value);
+							assertEquals(value, SerializationService.readValue(bytes, Integer.class));
+							count++;
+						}
+						return count;
+					}
+				}));
+			}
+			for(Future<Integer> future : futureList)
+			{
+				assertEquals(Integer.valueOf(1000), future.get());
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.TimedOutException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.core.IAction;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+
+public class TestWriteBehindPipeline {
+	//records the batch_mutate calls, waits for the latch before returning
+	public static class RecordClient extends Cassandra.Client
+	{
+		protected List<Map<ByteBuffer, Map<String, List<Mutation>>>> batchList = new CopyOnWriteArrayList<Map<ByteBuffer, Map<String, List<Mutation>>>>();
+		protected volatile CountDownLatch latch = new CountDownLatch(0);
+		protected volatile boolean timedOut = false;
+
+		public RecordClient()
+		{
+			super(new TBinaryProtocol(new TMemoryBuffer(16)));
+		}
+
+		@Override
+		public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap, ConsistencyLevel consistencyLevel)
+				throws TimedOutException
+		{
+			try
+			{
+				latch.await();
+			}
+			catch(InterruptedException ex)
+			{
+				throw new RuntimeException(ex);
+			}
+			if(timedOut)
+			{
+				throw new TimedOutException();
+			}
+			batchList.add(mutationMap);
+		}
+	}
+
+	private CassandraDescrib cassandraDescrib;
+	private RecordClient client = new RecordClient();
+	private WriteBehindPipeline pipeline = new WriteBehindPipeline();
+
+	@Before
+	public void initPool() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("WriteBehindStore");
+		cassandraDescrib.setColumnFamily("AsyncNode");
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		CassandraConnectionPool.getPoolMap().put(CassandraConnectionPool.getPoolKey(cassandraDescrib),
+				new CassandraConnectionPool(cassandraDescrib, CassandraConnectionPool.getDefaultSetting()){
+					@Override
+					protected Connection createConnection() throws Exception
+					{
+						return new Connection(new TMemoryBuffer(16), client);
+					}
+				});
+	}
+
+	@After
+	public void close() throws Exception
+	{
+		client.latch = new CountDownLatch(0);
+		pipeline.close();
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(cassandraDescrib));
+	}
+
+	private void commit(String row, String... columnNames) throws Exception
+	{
+		CassandraBatch batch = CassandraBatch.begin(pipeline);
+		try
+		{
+			Map<String, String> columnHash = new HashMap<String, String>();
+			for(String columnName : columnNames)
+			{
+				columnHash.put(columnName, row);
+			}
+			CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getMutationMap(row, CassandraHelper.getDynamicMutationList(columnHash)), ConsistencyLevel.ONE);
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
+	}
+
+	@Test
+	public void testCoalesceCommits() throws Exception
+	{
+		pipeline.setFlushInterval(10000);
+		commit("1", "status", "value");
+		commit("1", "status");
+		commit("2", "status");
+		assertTrue(client.batchList.isEmpty());
+		assertEquals(4, pipeline.getBufferedCount());
+
+		pipeline.flush();
+		assertEquals(1, client.batchList.size());
+		assertEquals(2, client.batchList.get(0).get(ByteBuffer.wrap("1".getBytes())).get("AsyncNode").size());
+		assertEquals(1, client.batchList.get(0).get(ByteBuffer.wrap("2".getBytes())).get("AsyncNode").size());
+		assertEquals(0, pipeline.getBufferedCount());
+	}
+
+	@Test
+	public void testFlushByCount() throws Exception
+	{
+		pipeline.setFlushInterval(10000);
+		pipeline.setMaxBatchMutationCount(2);
+		pipeline.setAckMode(WriteBehindPipeline.AckMode.Flush);
+		commit("1", "status", "value");
+		assertEquals(1, client.batchList.size());
+	}
+
+	@Test
+	public void testAckOnFlushThrows() throws Exception
+	{
+		pipeline.setAckMode(WriteBehindPipeline.AckMode.Flush);
+		client.timedOut = true;
+		try
+		{
+			commit("1", "status");
+			fail();
+		}
+		catch(TimedOutException ex)
+		{
+		}
+		assertEquals(0, pipeline.getBufferedCount());
+	}
+
+	//the failure actions of the batches in a failed flush are called, even though the commit has returned
+	@Test
+	public void testFailureActionOnFlush() throws Exception
+	{
+		client.timedOut = true;
+		final CountDownLatch failureLatch = new CountDownLatch(1);
+		CassandraBatch batch = CassandraBatch.begin(pipeline);
+		try
+		{
+			batch.addFailureAction(new IAction<Exception>(){
+				public void invoke(Exception failure) throws Exception {
+					if(failure instanceof TimedOutException)
+					{
+						failureLatch.countDown();
+					}
+				}
+			});
+			Map<String, String> columnHash = new HashMap<String, String>();
+			columnHash.put("status", "1");
+			CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getMutationMap("1", CassandraHelper.getDynamicMutationList(columnHash)), ConsistencyLevel.ONE);
+			batch.commit();
+		}
+		finally
+		{
+			batch.end();
+		}
+		assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+	}
+
+	//the commit waits while the store is slow and the buffer is full
+	@Test
+	public void testBackpressure() throws Exception
+	{
+		pipeline.setFlushInterval(0);
+		pipeline.setBufferCapacity(2);
+		client.latch = new CountDownLatch(1);
+		commit("1", "status", "value");
+		Thread committer = new Thread(new Runnable(){
+			public void run() {
+				try
+				{
+					commit("2", "status");
+				}
+				catch(Exception ex)
+				{
+					throw new RuntimeException(ex);
+				}
+			}
+		});
+		committer.start();
+		committer.join(200);
+		assertTrue(committer.isAlive());
+
+		client.latch.countDown();
+		committer.join(5000);
+		assertFalse(committer.isAlive());
+		pipeline.flush();
+		assertEquals(2, client.batchList.size());
+	}
+}
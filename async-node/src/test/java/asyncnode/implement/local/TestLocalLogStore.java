@@ -0,0 +1,349 @@
+//   Copyright 2013 Clark Liu
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//       http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+
+
+package asyncnode.implement.local;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import asyncnode.App;
+import asyncnode.ElementBase;
+import asyncnode.TestEventDrivenSchdule;
+import asyncnode.core.IAction;
+import asyncnode.core.IAction2;
+import asyncnode.implement.CassandraAsyncNodeDao;
+import asyncnode.implement.CassandraWorkFlowDao;
+import asyncnode.implement.MemoryAsyncNodeDao;
+import asyncnode.implement.StoreableElementDao;
+import asyncnode.implement.cassandra.CassandraConnectionPool;
+import asyncnode.implement.cassandra.CassandraHelper;
+import asyncnode.implement.cassandra.CassandraHelper.CassandraDescrib;
+import asyncnode.implement.cassandra.TestCassandraBatch.PersistentElement;
+
+public class TestLocalLogStore {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CassandraDescrib cassandraDescrib;
+	private LocalLogStore store;
+
+	@Before
+	public void init() throws Exception
+	{
+		TestEventDrivenSchdule.initMemoryConfig(new TestEventDrivenSchdule.EventDrivenAppModule());
+		cassandraDescrib = new CassandraDescrib();
+		cassandraDescrib.setKeySpace("LocalStore");
+		cassandraDescrib.setColumnFamily("AsyncNode");
+		cassandraDescrib.setConsistencyLevel(ConsistencyLevel.ONE);
+		cassandraDescrib.setIp("127.0.0.1");
+		cassandraDescrib.setPort(9160);
+		store = openStore();
+	}
+
+	@After
+	public void close() throws Exception
+	{
+		store.close();
+		CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(cassandraDescrib));
+	}
+
+	//a new store on the same directory, like the process is started again
+	private LocalLogStore openStore() throws Exception
+	{
+		LocalLogStore localLogStore = new LocalLogStore(folder.getRoot());
+		localLogStore.setSegmentSize(64 * 1024);
+		localLogStore.attach(cassandraDescrib);
+		localLogStore.open();
+		return localLogStore;
+	}
+
+	private LocalLogStore reopen() throws Exception
+	{
+		store.close();
+		store = openStore();
+		return store;
+	}
+
+	private void put(String key, String column, String value) throws Exception
+	{
+		Map<String, String> columnHash = new HashMap<String, String>();
+		columnHash.put(column, value);
+		CassandraHelper.batchUpdate(cassandraDescrib, CassandraHelper.getMutationMap(key, CassandraHelper.getDynamicMutationList(columnHash)), ConsistencyLevel.ONE);
+	}
+
+	private Map<String, Map<String, String>> readAll() throws Exception
+	{
+		final Map<String, Map<String, String>> result = new HashMap<String, Map<String, String>>();
+		CassandraHelper.visitPagedColumns(cassandraDescrib, 3, new IAction2<ByteBuffer, List<ColumnOrSuperColumn>>(){
+			public void invoke(ByteBuffer key, List<ColumnOrSuperColumn> columnList) throws Exception {
+				String row = CassandraHelper.getString(key);
+				if(!result.containsKey(row))
+				{
+					result.put(row, new HashMap<String, String>());
+				}
+				for(ColumnOrSuperColumn column : columnList)
+				{
+					result.get(row).put(new String(column.getColumn().getName()), new String(column.getColumn().getValue()));
+				}
+			}
+		});
+		return result;
+	}
+
+	@Test
+	public void testRecoverAfterReopen() throws Exception
+	{
+		for(int i = 0; i < 10; i++)
+		{
+			put("row" + i, "status_" + i, "v" + i);
+			put("row" + i, "value", "v" + i);
+		}
+		put("row1", "value", "changed");
+		CassandraHelper.deleteRow(cassandraDescrib, "row2".getBytes());
+		Map<String, Map<String, String>> expectMap = readAll();
+		assertEquals(9, expectMap.size());
+		assertEquals("changed", expectMap.get("row1").get("value"));
+		assertEquals(1, CassandraHelper.getPrefixColumns(cassandraDescrib, "row3", "status", 10).size());
+
+		reopen();
+		assertEquals(expectMap, readAll());
+	}
+
+	@Test
+	public void testElementRoundTrip() throws Exception
+	{
+		CassandraAsyncNodeDao dao = new CassandraAsyncNodeDao();
+		dao.setCassandraDescrib(cassandraDescrib);
+		PersistentElement element = new PersistentElement();
+		element.setId(UUID.randomUUID());
+		element.setWorkFlowID(UUID.randomUUID());
+		element.appVariables.put("count", 3);
+		element.getOutNodesMap().put(UUID.randomUUID().toString(), false);
+		dao.add(element);
+
+		reopen();
+		ElementBase result = dao.get(element.getId().toString());
+		assertEquals(element.getWorkFlowID(), result.getWorkFlowID());
+		assertEquals(element.appVariables, result.appVariables);
+		assertEquals(element.getOutNodesMap(), result.getOutNodesMap());
+
+		final List<ElementBase> visitList = new ArrayList<ElementBase>();
+		dao.visitAllParallel(2, 2, new IAction<ElementBase>(){
+			public void invoke(ElementBase elementBase) throws Exception {
+				visitList.add(elementBase);
+			}
+		});
+		assertEquals(1, visitList.size());
+		dao.delete(element.getId().toString());
+		assertNull(dao.get(element.getId().toString()));
+	}
+
+	@Test
+	public void testCompaction() throws Exception
+	{
+		for(int i = 0; i < 2000; i++)
+		{
+			put("row" + (i % 50), "column" + (i % 7), "value" + i);
+		}
+		assertTrue(store.segmentLog.getSegmentIdList().size() > 1);
+		store.compact();
+		put("row0", "column0", "after");
+		Map<String, Map<String, String>> expectMap = readAll();
+
+		reopen();
+		assertEquals(1, store.getSnapshotIdList().size());
+		assertEquals(2, store.segmentLog.getSegmentIdList().size());
+		assertEquals(expectMap, readAll());
+	}
+
+	private void mutate(String key, Mutation mutation) throws Exception
+	{
+		Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+		mutationMap.put(ByteBuffer.wrap(key.getBytes()), Collections.singletonMap("AsyncNode", Arrays.asList(mutation)));
+		store.batchMutate("LocalStore", mutationMap);
+	}
+
+	private void putColumn(String key, String column, String value, long timestamp) throws Exception
+	{
+		Column cassandraColumn = new Column(ByteBuffer.wrap(column.getBytes()));
+		cassandraColumn.setValue(value.getBytes());
+		cassandraColumn.setTimestamp(timestamp);
+		mutate(key, new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(cassandraColumn)));
+	}
+
+	private void deleteColumn(String key, String column, long timestamp) throws Exception
+	{
+		Deletion deletion = new Deletion();
+		deletion.setTimestamp(timestamp);
+		if(column != null)
+		{
+			deletion.setPredicate(new SlicePredicate().setColumn_names(Arrays.asList(ByteBuffer.wrap(column.getBytes()))));
+		}
+		mutate(key, new Mutation().setDeletion(deletion));
+	}
+
+	//the column written by another thread before the deletion reaches the store after it
+	@Test
+	public void testTombstoneHidesOlderColumn() throws Exception
+	{
+		long timestamp = System.currentTimeMillis();
+		deleteColumn("row1", "value", timestamp);
+		putColumn("row1", "value", "old", timestamp - 1);
+		deleteColumn("row2", null, timestamp);
+		putColumn("row2", "value", "old", timestamp);
+		assertTrue(readAll().isEmpty());
+
+		store.compact();
+		reopen();
+		putColumn("row1", "value", "old", timestamp - 1);
+		putColumn("row2", "other", "old", timestamp - 1);
+		assertTrue(readAll().isEmpty());
+		putColumn("row1", "value", "new", timestamp + 1);
+		assertEquals("new", readAll().get("row1").get("value"));
+
+		store.setTombstoneGrace(-1000);
+		store.compact();
+		reopen();
+		putColumn("row2", "value", "old", timestamp);
+		assertEquals(2, readAll().size());
+	}
+
+	//the batch which is not completely written when the process stops is not replayed
+	@Test
+	public void testBrokenTailIsIgnored() throws Exception
+	{
+		put("row1", "value", "1");
+		put("row2", "value", "2");
+		long segmentId = store.segmentLog.getSegmentId();
+		store.close();
+
+		//the last byte of the payload of the second record
+		RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), SegmentLog.getSegmentName(segmentId)), "rw");
+		try
+		{
+			int secondRecord = SegmentLog.HeaderLength + file.readInt();
+			file.seek(secondRecord);
+			long lastByte = secondRecord + SegmentLog.HeaderLength + file.readInt() - 1;
+			file.seek(lastByte);
+			int value = file.read();
+			file.seek(lastByte);
+			file.write(value ^ 0xff);
+		}
+		finally
+		{
+			file.close();
+		}
+		store = openStore();
+		Map<String, Map<String, String>> result = readAll();
+		assertEquals(1, result.size());
+		assertEquals("1", result.get("row1").get("value"));
+	}
+
+	//the batches synced after a restart which found a broken record are replayed by the next restart
+	@Test
+	public void testBatchesAfterBrokenTailSurviveRestart() throws Exception
+	{
+		put("row1", "value", "1");
+		put("row2", "value", "2");
+		long segmentId = store.segmentLog.getSegmentId();
+		store.close();
+
+		//the checksum of the second record
+		RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), SegmentLog.getSegmentName(segmentId)), "rw");
+		try
+		{
+			int secondRecord = SegmentLog.HeaderLength + file.readInt();
+			file.seek(secondRecord + 4);
+			int checksum = file.readInt();
+			file.seek(secondRecord + 4);
+			file.writeInt(~checksum);
+		}
+		finally
+		{
+			file.close();
+		}
+		store = openStore();
+		put("row3", "value", "3");
+		put("row4", "value", "4");
+
+		reopen();
+		Map<String, Map<String, String>> result = readAll();
+		assertEquals(3, result.size());
+		assertEquals("1", result.get("row1").get("value"));
+		assertNull(result.get("row2"));
+		assertEquals("3", result.get("row3").get("value"));
+		assertEquals("4", result.get("row4").get("value"));
+	}
+
+	private static LocalLogStore initLocalStoreConfig(File directory) throws Exception
+	{
+		App.InitConfigSetting initConfigSetting = new App.InitConfigSetting();
+		initConfigSetting.setInitPool(true);
+		initConfigSetting.setInitStorage(true);
+		App.initConfig(new App.LocalStoreAppModule(directory.getPath()), initConfigSetting);
+		return App.getConfig().getInstance(App.AppContext.class).getLocalLogStore();
+	}
+
+	//the nodes added before the restart are restored by initAllStorage
+	@Test
+	public void testRestoreByLocalStoreModule() throws Exception
+	{
+		File directory = folder.newFolder("app");
+		LocalLogStore localLogStore = initLocalStoreConfig(directory);
+		//the node, queue and workflow column families share the pool of the keyspace
+		CassandraDescrib storeDescrib = App.getConfig().getInstance(CassandraWorkFlowDao.class).getDescrib();
+		try
+		{
+			PersistentElement element = new PersistentElement();
+			element.setId(UUID.randomUUID());
+			element.setWorkFlowID(UUID.randomUUID());
+			App.getConfig().getInstance(StoreableElementDao.class).addElement(element);
+			localLogStore.close();
+
+			localLogStore = initLocalStoreConfig(directory);
+			assertNotNull(App.getConfig().getInstance(MemoryAsyncNodeDao.class).get(element.getId().toString()));
+		}
+		finally
+		{
+			localLogStore.close();
+			CassandraConnectionPool.getPoolMap().remove(CassandraConnectionPool.getPoolKey(storeDescrib));
+		}
+	}
+}